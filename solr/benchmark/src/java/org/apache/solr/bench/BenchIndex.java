@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.lucene.util.IOUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.QueryResponseWriter;
+import org.apache.solr.response.QueryResponseWriterUtil;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+
+/**
+ * A synthetic index in a temporary Solr home, generated from a seed so that every run of a benchmark
+ * searches the same documents.  Each document has
+ * <ul>
+ *   <li><code>cat_s</code>: one of <code>cardinality</code> values, skewed so that a few values are frequent</li>
+ *   <li><code>tag_ss</code>: up to 4 of <code>multiValuedCardinality</code> values</li>
+ *   <li><code>num_i</code> and <code>price_d</code>: uniformly distributed numbers</li>
+ * </ul>
+ * The documents are split evenly across <code>numSegments</code> segments, which are never merged.
+ */
+public class BenchIndex implements Closeable {
+
+  public static final String CORE_NAME = "bench";
+
+  private final Path solrHome;
+  private final CoreContainer coreContainer;
+  private final SolrCore core;
+
+  private BenchIndex(Path solrHome, CoreContainer coreContainer) {
+    this.solrHome = solrHome;
+    this.coreContainer = coreContainer;
+    this.core = coreContainer.getCore(CORE_NAME);
+  }
+
+  /**
+   * Creates a new index.
+   *
+   * @param numDocs the number of documents
+   * @param numSegments the number of segments, at most <code>numDocs</code>
+   * @param cardinality the number of distinct values of <code>cat_s</code>
+   * @param multiValuedCardinality the number of distinct values of <code>tag_ss</code>
+   * @param seed the seed of the generated values
+   */
+  public static BenchIndex create(int numDocs, int numSegments, int cardinality, int multiValuedCardinality,
+                                  long seed) throws IOException {
+    if (numSegments < 1 || numSegments > numDocs) {
+      throw new IllegalArgumentException("numSegments must be between 1 and numDocs: " + numSegments);
+    }
+    Path solrHome = Files.createTempDirectory("solr-bench");
+    Path conf = Files.createDirectories(solrHome.resolve(CORE_NAME).resolve("conf"));
+    copyResource("conf/solrconfig.xml", conf.resolve("solrconfig.xml"));
+    copyResource("conf/schema.xml", conf.resolve("schema.xml"));
+    Files.write(solrHome.resolve(CORE_NAME).resolve("core.properties"),
+        ("name=" + CORE_NAME + "\n").getBytes(StandardCharsets.UTF_8));
+    Files.write(solrHome.resolve("solr.xml"), "<solr/>".getBytes(StandardCharsets.UTF_8));
+
+    BenchIndex index = new BenchIndex(solrHome, CoreContainer.createAndLoad(solrHome));
+    boolean success = false;
+    try {
+      index.addDocs(numDocs, numSegments, cardinality, multiValuedCardinality, new Random(seed));
+      success = true;
+    } finally {
+      if (!success) {
+        index.close();
+      }
+    }
+    return index;
+  }
+
+  private static void copyResource(String name, Path target) throws IOException {
+    try (InputStream in = BenchIndex.class.getResourceAsStream(name)) {
+      Files.copy(in, target);
+    }
+  }
+
+  private void addDocs(int numDocs, int numSegments, int cardinality, int multiValuedCardinality, Random random)
+      throws IOException {
+    SolrQueryRequest req = new LocalSolrQueryRequest(core, new ModifiableSolrParams());
+    try {
+      int docsPerSegment = numDocs / numSegments;
+      for (int i = 0; i < numDocs; i++) {
+        AddUpdateCommand cmd = new AddUpdateCommand(req);
+        cmd.solrDoc = newDoc(i, cardinality, multiValuedCardinality, random);
+        core.getUpdateHandler().addDoc(cmd);
+        if ((i + 1) % docsPerSegment == 0 && numDocs - i - 1 >= docsPerSegment) {
+          commit(req);
+        }
+      }
+      commit(req);
+    } finally {
+      req.close();
+    }
+  }
+
+  private void commit(SolrQueryRequest req) throws IOException {
+    CommitUpdateCommand cmd = new CommitUpdateCommand(req, false);
+    cmd.waitSearcher = true;
+    core.getUpdateHandler().commit(cmd);
+  }
+
+  /** Generates the document with the given number. */
+  public static SolrInputDocument newDoc(int i, int cardinality, int multiValuedCardinality, Random random) {
+    SolrInputDocument doc = new SolrInputDocument();
+    doc.addField("id", Integer.toString(i));
+    // squaring a uniform value skews the distribution towards the first values
+    double skewed = random.nextDouble();
+    doc.addField("cat_s", "cat" + (int) (cardinality * skewed * skewed));
+    int numTags = random.nextInt(5);
+    for (int j = 0; j < numTags; j++) {
+      doc.addField("tag_ss", "tag" + random.nextInt(multiValuedCardinality));
+    }
+    doc.addField("num_i", random.nextInt());
+    doc.addField("price_d", random.nextDouble() * 1000);
+    return doc;
+  }
+
+  public SolrCore getCore() {
+    return core;
+  }
+
+  /**
+   * Runs a request against the index, and writes the response with the response writer for the request to
+   * <code>out</code>.  Writing the response is part of the work for streaming handlers such as /export.
+   */
+  public void request(String handler, SolrParams params, OutputStream out) throws IOException {
+    SolrQueryRequest req = new LocalSolrQueryRequest(core, params);
+    SolrQueryResponse rsp = new SolrQueryResponse();
+    SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
+    try {
+      core.execute(core.getRequestHandler(handler), req, rsp);
+      if (rsp.getException() != null) {
+        throw new IOException("Request failed", rsp.getException());
+      }
+      QueryResponseWriter writer = core.getQueryResponseWriter(req);
+      QueryResponseWriterUtil.writeQueryResponse(out, writer, req, rsp, writer.getContentType(req, rsp));
+    } finally {
+      SolrRequestInfo.clearRequestInfo();
+      req.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (core != null) {
+        core.close();
+      }
+      coreContainer.shutdown();
+    } finally {
+      IOUtils.rm(solrHome);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.bench.BenchIndex;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks sorting and streaming a whole result set with the /export handler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExportWriterBenchmark {
+
+  @Param({"100000"})
+  int numDocs;
+
+  @Param({"1", "10"})
+  int numSegments;
+
+  @Param({"1000"})
+  int cardinality;
+
+  @Param({"num_i asc", "cat_s asc,num_i desc"})
+  String sort;
+
+  @Param({"42"})
+  long seed;
+
+  private BenchIndex index;
+
+  @Setup
+  public void setup() throws IOException {
+    index = BenchIndex.create(numDocs, numSegments, cardinality, cardinality, seed);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    index.close();
+  }
+
+  @Benchmark
+  public void export() throws IOException {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set("q", "*:*");
+    params.set("sort", sort);
+    params.set("fl", "id,num_i,cat_s");
+    index.request("/export", params, OutputStream.nullOutputStream());
+  }
+}
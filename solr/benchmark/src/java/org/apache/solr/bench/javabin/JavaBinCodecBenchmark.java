@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.javabin;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.common.util.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks encoding and decoding a search response, a list of documents and facet counts, with {@link JavaBinCodec}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JavaBinCodecBenchmark {
+
+  @Param({"10", "1000"})
+  int numDocs;
+
+  @Param({"100"})
+  int numFacetBuckets;
+
+  @Param({"42"})
+  long seed;
+
+  private NamedList<Object> response;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(seed);
+    SolrDocumentList docs = new SolrDocumentList();
+    docs.setNumFound(numDocs * 10L);
+    for (int i = 0; i < numDocs; i++) {
+      SolrDocument doc = new SolrDocument();
+      doc.setField("id", Integer.toString(i));
+      doc.setField("cat_s", "cat" + random.nextInt(100));
+      doc.setField("num_i", random.nextInt());
+      doc.setField("num_l", random.nextLong());
+      doc.setField("price_d", random.nextDouble());
+      List<String> tags = new ArrayList<>();
+      for (int j = random.nextInt(5); j > 0; j--) {
+        tags.add("tag" + random.nextInt(1000));
+      }
+      doc.setField("tag_ss", tags);
+      doc.setField("text_t", randomText(random, 20));
+      docs.add(doc);
+    }
+    NamedList<Object> buckets = new SimpleOrderedMap<>();
+    for (int i = 0; i < numFacetBuckets; i++) {
+      buckets.add("cat" + i, random.nextInt(numDocs * 10));
+    }
+    response = new SimpleOrderedMap<>();
+    response.add("response", docs);
+    response.add("facet_counts", buckets);
+    encoded = encode();
+  }
+
+  private static String randomText(Random random, int numWords) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < numWords; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      for (int j = 2 + random.nextInt(8); j > 0; j--) {
+        sb.append((char) ('a' + random.nextInt(26)));
+      }
+    }
+    return sb.toString();
+  }
+
+  @Benchmark
+  public byte[] encode() throws IOException {
+    return Utils.toJavabin(response).readAllBytes();
+  }
+
+  @Benchmark
+  public Object decode() throws IOException {
+    try (JavaBinCodec codec = new JavaBinCodec()) {
+      return codec.unmarshal(new ByteArrayInputStream(encoded));
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.search;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.DocSetBuilder;
+import org.apache.solr.search.SortedIntDocSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building DocSets with {@link DocSetBuilder} and intersecting {@link SortedIntDocSet}s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DocSetBenchmark {
+
+  @Param({"1000000"})
+  int maxDoc;
+
+  /** The fraction of matching documents of the first set */
+  @Param({"0.001", "0.01", "0.1"})
+  double density;
+
+  /** The size of the second set relative to the first one */
+  @Param({"0.1", "1"})
+  double ratio;
+
+  @Param({"42"})
+  long seed;
+
+  private int[] docs;
+  private SortedIntDocSet a;
+  private SortedIntDocSet b;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(seed);
+    docs = randomDocs(random, (int) (maxDoc * density));
+    a = new SortedIntDocSet(docs);
+    b = new SortedIntDocSet(randomDocs(random, (int) (maxDoc * density * ratio)));
+  }
+
+  private int[] randomDocs(Random random, int size) {
+    return random.ints(0, maxDoc).distinct().limit(size).sorted().toArray();
+  }
+
+  @Benchmark
+  public DocSet build() {
+    DocSetBuilder builder = new DocSetBuilder(maxDoc, docs.length);
+    for (int doc : docs) {
+      builder.add(doc);
+    }
+    return builder.build(null);
+  }
+
+  @Benchmark
+  public DocSet intersection() {
+    return a.intersection(b);
+  }
+
+  @Benchmark
+  public int intersectionSize() {
+    return a.intersectionSize(b);
+  }
+}
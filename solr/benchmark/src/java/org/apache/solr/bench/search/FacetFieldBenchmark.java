@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.search;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.bench.BenchIndex;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks JSON terms facets counted with <code>method:dv</code>, which are computed by
+ * <code>FacetFieldProcessorByArrayDV</code>, on a single-valued and a multi-valued field.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FacetFieldBenchmark {
+
+  @Param({"1000000"})
+  int numDocs;
+
+  @Param({"1", "10"})
+  int numSegments;
+
+  @Param({"100", "100000"})
+  int cardinality;
+
+  @Param({"42"})
+  long seed;
+
+  private BenchIndex index;
+
+  @Setup
+  public void setup() throws IOException {
+    index = BenchIndex.create(numDocs, numSegments, cardinality, cardinality, seed);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    index.close();
+  }
+
+  private void facet(String field) throws IOException {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set("q", "*:*");
+    params.set("rows", 0);
+    params.set("json.facet", "{f:{type:terms, field:" + field + ", method:dv, limit:10}}");
+    index.request("/select", params, OutputStream.nullOutputStream());
+  }
+
+  @Benchmark
+  public void singleValued() throws IOException {
+    facet("cat_s");
+  }
+
+  @Benchmark
+  public void multiValued() throws IOException {
+    facet("tag_ss");
+  }
+}
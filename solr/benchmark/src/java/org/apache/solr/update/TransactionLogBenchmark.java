@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.util.IOUtils;
+import org.apache.solr.bench.BenchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks appending add commands to a {@link TransactionLog}.  This lives in the
+ * <code>org.apache.solr.update</code> package to create transaction logs without an {@link UpdateLog}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TransactionLogBenchmark {
+
+  private static final int BATCH_SIZE = 1000;
+
+  @Param({"1000"})
+  int cardinality;
+
+  @Param({"NONE", "FLUSH"})
+  UpdateLog.SyncLevel syncLevel;
+
+  @Param({"42"})
+  long seed;
+
+  private AddUpdateCommand[] cmds;
+  private Path dir;
+  private TransactionLog tlog;
+  private int id;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(seed);
+    cmds = new AddUpdateCommand[BATCH_SIZE];
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      AddUpdateCommand cmd = new AddUpdateCommand(null);
+      cmd.solrDoc = BenchIndex.newDoc(i, cardinality, cardinality, random);
+      cmd.setVersion(i + 1);
+      cmds[i] = cmd;
+    }
+    dir = Files.createTempDirectory("solr-bench-tlog");
+  }
+
+  @Setup(Level.Iteration)
+  public void openLog() {
+    File file = dir.resolve(String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN,
+        UpdateLog.TLOG_NAME, ++id)).toFile();
+    tlog = new TransactionLog(file, Collections.emptyList());
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeLog() {
+    tlog.decref();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    IOUtils.rm(dir);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public long write() {
+    long pos = 0;
+    for (AddUpdateCommand cmd : cmds) {
+      pos = tlog.write(cmd);
+    }
+    tlog.finish(syncLevel);
+    return pos;
+  }
+}
@@ -138,6 +138,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 
@@ -206,6 +208,8 @@ public class CoreContainer {
 
   private final OrderedExecutor replayUpdatesExecutor;
 
+  private final ExecutorService collectorExecutor;
+
   protected volatile LogWatcher<?> logging = null;
 
   private volatile CloserThread backgroundCloser = null;
@@ -373,6 +377,7 @@ public class CoreContainer {
         ExecutorUtil.newMDCAwareCachedThreadPool(
             cfg.getReplayUpdatesThreads(),
             new SolrNamedThreadFactory("replayUpdatesExecutor")));
+    this.collectorExecutor = newCollectorExecutor(cfg.getIndexSearcherExecutorThreads());
 
     SolrPaths.AllowPathBuilder allowPathBuilder = new SolrPaths.AllowPathBuilder();
     allowPathBuilder.addPath(cfg.getSolrHome());
@@ -582,6 +587,7 @@ public class CoreContainer {
     cfg = null;
     containerProperties = null;
     replayUpdatesExecutor = null;
+    collectorExecutor = null;
     distributedCollectionCommandRunner = Optional.empty();
     allowPaths = null;
     allowListUrlChecker = null;
@@ -634,6 +640,22 @@ public class CoreContainer {
     return replayUpdatesExecutor;
   }
 
+  /**
+   * The executor which searches slices of an index concurrently, or null if concurrent search is disabled.
+   * Its queue is bounded, callers are expected to run a task themselves if the executor rejects it.
+   */
+  public ExecutorService getCollectorExecutor() {
+    return collectorExecutor;
+  }
+
+  private static ExecutorService newCollectorExecutor(int threads) {
+    if (threads <= 0) {
+      return null;
+    }
+    return new ExecutorUtil.MDCAwareThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(threads), new SolrNamedThreadFactory("collectorExecutor"));
+  }
+
   public PackageLoader getPackageLoader() {
     return packageLoader;
   }
@@ -1096,6 +1118,12 @@ public class CoreContainer {
         replayUpdatesExecutor.shutdownAndAwaitTermination();
       });
 
+      if (collectorExecutor != null) {
+        customThreadPool.submit(() -> {
+          ExecutorUtil.shutdownAndAwaitTermination(collectorExecutor);
+        });
+      }
+
       if (metricManager != null) {
         metricManager.closeReporters(SolrMetricManager.getRegistryName(SolrInfoBean.Group.node));
         metricManager.closeReporters(SolrMetricManager.getRegistryName(SolrInfoBean.Group.jvm));
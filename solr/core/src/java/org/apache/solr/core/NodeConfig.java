@@ -73,6 +73,8 @@ public class NodeConfig {
 
   private final int replayUpdatesThreads;
 
+  private final int indexSearcherExecutorThreads;
+
   @Deprecated
   // This should be part of the transientCacheConfig, remove in 7.0
   private final int transientCacheSize;
@@ -101,7 +103,7 @@ public class NodeConfig {
                      String coreAdminHandlerClass, String collectionsAdminHandlerClass,
                      String healthCheckHandlerClass, String infoHandlerClass, String configSetsHandlerClass,
                      LogWatcherConfig logWatcherConfig, CloudConfig cloudConfig, Integer coreLoadThreads, int replayUpdatesThreads,
-                     int transientCacheSize, boolean useSchemaCache, String managementPath,
+                     int indexSearcherExecutorThreads, int transientCacheSize, boolean useSchemaCache, String managementPath,
                      Path solrHome, SolrResourceLoader loader,
                      Properties solrProperties, PluginInfo[] backupRepositoryPlugins,
                      MetricsConfig metricsConfig, PluginInfo transientCacheConfig, PluginInfo tracerConfig,
@@ -125,6 +127,7 @@ public class NodeConfig {
     this.cloudConfig = cloudConfig;
     this.coreLoadThreads = coreLoadThreads;
     this.replayUpdatesThreads = replayUpdatesThreads;
+    this.indexSearcherExecutorThreads = indexSearcherExecutorThreads;
     this.transientCacheSize = transientCacheSize;
     this.useSchemaCache = useSchemaCache;
     this.managementPath = managementPath;
@@ -194,6 +197,14 @@ public class NodeConfig {
     return replayUpdatesThreads;
   }
 
+  /**
+   * The number of threads shared by all cores to search slices of an index concurrently, for requests with
+   * <code>multiThreaded=true</code>.  0 disables concurrent search.
+   */
+  public int getIndexSearcherExecutorThreads() {
+    return indexSearcherExecutorThreads;
+  }
+
   /**
    * Returns a directory, optionally a comma separated list of directories
    * that will be added to Solr's class path for searching for classes and plugins.
@@ -341,6 +352,7 @@ public class NodeConfig {
     private CloudConfig cloudConfig;
     private int coreLoadThreads = DEFAULT_CORE_LOAD_THREADS;
     private int replayUpdatesThreads = Runtime.getRuntime().availableProcessors();
+    private int indexSearcherExecutorThreads = Runtime.getRuntime().availableProcessors();
     @Deprecated
     //Remove in 7.0 and put it all in the transientCache element in solrconfig.xml
     private int transientCacheSize = DEFAULT_TRANSIENT_CACHE_SIZE;
@@ -472,6 +484,11 @@ public class NodeConfig {
       return this;
     }
 
+    public NodeConfigBuilder setIndexSearcherExecutorThreads(int indexSearcherExecutorThreads) {
+      this.indexSearcherExecutorThreads = indexSearcherExecutorThreads;
+      return this;
+    }
+
     // Remove in Solr 7.0
     @Deprecated
     public NodeConfigBuilder setTransientCacheSize(int transientCacheSize) {
@@ -550,7 +567,7 @@ public class NodeConfig {
               updateShardHandlerConfig, coreAdminHandlerClass, collectionsAdminHandlerClass,
               healthCheckHandlerClass, infoHandlerClass, configSetsHandlerClass,
               logWatcherConfig, cloudConfig, coreLoadThreads, replayUpdatesThreads,
-              transientCacheSize, useSchemaCache, managementPath,
+              indexSearcherExecutorThreads, transientCacheSize, useSchemaCache, managementPath,
               solrHome, loader, solrProperties,
               backupRepositoryPlugins, metricsConfig, transientCacheConfig, tracerConfig,
               fromZookeeper, defaultZkHost, allowPaths, allowUrls, configSetServiceClass);
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.core;
+
+import java.lang.invoke.MethodHandles;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.StrUtils;
+import org.apache.solr.index.SlowCompositeReaderWrapper;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the maps of segment ords to global ords of string fields for a new searcher before it is registered, so
+ * that the first facet, sort or collapse request on a field after a commit does not build them.  The fields are
+ * those listed in the <code>fields</code> argument, and the fields the current searcher built maps for.
+ *
+ * @see org.apache.solr.index.OrdinalMapCache
+ */
+public class OrdinalMapWarmer extends AbstractSolrEventListener {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final Set<String> fields = new LinkedHashSet<>();
+
+  public OrdinalMapWarmer(SolrCore core) {
+    super(core);
+  }
+
+  @Override
+  public void init(NamedList<?> args) {
+    super.init(args);
+    Object fieldsArg = args.get("fields");
+    if (fieldsArg instanceof List) {
+      for (Object field : (List<?>) fieldsArg) {
+        fields.add(field.toString());
+      }
+    } else if (fieldsArg != null) {
+      fields.addAll(StrUtils.splitSmart(fieldsArg.toString(), ','));
+    }
+  }
+
+  @Override
+  public void newSearcher(SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher) {
+    final Set<String> toWarm = new LinkedHashSet<>(fields);
+    if (currentSearcher != null && currentSearcher.getSlowAtomicReader() instanceof SlowCompositeReaderWrapper) {
+      toWarm.addAll(((SlowCompositeReaderWrapper) currentSearcher.getSlowAtomicReader()).getCachedOrdinalMapFields());
+    }
+
+    final LeafReader reader = newSearcher.getSlowAtomicReader();
+    final long start = System.nanoTime();
+    int warmed = 0;
+    for (String field : toWarm) {
+      FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(field);
+      if (fieldInfo == null) {
+        continue;
+      }
+      try {
+        switch (fieldInfo.getDocValuesType()) {
+          case SORTED:
+            reader.getSortedDocValues(field);
+            warmed++;
+            break;
+          case SORTED_SET:
+            reader.getSortedSetDocValues(field);
+            warmed++;
+            break;
+          default:
+            log.debug("Not warming field {} without sorted doc values", field);
+        }
+      } catch (Exception e) {
+        log.warn("Could not warm the ordinal map of field {}", field, e);
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Warmed the ordinal maps of {} fields of {} in {}ms", warmed, newSearcher,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+  }
+}
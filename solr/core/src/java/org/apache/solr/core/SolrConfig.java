@@ -241,7 +241,9 @@ public class SolrConfig extends XmlConfigFile implements MapSerializable {
       conf = new CacheConfig(CaffeineCache.class, args, null);
     }
     fieldValueCacheConfig = conf;
+    facetCacheConfig = CacheConfig.getConfig(this, "query/facetCache");
     useColdSearcher = getBool("query/useColdSearcher", false);
+    asyncAutowarm = getBool("query/asyncAutowarm", false);
     dataDir = get("dataDir", null);
     if (dataDir != null && dataDir.length() == 0) dataDir = null;
 
@@ -515,6 +517,7 @@ public class SolrConfig extends XmlConfigFile implements MapSerializable {
   public final CacheConfig queryResultCacheConfig;
   public final CacheConfig documentCacheConfig;
   public final CacheConfig fieldValueCacheConfig;
+  public final CacheConfig facetCacheConfig;
   public final Map<String, CacheConfig> userCacheConfigs;
   // SolrIndexSearcher - more...
   public final boolean useFilterForSortedQuery;
@@ -531,6 +534,7 @@ public class SolrConfig extends XmlConfigFile implements MapSerializable {
 
   public final int maxWarmingSearchers;
   public final boolean useColdSearcher;
+  public final boolean asyncAutowarm;
   public final Version luceneMatchVersion;
   protected String dataDir;
   public final int slowQueryThresholdMillis;  // threshold above which a query is considered slow
@@ -902,7 +906,7 @@ public class SolrConfig extends XmlConfigFile implements MapSerializable {
     }
 
 
-    addCacheConfig(m, filterCacheConfig, queryResultCacheConfig, documentCacheConfig, fieldValueCacheConfig);
+    addCacheConfig(m, filterCacheConfig, queryResultCacheConfig, documentCacheConfig, fieldValueCacheConfig, facetCacheConfig);
     m = new LinkedHashMap<>();
     result.put("requestDispatcher", m);
     m.put("handleSelect", handleSelect);
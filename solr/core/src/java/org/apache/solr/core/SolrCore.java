@@ -54,6 +54,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
@@ -141,6 +142,7 @@ import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.ManagedIndexSchema;
 import org.apache.solr.schema.SimilarityFactory;
 import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SegmentFilterCache;
 import org.apache.solr.search.SolrFieldCacheBean;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.ValueSourceParser;
@@ -233,6 +235,8 @@ public final class SolrCore implements SolrInfoBean, Closeable {
 
   private final CircuitBreakerManager circuitBreakerManager;
 
+  private final SegmentFilterCache segmentFilterCache;
+
   private final List<Runnable> confListeners = new CopyOnWriteArrayList<>();
 
   private final ReentrantLock ruleExpiryLock;
@@ -943,6 +947,7 @@ public final class SolrCore implements SolrInfoBean, Closeable {
                    IndexDeletionPolicyWrapper delPolicy, SolrCore prev, boolean reload) {
 
     assert ObjectReleaseTracker.track(searcherExecutor); // ensure that in unclean shutdown tests we still close this
+    assert ObjectReleaseTracker.track(asyncWarmExecutor);
 
     final CountDownLatch latch = new CountDownLatch(1);
     try {
@@ -961,6 +966,7 @@ public final class SolrCore implements SolrInfoBean, Closeable {
       // Initialize the metrics manager
       this.coreMetricManager = initCoreMetricManager(solrConfig);
       this.circuitBreakerManager = initCircuitBreakerManager();
+      this.segmentFilterCache = SegmentFilterCache.create(solrConfig.filterCacheConfig);
       solrMetricsContext = coreMetricManager.getSolrMetricsContext();
       this.coreMetricManager.loadReporters();
 
@@ -994,6 +1000,11 @@ public final class SolrCore implements SolrInfoBean, Closeable {
       solrFieldCacheBean.initializeMetrics(solrMetricsContext, "core");
       infoRegistry.put("fieldCache", solrFieldCacheBean);
 
+      if (segmentFilterCache != null) {
+        segmentFilterCache.initializeMetrics(solrMetricsContext, "core");
+        infoRegistry.put("segmentFilterCache", segmentFilterCache);
+      }
+
       this.maxWarmingSearchers = solrConfig.maxWarmingSearchers;
       this.slowQueryThresholdMillis = solrConfig.slowQueryThresholdMillis;
 
@@ -1510,6 +1521,14 @@ public final class SolrCore implements SolrInfoBean, Closeable {
     return circuitBreakerManager;
   }
 
+  /**
+   * The per-segment filter cache shared by all searchers of this core, or null if not enabled.
+   * @see SegmentFilterCache
+   */
+  public SegmentFilterCache getSegmentFilterCache() {
+    return segmentFilterCache;
+  }
+
   // this core current usage count
   private final AtomicInteger refCount = new AtomicInteger(1);
 
@@ -1627,6 +1646,17 @@ public final class SolrCore implements SolrInfoBean, Closeable {
     }
     assert ObjectReleaseTracker.release(searcherExecutor);
 
+    try {
+      // no new tasks after searcherExecutor is shut down, and running ones stop since the core is closed
+      ExecutorUtil.shutdownAndAwaitTermination(asyncWarmExecutor);
+    } catch (Throwable e) {
+      SolrException.log(log, e);
+      if (e instanceof Error) {
+        throw (Error) e;
+      }
+    }
+    assert ObjectReleaseTracker.release(asyncWarmExecutor);
+
     try {
       // Since we waited for the searcherExecutor to shut down,
       // there should be no more searchers warming in the background
@@ -1643,6 +1673,17 @@ public final class SolrCore implements SolrInfoBean, Closeable {
       }
     }
 
+    if (segmentFilterCache != null) {
+      try {
+        segmentFilterCache.close();
+      } catch (Throwable e) {
+        SolrException.log(log, e);
+        if (e instanceof Error) {
+          throw (Error) e;
+        }
+      }
+    }
+
     if (coreStateClosed) {
       try {
         cleanupOldIndexDirectories(false);
@@ -1864,6 +1905,9 @@ public final class SolrCore implements SolrInfoBean, Closeable {
 
   final ExecutorService searcherExecutor = ExecutorUtil.newMDCAwareSingleThreadExecutor(
       new SolrNamedThreadFactory("searcherExecutor"));
+  // regenerates cache entries of registered searchers when asyncAutowarm is enabled
+  private final ExecutorService asyncWarmExecutor = ExecutorUtil.newMDCAwareSingleThreadExecutor(
+      new SolrNamedThreadFactory("asyncWarmExecutor"));
   private int onDeckSearchers;  // number of searchers preparing
   // Lock ordering: one can acquire the openSearcherLock and then the searcherLock, but not vice-versa.
   private Object searcherLock = new Object();  // the sync object for the searcher
@@ -2340,13 +2384,28 @@ public final class SolrCore implements SolrInfoBean, Closeable {
       final SolrIndexSearcher currSearcher = currSearcherHolder == null ? null : currSearcherHolder.get();
 
       Future<Void> future = null;
+      // set by the searcherExecutor when the caches are warmed after registering the new searcher
+      final Runnable[] asyncWarmTask = new Runnable[1];
 
       // if the underlying searcher has not changed, no warming is needed
       if (newSearcher != currSearcher) {
 
         // warm the new searcher based on the current searcher.
         // should this go before the other event handlers or after?
-        if (currSearcher != null) {
+        if (currSearcher != null && solrConfig.asyncAutowarm) {
+          future = searcherExecutor.submit(() -> {
+            try {
+              asyncWarmTask[0] = newSearcher.prepareWarm(currSearcher,
+                  () -> isClosed() || !isRegisteredSearcher(newSearcher));
+            } catch (Throwable e) {
+              SolrException.log(log, e);
+              if (e instanceof Error) {
+                throw (Error) e;
+              }
+            }
+            return null;
+          });
+        } else if (currSearcher != null) {
           future = searcherExecutor.submit(() -> {
             Timer.Context warmupContext = newSearcherWarmupTimer.time();
             try {
@@ -2408,6 +2467,9 @@ public final class SolrCore implements SolrInfoBean, Closeable {
                 // registerSearcher will decrement onDeckSearchers and
                 // do a notify, even if it fails.
                 registerSearcher(newSearchHolder);
+                if (asyncWarmTask[0] != null) {
+                  warmAsync(asyncWarmTask[0], newSearchHolder, currSearcherHolderF);
+                }
               } catch (Throwable e) {
                 SolrException.log(log, e);
                 if (e instanceof Error) {
@@ -2506,6 +2568,43 @@ public final class SolrCore implements SolrInfoBean, Closeable {
     return isReloaded;
   }
 
+  private boolean isRegisteredSearcher(SolrIndexSearcher searcher) {
+    synchronized (searcherLock) {
+      return _searcher != null && _searcher.get() == searcher;
+    }
+  }
+
+  /**
+   * Runs the autowarming of a registered searcher in the background. Both searchers are kept open until the
+   * task completes, it stops early when the core is closed or a newer searcher is registered.
+   */
+  private void warmAsync(Runnable warmTask, RefCounted<SolrIndexSearcher> newSearchHolder,
+                         RefCounted<SolrIndexSearcher> currSearcherHolder) {
+    newSearchHolder.incref();
+    currSearcherHolder.incref();
+    try {
+      asyncWarmExecutor.submit(() -> {
+        Timer.Context warmupContext = newSearcherWarmupTimer.time();
+        try {
+          warmTask.run();
+        } catch (Throwable e) {
+          SolrException.log(log, e);
+          if (e instanceof Error) {
+            throw (Error) e;
+          }
+        } finally {
+          warmupContext.close();
+          newSearchHolder.decref();
+          currSearcherHolder.decref();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the core is closing
+      newSearchHolder.decref();
+      currSearcherHolder.decref();
+    }
+  }
+
   // Take control of newSearcherHolder (which should have a reference count of at
   // least 1 already.  If the caller wishes to use the newSearcherHolder directly
   // after registering it, then they should increment the reference count *before*
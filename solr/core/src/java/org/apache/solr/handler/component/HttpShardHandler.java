@@ -16,12 +16,15 @@
  */
 package org.apache.solr.handler.component;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.opentracing.Span;
@@ -68,6 +71,8 @@ public class HttpShardHandler extends ShardHandler {
   private AtomicInteger pending;
   private Map<String, List<String>> shardToURLs;
   private LBHttp2SolrClient lbClient;
+  // the requests that will be hedged if they haven't been answered in time
+  private List<ShardAttempts> hedgeable;
 
   public HttpShardHandler(HttpShardHandlerFactory httpShardHandlerFactory) {
     this.httpShardHandlerFactory = httpShardHandlerFactory;
@@ -75,6 +80,7 @@ public class HttpShardHandler extends ShardHandler {
     this.pending = new AtomicInteger(0);
     this.responses = new LinkedBlockingQueue<>();
     this.responseCancellableMap = new HashMap<>();
+    this.hedgeable = new ArrayList<>();
 
     // maps "localhost:8983|localhost:7574" to a shuffled List("http://localhost:8983","http://localhost:7574")
     // This is primarily to keep track of what order we should use to query the replicas of a shard
@@ -156,9 +162,78 @@ public class HttpShardHandler extends ShardHandler {
       return;
     }
 
+    ShardAttempts attempts = new ShardAttempts(sreq, shard, params, urls, srsp, ssr, tracer, span);
+    attempts.first = attempts.send(req, lbReq, urls.get(0), false);
+    responseCancellableMap.put(srsp, attempts);
+
+    if (urls.size() > 1 && params.getBool(ShardParams.IS_SHARD, false)
+        && params.getBool(ShardParams.SHARDS_HEDGE, httpShardHandlerFactory.hedgeRequests)) {
+      long delay = httpShardHandlerFactory.hedgeDelayNanos(urls.get(0));
+      if (delay >= 0) {
+        attempts.hedgeAt = attempts.startTime + delay;
+        hedgeable.add(attempts);
+      }
+    }
+  }
+
+  /**
+   * The requests sent for a ShardResponse: the first one, and a hedge to the other replicas of the shard
+   * if the first one takes too long. Whichever answers first completes the ShardResponse.
+   */
+  private class ShardAttempts implements Cancellable {
+    final ShardRequest sreq;
+    final String shard;
+    final ModifiableSolrParams params;
+    final List<String> urls;
+    final ShardResponse srsp;
+    final SimpleSolrResponse ssr;
+    final Tracer tracer;
+    final Span span;
+    final long startTime = System.nanoTime();
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicInteger inFlight = new AtomicInteger(1);
+    volatile Attempt first;
+    volatile Attempt hedge;
+    // when to send the hedge; only used by the thread taking the responses
+    long hedgeAt;
+
+    ShardAttempts(ShardRequest sreq, String shard, ModifiableSolrParams params, List<String> urls,
+                  ShardResponse srsp, SimpleSolrResponse ssr, Tracer tracer, Span span) {
+      this.sreq = sreq;
+      this.shard = shard;
+      this.params = params;
+      this.urls = urls;
+      this.srsp = srsp;
+      this.ssr = ssr;
+      this.tracer = tracer;
+      this.span = span;
+    }
+
+    /**
+     * Sends the request; its replica (the first of the urls, the one the load balancer tries first) counts
+     * it as in flight until it's answered or cancelled
+     */
+    Attempt send(QueryRequest req, LBSolrClient.Req lbReq, String url, boolean isHedge) {
+      Attempt attempt = new Attempt(req, url, isHedge);
+      httpShardHandlerFactory.latencyTracker.started(url);
+      attempt.cancellable = lbClient.asyncReq(lbReq, attempt);
+      return attempt;
+    }
+
     // all variables that set inside this listener must be at least volatile
-    responseCancellableMap.put(srsp, this.lbClient.asyncReq(lbReq, new AsyncListener<>() {
-      volatile long startTime = System.nanoTime();
+    private class Attempt implements AsyncListener<LBSolrClient.Rsp>, Cancellable {
+      final QueryRequest req;
+      final String url;
+      final boolean isHedge;
+      final AtomicBoolean finished = new AtomicBoolean();
+      volatile long attemptStartTime = System.nanoTime();
+      volatile Cancellable cancellable;
+
+      Attempt(QueryRequest req, String url, boolean isHedge) {
+        this.req = req;
+        this.url = url;
+        this.isHedge = isHedge;
+      }
 
       @Override
       public void onStart() {
@@ -171,13 +246,28 @@ public class HttpShardHandler extends ShardHandler {
 
       @Override
       public void onSuccess(LBSolrClient.Rsp rsp) {
+        finish();
+        httpShardHandlerFactory.latencyTracker.record(rsp.getServer(), System.nanoTime() - attemptStartTime);
+        if (!done.compareAndSet(false, true)) {
+          return; // the other request answered first, or this one was cancelled
+        }
+        if (isHedge) {
+          httpShardHandlerFactory.hedgesWon.inc();
+        }
+        cancelOther(isHedge);
         ssr.nl = rsp.getResponse();
         srsp.setShardAddress(rsp.getServer());
         ssr.elapsedTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
         responses.add(srsp);
       }
 
+      @Override
       public void onFailure(Throwable throwable) {
+        finish();
+        // while the other request may still answer, it's not over
+        if (inFlight.decrementAndGet() > 0 || !done.compareAndSet(false, true)) {
+          return;
+        }
         ssr.elapsedTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
         srsp.setException(throwable);
         if (throwable instanceof SolrException) {
@@ -185,7 +275,72 @@ public class HttpShardHandler extends ShardHandler {
         }
         responses.add(srsp);
       }
-    }));
+
+      @Override
+      public void cancel() {
+        // a cancelled request isn't answered anymore
+        finish();
+        if (cancellable != null) {
+          cancellable.cancel();
+        }
+      }
+
+      /**
+       * Cancels this request because the other one answered first. The time it already took is recorded as its
+       * latency, which is a lower bound, so that the latencies of a replica that keeps losing still go up.
+       */
+      void lose() {
+        if (finish()) {
+          httpShardHandlerFactory.latencyTracker.record(url, System.nanoTime() - attemptStartTime);
+        }
+        if (cancellable != null) {
+          cancellable.cancel();
+        }
+      }
+
+      /** Returns true if this request was still in flight */
+      private boolean finish() {
+        if (finished.compareAndSet(false, true)) {
+          httpShardHandlerFactory.latencyTracker.finished(url);
+          return true;
+        }
+        return false;
+      }
+    }
+
+    /** Sends the request to the other replicas of the shard too, if it's still unanswered and the budget allows */
+    void sendHedge() {
+      if (done.get() || !httpShardHandlerFactory.tryHedge()) {
+        return;
+      }
+      inFlight.incrementAndGet();
+      QueryRequest req = makeQueryRequest(sreq, params, shard);
+      req.setMethod(SolrRequest.METHOD.POST);
+      LBSolrClient.Req lbReq = httpShardHandlerFactory.newLBHttpSolrClientReq(req, urls.subList(1, urls.size()));
+      hedge = send(req, lbReq, urls.get(1), true);
+      if (done.get()) {
+        cancelOther(false); // the first request answered while this one was being sent
+      }
+    }
+
+    /** Cancels the request which lost, now that the hedge (if <code>isHedge</code>) or the first request answered */
+    private void cancelOther(boolean isHedge) {
+      Attempt other = isHedge ? first : hedge;
+      if (other != null) {
+        other.lose();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      done.set(true);
+      // neither answered, so their latencies are unknown
+      for (Attempt attempt : new Attempt[] {first, hedge}) {
+        if (attempt != null) {
+          attempt.cancel();
+        }
+      }
+    }
   }
 
   /**
@@ -225,7 +380,7 @@ public class HttpShardHandler extends ShardHandler {
   private ShardResponse take(boolean bailOnError) {
     try {
       while (pending.get() > 0) {
-        ShardResponse rsp = responses.take();
+        ShardResponse rsp = nextResponse();
         responseCancellableMap.remove(rsp);
 
         pending.decrementAndGet();
@@ -246,6 +401,38 @@ public class HttpShardHandler extends ShardHandler {
   }
 
 
+  // waits for the next response, sending hedges for the requests that take too long meanwhile
+  private ShardResponse nextResponse() throws InterruptedException {
+    for (;;) {
+      long wait = sendDueHedges();
+      if (wait == -1) {
+        return responses.take();
+      }
+      ShardResponse rsp = responses.poll(wait, TimeUnit.NANOSECONDS);
+      if (rsp != null) {
+        return rsp;
+      }
+    }
+  }
+
+  // returns the nanoseconds until the next hedge is due, or -1 if there is none
+  private long sendDueHedges() {
+    long wait = -1;
+    long now = System.nanoTime();
+    for (Iterator<ShardAttempts> it = hedgeable.iterator(); it.hasNext(); ) {
+      ShardAttempts attempts = it.next();
+      if (attempts.done.get()) {
+        it.remove();
+      } else if (attempts.hedgeAt - now <= 0) {
+        it.remove();
+        attempts.sendHedge();
+      } else if (wait == -1 || attempts.hedgeAt - now < wait) {
+        wait = attempts.hedgeAt - now;
+      }
+    }
+    return wait;
+  }
+
   @Override
   public void cancelAll() {
     for (Cancellable cancellable : responseCancellableMap.values()) {
@@ -253,6 +440,7 @@ public class HttpShardHandler extends ShardHandler {
       pending.decrementAndGet();
     }
     responseCancellableMap.clear();
+    hedgeable.clear();
   }
 
   @Override
@@ -26,6 +26,9 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Counter;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.impl.Http2SolrClient;
@@ -51,6 +54,7 @@ import org.apache.solr.common.util.URLUtil;
 import org.apache.solr.core.PluginInfo;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.MetricsMap;
 import org.apache.solr.metrics.SolrMetricManager;
 import org.apache.solr.metrics.SolrMetricProducer;
 import org.apache.solr.metrics.SolrMetricsContext;
@@ -91,6 +95,10 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
   int   permittedLoadBalancerRequestsMinimumAbsolute = 0;
   float permittedLoadBalancerRequestsMaximumFraction = 1.0f;
   boolean accessPolicy = false;
+  boolean hedgeRequests = false;
+  float hedgePercentile = 95f;
+  int hedgeMinDelayMs = 10;
+  float hedgeBudget = 0.05f;
   private SolrMetricsContext solrMetricsContext;
 
   private String scheme = null;
@@ -101,6 +109,12 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
 
   private RequestReplicaListTransformerGenerator requestReplicaListTransformerGenerator = new RequestReplicaListTransformerGenerator();
 
+  final ReplicaLatencyTracker latencyTracker = new ReplicaLatencyTracker();
+  // the hedges that may still be sent, in thousandths; each hedgeable shard request adds hedgeBudget
+  private final AtomicLong hedgeTokens = new AtomicLong();
+  Counter hedgesIssued = new Counter();
+  Counter hedgesWon = new Counter();
+
   // URL scheme to be used in distributed search.
   static final String INIT_URL_SCHEME = "urlScheme";
 
@@ -125,6 +139,21 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
   // Configure if the threadpool favours fairness over throughput
   static final String INIT_FAIRNESS_POLICY = "fairnessPolicy";
 
+  // If shard requests are hedged by default, see ShardParams.SHARDS_HEDGE
+  static final String INIT_HEDGE_REQUESTS = "hedgeRequests";
+
+  // A hedge is sent when the replica hasn't answered after this percentile of its recent latencies
+  static final String INIT_HEDGE_PERCENTILE = "hedgePercentile";
+
+  // The minimum time to wait before sending a hedge
+  static final String INIT_HEDGE_MIN_DELAY = "hedgeMinDelayMs";
+
+  // The maximum fraction of hedgeable shard requests that may be hedged
+  static final String INIT_HEDGE_BUDGET = "hedgeBudget";
+
+  // The number of hedges the budget may save up while there is nothing to hedge
+  private static final int MAX_HEDGE_TOKENS = 10;
+
   /**
    * Get {@link ShardHandler} that uses the default http client.
    */
@@ -170,6 +199,9 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
             // changes in the future, checkDefault could be relevant here.
             defaultRouting = checkDefaultReplicaListTransformer(getNamedList(e.getValue()), key, defaultRouting);
             break;
+          case ShardParams.REPLICA_LATENCY:
+            defaultRouting = checkDefaultReplicaListTransformer(getNamedList(e.getValue()), key, defaultRouting);
+            break;
           case ShardParams.REPLICA_STABLE:
             NamedList<?> c = getNamedList(e.getValue());
             defaultRouting = checkDefaultReplicaListTransformer(c, key, defaultRouting);
@@ -183,12 +215,16 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
     if (stableRltFactory == null) {
       stableRltFactory = new AffinityReplicaListTransformerFactory();
     }
+    ReplicaListTransformer latencyRlt = new LatencyReplicaListTransformer(latencyTracker, r);
+    ReplicaListTransformerFactory latencyRltFactory = (configSpec, requestParams, fallback) -> latencyRlt;
     if (ShardParams.REPLICA_STABLE.equals(defaultRouting)) {
       defaultRltFactory = stableRltFactory;
+    } else if (ShardParams.REPLICA_LATENCY.equals(defaultRouting)) {
+      defaultRltFactory = latencyRltFactory;
     } else {
       defaultRltFactory = RequestReplicaListTransformerGenerator.RANDOM_RLTF;
     }
-    this.requestReplicaListTransformerGenerator = new RequestReplicaListTransformerGenerator(defaultRltFactory, stableRltFactory);
+    this.requestReplicaListTransformerGenerator = new RequestReplicaListTransformerGenerator(defaultRltFactory, stableRltFactory, latencyRltFactory);
   }
 
   @Override
@@ -222,6 +258,10 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
         permittedLoadBalancerRequestsMaximumFraction,
         sb);
     this.accessPolicy = getParameter(args, INIT_FAIRNESS_POLICY, accessPolicy,sb);
+    this.hedgeRequests = getParameter(args, INIT_HEDGE_REQUESTS, hedgeRequests, sb);
+    this.hedgePercentile = getParameter(args, INIT_HEDGE_PERCENTILE, hedgePercentile, sb);
+    this.hedgeMinDelayMs = getParameter(args, INIT_HEDGE_MIN_DELAY, hedgeMinDelayMs, sb);
+    this.hedgeBudget = getParameter(args, INIT_HEDGE_BUDGET, hedgeBudget, sb);
 
     if (args != null && args.get("shardsWhitelist") != null) {
       log.warn("Property 'shardsWhitelist' is deprecated, please use '{}' instead.", AllowListUrlChecker.URL_ALLOW_LIST);
@@ -321,6 +361,30 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
     return new LBSolrClient.Req(req, urls, numServersToTry);
   }
 
+  /**
+   * Returns how long to wait (in nanoseconds) for the replica at the given url to answer before hedging
+   * the request, or -1 if too few of its latencies are known yet to tell.
+   * Also adds the request to the budget of hedges that may be sent.
+   */
+  long hedgeDelayNanos(String url) {
+    hedgeTokens.accumulateAndGet((long) (hedgeBudget * 1000), (tokens, x) -> Math.min(tokens + x, MAX_HEDGE_TOKENS * 1000L));
+    long latency = latencyTracker.percentile(url, hedgePercentile);
+    return latency < 0 ? -1 : Math.max(latency, TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMs));
+  }
+
+  /** Takes a hedge from the budget, returns false if there is none left */
+  boolean tryHedge() {
+    long tokens;
+    do {
+      tokens = hedgeTokens.get();
+      if (tokens < 1000) {
+        return false;
+      }
+    } while (!hedgeTokens.compareAndSet(tokens, tokens - 1000));
+    hedgesIssued.inc();
+    return true;
+  }
+
   /**
    * Creates a list of urls for the given shard.
    *
@@ -381,5 +445,8 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
     commExecutor = MetricUtils.instrumentedExecutorService(commExecutor, null,
         solrMetricsContext.getMetricRegistry(),
         SolrMetricManager.mkName("httpShardExecutor", expandedScope, "threadPool"));
+    hedgesIssued = solrMetricsContext.counter("issued", expandedScope, "hedgedRequests");
+    hedgesWon = solrMetricsContext.counter("won", expandedScope, "hedgedRequests");
+    solrMetricsContext.gauge(new MetricsMap((detailed, map) -> latencyTracker.toMap(map)), true, "replicas", expandedScope, "latency");
   }
 }
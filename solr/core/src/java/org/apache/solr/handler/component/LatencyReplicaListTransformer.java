@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import org.apache.solr.client.solrj.routing.ReplicaListTransformer;
+import org.apache.solr.common.cloud.Replica;
+
+/**
+ * Orders replicas by what this node saw of them: the moving average of their latencies, penalized
+ * by the requests to them still in flight, like C3 does (the score is <code>ewma * (1 + inFlight)^3</code>).
+ * So the replica expected to answer first is tried first, and a replica that is slow or busy gets fewer
+ * requests until it catches up.
+ * <p>
+ * Replicas that haven't answered yet are scored as the fastest of the other replicas, so that they
+ * get to answer; ties are broken randomly.
+ */
+class LatencyReplicaListTransformer implements ReplicaListTransformer {
+  private final ReplicaLatencyTracker tracker;
+  private final Random random;
+
+  LatencyReplicaListTransformer(ReplicaLatencyTracker tracker, Random random) {
+    this.tracker = tracker;
+    this.random = random;
+  }
+
+  @Override
+  public <T> void transform(List<T> choices) {
+    if (choices.size() <= 1) {
+      return;
+    }
+    Collections.shuffle(choices, random);
+
+    List<ScoredChoice<T>> scored = new ArrayList<>(choices.size());
+    double fastest = -1;
+    for (T choice : choices) {
+      ScoredChoice<T> scoredChoice = new ScoredChoice<>(choice, tracker.ewma(url(choice)));
+      if (scoredChoice.ewma >= 0 && (fastest < 0 || scoredChoice.ewma < fastest)) {
+        fastest = scoredChoice.ewma;
+      }
+      scored.add(scoredChoice);
+    }
+    for (ScoredChoice<T> scoredChoice : scored) {
+      // at least 1 so that the requests in flight count even before any latency is known
+      double ewma = Math.max(1, scoredChoice.ewma < 0 ? fastest : scoredChoice.ewma);
+      double queue = 1 + tracker.inFlight(url(scoredChoice.choice));
+      scoredChoice.score = ewma * queue * queue * queue;
+    }
+    scored.sort(Comparator.comparingDouble(scoredChoice -> scoredChoice.score)); // stable, keeps ties shuffled
+
+    ListIterator<T> iter = choices.listIterator();
+    for (ScoredChoice<T> scoredChoice : scored) {
+      iter.next();
+      iter.set(scoredChoice.choice);
+    }
+  }
+
+  private static String url(Object choice) {
+    if (choice instanceof Replica) {
+      return ((Replica) choice).getCoreUrl();
+    } else if (choice instanceof String) {
+      return (String) choice;
+    } else {
+      throw new IllegalArgumentException("can't handle type " + choice.getClass());
+    }
+  }
+
+  private static final class ScoredChoice<T> {
+    final T choice;
+    final double ewma;
+    double score;
+
+    ScoredChoice(T choice, double ewma) {
+      this.choice = choice;
+      this.ewma = ewma;
+    }
+  }
+}
@@ -0,0 +1,384 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongIntHashMap;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.LongValues;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.GroupParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.schema.BoolField;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Counts every level of a pivot facet in a single pass over the docs, instead of computing the term counts of
+ * each level once per value of its parent.  Each combination of values is counted under a composite key of the
+ * global ordinals of its values: the key of a value at some level is the key of its parent times the number of
+ * values of the field (plus one for the missing value), plus the ordinal of the value.  Sorting the keys of a level
+ * then groups the values under each parent, in index order.
+ * <p>
+ * Only pivots on string and boolean fields with docValues, and without the per-field options that the docValues
+ * can't answer (prefixes, term filters, zero mincounts...) are counted here, see {@link #create}.
+ * </p>
+ * <p>
+ * Every combination of values is counted, whatever the limits of the levels, so the counts are bounded by
+ * {@link #MAX_COMBINATIONS}: pivots with more combinations are computed level by level instead.
+ * </p>
+ */
+final class PivotFacetCounter {
+
+  /** The default maximum number of distinct combinations of values counted, over all levels. */
+  static final int MAX_COMBINATIONS = 1 << 20;
+
+  private final SolrIndexSearcher searcher;
+  private final Level[] levels;
+  private final long maxCombinations;
+  private long numCombinations;
+
+  private PivotFacetCounter(SolrIndexSearcher searcher, Level[] levels, long maxCombinations) {
+    this.searcher = searcher;
+    this.levels = levels;
+    this.maxCombinations = maxCombinations;
+  }
+
+  /**
+   * Returns a counter for the pivot on <code>fields</code>, or null if the pivot needs anything but the
+   * counts of the terms of its fields.
+   *
+   * @param params the params of the pivot, used for the term counts of each level
+   * @param keepParams the params used to filter the values of each level by their mincount
+   */
+  static PivotFacetCounter create(SolrIndexSearcher searcher, List<String> fields,
+                                  SolrParams params, SolrParams keepParams) throws IOException {
+    return create(searcher, fields, params, keepParams, MAX_COMBINATIONS);
+  }
+
+  /**
+   * Same as {@link #create(SolrIndexSearcher, List, SolrParams, SolrParams)}, but {@link #getPivots} gives up
+   * after counting <code>maxCombinations</code> distinct combinations of values.
+   */
+  static PivotFacetCounter create(SolrIndexSearcher searcher, List<String> fields,
+                                  SolrParams params, SolrParams keepParams, int maxCombinations)
+      throws IOException {
+    final Level[] levels = new Level[fields.size()];
+    long maxKey = 1;
+    // the number of combinations the keys can tell apart, which bounds the distinct combinations of the docs
+    long numKeys = 0;
+    for (int i = 0; i < levels.length; i++) {
+      final String field = fields.get(i);
+      final SchemaField sf = searcher.getSchema().getField(field);
+      final FieldType ft = sf.getType();
+      if (!sf.hasDocValues() || !(ft instanceof StrField || ft instanceof BoolField)) {
+        return null;
+      }
+
+      final String prefix = params.getFieldParam(field, FacetParams.FACET_PREFIX);
+      if ((prefix != null && !prefix.isEmpty())
+          || params.getFieldParam(field, FacetParams.FACET_CONTAINS) != null
+          || params.getFieldParam(field, FacetParams.FACET_MATCHES) != null
+          || params.getFieldParam(field, FacetParams.FACET_EXCLUDETERMS) != null
+          || params.getFieldBool(field, FacetParams.FACET_EXISTS, false)
+          || params.getFieldBool(field, GroupParams.GROUP_FACET, false)) {
+        return null;
+      }
+
+      final Level level = new Level(sf);
+      level.offset = params.getFieldInt(field, FacetParams.FACET_OFFSET, 0);
+      level.limit = params.getFieldInt(field, FacetParams.FACET_LIMIT, 100);
+      level.missing = params.getFieldBool(field, FacetParams.FACET_MISSING, false);
+      level.mincount = params.getFieldInt(field, FacetParams.FACET_PIVOT_MINCOUNT, 1);
+      level.keepMincount = keepParams.getFieldInt(field, FacetParams.FACET_PIVOT_MINCOUNT, 1);
+      if (level.mincount <= 0 || level.keepMincount <= 0) {
+        // values with no docs are listed from the terms
+        return null;
+      }
+      final String sort = params.getFieldParam(field, FacetParams.FACET_SORT,
+          level.limit > 0 ? FacetParams.FACET_SORT_COUNT : FacetParams.FACET_SORT_INDEX);
+      if (FacetParams.FACET_SORT_COUNT.equals(sort) || FacetParams.FACET_SORT_COUNT_LEGACY.equals(sort)) {
+        level.sortByCount = true;
+      } else if (!FacetParams.FACET_SORT_INDEX.equals(sort) && !FacetParams.FACET_SORT_INDEX_LEGACY.equals(sort)) {
+        return null;
+      }
+
+      if (sf.multiValued() || ft.multiValuedFieldCache()) {
+        final SortedSetDocValues values = searcher.getSlowAtomicReader().getSortedSetDocValues(field);
+        level.values = values;
+        if (values instanceof MultiDocValues.MultiSortedSetDocValues) {
+          level.ordinalMap = ((MultiDocValues.MultiSortedSetDocValues) values).mapping;
+        }
+      } else {
+        final SortedDocValues values = searcher.getSlowAtomicReader().getSortedDocValues(field);
+        level.values = values == null ? null : DocValues.singleton(values);
+        if (values instanceof MultiDocValues.MultiSortedDocValues) {
+          level.ordinalMap = ((MultiDocValues.MultiSortedDocValues) values).mapping;
+        }
+      }
+      final long valueCount = level.values == null ? 0 : level.values.getValueCount();
+      if (valueCount >= Integer.MAX_VALUE) {
+        return null;
+      }
+      level.radix = valueCount + 1;
+      try {
+        maxKey = Math.multiplyExact(maxKey, level.radix);
+      } catch (ArithmeticException e) {
+        // too many combinations of values for the keys of the last level
+        return null;
+      }
+      numKeys = numKeys + maxKey < 0 ? Long.MAX_VALUE : numKeys + maxKey;
+      levels[i] = level;
+    }
+    // no need to count the combinations if there can't be too many of them
+    return new PivotFacetCounter(searcher, levels, numKeys <= maxCombinations ? Long.MAX_VALUE : maxCombinations);
+  }
+
+  /**
+   * Counts the values of all levels over <code>docs</code>, and returns them in the format of
+   * {@link PivotFacetProcessor#doPivots}, or null if the docs have more distinct combinations of values
+   * than this counter counts.
+   */
+  List<NamedList<Object>> getPivots(DocSet docs) throws IOException {
+    if (!count(docs)) {
+      return null;
+    }
+    for (Level level : levels) {
+      level.sortKeys();
+    }
+    final List<NamedList<Object>> pivots = pivots(0, 0L);
+    return pivots == null ? new ArrayList<>() : pivots;
+  }
+
+  /** Returns false if the docs have too many distinct combinations of values. */
+  private boolean count(DocSet docs) throws IOException {
+    final int numLevels = levels.length;
+    final SortedSetDocValues[] segValues = new SortedSetDocValues[numLevels];
+    final LongValues[] globalOrds = new LongValues[numLevels];
+    // the ordinals plus one of the values of the current doc, or just 0 if it has none
+    final int[][] ords = new int[numLevels][];
+    final int[] numOrds = new int[numLevels];
+    for (int l = 0; l < numLevels; l++) {
+      ords[l] = new int[1];
+    }
+
+    final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    for (int subIndex = 0; subIndex < leaves.size(); subIndex++) {
+      final LeafReaderContext leaf = leaves.get(subIndex);
+      final DocIdSetIterator disi = docs.iterator(leaf); // solr docsets already exclude any deleted docs
+      if (disi == null) {
+        continue;
+      }
+      for (int l = 0; l < numLevels; l++) {
+        segValues[l] = levels[l].segmentValues(leaf.reader());
+        globalOrds[l] = levels[l].ordinalMap == null ? null : levels[l].ordinalMap.getGlobalOrds(subIndex);
+      }
+
+      int doc;
+      while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        for (int l = 0; l < numLevels; l++) {
+          final SortedSetDocValues values = segValues[l];
+          int n = 0;
+          if (values.advanceExact(doc)) {
+            for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values.nextOrd()) {
+              if (n == ords[l].length) {
+                ords[l] = ArrayUtil.grow(ords[l]);
+              }
+              ords[l][n++] = (int) (globalOrds[l] == null ? ord : globalOrds[l].get(ord)) + 1;
+            }
+          }
+          if (n == 0) {
+            ords[l][n++] = 0;
+          }
+          numOrds[l] = n;
+        }
+        accumulate(0, 0L, ords, numOrds);
+        if (numCombinations > maxCombinations) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Counts each combination of the values of the current doc, from <code>level</code> down. */
+  private void accumulate(int level, long parentKey, int[][] ords, int[] numOrds) {
+    final Level lvl = levels[level];
+    final int[] levelOrds = ords[level];
+    for (int i = 0; i < numOrds[level]; i++) {
+      final long key = parentKey * lvl.radix + levelOrds[i];
+      if (lvl.counts.addTo(key, 1) == 1) {
+        numCombinations++;
+      }
+      if (level + 1 < levels.length) {
+        accumulate(level + 1, key, ords, numOrds);
+      }
+    }
+  }
+
+  /**
+   * The values of <code>level</code> under the value with key <code>parentKey</code>, or null if the term
+   * counts of the level don't list any value, not even the missing one.
+   */
+  private List<NamedList<Object>> pivots(int level, long parentKey) throws IOException {
+    final Level lvl = levels[level];
+    final long lo = parentKey * lvl.radix;
+    final int start = lowerBound(lvl.keys, lo);
+    final int end = lowerBound(lvl.keys, lo + lvl.radix);
+    int first = start;
+    int missingCount = 0;
+    if (first < end && lvl.keys[first] == lo) {
+      missingCount = lvl.keyCounts[first++];
+    }
+
+    final int[] selected = lvl.select(first, end);
+    if (selected.length == 0 && !lvl.missing) {
+      return null;
+    }
+
+    final List<NamedList<Object>> values = new ArrayList<>(selected.length + 1);
+    for (int i : selected) {
+      final long key = lvl.keys[i];
+      final int ord = (int) (key - lo) - 1;
+      addPivot(values, level, key, lvl.ft.toObject(lvl.sf, lvl.values.lookupOrd(ord)), lvl.keyCounts[i]);
+    }
+    if (lvl.missing) {
+      addPivot(values, level, lo, null, missingCount);
+    }
+    return values;
+  }
+
+  private void addPivot(List<NamedList<Object>> values, int level, long key, Object value, int count)
+      throws IOException {
+    final Level lvl = levels[level];
+    if (count < lvl.keepMincount) {
+      return;
+    }
+    final SimpleOrderedMap<Object> pivot = new SimpleOrderedMap<>();
+    pivot.add("field", lvl.sf.getName());
+    pivot.add("value", value);
+    pivot.add("count", count);
+    if (level + 1 < levels.length) {
+      final List<NamedList<Object>> subPivots = pivots(level + 1, key);
+      if (subPivots != null) {
+        pivot.add("pivot", subPivots);
+      }
+    }
+    values.add(pivot);
+  }
+
+  /** The index of the first key that is greater or equal to <code>key</code>. */
+  private static int lowerBound(long[] keys, long key) {
+    final int idx = Arrays.binarySearch(keys, key);
+    return idx < 0 ? -idx - 1 : idx;
+  }
+
+  /** The counts of the values of one field of the pivot, and the params of its term counts. */
+  private static final class Level {
+    final SchemaField sf;
+    final FieldType ft;
+    SortedSetDocValues values; // for term lookups only, null if the field has no values
+    OrdinalMap ordinalMap; // for mapping per-segment ords to global ones
+    long radix;
+
+    int offset;
+    int limit;
+    boolean missing;
+    boolean sortByCount;
+    int mincount;
+    int keepMincount;
+
+    LongIntHashMap counts = new LongIntHashMap();
+    long[] keys;
+    int[] keyCounts;
+
+    Level(SchemaField sf) {
+      this.sf = sf;
+      this.ft = sf.getType();
+    }
+
+    SortedSetDocValues segmentValues(LeafReader reader) throws IOException {
+      return values == null ? DocValues.emptySortedSet() : DocValues.getSortedSet(reader, sf.getName());
+    }
+
+    void sortKeys() {
+      keys = counts.keys().toArray();
+      Arrays.sort(keys);
+      keyCounts = new int[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        keyCounts[i] = counts.get(keys[i]);
+      }
+      counts = null;
+    }
+
+    /**
+     * Returns the indexes of the keys in [start, end) listed by the term counts of this level, in the order
+     * they are listed.  The keys in that range are the values of one parent, in index order.
+     */
+    int[] select(int start, int end) {
+      if (limit == 0) {
+        return new int[0];
+      }
+      final int lim = limit > 0 ? limit : Integer.MAX_VALUE;
+      if (sortByCount) {
+        // higher counts first, then smaller ordinals
+        long[] pairs = new long[end - start];
+        int numPairs = 0;
+        for (int i = start; i < end; i++) {
+          if (keyCounts[i] >= mincount) {
+            pairs[numPairs++] = (((long) keyCounts[i]) << 32) + (Integer.MAX_VALUE - (i - start));
+          }
+        }
+        Arrays.sort(pairs, 0, numPairs);
+        final int from = numPairs - 1 - offset;
+        final int num = Math.max(0, Math.min(lim, from + 1));
+        final int[] selected = new int[num];
+        for (int j = 0; j < num; j++) {
+          selected[j] = start + (Integer.MAX_VALUE - (int) pairs[from - j]);
+        }
+        return selected;
+      } else {
+        int[] selected = new int[Math.min(end - start, lim)];
+        int num = 0;
+        int skip = offset;
+        for (int i = start; i < end && num < lim; i++) {
+          if (keyCounts[i] >= mincount && --skip < 0) {
+            selected[num++] = i;
+          }
+        }
+        return ArrayUtil.copyOfSubArray(selected, 0, num);
+      }
+    }
+  }
+}
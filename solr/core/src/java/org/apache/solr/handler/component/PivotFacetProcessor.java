@@ -191,6 +191,17 @@ public class PivotFacetProcessor extends SimpleFacets
     SolrIndexSearcher searcher = rb.req.getSearcher();
     SimpleOrderedMap<List<NamedList<Object>>> pivotResponse = new SimpleOrderedMap<>();
 
+    if (null == refinements && statsFields.isEmpty() && facetQueries.isEmpty() && facetRanges.isEmpty()) {
+      // nothing is computed per value: count all the levels at once
+      PivotFacetCounter counter = PivotFacetCounter.create(searcher, pivotFields, parsed.params, params);
+      List<NamedList<Object>> pivots = null == counter ? null : counter.getPivots(parsed.docs);
+      if (null != pivots) {
+        pivotResponse.add(parsed.key, pivots);
+        return pivotResponse;
+      }
+      // else too many combinations of values to count them all at once
+    }
+
     String field = pivotFields.get(0);
     SchemaField sfield = searcher.getSchema().getField(field);
       
@@ -365,6 +365,7 @@ public class QueryComponent extends SearchComponent
     QueryCommand cmd = rb.createQueryCommand();
     cmd.setTimeAllowed(timeAllowed);
     cmd.setMinExactCount(getMinExactCount(params));
+    cmd.setMultiThreaded(params.getBool(CommonParams.MULTI_THREADED, CommonParams.MULTI_THREADED_DEFAULT));
 
     boolean isCancellableQuery = params.getBool(CommonParams.IS_QUERY_CANCELLABLE, false);
 
@@ -863,9 +864,9 @@ public class QueryComponent extends SearchComponent
       // id to shard mapping, to eliminate any accidental dups
       HashMap<Object,String> uniqueDoc = new HashMap<>();
 
-      // Merge the docs via a priority queue so we don't have to sort *all* of the
-      // documents... we only need to order the top (rows+start)
-      final ShardFieldSortedHitQueue queue = new ShardFieldSortedHitQueue(sortFields, ss.getOffset() + ss.getCount(), rb.req.getSearcher());
+      // Each shard's docs are usually already sorted, so merge them shard by shard and only
+      // create ShardDocs for the top (rows+start)
+      final ShardTopDocsMerger merger = new ShardTopDocsMerger(sortFields, rb.req.getSearcher());
 
       NamedList<Object> shardInfo = null;
       if(rb.req.getParams().getBool(ShardParams.SHARDS_INFO, false)) {
@@ -961,8 +962,10 @@ public class QueryComponent extends SearchComponent
         }
         NamedList<List<Object>> unmarshalledSortFieldValues = unmarshalSortValues(ss, sortFieldValues, schema);
 
-        // go through every doc in this response, construct a ShardDoc, and
-        // put it in the priority queue so it can be ordered.
+        // go through every doc in this response and collect its id and score
+        // so they can be merged with the docs of the other shards.
+        final Object[] ids = new Object[docs.size()];
+        final float[] scores = new float[docs.size()];
         for (int i=0; i<docs.size(); i++) {
           SolrDocument doc = docs.get(i);
           Object id = doc.getFieldValue(uniqueKeyField.getName());
@@ -983,34 +986,30 @@ public class QueryComponent extends SearchComponent
             // }
           }
 
-          ShardDoc shardDoc = new ShardDoc();
-          shardDoc.id = id;
-          shardDoc.shard = srsp.getShard();
-          shardDoc.orderInShard = i;
+          ids[i] = id;
+          scores[i] = Float.NaN;
           Object scoreObj = doc.getFieldValue("score");
           if (scoreObj != null) {
             if (scoreObj instanceof String) {
-              shardDoc.score = Float.parseFloat((String)scoreObj);
+              scores[i] = Float.parseFloat((String)scoreObj);
             } else {
-              shardDoc.score = (Float)scoreObj;
+              scores[i] = (Float)scoreObj;
             }
           }
-
-          shardDoc.sortFieldValues = unmarshalledSortFieldValues;
-
-          queue.insertWithOverflow(shardDoc);
         } // end for-each-doc-in-response
+
+        merger.add(srsp.getShard(), ids, scores, unmarshalledSortFieldValues);
       } // end for-each-response
       
-      // The queue now has 0 -> queuesize docs, where queuesize <= start + rows
-      // So we want to pop the last documents off the queue to get
-      // the docs offset -> queuesize
-      int resultSize = queue.size() - ss.getOffset();
+      // The merged list has 0 -> size docs, where size <= start + rows
+      // and we want the docs offset -> size
+      final List<ShardDoc> topDocs = merger.top(ss.getOffset() + ss.getCount());
+      int resultSize = topDocs.size() - ss.getOffset();
       resultSize = Math.max(0, resultSize);  // there may not be any docs in range
 
       Map<Object,ShardDoc> resultIds = new HashMap<>();
-      for (int i=resultSize-1; i>=0; i--) {
-        ShardDoc shardDoc = queue.pop();
+      for (int i=0; i<resultSize; i++) {
+        ShardDoc shardDoc = topDocs.get(ss.getOffset() + i);
         shardDoc.positionInResponse = i;
         // Need the toString() for correlation with other lists that must
         // be strings (like keys in highlighting, explain, etc)
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.client.solrj.impl.LBSolrClient;
+
+/**
+ * Keeps the latencies of the most recent requests to each replica (by url) that the shard handlers
+ * sent, to tell how long a replica usually takes to answer, along with their moving average and the
+ * number of requests to the replica still in flight. Urls are normalized like {@link LBSolrClient} does.
+ */
+class ReplicaLatencyTracker {
+  /** the number of latencies kept per replica */
+  static final int SAMPLES = 256;
+  /** a replica's percentiles aren't known before it answered this many requests */
+  static final int MIN_SAMPLES = 32;
+  // percentiles are only recomputed after this many new latencies
+  private static final int RECOMPUTE_INTERVAL = 16;
+  /** the weight of a new latency in a replica's moving average */
+  static final double EWMA_ALPHA = 0.2;
+
+  private final ConcurrentHashMap<String, Latencies> replicas = new ConcurrentHashMap<>();
+
+  void record(String url, long nanos) {
+    get(url).add(nanos);
+  }
+
+  /** Counts a request to the replica as in flight, until {@link #finished(String)} is called for it */
+  void started(String url) {
+    get(url).inFlight.incrementAndGet();
+  }
+
+  void finished(String url) {
+    get(url).inFlight.decrementAndGet();
+  }
+
+  /** Returns the number of requests to the replica still in flight */
+  int inFlight(String url) {
+    Latencies latencies = replicas.get(LBSolrClient.normalize(url));
+    return latencies == null ? 0 : latencies.inFlight.get();
+  }
+
+  /**
+   * Returns the exponentially weighted moving average of the replica's latencies (in nanoseconds),
+   * or -1 if it hasn't answered yet.
+   */
+  double ewma(String url) {
+    Latencies latencies = replicas.get(LBSolrClient.normalize(url));
+    return latencies == null ? -1 : latencies.ewma;
+  }
+
+  /**
+   * Returns the latency (in nanoseconds) of the replica's recent requests at the given percentile,
+   * or -1 if there aren't enough of them yet.
+   */
+  long percentile(String url, double percentile) {
+    Latencies latencies = replicas.get(LBSolrClient.normalize(url));
+    return latencies == null ? -1 : latencies.percentile(percentile);
+  }
+
+  /** Adds each known replica's moving average (in milliseconds) and requests in flight to the map, for metrics */
+  void toMap(Map<String, Object> map) {
+    replicas.forEach((url, latencies) -> map.put(url,
+        Map.of("ewmaMs", latencies.ewma < 0 ? -1 : latencies.ewma / 1_000_000, "inFlight", latencies.inFlight.get())));
+  }
+
+  private Latencies get(String url) {
+    return replicas.computeIfAbsent(LBSolrClient.normalize(url), k -> new Latencies());
+  }
+
+  private static class Latencies {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double ewma = -1;
+    private final long[] samples = new long[SAMPLES];
+    private int count;
+    private int next;
+    private int added;
+    private double cachedFor = -1;
+    private long cached = -1;
+
+    synchronized void add(long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % SAMPLES;
+      count = Math.min(count + 1, SAMPLES);
+      added++;
+      ewma = ewma < 0 ? nanos : ewma + EWMA_ALPHA * (nanos - ewma);
+    }
+
+    synchronized long percentile(double percentile) {
+      if (count < MIN_SAMPLES) {
+        return -1;
+      }
+      if (cachedFor != percentile || added >= RECOMPUTE_INTERVAL) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        cached = sorted[Math.max(0, Math.min(count - 1, index))];
+        cachedFor = percentile;
+        added = 0;
+      }
+      return cached;
+    }
+  }
+}
@@ -89,13 +89,7 @@ public class ShardFieldSortedHitQueue extends PriorityQueue<ShardDoc> {
     }
 
 
-    // run comparators
-    final int n = comparators.length;
-    int c = 0;
-    for (int i = 0; i < n && c == 0; i++) {
-      c = (fields[i].getReverse()) ? comparators[i].compare(docB, docA)
-          : comparators[i].compare(docA, docB);
-    }
+    int c = compareSortValues(docA, docB);
 
     // solve tiebreaks by comparing shards (similar to using docid)
     // smaller docid's beat larger ids, so reverse the natural ordering
@@ -106,6 +100,21 @@ public class ShardFieldSortedHitQueue extends PriorityQueue<ShardDoc> {
     return c < 0;
   }
 
+  /**
+   * Compares the sort values of two docs, whatever their shards; a negative result means that <code>docA</code>
+   * sorts after <code>docB</code>.
+   */
+  int compareSortValues(ShardDoc docA, ShardDoc docB) {
+    // run comparators
+    final int n = comparators.length;
+    int c = 0;
+    for (int i = 0; i < n && c == 0; i++) {
+      c = (fields[i].getReverse()) ? comparators[i].compare(docB, docA)
+          : comparators[i].compare(docA, docB);
+    }
+    return c;
+  }
+
   Comparator<ShardDoc> getCachedComparator(SortField sortField, IndexSearcher searcher) {
     SortField.Type type = sortField.getType();
     if (type == SortField.Type.SCORE) {
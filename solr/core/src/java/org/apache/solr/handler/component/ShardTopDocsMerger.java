@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.PriorityQueue;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Merges the top docs the shards return in the first (ids) phase of a distributed search.
+ * <p>
+ * Each shard's docs are kept as columns (ids, scores and the shard's <code>sort_values</code> lists)
+ * instead of a {@link ShardDoc} per doc. Since every shard returns its docs already sorted, the top
+ * docs are found with a k-way merge over a heap of one cursor per shard, ordered by the
+ * {@link ShardFieldSortedHitQueue} comparators, and only the docs that are returned become
+ * {@link ShardDoc}s.
+ * <p>
+ * A shard's docs may not be sorted by the sort values it returns, for instance when a rank query reorders only
+ * the top ones. The docs of all shards then go through a {@link ShardFieldSortedHitQueue} as they used to, so
+ * that the merged order doesn't change.
+ */
+class ShardTopDocsMerger {
+  private final SortField[] sortFields;
+  private final IndexSearcher searcher;
+  // only used to compare docs
+  private final ShardFieldSortedHitQueue queue;
+  private final List<Cursor> cursors = new ArrayList<>();
+  private boolean sorted = true;
+
+  ShardTopDocsMerger(SortField[] sortFields, IndexSearcher searcher) {
+    this.sortFields = sortFields;
+    this.searcher = searcher;
+    this.queue = new ShardFieldSortedHitQueue(sortFields, 0, searcher);
+  }
+
+  /**
+   * Adds the docs of a shard, in the order the shard returned them.
+   * @param ids the ids of the docs; a null id is a doc to skip (a duplicate of a doc of another shard)
+   * @param scores the scores of the docs, NaN if there is none
+   */
+  void add(String shard, Object[] ids, float[] scores, NamedList<List<Object>> sortFieldValues) {
+    Cursor cursor = new Cursor(ids, scores);
+    cursor.shard = shard;
+    cursor.sortFieldValues = sortFieldValues;
+    cursor.orderInShard = -1;
+    if (cursor.advance()) {
+      cursors.add(cursor);
+      sorted = sorted && isSorted(cursor);
+    }
+  }
+
+  // true if no doc of the shard sorts before the previous one
+  private boolean isSorted(Cursor first) {
+    ShardDoc previous = newShardDoc(first);
+    Cursor cursor = new Cursor(first.ids, first.scores);
+    cursor.shard = first.shard;
+    cursor.sortFieldValues = first.sortFieldValues;
+    cursor.orderInShard = first.orderInShard;
+    while (cursor.advance()) {
+      if (queue.compareSortValues(previous, cursor) < 0) {
+        return false;
+      }
+      previous = newShardDoc(cursor);
+    }
+    return true;
+  }
+
+  /** Returns (at most) the top <code>n</code> docs of all shards, best first. */
+  List<ShardDoc> top(int n) {
+    if (!sorted) {
+      return topOfQueue(n);
+    }
+
+    PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(cursors.size()) {
+      @Override
+      protected boolean lessThan(Cursor a, Cursor b) {
+        // the hit queue keeps the largest docs; here the best doc has to be on top
+        return queue.lessThan(b, a);
+      }
+    };
+    for (Cursor cursor : cursors) {
+      heap.add(cursor);
+    }
+
+    List<ShardDoc> top = new ArrayList<>(Math.min(n, 1024));
+    while (top.size() < n && heap.size() > 0) {
+      Cursor best = heap.top();
+      top.add(newShardDoc(best));
+
+      if (best.advance()) {
+        heap.updateTop();
+      } else {
+        heap.pop();
+      }
+    }
+    return top;
+  }
+
+  // creates a ShardDoc for every doc, in the order the shards returned them, and keeps the top n in a hit queue
+  private List<ShardDoc> topOfQueue(int n) {
+    ShardFieldSortedHitQueue hitQueue = new ShardFieldSortedHitQueue(sortFields, n, searcher);
+    for (Cursor cursor : cursors) {
+      cursor.orderInShard = -1;
+      while (cursor.advance()) {
+        hitQueue.insertWithOverflow(newShardDoc(cursor));
+      }
+    }
+    ShardDoc[] top = new ShardDoc[hitQueue.size()];
+    for (int i = top.length - 1; i >= 0; i--) {
+      top[i] = hitQueue.pop();
+    }
+    return Arrays.asList(top);
+  }
+
+  private static ShardDoc newShardDoc(Cursor cursor) {
+    ShardDoc shardDoc = new ShardDoc();
+    shardDoc.id = cursor.id;
+    shardDoc.shard = cursor.shard;
+    shardDoc.orderInShard = cursor.orderInShard;
+    shardDoc.score = cursor.score;
+    shardDoc.sortFieldValues = cursor.sortFieldValues;
+    return shardDoc;
+  }
+
+  /** The current doc of a shard; its fields are those of the doc at <code>orderInShard</code> */
+  private static class Cursor extends ShardDoc {
+    final Object[] ids;
+    final float[] scores;
+
+    Cursor(Object[] ids, float[] scores) {
+      this.ids = ids;
+      this.scores = scores;
+    }
+
+    /** Moves to the next doc that isn't skipped, returns false if there is none */
+    boolean advance() {
+      while (++orderInShard < ids.length) {
+        if (ids[orderInShard] != null) {
+          id = ids[orderInShard];
+          score = scores[orderInShard];
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues.MultiSortedDocValues;
+import org.apache.lucene.index.MultiDocValues.MultiSortedSetDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.packed.PackedInts;
+
+/**
+ * A JVM wide cache of the {@link OrdinalMap}s that map the per-segment ords of a string field to global ords,
+ * so that a reader over the same segments as a previous reader, such as the reader of a new searcher after a
+ * commit that only deleted documents, does not build the map again.
+ * <p>
+ * An entry is keyed on the field and on the core keys of the segments, and is removed when one of its segments
+ * is closed, or when a map is built for the same field over a newer set of segments sharing a segment with it.
+ * This keeps about one map per field of an index, the map of the newest reader.
+ * </p>
+ */
+public final class OrdinalMapCache {
+
+  private static final OrdinalMapCache INSTANCE = new OrdinalMapCache();
+
+  private final Map<Key, OrdinalMap> entries = new HashMap<>();
+  // the keys of the entries of each segment, so that the entries can be removed when the segment is closed
+  private final Map<IndexReader.CacheKey, Set<Key>> segmentEntries = new HashMap<>();
+
+  private OrdinalMapCache() {
+  }
+
+  /**
+   * Returns a view of the sorted doc values of the segments of <code>r</code> with global ords, like
+   * {@link org.apache.lucene.index.MultiDocValues#getSortedValues(IndexReader, String)}, using the cached
+   * ordinal map if there is one.
+   */
+  public static SortedDocValues getSortedValues(IndexReader r, String field) throws IOException {
+    final List<LeafReaderContext> leaves = r.leaves();
+    final int size = leaves.size();
+    if (size == 0) {
+      return null;
+    } else if (size == 1) {
+      return leaves.get(0).reader().getSortedDocValues(field);
+    }
+
+    boolean anyReal = false;
+    final SortedDocValues[] values = new SortedDocValues[size];
+    final int[] starts = new int[size + 1];
+    final long[] valueCounts = new long[size];
+    long totalCost = 0;
+    for (int i = 0; i < size; i++) {
+      LeafReaderContext context = leaves.get(i);
+      SortedDocValues v = context.reader().getSortedDocValues(field);
+      if (v == null) {
+        v = DocValues.emptySorted();
+      } else {
+        anyReal = true;
+      }
+      values[i] = v;
+      starts[i] = context.docBase;
+      valueCounts[i] = v.getValueCount();
+      totalCost += v.cost();
+    }
+    starts[size] = r.maxDoc();
+    if (!anyReal) {
+      return null;
+    }
+
+    final Key key = Key.of(leaves, field, DocValuesType.SORTED, valueCounts);
+    OrdinalMap mapping = INSTANCE.get(key);
+    if (mapping == null) {
+      mapping = OrdinalMap.build(ownerOf(r), values, PackedInts.DEFAULT);
+      INSTANCE.put(key, mapping);
+    }
+    return new MultiSortedDocValues(values, starts, mapping, totalCost);
+  }
+
+  /**
+   * Returns a view of the sorted set doc values of the segments of <code>r</code> with global ords, like
+   * {@link org.apache.lucene.index.MultiDocValues#getSortedSetValues(IndexReader, String)}, using the cached
+   * ordinal map if there is one.
+   */
+  public static SortedSetDocValues getSortedSetValues(IndexReader r, String field) throws IOException {
+    final List<LeafReaderContext> leaves = r.leaves();
+    final int size = leaves.size();
+    if (size == 0) {
+      return null;
+    } else if (size == 1) {
+      return leaves.get(0).reader().getSortedSetDocValues(field);
+    }
+
+    boolean anyReal = false;
+    final SortedSetDocValues[] values = new SortedSetDocValues[size];
+    final int[] starts = new int[size + 1];
+    final long[] valueCounts = new long[size];
+    long totalCost = 0;
+    for (int i = 0; i < size; i++) {
+      LeafReaderContext context = leaves.get(i);
+      SortedSetDocValues v = context.reader().getSortedSetDocValues(field);
+      if (v == null) {
+        v = DocValues.emptySortedSet();
+      } else {
+        anyReal = true;
+      }
+      values[i] = v;
+      starts[i] = context.docBase;
+      valueCounts[i] = v.getValueCount();
+      totalCost += v.cost();
+    }
+    starts[size] = r.maxDoc();
+    if (!anyReal) {
+      return null;
+    }
+
+    final Key key = Key.of(leaves, field, DocValuesType.SORTED_SET, valueCounts);
+    OrdinalMap mapping = INSTANCE.get(key);
+    if (mapping == null) {
+      final TermsEnum[] subs = new TermsEnum[size];
+      for (int i = 0; i < size; i++) {
+        subs[i] = values[i].termsEnum();
+      }
+      mapping = OrdinalMap.build(ownerOf(r), subs, valueCounts, PackedInts.DEFAULT);
+      INSTANCE.put(key, mapping);
+    }
+    return new MultiSortedSetDocValues(values, starts, mapping, totalCost);
+  }
+
+  private static IndexReader.CacheKey ownerOf(IndexReader r) {
+    IndexReader.CacheHelper cacheHelper = r.getReaderCacheHelper();
+    return cacheHelper == null ? null : cacheHelper.getKey();
+  }
+
+  /** Returns the number of cached ordinal maps. */
+  public static int size() {
+    synchronized (INSTANCE) {
+      return INSTANCE.entries.size();
+    }
+  }
+
+  /** Returns the heap used by the cached ordinal maps, in bytes. */
+  public static long ramBytesUsed() {
+    synchronized (INSTANCE) {
+      long bytes = 0;
+      for (OrdinalMap map : INSTANCE.entries.values()) {
+        bytes += map.ramBytesUsed();
+      }
+      return bytes;
+    }
+  }
+
+  private synchronized OrdinalMap get(Key key) {
+    return key == null ? null : entries.get(key);
+  }
+
+  private void put(Key key, OrdinalMap map) {
+    if (key == null) {
+      return;
+    }
+    final List<IndexReader.CacheHelper> newSegments = new ArrayList<>();
+    synchronized (this) {
+      // a map over older segments of the same index is superseded by this one
+      Set<Key> superseded = new HashSet<>();
+      for (IndexReader.CacheKey segment : key.segments) {
+        Set<Key> keys = segmentEntries.get(segment);
+        if (keys != null) {
+          for (Key other : keys) {
+            if (other.field.equals(key.field) && other.type == key.type) {
+              superseded.add(other);
+            }
+          }
+        }
+      }
+      for (Key other : superseded) {
+        remove(other);
+      }
+
+      entries.put(key, map);
+      for (int i = 0; i < key.segments.length; i++) {
+        Set<Key> keys = segmentEntries.get(key.segments[i]);
+        if (keys == null) {
+          keys = new HashSet<>();
+          segmentEntries.put(key.segments[i], keys);
+          newSegments.add(key.cacheHelpers[i]);
+        }
+        keys.add(key);
+      }
+    }
+    // not while holding the lock: the listeners are called while the segment holds the lock of its listeners
+    for (IndexReader.CacheHelper cacheHelper : newSegments) {
+      cacheHelper.addClosedListener(this::segmentClosed);
+    }
+  }
+
+  private synchronized void segmentClosed(IndexReader.CacheKey segment) {
+    Set<Key> keys = segmentEntries.get(segment);
+    if (keys != null) {
+      for (Key key : new ArrayList<>(keys)) {
+        remove(key);
+      }
+    }
+    // the listener of a segment is only registered once
+    segmentEntries.remove(segment);
+  }
+
+  private void remove(Key key) {
+    assert Thread.holdsLock(this);
+    entries.remove(key);
+    for (IndexReader.CacheKey segment : key.segments) {
+      Set<Key> keys = segmentEntries.get(segment);
+      if (keys != null) {
+        keys.remove(key);
+      }
+    }
+  }
+
+  private static final class Key {
+    final String field;
+    final DocValuesType type;
+    final IndexReader.CacheKey[] segments;
+    final IndexReader.CacheHelper[] cacheHelpers;
+    // guards against a segment being read differently, such as a field uninverted with another schema
+    final long[] valueCounts;
+    final int hashCode;
+
+    private Key(String field, DocValuesType type, IndexReader.CacheHelper[] cacheHelpers, long[] valueCounts) {
+      this.field = field;
+      this.type = type;
+      this.cacheHelpers = cacheHelpers;
+      this.segments = new IndexReader.CacheKey[cacheHelpers.length];
+      for (int i = 0; i < cacheHelpers.length; i++) {
+        segments[i] = cacheHelpers[i].getKey();
+      }
+      this.valueCounts = valueCounts;
+      this.hashCode = 31 * (31 * field.hashCode() + type.hashCode()) + Arrays.hashCode(segments);
+    }
+
+    /** Returns the key of the ordinal map of the field over the leaves, or null if a leaf can not be cached. */
+    static Key of(List<LeafReaderContext> leaves, String field, DocValuesType type, long[] valueCounts) {
+      final IndexReader.CacheHelper[] cacheHelpers = new IndexReader.CacheHelper[leaves.size()];
+      for (int i = 0; i < cacheHelpers.length; i++) {
+        cacheHelpers[i] = leaves.get(i).reader().getCoreCacheHelper();
+        if (cacheHelpers[i] == null) {
+          return null;
+        }
+      }
+      return new Key(field, type, cacheHelpers, valueCounts);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Key)) return false;
+      Key other = (Key) obj;
+      // the cache keys are compared by identity
+      return field.equals(other.field) && type == other.type && Arrays.equals(segments, other.segments)
+          && Arrays.equals(valueCounts, other.valueCounts);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -18,7 +18,9 @@ package org.apache.solr.index;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.index.*;
@@ -158,11 +160,12 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
       map = cachedOrdMaps.get(field);
       if (map == null) {
         // uncached, or not a multi dv
-        SortedDocValues dv = MultiDocValues.getSortedValues(in, field);
+        SortedDocValues dv = OrdinalMapCache.getSortedValues(in, field);
         if (dv instanceof MultiSortedDocValues) {
           map = ((MultiSortedDocValues)dv).mapping;
+          // the map may have been built by a previous reader over the same segments
           IndexReader.CacheHelper cacheHelper = getReaderCacheHelper();
-          if (cacheHelper != null && map.owner == cacheHelper.getKey()) {
+          if (cacheHelper != null) {
             cachedOrdMaps.put(field, map);
           }
         }
@@ -200,11 +203,11 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
       map = cachedOrdMaps.get(field);
       if (map == null) {
         // uncached, or not a multi dv
-        SortedSetDocValues dv = MultiDocValues.getSortedSetValues(in, field);
+        SortedSetDocValues dv = OrdinalMapCache.getSortedSetValues(in, field);
         if (dv instanceof MultiDocValues.MultiSortedSetDocValues) {
           map = ((MultiDocValues.MultiSortedSetDocValues)dv).mapping;
           IndexReader.CacheHelper cacheHelper = getReaderCacheHelper();
-          if (cacheHelper != null && map.owner == cacheHelper.getKey()) {
+          if (cacheHelper != null) {
             cachedOrdMaps.put(field, map);
           }
         }
@@ -236,6 +239,13 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
     return new MultiDocValues.MultiSortedSetDocValues(values, starts, map, cost);
   }
 
+  /** Returns the fields with a cached map of segment ords to global ords, for warming the maps of a new reader. */
+  public Set<String> getCachedOrdinalMapFields() {
+    synchronized (cachedOrdMaps) {
+      return new HashSet<>(cachedOrdMaps.keySet());
+    }
+  }
+
   @Override
   public NumericDocValues getNormValues(String field) throws IOException {
     ensureOpen();
@@ -35,6 +35,7 @@ import org.apache.lucene.search.TotalHits;
 import org.apache.solr.client.solrj.impl.BinaryResponseParser;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.FastOutputStream;
 import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.Utf8CharSequence;
@@ -57,8 +58,11 @@ public class BinaryResponseWriter implements BinaryQueryResponseWriter {
   public void write(OutputStream out, SolrQueryRequest req, SolrQueryResponse response) throws IOException {
     Resolver resolver = new Resolver(req, response.getReturnFields());
     if (req.getParams().getBool(CommonParams.OMIT_HEADER, false)) response.removeResponseHeader();
+    byte[] buf = ResponseBufferPool.getBytes();
     try (JavaBinCodec jbc = new JavaBinCodec(resolver)) {
-      jbc.setWritableDocFields(resolver).marshal(response.getValues(), out);
+      jbc.setWritableDocFields(resolver).marshal(response.getValues(), new FastOutputStream(out, buf, 0));
+    } finally {
+      ResponseBufferPool.release(buf);
     }
   }
 
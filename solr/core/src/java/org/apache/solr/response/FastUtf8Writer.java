@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.solr.common.util.FastWriter;
+
+/**
+ * A {@link FastWriter} that encodes its chars as UTF-8 straight into a byte buffer and writes
+ * that to an {@link OutputStream}, instead of going through an {@link java.io.OutputStreamWriter}
+ * (and its own char and byte buffers) per response. Both buffers come from the
+ * {@link ResponseBufferPool} and must be given back with {@link #release()} or {@link #close()}.
+ * <p>
+ * Unpaired surrogates are written as U+FFFD, like {@link org.apache.solr.common.util.ByteUtils#UTF16toUTF8}.
+ */
+final class FastUtf8Writer extends FastWriter {
+  private final OutputStream out;
+  private byte[] bytes;
+  private int upto;
+  // a high surrogate at the end of a flushed chunk of chars, waiting for its low surrogate
+  private char highSurrogate;
+
+  FastUtf8Writer(OutputStream out) {
+    super(null, ResponseBufferPool.getChars(), 0);
+    this.out = out;
+    this.bytes = ResponseBufferPool.getBytes();
+  }
+
+  @Override
+  public void flush(char[] cbuf, int offset, int len) throws IOException {
+    final int end = offset + len;
+    int i = offset;
+    if (highSurrogate != 0 && i < end) {
+      ensureSpace();
+      if (Character.isLowSurrogate(cbuf[i])) {
+        writeCodePoint(Character.toCodePoint(highSurrogate, cbuf[i++]));
+      } else {
+        writeReplacement();
+      }
+      highSurrogate = 0;
+    }
+
+    for (; i < end; i++) {
+      final char code = cbuf[i];
+      ensureSpace();
+      if (code < 0x80) {
+        bytes[upto++] = (byte) code;
+      } else if (code < 0x800) {
+        bytes[upto++] = (byte) (0xC0 | (code >> 6));
+        bytes[upto++] = (byte) (0x80 | (code & 0x3F));
+      } else if (!Character.isSurrogate(code)) {
+        bytes[upto++] = (byte) (0xE0 | (code >> 12));
+        bytes[upto++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+        bytes[upto++] = (byte) (0x80 | (code & 0x3F));
+      } else if (Character.isHighSurrogate(code) && i + 1 == end) {
+        highSurrogate = code;
+      } else if (Character.isHighSurrogate(code) && Character.isLowSurrogate(cbuf[i + 1])) {
+        writeCodePoint(Character.toCodePoint(code, cbuf[++i]));
+      } else {
+        writeReplacement();
+      }
+    }
+  }
+
+  @Override
+  public void flush(String str, int offset, int len) throws IOException {
+    // only called by FastWriter for strings longer than the (just flushed, so empty) char buffer
+    while (len > 0) {
+      int chunk = Math.min(len, buf.length);
+      str.getChars(offset, offset + chunk, buf, 0);
+      flush(buf, 0, chunk);
+      offset += chunk;
+      len -= chunk;
+    }
+  }
+
+  /** Writes everything buffered to the stream, and flushes it */
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    flushBytes();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (bytes != null) {
+      flushBuffer();
+      if (highSurrogate != 0) {
+        ensureSpace();
+        writeReplacement();
+        highSurrogate = 0;
+      }
+      flush();
+      release();
+    }
+    out.close();
+  }
+
+  /** Returns the buffers to the pool, discarding anything not written yet. This writer can't be used afterwards. */
+  void release() {
+    ResponseBufferPool.release(buf);
+    ResponseBufferPool.release(bytes);
+    buf = null;
+    bytes = null;
+  }
+
+  private void ensureSpace() throws IOException {
+    // a code point takes up to 4 bytes
+    if (upto > bytes.length - 4) {
+      flushBytes();
+    }
+  }
+
+  private void flushBytes() throws IOException {
+    if (upto > 0) {
+      out.write(bytes, 0, upto);
+      upto = 0;
+    }
+  }
+
+  private void writeCodePoint(int utf32) {
+    bytes[upto++] = (byte) (0xF0 | (utf32 >> 18));
+    bytes[upto++] = (byte) (0x80 | ((utf32 >> 12) & 0x3F));
+    bytes[upto++] = (byte) (0x80 | ((utf32 >> 6) & 0x3F));
+    bytes[upto++] = (byte) (0x80 | (utf32 & 0x3F));
+  }
+
+  private void writeReplacement() {
+    bytes[upto++] = (byte) 0xEF;
+    bytes[upto++] = (byte) 0xBF;
+    bytes[upto++] = (byte) 0xBD;
+  }
+}
@@ -54,6 +54,10 @@ public final class QueryResponseWriterUtil {
           outputStream.write(b);
         }
         @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          outputStream.write(b, off, len);
+        }
+        @Override
         public void flush() throws IOException {
           // We don't flush here, which allows us to flush below
           // and only flush internal buffers, not the response.
@@ -61,16 +65,25 @@ public final class QueryResponseWriterUtil {
           // See SOLR-8669.
         }
       };
-      Writer writer = buildWriter(out, ContentStreamBase.getCharsetFromContentType(contentType));
-      responseWriter.write(writer, solrRequest, solrResponse);
-      writer.flush();
+      String charset = ContentStreamBase.getCharsetFromContentType(contentType);
+      if (charset == null || StandardCharsets.UTF_8.name().equalsIgnoreCase(charset)) {
+        // the common case: encode straight into a pooled buffer, written in large chunks
+        FastUtf8Writer writer = new FastUtf8Writer(out);
+        try {
+          responseWriter.write(writer, solrRequest, solrResponse);
+          writer.flush();
+        } finally {
+          writer.release();
+        }
+      } else {
+        Writer writer = buildWriter(out, charset);
+        responseWriter.write(writer, solrRequest, solrResponse);
+        writer.flush();
+      }
     }
   }
   
   private static Writer buildWriter(OutputStream outputStream, String charset) throws UnsupportedEncodingException {
-    Writer writer = (charset == null) ? new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)
-        : new OutputStreamWriter(outputStream, charset);
-    
-    return new FastWriter(writer);
+    return new FastWriter(new OutputStreamWriter(outputStream, charset));
   }
 }
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.response;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A small bounded pool of the buffers used to write responses to the servlet stream, so that
+ * every request doesn't allocate (and the young generation doesn't collect) its own.
+ * <p>
+ * Byte buffers are larger than Jetty's output aggregation size (8K by default), so each flush of
+ * a full buffer is written through by Jetty without being copied into its aggregate buffer first.
+ * If the pool is empty a new buffer is allocated; if it is full a released buffer is dropped.
+ */
+final class ResponseBufferPool {
+  static final int BYTES_SIZE = 32 * 1024;
+  static final int CHARS_SIZE = 8 * 1024;
+  private static final int MAX_POOLED = Integer.getInteger("solr.response.bufferPoolSize", 64);
+
+  private static final ArrayBlockingQueue<byte[]> bytes = new ArrayBlockingQueue<>(Math.max(1, MAX_POOLED));
+  private static final ArrayBlockingQueue<char[]> chars = new ArrayBlockingQueue<>(Math.max(1, MAX_POOLED));
+
+  private ResponseBufferPool() { /* static helpers only */ }
+
+  static byte[] getBytes() {
+    byte[] buf = bytes.poll();
+    return buf == null ? new byte[BYTES_SIZE] : buf;
+  }
+
+  /** The caller must not use the buffer after releasing it */
+  static void release(byte[] buf) {
+    if (buf != null && buf.length == BYTES_SIZE) bytes.offer(buf);
+  }
+
+  static char[] getChars() {
+    char[] buf = chars.poll();
+    return buf == null ? new char[CHARS_SIZE] : buf;
+  }
+
+  /** The caller must not use the buffer after releasing it */
+  static void release(char[] buf) {
+    if (buf != null && buf.length == CHARS_SIZE) chars.offer(buf);
+  }
+}
@@ -200,6 +200,8 @@ public class BitDocSet extends DocSet {
     FixedBitSet newbits = bits.clone();
     if (other instanceof BitDocSet) {
       newbits.andNot(((BitDocSet) other).bits);
+    } else if (other instanceof RoaringDocSet) {
+      ((RoaringDocSet) other).removeAllFrom(newbits);
     } else {
       DocIterator iter = other.iterator();
       while (iter.hasNext()) {
@@ -214,6 +216,9 @@ public class BitDocSet extends DocSet {
   
   @Override
   public DocSet union(DocSet other) {
+    if (other instanceof RoaringDocSet) {
+      return other.union(this);
+    }
     FixedBitSet newbits = bits.clone();
     if (other instanceof BitDocSet) {
       BitDocSet otherDocSet = (BitDocSet) other;
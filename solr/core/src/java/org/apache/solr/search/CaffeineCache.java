@@ -19,7 +19,9 @@ package org.apache.solr.search;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -31,6 +33,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 
 import com.github.benmanes.caffeine.cache.RemovalCause;
@@ -94,6 +97,9 @@ public class CaffeineCache<K, V> extends SolrCacheBase implements SolrCache<K, V
   private long initialRamBytes = 0;
   private final LongAdder ramBytes = new LongAdder();
 
+  // entries not yet regenerated by an asynchronous warming task, null when not warming asynchronously
+  private volatile Map<K, PendingEntry> pendingWarm;
+
   public CaffeineCache() {
     this.priorStats = CacheStats.empty();
   }
@@ -173,11 +179,16 @@ public class CaffeineCache<K, V> extends SolrCacheBase implements SolrCache<K, V
 
   @Override
   public V get(K key) {
-    return cache.getIfPresent(key);
+    V value = cache.getIfPresent(key);
+    if (value == null && regeneratePending(key)) {
+      value = cache.asMap().get(key);
+    }
+    return value;
   }
 
   @Override
   public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    regeneratePending(key);
     return cache.get(key, k -> {
       inserts.increment();
       V value = mappingFunction.apply(k);
@@ -230,6 +241,7 @@ public class CaffeineCache<K, V> extends SolrCacheBase implements SolrCache<K, V
   @Override
   public void close() throws IOException {
     SolrCache.super.close();
+    pendingWarm = null;
     cache.invalidateAll();
     cache.cleanUp();
     if (executor instanceof ExecutorService) {
@@ -324,6 +336,111 @@ public class CaffeineCache<K, V> extends SolrCacheBase implements SolrCache<K, V
     warmupTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
   }
 
+  /**
+   * Captures the entries to warm and returns a task that regenerates them in the order of
+   * {@link Eviction#hottest}.  A lookup of an entry that is still pending regenerates it right away;
+   * concurrent lookups of that entry wait for that instead of computing it again.
+   */
+  @Override
+  public Runnable prepareWarm(SolrIndexSearcher searcher, SolrCache<K,V> old, BooleanSupplier cancelled) {
+    if (regenerator == null || !isAutowarmingOn()) {
+      return null;
+    }
+
+    CaffeineCache<K,V> other = (CaffeineCache<K,V>)old;
+    Eviction<K, V> policy = other.cache.policy().eviction().get();
+    int size = autowarm.getWarmCount(other.cache.asMap().size());
+    Map<K, V> hottest = policy.hottest(size);
+
+    inserts.reset();
+    priorStats = other.cache.stats().plus(other.priorStats);
+    priorInserts = other.inserts.sum() + other.priorInserts;
+    if (hottest.isEmpty()) {
+      return null;
+    }
+
+    List<PendingEntry> entries = new ArrayList<>(hottest.size());
+    Map<K, PendingEntry> pending = new ConcurrentHashMap<>(hottest.size());
+    for (Entry<K, V> entry : hottest.entrySet()) {
+      PendingEntry pendingEntry = new PendingEntry(searcher, other, entry.getKey(), entry.getValue());
+      entries.add(pendingEntry);
+      pending.put(entry.getKey(), pendingEntry);
+    }
+    pendingWarm = pending;
+
+    return () -> {
+      long warmingStartTime = System.nanoTime();
+      try {
+        for (PendingEntry entry : entries) {
+          if (cancelled.getAsBoolean() || pendingWarm != pending || !entry.regenerate()) {
+            break;
+          }
+        }
+      } finally {
+        if (pendingWarm == pending) {
+          pendingWarm = null;
+        }
+        warmupTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
+      }
+    };
+  }
+
+  /** Regenerates the entry if it is pending asynchronous warming, returns false if it was not pending. */
+  private boolean regeneratePending(K key) {
+    Map<K, PendingEntry> pending = pendingWarm;
+    if (pending == null) {
+      return false;
+    }
+    PendingEntry entry = pending.get(key);
+    if (entry == null) {
+      return false;
+    }
+    entry.regenerate();
+    return true;
+  }
+
+  /** An entry of the old cache that has not been regenerated yet. */
+  private class PendingEntry {
+    private final SolrIndexSearcher searcher;
+    private final SolrCache<K,V> old;
+    private final K key;
+    private final V oldValue;
+    private boolean done;
+    private boolean regenerating;
+    private boolean continueRegen = true;
+
+    PendingEntry(SolrIndexSearcher searcher, SolrCache<K,V> old, K key, V oldValue) {
+      this.searcher = searcher;
+      this.old = old;
+      this.key = key;
+      this.oldValue = oldValue;
+    }
+
+    /**
+     * Regenerates this entry once; other threads block until that is done.  The regenerator itself
+     * looks up the key, which is a no-op here.  Returns whether warming should continue.
+     */
+    synchronized boolean regenerate() {
+      if (done || regenerating) {
+        return continueRegen;
+      }
+      regenerating = true;
+      try {
+        continueRegen = regenerator.regenerateItem(searcher, CaffeineCache.this, old, key, oldValue);
+      } catch (Exception e) {
+        SolrException.log(log, "Error during auto-warming of key:" + key, e);
+      } finally {
+        regenerating = false;
+        done = true;
+        Map<K, PendingEntry> pending = pendingWarm;
+        if (pending != null) {
+          pending.remove(key, this);
+        }
+      }
+      return continueRegen;
+    }
+  }
+
   /** Returns the description of this cache. */
   private String generateDescription(int limit, int initialSize) {
     return String.format(Locale.ROOT, "TinyLfu Cache(maxSize=%d, initialSize=%d%s)",
@@ -375,6 +492,8 @@ public class CaffeineCache<K, V> extends SolrCacheBase implements SolrCache<K, V
         map.put("warmupTime", warmupTime);
         map.put(RAM_BYTES_USED_PARAM, ramBytesUsed());
         map.put(MAX_RAM_MB_PARAM, getMaxRamMB());
+        Map<K, PendingEntry> pending = pendingWarm;
+        map.put("warmupPending", pending == null ? 0 : pending.size());
 
         CacheStats cumulativeStats = priorStats.plus(stats);
         map.put("cumulative_lookups", cumulativeStats.requestCount());
@@ -35,7 +35,8 @@ public abstract class DocSet implements Accountable, Cloneable /* extends Collec
 
   // package accessible; guarantee known implementations
   DocSet() {
-    assert this instanceof BitDocSet || this instanceof SortedIntDocSet;
+    assert this instanceof BitDocSet || this instanceof SortedIntDocSet || this instanceof RoaringDocSet
+        || this instanceof OffHeapDocSet;
   }
 
   // can't use a trivial static initializer "EMPTY = new SortedIntDocSet" because it can lead to classloader deadlock
@@ -18,8 +18,11 @@ package org.apache.solr.search;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
 import org.apache.lucene.search.Scorable;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.SimpleCollector;
@@ -91,6 +94,63 @@ public class DocSetCollector extends SimpleCollector {
     }
   }
 
+  /**
+   * Returns a {@link CollectorManager} for concurrent searches, which collects each slice of the index with its own
+   * DocSetCollector and merges them into a single DocSet.
+   */
+  public static CollectorManager<DocSetCollector, DocSet> newManager(int maxDoc) {
+    return new CollectorManager<DocSetCollector, DocSet>() {
+      @Override
+      public DocSetCollector newCollector() {
+        return new DocSetCollector(maxDoc);
+      }
+
+      @Override
+      public DocSet reduce(Collection<DocSetCollector> collectors) {
+        return merge(collectors, maxDoc);
+      }
+    };
+  }
+
+  /**
+   * Merges the documents of collectors which collected disjoint slices of the same index.
+   */
+  public static DocSet merge(Collection<DocSetCollector> collectors, int maxDoc) {
+    int size = 0;
+    FixedBitSet bits = null;
+    for (DocSetCollector collector : collectors) {
+      size += collector.pos;
+      if (bits == null) {
+        bits = collector.bits;  // reuse the first bit set instead of allocating a new one
+      }
+    }
+
+    if (bits == null && size <= DocSetUtil.smallSetSize(maxDoc)) {
+      // no collector needed a bit set, and the result is small too
+      int[] docs = new int[size];
+      int upto = 0;
+      for (DocSetCollector collector : collectors) {
+        int[] collected = collector.scratch.toArray();
+        System.arraycopy(collected, 0, docs, upto, collected.length);
+        upto += collected.length;
+      }
+      // slices are not necessarily ordered by docBase
+      Arrays.sort(docs);
+      return new SortedIntDocSet(docs);
+    }
+
+    if (bits == null) {
+      bits = new FixedBitSet(maxDoc);
+    }
+    for (DocSetCollector collector : collectors) {
+      if (collector.bits != null && collector.bits != bits) {
+        bits.or(collector.bits);
+      }
+      collector.scratch.copyTo(bits);
+    }
+    return new BitDocSet(bits, size);
+  }
+
   @Override
   public void setScorer(Scorable scorer) throws IOException {
   }
@@ -41,11 +41,25 @@ import org.apache.solr.common.SolrException;
 /** @lucene.experimental */
 public class DocSetUtil {
 
-  /** The cut-off point for small sets (SortedIntDocSet) vs large sets (BitDocSet) */
+  /** The cut-off point for small sets (SortedIntDocSet) vs large sets (BitDocSet or RoaringDocSet) */
   public static int smallSetSize(int maxDoc) {
     return (maxDoc>>6)+5;  // The +5 is for better test coverage for small sets
   }
 
+  /**
+   * Returns a {@link RoaringDocSet} with the same documents if it takes at most half the memory of the set
+   * (medium density sets, or sets made of runs of consecutive documents), otherwise the set itself.
+   * Only {@link BitDocSet}s are considered; smaller sets are already compact.
+   * @lucene.experimental
+   */
+  public static DocSet compress(DocSet docs) {
+    if (!(docs instanceof BitDocSet)) {
+      return docs;
+    }
+    DocSet compressed = RoaringDocSet.fromBits(((BitDocSet) docs).getBits(), docs.ramBytesUsed() >> 1);
+    return compressed == null ? docs : compressed;
+  }
+
   /**
    * Iterates DocSets to test for equality - slow and for testing purposes only.
    * @lucene.internal
@@ -138,13 +152,25 @@ public class DocSetUtil {
   public static DocSet createDocSetGeneric(SolrIndexSearcher searcher, Query query) throws IOException {
 
     int maxDoc = searcher.getIndexReader().maxDoc();
+
+    if (SolrIndexSearcher.isMultiThreadedRequest() && searcher.canSearchConcurrently()) {
+      DocSet set = searcher.searchConcurrently(query, DocSetCollector.newManager(maxDoc));
+      if (set.size() == searcher.numDocs()) {
+        return getDocSet(set, searcher);
+      }
+      return compress(set);
+    }
+
     DocSetCollector collector = new DocSetCollector(maxDoc);
 
     // This may throw an ExitableDirectoryReader.ExitingReaderException
     // but we should not catch it here, as we don't know how this DocSet will be used (it could be negated before use) or cached.
     searcher.search(query, collector);
 
-    return getDocSet(collector, searcher);
+    if (collector.size() == searcher.numDocs()) {
+      return getDocSet(collector, searcher);
+    }
+    return compress(collector.getDocSet());
   }
 
   public static DocSet createDocSet(SolrIndexSearcher searcher, Term term) throws IOException {
@@ -235,7 +261,7 @@ public class DocSetUtil {
       return smallSet;
     }
 
-    return docSet;
+    return compress(docSet);
   }
 
   public static DocSet toSmallSet(BitDocSet bitSet) {
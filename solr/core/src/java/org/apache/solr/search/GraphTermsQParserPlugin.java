@@ -275,7 +275,8 @@ public class GraphTermsQParserPlugin extends QParserPlugin {
 
         @Override
         public boolean isCacheable(LeafReaderContext ctx) {
-          return true;
+          // terms are selected by their top-level docFreq
+          return false;
         }
 
       };
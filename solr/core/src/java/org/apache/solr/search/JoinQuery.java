@@ -85,7 +85,7 @@ class JoinQuery extends Query {
 
   @Override
   public void visit(QueryVisitor visitor) {
-
+    visitor.visitLeaf(this);
   }
 
   @Override
@@ -378,8 +378,11 @@ class JoinQuery extends Query {
               } else {
                 if (toTermSet instanceof BitDocSet) {
                   resultBits = ((BitDocSet)toTermSet).getBits().clone();
-                } else {
+                } else if (toTermSet instanceof SortedIntDocSet) {
                   resultList.add(toTermSet);
+                } else {
+                  resultBits = new FixedBitSet(toSearcher.maxDoc());
+                  toTermSet.addAllTo(resultBits);
                 }
               }
             } else {
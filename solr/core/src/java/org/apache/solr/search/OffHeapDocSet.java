@@ -0,0 +1,532 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A read-only {@link DocSet} view over doc ids held outside of the Java heap in a direct {@link ByteBuffer}, either
+ * as a bitmap or as a sorted list of ints, whichever is smaller.  Used by {@link OffHeapFilterCache}.
+ * <p>
+ * Lookups, iteration and set operations read straight from the buffer; the results of set operations are regular
+ * heap based sets.  The buffer is only referenced by this set, so its memory is released once the set is no longer
+ * reachable, and a set evicted from a cache stays valid for requests still using it.  Until then the memory is
+ * still in use, see {@link OffHeapFilterCache#offHeapBytesPendingRelease()}.
+ *
+ * @lucene.experimental
+ */
+public class OffHeapDocSet extends DocSet {
+  // DirectByteBuffer also keeps a Cleaner and a Deallocator on heap
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(OffHeapDocSet.class)
+      + 3 * RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 64;
+
+  private final ByteBuffer buffer;
+  private final boolean bitmap;  // else sorted ints
+  private final int size;
+  private final int length;  // number of bits of the bitmap, or one past the largest doc
+  private final int maxDoc;  // the size of the heap based sets derived from this one
+
+  private OffHeapDocSet(ByteBuffer buffer, boolean bitmap, int size, int length, int maxDoc) {
+    this.buffer = buffer;
+    this.bitmap = bitmap;
+    this.size = size;
+    this.length = length;
+    this.maxDoc = maxDoc;
+  }
+
+  /**
+   * Copies the docs to a new off-heap set
+   * @param maxDoc the maxDoc of the searcher the docs are from; only the docs up to the last one are stored, but
+   *               the sets derived from this one (by set operations or {@link #getBits()}) cover all of the docs
+   */
+  public static OffHeapDocSet copyOf(DocSet docs, int maxDoc) {
+    final int size = docs.size();
+    final int length;
+    if (size == 0) {
+      length = 0;
+    } else if (docs instanceof BitDocSet) {
+      length = ((BitDocSet) docs).getBits().length();
+    } else if (docs instanceof SortedIntDocSet) {
+      int[] ints = ((SortedIntDocSet) docs).getDocs();
+      length = ints[ints.length - 1] + 1;
+    } else if (docs instanceof OffHeapDocSet) {
+      length = ((OffHeapDocSet) docs).length;
+    } else {
+      length = docs.getBits().length();
+    }
+    if (length > maxDoc) {
+      throw new IllegalArgumentException("docs up to " + length + " exceed maxDoc " + maxDoc);
+    }
+
+    final long bitmapBytes = (long) FixedBitSet.bits2words(length) << 3;
+    final long intBytes = (long) size << 2;
+    final boolean bitmap = bitmapBytes < intBytes;
+    final ByteBuffer buffer = ByteBuffer.allocateDirect((int) (bitmap ? bitmapBytes : intBytes)).order(ByteOrder.nativeOrder());
+    if (bitmap && docs instanceof BitDocSet) {
+      buffer.asLongBuffer().put(((BitDocSet) docs).getBits().getBits(), 0, FixedBitSet.bits2words(length));
+    } else if (bitmap) {
+      long word = 0;
+      int wordIndex = 0;
+      for (DocIterator iter = docs.iterator(); iter.hasNext(); ) {
+        final int doc = iter.nextDoc();
+        if ((doc >>> 6) != wordIndex) {
+          buffer.putLong(wordIndex << 3, word);
+          word = 0;
+          wordIndex = doc >>> 6;
+        }
+        word |= 1L << doc;
+      }
+      buffer.putLong(wordIndex << 3, word);
+    } else {
+      int pos = 0;
+      for (DocIterator iter = docs.iterator(); iter.hasNext(); ) {
+        buffer.putInt(pos, iter.nextDoc());
+        pos += 4;
+      }
+    }
+    return new OffHeapDocSet(buffer, bitmap, size, length, maxDoc);
+  }
+
+  /** The number of bytes held outside of the heap */
+  public long offHeapBytesUsed() {
+    return buffer.capacity();
+  }
+
+  private int doc(int index) {
+    return buffer.getInt(index << 2);
+  }
+
+  private long word(int index) {
+    return buffer.getLong(index << 3);
+  }
+
+  private int numWords() {
+    return buffer.capacity() >>> 3;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean exists(int doc) {
+    if (doc >= length) {
+      return false;
+    }
+    if (bitmap) {
+      return (word(doc >>> 6) & (1L << doc)) != 0;
+    }
+    return indexOf(doc, 0) >= 0;
+  }
+
+  /** Binary search for the doc in the sorted ints from fromIndex, see {@link java.util.Arrays#binarySearch(int[], int)} */
+  private int indexOf(int doc, int fromIndex) {
+    int low = fromIndex;
+    int high = size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int docb = doc(mid);
+      if (docb < doc) {
+        low = mid + 1;
+      } else if (docb > doc) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private int nextSetBit(int index) {
+    if (index >= length) {
+      return DocIdSetIterator.NO_MORE_DOCS;
+    }
+    int i = index >>> 6;
+    long word = word(i) >>> index;
+    if (word != 0) {
+      return index + Long.numberOfTrailingZeros(word);
+    }
+    final int numWords = numWords();
+    while (++i < numWords) {
+      word = word(i);
+      if (word != 0) {
+        return (i << 6) + Long.numberOfTrailingZeros(word);
+      }
+    }
+    return DocIdSetIterator.NO_MORE_DOCS;
+  }
+
+  @Override
+  public DocIterator iterator() {
+    return new DocIterator() {
+      private final BufferIterator iter = new BufferIterator();
+      private int pos = iter.nextDoc();
+
+      @Override
+      public boolean hasNext() {
+        return pos != DocIdSetIterator.NO_MORE_DOCS;
+      }
+
+      @Override
+      public Integer next() {
+        return nextDoc();
+      }
+
+      /**
+       * The remove  operation is not supported by this Iterator.
+       */
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("The remove  operation is not supported by this Iterator.");
+      }
+
+      @Override
+      public int nextDoc() {
+        int old = pos;
+        pos = iter.nextDoc();
+        return old;
+      }
+
+      @Override
+      public float score() {
+        return 0.0f;
+      }
+    };
+  }
+
+  @Override
+  public DocIdSetIterator iterator(LeafReaderContext context) {
+    final int maxDoc = context.reader().maxDoc();
+    if (size == 0 || maxDoc < 1) {
+      return null;
+    }
+    if (context.isTopLevel) {
+      return new BufferIterator();
+    }
+
+    final int base = context.docBase;
+    final int max = base + maxDoc; // one past the max doc in this segment.
+    if (base >= length) {
+      return null;
+    }
+
+    return new DocIdSetIterator() {
+      final BufferIterator iter = new BufferIterator();
+      int adjustedDoc = -1;
+
+      @Override
+      public int docID() {
+        return adjustedDoc;
+      }
+
+      @Override
+      public int nextDoc() {
+        return adjust(adjustedDoc == -1 ? iter.advance(base) : iter.nextDoc());
+      }
+
+      @Override
+      public int advance(int target) {
+        if (target >= max - base) return adjustedDoc = NO_MORE_DOCS;
+        return adjust(iter.advance(target + base));
+      }
+
+      private int adjust(int doc) {
+        return adjustedDoc = doc < max ? doc - base : NO_MORE_DOCS;
+      }
+
+      @Override
+      public long cost() {
+        // pro-rated for the segment
+        return Math.max(1L, (long) size * maxDoc / OffHeapDocSet.this.maxDoc);
+      }
+    };
+  }
+
+  @Override
+  public DocSet intersection(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      // the small set probes us
+      return other.intersection(this);
+    }
+    if (bitmap && other instanceof BitDocSet) {
+      final long[] otherWords = ((BitDocSet) other).getBits().getBits();
+      final FixedBitSet newbits = new FixedBitSet(maxDoc);
+      final long[] words = newbits.getBits();
+      final int n = Math.min(numWords(), otherWords.length);
+      for (int i = 0; i < n; i++) {
+        words[i] = word(i) & otherWords[i];
+      }
+      return new BitDocSet(newbits);
+    }
+    // probe the bigger set with the docs of the smaller one, both are ordered
+    final DocSet small = other.size() < size ? other : this;
+    final DocSet big = small == this ? other : this;
+    final DocSetBuilder builder = new DocSetBuilder(maxDoc, small.size());
+    for (DocIterator iter = small.iterator(); iter.hasNext(); ) {
+      final int doc = iter.nextDoc();
+      if (big.exists(doc)) builder.add(doc);
+    }
+    return builder.buildUniqueInOrder(null);
+  }
+
+  @Override
+  public int intersectionSize(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      return other.intersectionSize(this);
+    }
+    if (bitmap && other instanceof BitDocSet) {
+      final long[] otherWords = ((BitDocSet) other).getBits().getBits();
+      final int n = Math.min(numWords(), otherWords.length);
+      int count = 0;
+      for (int i = 0; i < n; i++) {
+        count += Long.bitCount(word(i) & otherWords[i]);
+      }
+      return count;
+    }
+    final DocSet small = other.size() < size ? other : this;
+    final DocSet big = small == this ? other : this;
+    int count = 0;
+    for (DocIterator iter = small.iterator(); iter.hasNext(); ) {
+      if (big.exists(iter.nextDoc())) count++;
+    }
+    return count;
+  }
+
+  @Override
+  public boolean intersects(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      return other.intersects(this);
+    }
+    final DocSet small = other.size() < size ? other : this;
+    final DocSet big = small == this ? other : this;
+    for (DocIterator iter = small.iterator(); iter.hasNext(); ) {
+      if (big.exists(iter.nextDoc())) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public DocSet union(DocSet other) {
+    if (other instanceof RoaringDocSet) {
+      return other.union(this);
+    }
+    FixedBitSet otherBits = other.getFixedBitSet();
+    FixedBitSet newbits = FixedBitSet.ensureCapacity(getFixedBitSetClone(), otherBits.length());
+    newbits.or(otherBits);
+    return new BitDocSet(newbits);
+  }
+
+  @Override
+  public DocSet andNot(DocSet other) {
+    if (other.size() == 0) return this;
+
+    final DocSetBuilder builder = new DocSetBuilder(maxDoc, size);
+    for (DocIterator iter = iterator(); iter.hasNext(); ) {
+      final int doc = iter.nextDoc();
+      if (!other.exists(doc)) builder.add(doc);
+    }
+    return builder.buildUniqueInOrder(null);
+  }
+
+  @Override
+  public void addAllTo(FixedBitSet target) {
+    if (bitmap) {
+      final long[] words = target.getBits();
+      final int n = Math.min(numWords(), words.length);
+      for (int i = 0; i < n; i++) {
+        words[i] |= word(i);
+      }
+    } else {
+      for (int i = 0; i < size; i++) {
+        target.set(doc(i));
+      }
+    }
+  }
+
+  @Override
+  public Bits getBits() {
+    return new Bits() {
+      @Override
+      public boolean get(int index) {
+        return exists(index);
+      }
+
+      @Override
+      public int length() {
+        return maxDoc;
+      }
+    };
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSet() {
+    return getFixedBitSetClone();
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSetClone() {
+    FixedBitSet bitSet = new FixedBitSet(maxDoc);
+    addAllTo(bitSet);
+    return bitSet;
+  }
+
+  @Override
+  public Filter getTopFilter() {
+    return new Filter() {
+
+      @Override
+      public DocIdSet getDocIdSet(final LeafReaderContext context, final Bits acceptDocs) {
+        // all Solr DocSets that are used as filters only include live docs
+        final Bits acceptDocs2 = acceptDocs == null ? null : (context.reader().getLiveDocs() == acceptDocs ? null : acceptDocs);
+
+        return BitsFilteredDocIdSet.wrap(new DocIdSet() {
+          @Override
+          public DocIdSetIterator iterator() {
+            return OffHeapDocSet.this.iterator(context);
+          }
+
+          @Override
+          public long ramBytesUsed() {
+            return OffHeapDocSet.this.ramBytesUsed();
+          }
+
+          @Override
+          public Bits bits() {
+            if (!bitmap) {
+              // random access is expensive for this set
+              return null;
+            }
+            final int base = context.docBase;
+            final int length = context.reader().maxDoc();
+            return new Bits() {
+              @Override
+              public boolean get(int index) {
+                return exists(index + base);
+              }
+
+              @Override
+              public int length() {
+                return length;
+              }
+            };
+          }
+
+        }, acceptDocs2);
+      }
+
+      @Override
+      public String toString(String field) {
+        return "OffHeapDocSetTopFilter";
+      }
+
+      @Override
+      public boolean equals(Object other) {
+        return other == this;
+      }
+
+      @Override
+      public int hashCode() {
+        return System.identityHashCode(this);
+      }
+    };
+  }
+
+  /** Returns a heap based copy of this set */
+  @Override
+  public DocSet clone() {
+    if (bitmap) {
+      return new BitDocSet(getFixedBitSetClone(), size);
+    }
+    int[] docs = new int[size];
+    buffer.duplicate().order(buffer.order()).asIntBuffer().get(docs);
+    return new SortedIntDocSet(docs);
+  }
+
+  /** Only accounts for the heap; see {@link #offHeapBytesUsed()} */
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED;
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public String toString() {
+    return "OffHeapDocSet{" +
+        "size=" + size() + "," +
+        (bitmap ? "bitmap" : "ints") + "," +
+        "offHeap=" + RamUsageEstimator.humanReadableUnits(offHeapBytesUsed()) +
+        '}';
+  }
+
+  private class BufferIterator extends DocIdSetIterator {
+    int idx = -1;  // for sorted ints
+    int doc = -1;
+
+    @Override
+    public int docID() {
+      return doc;
+    }
+
+    @Override
+    public int nextDoc() {
+      if (bitmap) {
+        return doc = doc == NO_MORE_DOCS ? NO_MORE_DOCS : nextSetBit(doc + 1);
+      }
+      return doc = ++idx < size ? doc(idx) : NO_MORE_DOCS;
+    }
+
+    @Override
+    public int advance(int target) {
+      if (target == NO_MORE_DOCS) {
+        idx = size;
+        return doc = NO_MORE_DOCS;
+      }
+      if (bitmap) {
+        return doc = nextSetBit(target);
+      }
+      // probe next
+      if (++idx >= size) return doc = NO_MORE_DOCS;
+      int rawDoc = doc(idx);
+      if (rawDoc >= target) return doc = rawDoc;
+
+      final int found = indexOf(target, idx + 1);
+      idx = found < 0 ? -found - 1 : found;
+      return doc = idx < size ? doc(idx) : NO_MORE_DOCS;
+    }
+
+    @Override
+    public long cost() {
+      return size;
+    }
+  }
+}
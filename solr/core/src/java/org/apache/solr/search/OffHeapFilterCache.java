@@ -0,0 +1,407 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy.Eviction;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SolrCache for the filterCache that keeps the documents of each entry outside of the Java heap, as an
+ * {@link OffHeapDocSet}.  Large filter entries churning through the heap cause old generation growth and long
+ * mixed collections with G1; with this cache only small per-entry objects live on heap.
+ * <p>
+ * The cache is bounded by the number of bytes held off heap (<code>maxOffHeapMB</code>, 1024 by default), and
+ * uses the same Caffeine W-TinyLFU eviction policy as {@link CaffeineCache}.
+ * <p>
+ * This is a soft limit on the native memory used: an evicted set may still be used by running requests, so its
+ * buffer is only freed once the garbage collector reclaims the set.  The bytes of evicted sets that weren't
+ * reclaimed yet are reported separately (<code>offHeapBytesPendingRelease</code>), and the JVM's direct memory
+ * limit (<code>-XX:MaxDirectMemorySize</code>) must leave room for them on top of <code>maxOffHeapMB</code>.
+ * <pre>
+ * &lt;filterCache class="solr.OffHeapFilterCache" maxOffHeapMB="2048" autowarmCount="128"/&gt;
+ * </pre>
+ *
+ * @lucene.experimental
+ */
+public class OffHeapFilterCache extends SolrCacheBase implements SolrCache<Query, DocSet>, Accountable,
+    RemovalListener<Query, OffHeapDocSet> {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String MAX_OFF_HEAP_MB_PARAM = "maxOffHeapMB";
+  public static final String OFF_HEAP_BYTES_USED_PARAM = "offHeapBytesUsed";
+  public static final String OFF_HEAP_BYTES_PENDING_RELEASE_PARAM = "offHeapBytesPendingRelease";
+  public static final int DEFAULT_MAX_OFF_HEAP_MB = 1024;
+
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(OffHeapFilterCache.class)
+      + RamUsageEstimator.shallowSizeOfInstance(CacheStats.class)
+      + 3 * RamUsageEstimator.shallowSizeOfInstance(LongAdder.class);
+
+  private Executor executor;
+
+  private CacheStats priorStats;
+  private long priorInserts;
+
+  private String description = "Off-Heap Filter Cache";
+  private LongAdder inserts;
+  private Cache<Query, OffHeapDocSet> cache;
+  private long warmupTime;
+  private long maxOffHeapBytes;
+  private int initialSize;
+  private int maxIdleTimeSec;
+  private int maxDoc = -1;
+
+  private MetricsMap cacheMap;
+  private SolrMetricsContext solrMetricsContext;
+
+  private final LongAdder ramBytes = new LongAdder();
+  private final LongAdder offHeapBytes = new LongAdder();
+  // evicted sets whose buffers weren't freed yet; the references are enqueued once the sets are reclaimed
+  private final ReferenceQueue<OffHeapDocSet> reclaimed = new ReferenceQueue<>();
+  private final Set<EvictedDocSet> evicted = ConcurrentHashMap.newKeySet();
+  private final LongAdder pendingReleaseBytes = new LongAdder();
+
+  public OffHeapFilterCache() {
+    this.priorStats = CacheStats.empty();
+  }
+
+  @Override
+  public Object init(Map<String, String> args, Object persistence, CacheRegenerator regenerator) {
+    super.init(args, regenerator);
+    String str = args.get(MAX_OFF_HEAP_MB_PARAM);
+    int maxOffHeapMB = str == null ? DEFAULT_MAX_OFF_HEAP_MB : Double.valueOf(str).intValue();
+    maxOffHeapBytes = maxOffHeapMB * 1024L * 1024L;
+    str = args.get(INITIAL_SIZE_PARAM);
+    initialSize = (str == null) ? 1024 : Integer.parseInt(str);
+    str = args.get(MAX_IDLE_TIME_PARAM);
+    maxIdleTimeSec = (str == null) ? -1 : Integer.parseInt(str);
+    str = args.get(CLEANUP_THREAD_PARAM);
+    if (str != null && Boolean.parseBoolean(str)) {
+      executor = ForkJoinPool.commonPool();
+    } else {
+      executor = Runnable::run;
+    }
+
+    description = generateDescription();
+
+    cache = buildCache(null);
+    inserts = new LongAdder();
+
+    return persistence;
+  }
+
+  private Cache<Query, OffHeapDocSet> buildCache(Cache<Query, OffHeapDocSet> prev) {
+    Caffeine<Query, OffHeapDocSet> builder = Caffeine.newBuilder()
+        .initialCapacity(initialSize)
+        .executor(executor)
+        .removalListener(this)
+        .recordStats()
+        .maximumWeight(maxOffHeapBytes)
+        .weigher((k, v) -> (int) v.offHeapBytesUsed());
+    if (maxIdleTimeSec > 0) {
+      builder.expireAfterAccess(Duration.ofSeconds(maxIdleTimeSec));
+    }
+    Cache<Query, OffHeapDocSet> newCache = builder.build();
+    if (prev != null) {
+      newCache.putAll(prev.asMap());
+    }
+    return newCache;
+  }
+
+  private static long ramBytesUsed(Query key, OffHeapDocSet value) {
+    return RamUsageEstimator.sizeOfObject(key, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED)
+        + value.ramBytesUsed() + RamUsageEstimator.LINKED_HASHTABLE_RAM_BYTES_PER_ENTRY;
+  }
+
+  /** Sets the maxDoc of the searcher this cache belongs to, which the cached sets are sized with */
+  public void setMaxDoc(int maxDoc) {
+    this.maxDoc = maxDoc;
+  }
+
+  private OffHeapDocSet toOffHeap(Query key, DocSet value) {
+    if (maxDoc < 0) {
+      throw new IllegalStateException("The maxDoc of the searcher is not known");
+    }
+    inserts.increment();
+    OffHeapDocSet offHeap = OffHeapDocSet.copyOf(value, maxDoc);
+    ramBytes.add(ramBytesUsed(key, offHeap));
+    offHeapBytes.add(offHeap.offHeapBytesUsed());
+    return offHeap;
+  }
+
+  @Override
+  public void onRemoval(Query key, OffHeapDocSet value, RemovalCause cause) {
+    if (value != null) {
+      ramBytes.add(-ramBytesUsed(key, value));
+      offHeapBytes.add(-value.offHeapBytesUsed());
+      // the buffer lives on until no request uses the set anymore
+      evicted.add(new EvictedDocSet(value, reclaimed));
+      pendingReleaseBytes.add(value.offHeapBytesUsed());
+    }
+    pollReclaimed();
+  }
+
+  private void pollReclaimed() {
+    Reference<? extends OffHeapDocSet> ref;
+    while ((ref = reclaimed.poll()) != null) {
+      if (evicted.remove(ref)) {
+        pendingReleaseBytes.add(-((EvictedDocSet) ref).offHeapBytes);
+      }
+    }
+  }
+
+  /** Tracks when an evicted set (and so its buffer) is reclaimed */
+  private static class EvictedDocSet extends PhantomReference<OffHeapDocSet> {
+    final long offHeapBytes;
+
+    EvictedDocSet(OffHeapDocSet docs, ReferenceQueue<OffHeapDocSet> queue) {
+      super(docs, queue);
+      this.offHeapBytes = docs.offHeapBytesUsed();
+    }
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + ramBytes.sum();
+  }
+
+  /** The number of bytes held outside of the heap by the entries of this cache */
+  public long offHeapBytesUsed() {
+    return offHeapBytes.sum();
+  }
+
+  /**
+   * The number of bytes held outside of the heap by the sets evicted from this cache that weren't reclaimed by the
+   * garbage collector yet, in addition to {@link #offHeapBytesUsed()}
+   */
+  public long offHeapBytesPendingRelease() {
+    pollReclaimed();
+    return pendingReleaseBytes.sum();
+  }
+
+  @Override
+  public DocSet get(Query key) {
+    return cache.getIfPresent(key);
+  }
+
+  @Override
+  public DocSet computeIfAbsent(Query key, Function<? super Query, ? extends DocSet> mappingFunction) {
+    return cache.get(key, k -> {
+      DocSet value = mappingFunction.apply(k);
+      return value == null ? null : toOffHeap(k, value);
+    });
+  }
+
+  @Override
+  public DocSet put(Query key, DocSet val) {
+    // replaced values are accounted for by the removal listener
+    return cache.asMap().put(key, toOffHeap(key, val));
+  }
+
+  @Override
+  public DocSet remove(Query key) {
+    return cache.asMap().remove(key);
+  }
+
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public int size() {
+    return cache.asMap().size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    SolrCache.super.close();
+    cache.invalidateAll();
+    cache.cleanUp();
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService)executor).shutdownNow();
+    }
+  }
+
+  /** Not supported, the cache is bounded by {@link #MAX_OFF_HEAP_MB_PARAM} */
+  @Override
+  public int getMaxSize() {
+    return -1;
+  }
+
+  /** Not supported, the cache is bounded by {@link #MAX_OFF_HEAP_MB_PARAM} */
+  @Override
+  public void setMaxSize(int maxSize) {
+  }
+
+  /** Not supported, the cache is bounded by {@link #MAX_OFF_HEAP_MB_PARAM} */
+  @Override
+  public int getMaxRamMB() {
+    return -1;
+  }
+
+  /** Not supported, the cache is bounded by {@link #MAX_OFF_HEAP_MB_PARAM} */
+  @Override
+  public void setMaxRamMB(int maxRamMB) {
+  }
+
+  public int getMaxOffHeapMB() {
+    return (int) (maxOffHeapBytes / 1024L / 1024L);
+  }
+
+  public void setMaxOffHeapMB(int maxOffHeapMB) {
+    long newMaxOffHeapBytes = maxOffHeapMB * 1024L * 1024L;
+    if (newMaxOffHeapBytes != maxOffHeapBytes) {
+      maxOffHeapBytes = newMaxOffHeapBytes;
+      cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(newMaxOffHeapBytes));
+      description = generateDescription();
+      cache.cleanUp();
+    }
+  }
+
+  @Override
+  public void warm(SolrIndexSearcher searcher, SolrCache<Query, DocSet> old) {
+    if (regenerator == null) {
+      return;
+    }
+
+    long warmingStartTime = System.nanoTime();
+    Map<Query, OffHeapDocSet> hottest = Collections.emptyMap();
+    OffHeapFilterCache other = (OffHeapFilterCache)old;
+
+    // warm entries
+    if (isAutowarmingOn()) {
+      Eviction<Query, OffHeapDocSet> policy = other.cache.policy().eviction().get();
+      int size = autowarm.getWarmCount(other.cache.asMap().size());
+      hottest = policy.hottest(size);
+    }
+
+    for (Entry<Query, OffHeapDocSet> entry : hottest.entrySet()) {
+      try {
+        boolean continueRegen = regenerator.regenerateItem(
+            searcher, this, old, entry.getKey(), entry.getValue());
+        if (!continueRegen) {
+          break;
+        }
+      }
+      catch (Exception e) {
+        SolrException.log(log, "Error during auto-warming of key:" + entry.getKey(), e);
+      }
+    }
+
+    inserts.reset();
+    priorStats = other.cache.stats().plus(other.priorStats);
+    priorInserts = other.inserts.sum() + other.priorInserts;
+    warmupTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
+  }
+
+  /** Returns the description of this cache. */
+  private String generateDescription() {
+    return String.format(Locale.ROOT, "Off-Heap TinyLfu Cache(maxOffHeapMB=%d, initialSize=%d%s)",
+        getMaxOffHeapMB(), initialSize, isAutowarmingOn() ? (", " + getAutowarmDescription()) : "");
+  }
+
+  //////////////////////// SolrInfoBean methods //////////////////////
+
+  @Override
+  public String getName() {
+    return OffHeapFilterCache.class.getName();
+  }
+
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  // for unit tests only
+  @VisibleForTesting
+  MetricsMap getMetricsMap() {
+    return cacheMap;
+  }
+
+  @Override
+  public SolrMetricsContext getSolrMetricsContext() {
+    return solrMetricsContext;
+  }
+
+  @Override
+  public String toString() {
+    return name() + (cacheMap != null ? cacheMap.getValue().toString() : "");
+  }
+
+  @Override
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    solrMetricsContext = parentContext.getChildContext(this);
+    cacheMap = new MetricsMap(map -> {
+      if (cache != null) {
+        CacheStats stats = cache.stats();
+        long insertCount = inserts.sum();
+
+        map.put(LOOKUPS_PARAM, stats.requestCount());
+        map.put(HITS_PARAM, stats.hitCount());
+        map.put(HIT_RATIO_PARAM, stats.hitRate());
+        map.put(INSERTS_PARAM, insertCount);
+        map.put(EVICTIONS_PARAM, stats.evictionCount());
+        map.put(SIZE_PARAM, cache.asMap().size());
+        map.put("warmupTime", warmupTime);
+        map.put(RAM_BYTES_USED_PARAM, ramBytesUsed());
+        map.put(OFF_HEAP_BYTES_USED_PARAM, offHeapBytesUsed());
+        map.put(OFF_HEAP_BYTES_PENDING_RELEASE_PARAM, offHeapBytesPendingRelease());
+        map.put(MAX_OFF_HEAP_MB_PARAM, getMaxOffHeapMB());
+
+        CacheStats cumulativeStats = priorStats.plus(stats);
+        map.put("cumulative_lookups", cumulativeStats.requestCount());
+        map.put("cumulative_hits", cumulativeStats.hitCount());
+        map.put("cumulative_hitratio", cumulativeStats.hitRate());
+        map.put("cumulative_inserts", priorInserts + insertCount);
+        map.put("cumulative_evictions", cumulativeStats.evictionCount());
+      }
+    });
+    solrMetricsContext.gauge(cacheMap, true, scope, getCategory().toString());
+  }
+}
@@ -31,6 +31,7 @@ public class QueryCommand {
   private Query query;
   private String queryID;
   private boolean isQueryCancellable;
+  private boolean multiThreaded;
   private List<Query> filterList;
   private DocSet filter;
   private Sort sort;
@@ -243,4 +244,17 @@ public class QueryCommand {
 
   public boolean isQueryCancellable() { return isQueryCancellable; }
 
+  public boolean isMultiThreaded() {
+    return multiThreaded;
+  }
+
+  /**
+   * Allows the searcher to search slices of the index concurrently.
+   * @see org.apache.solr.common.params.CommonParams#MULTI_THREADED
+   */
+  public QueryCommand setMultiThreaded(boolean multiThreaded) {
+    this.multiThreaded = multiThreaded;
+    return this;
+  }
+
 }
@@ -0,0 +1,1209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A compressed implementation of {@link DocSet} in the style of Roaring bitmaps.  Good for medium sized sets,
+ * and for large sets made of long runs of consecutive documents.
+ * <p>
+ * The doc id space is split into blocks of 65536 documents, and each non-empty block is stored in the smallest of
+ * three containers: a sorted array of the (16 bit) ids in the block, a bitmap of the block, or a list of runs of
+ * consecutive ids.  Empty blocks take no space at all.  Set operations are done block by block, skipping blocks
+ * missing from either side where possible.
+ * <p>
+ * Instances are immutable; containers are shared between sets produced from each other.
+ *
+ * @lucene.experimental
+ */
+public class RoaringDocSet extends DocSet {
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(RoaringDocSet.class)
+      + 2 * RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+
+  static final int BLOCK_SHIFT = 16;
+  static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  static final int BLOCK_WORDS = BLOCK_SIZE >>> 6;
+  /** Beyond this cardinality a bitmap is smaller than an array container */
+  static final int MAX_ARRAY_SIZE = BLOCK_SIZE >>> 4;
+
+  private static final int NO_MORE_VALUES = BLOCK_SIZE;
+
+  private final int[] keys;  // doc >>> BLOCK_SHIFT of each non-empty block, ascending
+  private final Container[] containers;
+  private final int size;
+  private final long ramBytesUsed;
+
+  private RoaringDocSet(int[] keys, Container[] containers, int size) {
+    assert keys.length == containers.length;
+    this.keys = keys;
+    this.containers = containers;
+    this.size = size;
+    long ram = BASE_RAM_BYTES_USED + ((long) keys.length << 2) + (long) keys.length * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    for (Container container : containers) {
+      ram += container.ramBytesUsed();
+    }
+    this.ramBytesUsed = ram;
+  }
+
+  private RoaringDocSet(int[] keys, Container[] containers, int numBlocks, int size) {
+    this(numBlocks == keys.length ? keys : Arrays.copyOf(keys, numBlocks),
+        numBlocks == containers.length ? containers : Arrays.copyOf(containers, numBlocks),
+        size);
+  }
+
+  /** Creates a set with the same documents as the bits */
+  public static RoaringDocSet fromBits(FixedBitSet bits) {
+    return fromBits(bits, Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates a set with the same documents as the bits, or returns null if the set would use more than
+   * maxRamBytes of heap.  The bits are scanned once to size the containers before any are created.
+   */
+  public static RoaringDocSet fromBits(FixedBitSet bits, long maxRamBytes) {
+    final long[] words = bits.getBits();
+    final int numWords = FixedBitSet.bits2words(bits.length());
+    final int numBlocks = (numWords + BLOCK_WORDS - 1) / BLOCK_WORDS;
+
+    final int[] cards = new int[numBlocks];
+    final int[] runs = new int[numBlocks];
+    long ram = BASE_RAM_BYTES_USED;
+    int nonEmpty = 0;
+    for (int block = 0; block < numBlocks; block++) {
+      final int offset = block * BLOCK_WORDS;
+      final int n = Math.min(BLOCK_WORDS, numWords - offset);
+      int card = 0;
+      for (int i = 0; i < n; i++) {
+        card += Long.bitCount(words[offset + i]);
+      }
+      if (card == 0) continue;
+      cards[block] = card;
+      runs[block] = countRuns(words, offset, n);
+      nonEmpty++;
+      ram += 4 + RamUsageEstimator.NUM_BYTES_OBJECT_REF + containerRamBytesUsed(card, runs[block]);
+      if (ram > maxRamBytes) {
+        return null;
+      }
+    }
+
+    final int[] keys = new int[nonEmpty];
+    final Container[] containers = new Container[nonEmpty];
+    final long[] scratch = new long[BLOCK_WORDS];
+    int pos = 0;
+    int size = 0;
+    for (int block = 0; block < numBlocks; block++) {
+      if (cards[block] == 0) continue;
+      final int offset = block * BLOCK_WORDS;
+      final int n = Math.min(BLOCK_WORDS, numWords - offset);
+      System.arraycopy(words, offset, scratch, 0, n);
+      Arrays.fill(scratch, n, BLOCK_WORDS, 0L);
+      keys[pos] = block;
+      containers[pos++] = Container.fromWords(scratch, cards[block], runs[block]);
+      size += cards[block];
+    }
+    return new RoaringDocSet(keys, containers, size);
+  }
+
+  /** Creates a set from sorted, unique doc ids */
+  public static RoaringDocSet fromDocs(int[] docs, int len) {
+    final int[] keys = new int[len == 0 ? 0 : (docs[len - 1] >>> BLOCK_SHIFT) - (docs[0] >>> BLOCK_SHIFT) + 1];
+    final Container[] containers = new Container[keys.length];
+    final long[] scratch = new long[BLOCK_WORDS];
+    int numBlocks = 0;
+    int start = 0;
+    while (start < len) {
+      final int key = docs[start] >>> BLOCK_SHIFT;
+      int end = start + 1;
+      while (end < len && (docs[end] >>> BLOCK_SHIFT) == key) {
+        end++;
+      }
+      final int card = end - start;
+      Arrays.fill(scratch, 0L);
+      for (int i = start; i < end; i++) {
+        final int value = docs[i] & BLOCK_MASK;
+        scratch[value >>> 6] |= 1L << value;
+      }
+      keys[numBlocks] = key;
+      containers[numBlocks++] = Container.fromWords(scratch, card, countRuns(scratch, 0, BLOCK_WORDS));
+      start = end;
+    }
+    return new RoaringDocSet(keys, containers, numBlocks, len);
+  }
+
+  /** An estimate of the heap used by a container with the given cardinality and number of runs */
+  private static long containerRamBytesUsed(int card, int runs) {
+    return RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + 8
+        + Math.min(Math.min(card, MAX_ARRAY_SIZE) << 1, runs << 2);
+  }
+
+  /** Counts the runs of consecutive set bits in words[offset, offset + n) */
+  static int countRuns(long[] words, int offset, int n) {
+    int runs = 0;
+    long carry = 0;
+    for (int i = 0; i < n; i++) {
+      final long word = words[offset + i];
+      // a run starts at each set bit whose preceding bit is clear
+      runs += Long.bitCount(word & ~((word << 1) | carry));
+      carry = word >>> 63;
+    }
+    return runs;
+  }
+
+  private static boolean get(long[] words, int offset, int n, int value) {
+    final int i = value >>> 6;
+    return i < n && (words[offset + i] & (1L << value)) != 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean exists(int doc) {
+    final int idx = Arrays.binarySearch(keys, doc >>> BLOCK_SHIFT);
+    return idx >= 0 && containers[idx].contains(doc & BLOCK_MASK);
+  }
+
+  @Override
+  public DocIterator iterator() {
+    return new DocIterator() {
+      private final RoaringIterator iter = new RoaringIterator();
+      private int pos = iter.nextDoc();
+
+      @Override
+      public boolean hasNext() {
+        return pos != DocIdSetIterator.NO_MORE_DOCS;
+      }
+
+      @Override
+      public Integer next() {
+        return nextDoc();
+      }
+
+      /**
+       * The remove  operation is not supported by this Iterator.
+       */
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("The remove  operation is not supported by this Iterator.");
+      }
+
+      @Override
+      public int nextDoc() {
+        int old = pos;
+        pos = iter.nextDoc();
+        return old;
+      }
+
+      @Override
+      public float score() {
+        return 0.0f;
+      }
+    };
+  }
+
+  @Override
+  public DocIdSetIterator iterator(LeafReaderContext context) {
+    final int maxDoc = context.reader().maxDoc();
+    if (size == 0 || maxDoc < 1) {
+      return null;
+    }
+    if (context.isTopLevel) {
+      return new RoaringIterator();
+    }
+
+    final int base = context.docBase;
+    final int max = base + maxDoc; // one past the max doc in this segment.
+
+    // upper bound of the number of docs in the segment, from the blocks overlapping it
+    long cost = 0;
+    final int lastKey = (max - 1) >>> BLOCK_SHIFT;
+    for (int i = firstBlock(base >>> BLOCK_SHIFT); i < keys.length && keys[i] <= lastKey; i++) {
+      cost += containers[i].cardinality();
+    }
+    if (cost == 0) {
+      return null;
+    }
+    final long segmentCost = cost;
+
+    return new DocIdSetIterator() {
+      final RoaringIterator iter = new RoaringIterator();
+      int adjustedDoc = -1;
+
+      @Override
+      public int docID() {
+        return adjustedDoc;
+      }
+
+      @Override
+      public int nextDoc() {
+        return adjust(adjustedDoc == -1 ? iter.advance(base) : iter.nextDoc());
+      }
+
+      @Override
+      public int advance(int target) {
+        if (target >= max - base) return adjustedDoc = NO_MORE_DOCS;
+        return adjust(iter.advance(target + base));
+      }
+
+      private int adjust(int doc) {
+        return adjustedDoc = doc < max ? doc - base : NO_MORE_DOCS;
+      }
+
+      @Override
+      public long cost() {
+        return segmentCost;
+      }
+    };
+  }
+
+  // index of the first block with a key >= the given key
+  private int firstBlock(int key) {
+    final int idx = Arrays.binarySearch(keys, key);
+    return idx < 0 ? ~idx : idx;
+  }
+
+  @Override
+  public DocSet intersection(DocSet other) {
+    if (other instanceof RoaringDocSet) {
+      final RoaringDocSet o = (RoaringDocSet) other;
+      final int maxBlocks = Math.min(keys.length, o.keys.length);
+      final int[] newKeys = new int[maxBlocks];
+      final Container[] newContainers = new Container[maxBlocks];
+      final long[] scratchA = new long[BLOCK_WORDS];
+      final long[] scratchB = new long[BLOCK_WORDS];
+      int numBlocks = 0;
+      int newSize = 0;
+      for (int i = 0, j = 0; i < keys.length && j < o.keys.length; ) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          final Container c = Container.and(containers[i], o.containers[j], scratchA, scratchB);
+          if (c != null) {
+            newKeys[numBlocks] = keys[i];
+            newContainers[numBlocks++] = c;
+            newSize += c.cardinality();
+          }
+          i++;
+          j++;
+        }
+      }
+      return new RoaringDocSet(newKeys, newContainers, numBlocks, newSize);
+    } else if (other instanceof BitDocSet) {
+      final long[] words = ((BitDocSet) other).getBits().getBits();
+      final int[] newKeys = new int[keys.length];
+      final Container[] newContainers = new Container[keys.length];
+      final long[] scratch = new long[BLOCK_WORDS];
+      int numBlocks = 0;
+      int newSize = 0;
+      for (int i = 0; i < keys.length; i++) {
+        final int offset = keys[i] * BLOCK_WORDS;
+        if (offset >= words.length) break;
+        final Container c = containers[i].and(words, offset, Math.min(BLOCK_WORDS, words.length - offset), scratch);
+        if (c != null) {
+          newKeys[numBlocks] = keys[i];
+          newContainers[numBlocks++] = c;
+          newSize += c.cardinality();
+        }
+      }
+      return new RoaringDocSet(newKeys, newContainers, numBlocks, newSize);
+    }
+    // the small set probes us
+    return other.intersection(this);
+  }
+
+  @Override
+  public int intersectionSize(DocSet other) {
+    if (other instanceof RoaringDocSet) {
+      final RoaringDocSet o = (RoaringDocSet) other;
+      final long[] scratchA = new long[BLOCK_WORDS];
+      final long[] scratchB = new long[BLOCK_WORDS];
+      int count = 0;
+      for (int i = 0, j = 0; i < keys.length && j < o.keys.length; ) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          count += Container.intersectionCount(containers[i], o.containers[j], scratchA, scratchB);
+          i++;
+          j++;
+        }
+      }
+      return count;
+    } else if (other instanceof BitDocSet) {
+      final long[] words = ((BitDocSet) other).getBits().getBits();
+      final long[] scratch = new long[BLOCK_WORDS];
+      int count = 0;
+      for (int i = 0; i < keys.length; i++) {
+        final int offset = keys[i] * BLOCK_WORDS;
+        if (offset >= words.length) break;
+        count += containers[i].intersectionCount(words, offset, Math.min(BLOCK_WORDS, words.length - offset), scratch);
+      }
+      return count;
+    }
+    // they had better not call us back!
+    return other.intersectionSize(this);
+  }
+
+  @Override
+  public boolean intersects(DocSet other) {
+    if (other instanceof RoaringDocSet) {
+      final RoaringDocSet o = (RoaringDocSet) other;
+      final long[] scratchA = new long[BLOCK_WORDS];
+      final long[] scratchB = new long[BLOCK_WORDS];
+      for (int i = 0, j = 0; i < keys.length && j < o.keys.length; ) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          if (Container.intersects(containers[i], o.containers[j], scratchA, scratchB)) return true;
+          i++;
+          j++;
+        }
+      }
+      return false;
+    } else if (other instanceof BitDocSet) {
+      final long[] words = ((BitDocSet) other).getBits().getBits();
+      final long[] scratch = new long[BLOCK_WORDS];
+      for (int i = 0; i < keys.length; i++) {
+        final int offset = keys[i] * BLOCK_WORDS;
+        if (offset >= words.length) break;
+        if (containers[i].intersects(words, offset, Math.min(BLOCK_WORDS, words.length - offset), scratch)) return true;
+      }
+      return false;
+    }
+    // they had better not call us back!
+    return other.intersects(this);
+  }
+
+  @Override
+  public DocSet union(DocSet other) {
+    if (other instanceof BitDocSet) {
+      FixedBitSet newbits = FixedBitSet.ensureCapacity(other.getFixedBitSetClone(), getLength());
+      addAllTo(newbits);
+      return new BitDocSet(newbits);
+    }
+    final RoaringDocSet o = other instanceof RoaringDocSet ? (RoaringDocSet) other : toRoaring(other);
+    final int[] newKeys = new int[keys.length + o.keys.length];
+    final Container[] newContainers = new Container[newKeys.length];
+    final long[] scratch = new long[BLOCK_WORDS];
+    int numBlocks = 0;
+    int newSize = 0;
+    int i = 0, j = 0;
+    while (i < keys.length || j < o.keys.length) {
+      final Container c;
+      if (j >= o.keys.length || (i < keys.length && keys[i] < o.keys[j])) {
+        newKeys[numBlocks] = keys[i];
+        c = containers[i++];
+      } else if (i >= keys.length || keys[i] > o.keys[j]) {
+        newKeys[numBlocks] = o.keys[j];
+        c = o.containers[j++];
+      } else {
+        newKeys[numBlocks] = keys[i];
+        c = Container.or(containers[i++], o.containers[j++], scratch);
+      }
+      newContainers[numBlocks++] = c;
+      newSize += c.cardinality();
+    }
+    return new RoaringDocSet(newKeys, newContainers, numBlocks, newSize);
+  }
+
+  @Override
+  public DocSet andNot(DocSet other) {
+    if (other.size() == 0) return this;
+
+    final int[] newKeys = new int[keys.length];
+    final Container[] newContainers = new Container[keys.length];
+    final long[] scratchA = new long[BLOCK_WORDS];
+    int numBlocks = 0;
+    int newSize = 0;
+    if (other instanceof BitDocSet) {
+      final long[] words = ((BitDocSet) other).getBits().getBits();
+      for (int i = 0; i < keys.length; i++) {
+        final int offset = keys[i] * BLOCK_WORDS;
+        final Container c = offset >= words.length ? containers[i]
+            : containers[i].andNot(words, offset, Math.min(BLOCK_WORDS, words.length - offset), scratchA);
+        if (c != null) {
+          newKeys[numBlocks] = keys[i];
+          newContainers[numBlocks++] = c;
+          newSize += c.cardinality();
+        }
+      }
+    } else {
+      final RoaringDocSet o = other instanceof RoaringDocSet ? (RoaringDocSet) other : toRoaring(other);
+      final long[] scratchB = new long[BLOCK_WORDS];
+      for (int i = 0, j = 0; i < keys.length; i++) {
+        while (j < o.keys.length && o.keys[j] < keys[i]) {
+          j++;
+        }
+        final Container c = j < o.keys.length && o.keys[j] == keys[i]
+            ? Container.andNot(containers[i], o.containers[j], scratchA, scratchB)
+            : containers[i];
+        if (c != null) {
+          newKeys[numBlocks] = keys[i];
+          newContainers[numBlocks++] = c;
+          newSize += c.cardinality();
+        }
+      }
+    }
+    if (newSize == size) {
+      return this; // no change
+    }
+    return new RoaringDocSet(newKeys, newContainers, numBlocks, newSize);
+  }
+
+  private static RoaringDocSet toRoaring(DocSet set) {
+    if (set instanceof SortedIntDocSet) {
+      final int[] docs = ((SortedIntDocSet) set).getDocs();
+      return fromDocs(docs, docs.length);
+    }
+    return fromBits(set.getFixedBitSet());
+  }
+
+  @Override
+  public void addAllTo(FixedBitSet target) {
+    for (int i = 0; i < keys.length; i++) {
+      containers[i].addTo(target, keys[i] << BLOCK_SHIFT);
+    }
+  }
+
+  /** Clears all the docs of this set in the target */
+  void removeAllFrom(FixedBitSet target) {
+    for (int i = 0; i < keys.length; i++) {
+      containers[i].removeFrom(target, keys[i] << BLOCK_SHIFT);
+    }
+  }
+
+  @Override
+  public Bits getBits() {
+    return new Bits() {
+      @Override
+      public boolean get(int index) {
+        return exists(index);
+      }
+
+      @Override
+      public int length() {
+        return getLength();
+      }
+    };
+  }
+
+  /** the {@link Bits#length()} or maxdoc (1 greater than largest possible doc number) */
+  private int getLength() {
+    return size == 0 ? 0 : (keys[keys.length - 1] << BLOCK_SHIFT | containers[keys.length - 1].last()) + 1;
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSet() {
+    return getFixedBitSetClone();
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSetClone() {
+    FixedBitSet bitSet = new FixedBitSet(getLength());
+    addAllTo(bitSet);
+    return bitSet;
+  }
+
+  @Override
+  public Filter getTopFilter() {
+    return new Filter() {
+
+      @Override
+      public DocIdSet getDocIdSet(final LeafReaderContext context, final Bits acceptDocs) {
+        // all Solr DocSets that are used as filters only include live docs
+        final Bits acceptDocs2 = acceptDocs == null ? null : (context.reader().getLiveDocs() == acceptDocs ? null : acceptDocs);
+
+        return BitsFilteredDocIdSet.wrap(new DocIdSet() {
+          @Override
+          public DocIdSetIterator iterator() {
+            return RoaringDocSet.this.iterator(context);
+          }
+
+          @Override
+          public long ramBytesUsed() {
+            return RoaringDocSet.this.ramBytesUsed();
+          }
+
+          @Override
+          public Bits bits() {
+            final int base = context.docBase;
+            final int length = context.reader().maxDoc();
+            return new Bits() {
+              @Override
+              public boolean get(int index) {
+                return exists(index + base);
+              }
+
+              @Override
+              public int length() {
+                return length;
+              }
+            };
+          }
+
+        }, acceptDocs2);
+      }
+
+      @Override
+      public String toString(String field) {
+        return "RoaringDocSetTopFilter";
+      }
+
+      @Override
+      public boolean equals(Object other) {
+        return other == this;
+      }
+
+      @Override
+      public int hashCode() {
+        return System.identityHashCode(this);
+      }
+    };
+  }
+
+  @Override
+  public RoaringDocSet clone() {
+    // containers are never modified
+    return new RoaringDocSet(keys.clone(), containers.clone(), size);
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return ramBytesUsed;
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public String toString() {
+    return "RoaringDocSet{" +
+        "size=" + size() + "," +
+        "blocks=" + keys.length + "," +
+        "ramUsed=" + RamUsageEstimator.humanReadableUnits(ramBytesUsed()) +
+        '}';
+  }
+
+  /** Iterates the docs of all blocks in order */
+  private class RoaringIterator extends DocIdSetIterator {
+    int block = -1;
+    int base;
+    ContainerIterator it;
+    int doc = -1;
+
+    @Override
+    public int docID() {
+      return doc;
+    }
+
+    @Override
+    public int nextDoc() {
+      if (it != null) {
+        final int value = it.next();
+        if (value != NO_MORE_VALUES) return doc = base | value;
+      }
+      return toBlock(block + 1);
+    }
+
+    @Override
+    public int advance(int target) {
+      if (target == NO_MORE_DOCS || block >= keys.length) return toBlock(keys.length);
+      final int key = target >>> BLOCK_SHIFT;
+      if (it == null || keys[block] != key) {
+        final int idx = Arrays.binarySearch(keys, block + 1, keys.length, key);
+        if (idx < 0) {
+          return toBlock(~idx);
+        }
+        toBlock(idx);
+        if (doc >= target) return doc;
+      }
+      final int value = it.advance(target & BLOCK_MASK);
+      if (value != NO_MORE_VALUES) return doc = base | value;
+      return toBlock(block + 1);
+    }
+
+    // positions on the first doc of the given block
+    private int toBlock(int idx) {
+      block = idx;
+      if (idx >= keys.length) {
+        block = keys.length;
+        it = null;
+        return doc = NO_MORE_DOCS;
+      }
+      base = keys[idx] << BLOCK_SHIFT;
+      it = containers[idx].iterator();
+      return doc = base | it.next(); // containers are never empty
+    }
+
+    @Override
+    public long cost() {
+      return size;
+    }
+  }
+
+  private static abstract class ContainerIterator {
+    /** Returns the next value, or NO_MORE_VALUES */
+    abstract int next();
+
+    /** Returns the first value &gt;= target, which must be greater than the current value, or NO_MORE_VALUES */
+    abstract int advance(int target);
+  }
+
+  /**
+   * The docs of one block as 16 bit values.  Operations against "words" take another set of the block as a bitmap in
+   * words[offset, offset + n), where n &lt;= BLOCK_WORDS and any remaining words are empty.  Operations return
+   * null rather than an empty container.
+   */
+  private static abstract class Container implements Accountable {
+
+    abstract int cardinality();
+
+    abstract boolean contains(int value);
+
+    abstract int last();
+
+    abstract ContainerIterator iterator();
+
+    /** Sets the bits of this container in the zeroed words */
+    abstract void toWords(long[] words);
+
+    abstract void addTo(FixedBitSet target, int base);
+
+    abstract void removeFrom(FixedBitSet target, int base);
+
+    /** Returns the bits of this container, either in scratch or in an internal array that must not be modified */
+    long[] words(long[] scratch) {
+      Arrays.fill(scratch, 0L);
+      toWords(scratch);
+      return scratch;
+    }
+
+    int intersectionCount(long[] words, int offset, int n, long[] scratch) {
+      final long[] mine = words(scratch);
+      int count = 0;
+      for (int i = 0; i < n; i++) {
+        count += Long.bitCount(mine[i] & words[offset + i]);
+      }
+      return count;
+    }
+
+    boolean intersects(long[] words, int offset, int n, long[] scratch) {
+      final long[] mine = words(scratch);
+      for (int i = 0; i < n; i++) {
+        if ((mine[i] & words[offset + i]) != 0) return true;
+      }
+      return false;
+    }
+
+    Container and(long[] words, int offset, int n, long[] scratch) {
+      final long[] mine = words(scratch);
+      int card = 0;
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        final long word = i < n ? mine[i] & words[offset + i] : 0L;
+        scratch[i] = word;
+        card += Long.bitCount(word);
+      }
+      return card == cardinality() ? this : fromWords(scratch, card);
+    }
+
+    Container andNot(long[] words, int offset, int n, long[] scratch) {
+      final long[] mine = words(scratch);
+      int card = 0;
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        final long word = i < n ? mine[i] & ~words[offset + i] : mine[i];
+        scratch[i] = word;
+        card += Long.bitCount(word);
+      }
+      return card == cardinality() ? this : fromWords(scratch, card);
+    }
+
+    static Container and(Container a, Container b, long[] scratchA, long[] scratchB) {
+      if (b instanceof ArrayContainer) {
+        return ((ArrayContainer) b).filter(a, true);
+      } else if (a instanceof ArrayContainer) {
+        return ((ArrayContainer) a).filter(b, true);
+      }
+      return a.and(b.words(scratchB), 0, BLOCK_WORDS, scratchA);
+    }
+
+    static Container andNot(Container a, Container b, long[] scratchA, long[] scratchB) {
+      if (a instanceof ArrayContainer) {
+        return ((ArrayContainer) a).filter(b, false);
+      }
+      return a.andNot(b.words(scratchB), 0, BLOCK_WORDS, scratchA);
+    }
+
+    static int intersectionCount(Container a, Container b, long[] scratchA, long[] scratchB) {
+      if (b instanceof ArrayContainer) {
+        return ((ArrayContainer) b).count(a);
+      } else if (a instanceof ArrayContainer) {
+        return ((ArrayContainer) a).count(b);
+      }
+      return a.intersectionCount(b.words(scratchB), 0, BLOCK_WORDS, scratchA);
+    }
+
+    static boolean intersects(Container a, Container b, long[] scratchA, long[] scratchB) {
+      if (b instanceof ArrayContainer) {
+        return ((ArrayContainer) b).intersects(a);
+      } else if (a instanceof ArrayContainer) {
+        return ((ArrayContainer) a).intersects(b);
+      }
+      return a.intersects(b.words(scratchB), 0, BLOCK_WORDS, scratchA);
+    }
+
+    static Container or(Container a, Container b, long[] scratch) {
+      Arrays.fill(scratch, 0L);
+      a.toWords(scratch);
+      b.toWords(scratch);
+      int card = 0;
+      for (long word : scratch) {
+        card += Long.bitCount(word);
+      }
+      return fromWords(scratch, card);
+    }
+
+    static Container fromWords(long[] words, int card) {
+      return card == 0 ? null : fromWords(words, card, countRuns(words, 0, BLOCK_WORDS));
+    }
+
+    /** Creates the smallest container for the bits in words, which may be reused by the caller afterwards */
+    static Container fromWords(long[] words, int card, int runs) {
+      assert card > 0;
+      if ((runs << 2) < Math.min(card << 1, BLOCK_WORDS << 3)) {
+        return RunContainer.fromWords(words, runs, card);
+      } else if (card <= MAX_ARRAY_SIZE) {
+        return ArrayContainer.fromWords(words, card);
+      } else {
+        return new BitmapContainer(words.clone(), card);
+      }
+    }
+  }
+
+  private static final class ArrayContainer extends Container {
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(ArrayContainer.class)
+        + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+
+    private final char[] values;
+
+    ArrayContainer(char[] values) {
+      this.values = values;
+    }
+
+    static ArrayContainer fromWords(long[] words, int card) {
+      final char[] values = new char[card];
+      int pos = 0;
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        long word = words[i];
+        while (word != 0) {
+          values[pos++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      assert pos == card;
+      return new ArrayContainer(values);
+    }
+
+    // the values that are (keep=true) or are not (keep=false) in the other container
+    Container filter(Container other, boolean keep) {
+      final char[] newValues = new char[values.length];
+      int pos = 0;
+      for (char value : values) {
+        if (other.contains(value) == keep) newValues[pos++] = value;
+      }
+      return pos == values.length ? this : pos == 0 ? null : new ArrayContainer(Arrays.copyOf(newValues, pos));
+    }
+
+    int count(Container other) {
+      int count = 0;
+      for (char value : values) {
+        if (other.contains(value)) count++;
+      }
+      return count;
+    }
+
+    boolean intersects(Container other) {
+      for (char value : values) {
+        if (other.contains(value)) return true;
+      }
+      return false;
+    }
+
+    @Override
+    int cardinality() {
+      return values.length;
+    }
+
+    @Override
+    boolean contains(int value) {
+      return Arrays.binarySearch(values, (char) value) >= 0;
+    }
+
+    @Override
+    int last() {
+      return values[values.length - 1];
+    }
+
+    @Override
+    ContainerIterator iterator() {
+      return new ContainerIterator() {
+        int idx = -1;
+
+        @Override
+        int next() {
+          return ++idx < values.length ? values[idx] : NO_MORE_VALUES;
+        }
+
+        @Override
+        int advance(int target) {
+          final int found = Arrays.binarySearch(values, idx + 1, values.length, (char) target);
+          idx = found < 0 ? ~found : found;
+          return idx < values.length ? values[idx] : NO_MORE_VALUES;
+        }
+      };
+    }
+
+    @Override
+    void toWords(long[] words) {
+      for (char value : values) {
+        words[value >>> 6] |= 1L << value;
+      }
+    }
+
+    @Override
+    void addTo(FixedBitSet target, int base) {
+      for (char value : values) {
+        target.set(base | value);
+      }
+    }
+
+    @Override
+    void removeFrom(FixedBitSet target, int base) {
+      final int length = target.length();
+      for (char value : values) {
+        final int doc = base | value;
+        if (doc >= length) break;
+        target.clear(doc);
+      }
+    }
+
+    @Override
+    int intersectionCount(long[] words, int offset, int n, long[] scratch) {
+      int count = 0;
+      for (char value : values) {
+        if (get(words, offset, n, value)) count++;
+      }
+      return count;
+    }
+
+    @Override
+    boolean intersects(long[] words, int offset, int n, long[] scratch) {
+      for (char value : values) {
+        if (get(words, offset, n, value)) return true;
+      }
+      return false;
+    }
+
+    @Override
+    Container and(long[] words, int offset, int n, long[] scratch) {
+      return filter(words, offset, n, true);
+    }
+
+    @Override
+    Container andNot(long[] words, int offset, int n, long[] scratch) {
+      return filter(words, offset, n, false);
+    }
+
+    private Container filter(long[] words, int offset, int n, boolean keep) {
+      final char[] newValues = new char[values.length];
+      int pos = 0;
+      for (char value : values) {
+        if (get(words, offset, n, value) == keep) newValues[pos++] = value;
+      }
+      return pos == values.length ? this : pos == 0 ? null : new ArrayContainer(Arrays.copyOf(newValues, pos));
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + ((long) values.length << 1);
+    }
+  }
+
+  private static final class BitmapContainer extends Container {
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(BitmapContainer.class)
+        + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + ((long) BLOCK_WORDS << 3);
+
+    private final long[] bits;
+    private final int card;
+
+    BitmapContainer(long[] bits, int card) {
+      assert bits.length == BLOCK_WORDS;
+      this.bits = bits;
+      this.card = card;
+    }
+
+    @Override
+    int cardinality() {
+      return card;
+    }
+
+    @Override
+    boolean contains(int value) {
+      return (bits[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    int last() {
+      int i = BLOCK_WORDS - 1;
+      while (bits[i] == 0) {
+        i--;
+      }
+      return (i << 6) | (63 - Long.numberOfLeadingZeros(bits[i]));
+    }
+
+    @Override
+    ContainerIterator iterator() {
+      return new ContainerIterator() {
+        int current = -1;
+
+        @Override
+        int next() {
+          return advance(current + 1);
+        }
+
+        @Override
+        int advance(int target) {
+          if (target >= BLOCK_SIZE) return current = NO_MORE_VALUES;
+          int i = target >>> 6;
+          long word = bits[i] >>> target;
+          if (word != 0) {
+            return current = target + Long.numberOfTrailingZeros(word);
+          }
+          while (++i < BLOCK_WORDS) {
+            word = bits[i];
+            if (word != 0) {
+              return current = (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+          }
+          return current = NO_MORE_VALUES;
+        }
+      };
+    }
+
+    @Override
+    long[] words(long[] scratch) {
+      return bits;
+    }
+
+    @Override
+    void toWords(long[] words) {
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        words[i] |= bits[i];
+      }
+    }
+
+    @Override
+    void addTo(FixedBitSet target, int base) {
+      final long[] targetWords = target.getBits();
+      final int offset = base >>> 6;
+      final int n = Math.min(BLOCK_WORDS, targetWords.length - offset);
+      for (int i = 0; i < n; i++) {
+        targetWords[offset + i] |= bits[i];
+      }
+    }
+
+    @Override
+    void removeFrom(FixedBitSet target, int base) {
+      final long[] targetWords = target.getBits();
+      final int offset = base >>> 6;
+      final int n = Math.min(BLOCK_WORDS, targetWords.length - offset);
+      for (int i = 0; i < n; i++) {
+        targetWords[offset + i] &= ~bits[i];
+      }
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED;
+    }
+  }
+
+  private static final class RunContainer extends Container {
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(RunContainer.class)
+        + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+
+    private final char[] runs; // pairs of (start, length - 1), ascending
+    private final int card;
+
+    RunContainer(char[] runs, int card) {
+      this.runs = runs;
+      this.card = card;
+    }
+
+    static RunContainer fromWords(long[] words, int numRuns, int card) {
+      final char[] runs = new char[numRuns << 1];
+      int pos = 0;
+      int start = nextSetBit(words, 0);
+      while (start != NO_MORE_VALUES) {
+        final int end = nextClearBit(words, start);
+        runs[pos++] = (char) start;
+        runs[pos++] = (char) (end - 1 - start);
+        start = nextSetBit(words, end);
+      }
+      assert pos == runs.length;
+      return new RunContainer(runs, card);
+    }
+
+    private static int nextSetBit(long[] words, int index) {
+      if (index >= BLOCK_SIZE) return NO_MORE_VALUES;
+      int i = index >>> 6;
+      long word = words[i] >>> index;
+      if (word != 0) return index + Long.numberOfTrailingZeros(word);
+      while (++i < BLOCK_WORDS) {
+        if (words[i] != 0) return (i << 6) + Long.numberOfTrailingZeros(words[i]);
+      }
+      return NO_MORE_VALUES;
+    }
+
+    private static int nextClearBit(long[] words, int index) {
+      int i = index >>> 6;
+      long word = ~words[i] >>> index;
+      if (word != 0) return index + Long.numberOfTrailingZeros(word);
+      while (++i < BLOCK_WORDS) {
+        if (words[i] != -1L) return (i << 6) + Long.numberOfTrailingZeros(~words[i]);
+      }
+      return BLOCK_SIZE;
+    }
+
+    @Override
+    int cardinality() {
+      return card;
+    }
+
+    @Override
+    boolean contains(int value) {
+      // binary search for the last run starting at or before the value
+      int low = 0;
+      int high = (runs.length >>> 1) - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final int start = runs[mid << 1];
+        if (start > value) {
+          high = mid - 1;
+        } else if (value - start <= runs[(mid << 1) + 1]) {
+          return true;
+        } else {
+          low = mid + 1;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    int last() {
+      return runs[runs.length - 2] + runs[runs.length - 1];
+    }
+
+    @Override
+    ContainerIterator iterator() {
+      return new ContainerIterator() {
+        int run = 0;
+        int current = -1;
+
+        @Override
+        int next() {
+          return advance(current + 1);
+        }
+
+        @Override
+        int advance(int target) {
+          for (; run < runs.length; run += 2) {
+            final int start = runs[run];
+            if (target <= start + runs[run + 1]) {
+              return current = Math.max(target, start);
+            }
+          }
+          return current = NO_MORE_VALUES;
+        }
+      };
+    }
+
+    @Override
+    void toWords(long[] words) {
+      for (int r = 0; r < runs.length; r += 2) {
+        final int start = runs[r];
+        final int end = start + runs[r + 1]; // inclusive
+        final int startWord = start >>> 6;
+        final int endWord = end >>> 6;
+        final long startMask = -1L << start;
+        final long endMask = -1L >>> ~end;
+        if (startWord == endWord) {
+          words[startWord] |= startMask & endMask;
+        } else {
+          words[startWord] |= startMask;
+          for (int i = startWord + 1; i < endWord; i++) {
+            words[i] = -1L;
+          }
+          words[endWord] |= endMask;
+        }
+      }
+    }
+
+    @Override
+    void addTo(FixedBitSet target, int base) {
+      for (int r = 0; r < runs.length; r += 2) {
+        final int start = base | runs[r];
+        target.set(start, start + runs[r + 1] + 1);
+      }
+    }
+
+    @Override
+    void removeFrom(FixedBitSet target, int base) {
+      final int length = target.length();
+      for (int r = 0; r < runs.length; r += 2) {
+        final int start = base | runs[r];
+        if (start >= length) break;
+        target.clear(start, Math.min(length, start + runs[r + 1] + 1));
+      }
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + ((long) runs.length << 1);
+    }
+  }
+}
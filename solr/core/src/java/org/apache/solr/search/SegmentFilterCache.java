@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricsContext;
+
+/**
+ * A core level cache of the documents matching a filter query in each index segment, keyed on the
+ * segment's core cache key and the query.
+ * <p>
+ * The searcher level filterCache is thrown away on every commit, and autowarming it re-executes each
+ * filter over the whole index. With this cache enabled, a filterCache miss only executes the filter
+ * against segments that have not been seen before (newly flushed or merged segments), and the top-level
+ * {@link DocSet} is assembled from the cached per-segment sets and the current live docs. Entries are
+ * dropped as soon as their segment is closed.
+ * <p>
+ * Per-segment sets are computed without regard to deletions, so they stay valid when documents of the
+ * segment get deleted later. Queries whose {@link Weight} is not cacheable for a segment, such as
+ * queries depending on the top-level reader or on updated doc values, are computed the regular way.
+ * <p>
+ * Enabled with <code>perSegment="true"</code> on the <code>&lt;filterCache&gt;</code> element.
+ * <code>perSegmentMaxRamMB</code> bounds the heap used by the per-segment entries.
+ *
+ * @lucene.experimental
+ */
+public class SegmentFilterCache implements SolrInfoBean, Accountable {
+
+  public static final String PER_SEGMENT_PARAM = "perSegment";
+  public static final String PER_SEGMENT_MAX_RAM_MB_PARAM = "perSegmentMaxRamMB";
+  public static final int DEFAULT_MAX_RAM_MB = 256;
+
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(SegmentFilterCache.class)
+      + RamUsageEstimator.shallowSizeOfInstance(LongAdder.class);
+
+  private final long maxRamBytes;
+  private final Cache<Key, DocSet> cache;
+  // segments for which a closed listener has been registered
+  private final Set<IndexReader.CacheKey> segments = ConcurrentHashMap.newKeySet();
+  // misses don't always insert, like for queries that can't be cached per segment
+  private final LongAdder inserts = new LongAdder();
+
+  private SolrMetricsContext solrMetricsContext;
+
+  /**
+   * Creates a cache if the filterCache configuration asks for per-segment caching, otherwise returns null.
+   */
+  public static SegmentFilterCache create(CacheConfig filterCacheConfig) {
+    if (filterCacheConfig == null) {
+      return null;
+    }
+    Map<String, Object> args = filterCacheConfig.toMap(new HashMap<>());
+    if (!Boolean.parseBoolean(String.valueOf(args.get(PER_SEGMENT_PARAM)))) {
+      return null;
+    }
+    Object maxRamMB = args.get(PER_SEGMENT_MAX_RAM_MB_PARAM);
+    return new SegmentFilterCache(maxRamMB == null ? DEFAULT_MAX_RAM_MB : Double.valueOf(maxRamMB.toString()).intValue());
+  }
+
+  public SegmentFilterCache(int maxRamMB) {
+    this.maxRamBytes = maxRamMB * 1024L * 1024L;
+    this.cache = Caffeine.newBuilder()
+        .maximumWeight(maxRamBytes)
+        .weigher((Key k, DocSet v) -> (int) Math.min(Integer.MAX_VALUE, k.ramBytesUsed() + v.ramBytesUsed()))
+        .executor(Runnable::run)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns the live documents of the searcher that match the positive query, computing the query only
+   * for segments that have no cached entry yet. Returns null if the query can't be cached per segment,
+   * in which case the caller should compute it over the whole index.
+   */
+  public DocSet getDocSet(SolrIndexSearcher searcher, Query query) throws IOException {
+    if (query instanceof MatchAllDocsQuery) {
+      return null; // live docs are cheaper to get from the segments directly
+    }
+    List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    DocSet[] leafSets = new DocSet[leaves.size()];
+    // checked for every segment, hit or miss: an entry is keyed on the segment's core, which in-place
+    // docValues updates don't change, but they make the queries on the updated fields not cacheable
+    Weight weight = searcher.createWeight(searcher.rewrite(query), ScoreMode.COMPLETE_NO_SCORES, 1f);
+    long cost = 0;
+    for (LeafReaderContext ctx : leaves) {
+      IndexReader.CacheHelper cacheHelper = ctx.reader().getCoreCacheHelper();
+      if (cacheHelper == null || !weight.isCacheable(ctx)) {
+        return null;
+      }
+      Key key = new Key(cacheHelper.getKey(), query);
+      // note: can't use computeIfAbsent because creating the weight can be recursive
+      DocSet leafSet = cache.getIfPresent(key);
+      if (leafSet == null) {
+        leafSet = createLeafDocSet(weight, ctx);
+        if (segments.add(cacheHelper.getKey())) {
+          cacheHelper.addClosedListener(this::onSegmentClosed);
+        }
+        cache.put(key, leafSet);
+        inserts.increment();
+      }
+      leafSets[ctx.ord] = leafSet;
+      cost += leafSet.size();
+    }
+
+    DocSetBuilder builder = new DocSetBuilder(searcher.maxDoc(), cost);
+    for (LeafReaderContext ctx : leaves) {
+      Bits liveDocs = ctx.reader().getLiveDocs();
+      int base = ctx.docBase;
+      for (DocIterator iter = leafSets[ctx.ord].iterator(); iter.hasNext(); ) {
+        int doc = iter.nextDoc();
+        if (liveDocs == null || liveDocs.get(doc)) {
+          builder.add(doc + base);
+        }
+      }
+    }
+    return DocSetUtil.getDocSet(builder.buildUniqueInOrder(null), searcher);
+  }
+
+  // all matches of the segment, including deleted documents, using segment relative ids
+  private static DocSet createLeafDocSet(Weight weight, LeafReaderContext ctx) throws IOException {
+    Scorer scorer = weight.scorer(ctx);
+    if (scorer == null) {
+      return DocSet.empty();
+    }
+    DocIdSetIterator iter = scorer.iterator();
+    DocSetBuilder builder = new DocSetBuilder(ctx.reader().maxDoc(), iter.cost());
+    builder.add(iter, 0);
+    return builder.buildUniqueInOrder(null);
+  }
+
+  private void onSegmentClosed(IndexReader.CacheKey segment) {
+    segments.remove(segment);
+    cache.asMap().keySet().removeIf(key -> key.segment == segment);
+  }
+
+  /** The number of cached per-segment entries */
+  public long size() {
+    return cache.estimatedSize();
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L);
+  }
+
+  //////////////////////// SolrInfoBean methods //////////////////////
+
+  @Override
+  public String getName() {
+    return SegmentFilterCache.class.getName();
+  }
+
+  @Override
+  public String getDescription() {
+    return "Per-segment filter cache (maxRamMB=" + (maxRamBytes / 1024L / 1024L) + ")";
+  }
+
+  @Override
+  public Category getCategory() {
+    return Category.CACHE;
+  }
+
+  @Override
+  public SolrMetricsContext getSolrMetricsContext() {
+    return solrMetricsContext;
+  }
+
+  @Override
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    this.solrMetricsContext = parentContext;
+    MetricsMap metricsMap = new MetricsMap(map -> {
+      CacheStats stats = cache.stats();
+      map.put(SolrCache.LOOKUPS_PARAM, stats.requestCount());
+      map.put(SolrCache.HITS_PARAM, stats.hitCount());
+      map.put(SolrCache.HIT_RATIO_PARAM, stats.hitRate());
+      map.put(SolrCache.INSERTS_PARAM, inserts.sum());
+      map.put(SolrCache.EVICTIONS_PARAM, stats.evictionCount());
+      map.put(SolrCache.SIZE_PARAM, size());
+      map.put("segments", segments.size());
+      map.put(SolrCache.RAM_BYTES_USED_PARAM, ramBytesUsed());
+      map.put(SolrCache.MAX_RAM_MB_PARAM, maxRamBytes / 1024L / 1024L);
+    });
+    solrMetricsContext.gauge(metricsMap, true, "segmentFilterCache", Category.CACHE.toString(), scope);
+  }
+
+  @Override
+  public void close() throws IOException {
+    SolrInfoBean.super.close();
+    cache.invalidateAll();
+    cache.cleanUp();
+  }
+
+  private static final class Key implements Accountable {
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Key.class);
+
+    final IndexReader.CacheKey segment;
+    final Query query;
+    final int hash;
+
+    Key(IndexReader.CacheKey segment, Query query) {
+      this.segment = segment;
+      this.query = query;
+      this.hash = 31 * segment.hashCode() + query.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return segment == other.segment && Objects.equals(query, other.query);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOfObject(query, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED);
+    }
+  }
+}
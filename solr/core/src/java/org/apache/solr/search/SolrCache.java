@@ -20,6 +20,7 @@ import org.apache.solr.core.SolrInfoBean;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 
 
@@ -149,6 +150,21 @@ public interface SolrCache<K,V> extends SolrInfoBean {
   // Q: an alternative to passing the searcher here would be to pass it in
   // init and have the cache implementation save it.
 
+  /**
+   * Prepare to warm this cache associated with <code>searcher</code> using the <code>old</code>
+   * cache object while <code>this</code> is already in use.  The entries to warm are captured
+   * when this is called, and the returned task regenerates them in the background; implementations
+   * may regenerate a pending entry on demand when it is looked up before the task got to it.
+   * The task should stop early once <code>cancelled</code> returns true.
+   * <p>
+   * The default implementation returns a task that calls {@link #warm}.
+   *
+   * @return the task that warms this cache, or null if there is nothing to warm
+   */
+  default Runnable prepareWarm(SolrIndexSearcher searcher, SolrCache<K,V> old, BooleanSupplier cancelled) {
+    return () -> warm(searcher, old);
+  }
+
 
   /** Frees any non-memory resources */
   default void close() throws IOException {
@@ -17,12 +17,14 @@
 package org.apache.solr.search;
 
 import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.index.OrdinalMapCache;
 import org.apache.solr.metrics.MetricsMap;
 import org.apache.solr.metrics.SolrMetricsContext;
 import org.apache.solr.uninverting.UninvertingReader;
 
 /**
- * A SolrInfoBean that provides introspection of the Solr FieldCache
+ * A SolrInfoBean that provides introspection of the Solr FieldCache, and of the cached maps of segment ords to
+ * global ords of string fields, see {@link OrdinalMapCache}
  *
  */
 public class SolrFieldCacheBean implements SolrInfoBean {
@@ -62,6 +64,8 @@ public class SolrFieldCacheBean implements SolrInfoBean {
       } else {
         map.put("entries_count", UninvertingReader.getUninvertedStatsSize());
       }
+      map.put("ordinalMaps_count", OrdinalMapCache.size());
+      map.put("ordinalMaps_ramBytesUsed", OrdinalMapCache.ramBytesUsed());
     });
     solrMetricsContext.gauge(metricsMap, true, "fieldCache", Category.CACHE.toString(), scope);
   }
@@ -30,9 +30,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import com.codahale.metrics.Gauge;
 import com.google.common.collect.Iterables;
 import org.apache.lucene.document.Document;
@@ -56,8 +61,10 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.ThreadInterruptedException;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.util.ObjectReleaseTracker;
 import org.apache.solr.core.DirectoryFactory;
@@ -69,18 +76,21 @@ import org.apache.solr.index.SlowCompositeReaderWrapper;
 import org.apache.solr.metrics.MetricsMap;
 import org.apache.solr.metrics.SolrMetricManager;
 import org.apache.solr.metrics.SolrMetricsContext;
+import org.apache.solr.query.FilterQuery;
 import org.apache.solr.request.LocalSolrQueryRequest;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.facet.FacetCache;
 import org.apache.solr.search.facet.UnInvertedField;
 import org.apache.solr.search.stats.StatsCache;
 import org.apache.solr.search.stats.StatsSource;
 import org.apache.solr.uninverting.UninvertingReader;
 import org.apache.solr.update.IndexFingerprint;
 import org.apache.solr.update.SolrIndexConfig;
+import org.apache.solr.util.circuitbreaker.CircuitBreakerManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -109,7 +119,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
   private final Date openTime = new Date();
   private final long openNanoTime = System.nanoTime();
   private Date registerTime;
-  private long warmupTime = 0;
+  private volatile long warmupTime = 0;
   private final DirectoryReader reader;
   private final boolean closeReader;
 
@@ -121,6 +131,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
   private final SolrCache<Query,DocSet> filterCache;
   private final SolrCache<QueryResultKey,DocList> queryResultCache;
   private final SolrCache<String,UnInvertedField> fieldValueCache;
+  private final SolrCache<FacetCache.Key,FacetCache.Entry> facetCache;
 
   // map of generic caches - not synchronized since it's read-only after the constructor.
   private final Map<String,SolrCache<?, ?>> cacheMap;
@@ -140,6 +151,10 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
   private final StatsCache statsCache;
 
+  // searches slices of the index concurrently for requests that enable it; null if disabled
+  private final Executor collectorExecutor;
+  private final LeafSlice[] concurrentSlices;
+
   private Set<String> metricNames = ConcurrentHashMap.newKeySet();
   private SolrMetricsContext solrMetricsContext;
 
@@ -235,6 +250,166 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     return collector;
   }
 
+  /**
+   * Returns true if the query of <code>cmd</code> should be searched with {@link #searchConcurrently}.  Only plain
+   * collectors can be split by slice, so this is false with post filters, early termination, time limits,
+   * cancellable queries and rank queries.
+   */
+  private boolean useConcurrentSearch(QueryCommand cmd, ProcessedFilter pf) {
+    return cmd.isMultiThreaded() && pf.postFilter == null && !cmd.getTerminateEarly()
+        && !cmd.getSegmentTerminateEarly() && cmd.getTimeAllowed() <= 0 && !cmd.isQueryCancellable()
+        && !(cmd.getQuery() instanceof RankQuery) && canSearchConcurrently();
+  }
+
+  /**
+   * Returns true if this searcher can search slices of its index concurrently.  This is false if the executor is
+   * disabled (<code>indexSearcherExecutorThreads=0</code> in solr.xml), if the index has a single slice, and while a
+   * circuit breaker is tripped, so that a node under load does not spread each request over more threads.
+   */
+  public boolean canSearchConcurrently() {
+    if (concurrentSlices == null || concurrentSlices.length < 2) {
+      return false;
+    }
+    final CircuitBreakerManager circuitBreakerManager = core.getCircuitBreakerManager();
+    return circuitBreakerManager == null || !circuitBreakerManager.checkAnyTripped();
+  }
+
+  /**
+   * Returns true if the current request enabled {@link CommonParams#MULTI_THREADED}, for searches that are not
+   * described by a {@link QueryCommand}.
+   */
+  static boolean isMultiThreadedRequest() {
+    final SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+    if (requestInfo == null || requestInfo.getReq() == null) {
+      return false;
+    }
+    return requestInfo.getReq().getParams().getBool(CommonParams.MULTI_THREADED, CommonParams.MULTI_THREADED_DEFAULT);
+  }
+
+  /**
+   * Searches each slice of the index with its own collector from <code>manager</code>, and reduces them.  All slices
+   * but the last one are submitted to the collector executor and the last one is searched by the calling thread.
+   * Slices which the executor rejects because its queue is full are searched by the calling thread too, so a busy
+   * executor degrades to a sequential search instead of queueing up more work.
+   * <p>
+   * The slices run without the {@link SolrRequestInfo} of the request, so their collectors must not depend on it.
+   * They share a single {@link Weight}, so queries which can't be shared that way (see {@link #isConcurrentSafe})
+   * are searched sequentially with a single collector.
+   *
+   * @see #canSearchConcurrently()
+   */
+  public <C extends Collector, T> T searchConcurrently(Query query, CollectorManager<C, T> manager) throws IOException {
+    final Query rewritten = rewrite(query);
+    if (!isConcurrentSafe(rewritten)) {
+      final C collector = manager.newCollector();
+      search(getLeafContexts(), createWeight(rewritten, collector.scoreMode(), 1), collector);
+      return manager.reduce(Collections.singletonList(collector));
+    }
+
+    final LeafSlice[] slices = concurrentSlices;
+    final List<C> collectors = new ArrayList<>(slices.length);
+    ScoreMode scoreMode = null;
+    for (int i = 0; i < slices.length; i++) {
+      final C collector = manager.newCollector();
+      if (scoreMode == null) {
+        scoreMode = collector.scoreMode();
+      } else if (scoreMode != collector.scoreMode()) {
+        throw new IllegalStateException("CollectorManager does not always produce collectors with the same score mode");
+      }
+      collectors.add(collector);
+    }
+
+    final Weight weight = createWeight(rewritten, scoreMode, 1);
+    final List<FutureTask<C>> tasks = new ArrayList<>(slices.length);
+    for (int i = 0; i < slices.length; i++) {
+      final List<LeafReaderContext> leaves = Arrays.asList(slices[i].leaves);
+      final C collector = collectors.get(i);
+      final FutureTask<C> task = new FutureTask<>(() -> {
+        search(leaves, weight, collector);
+        return collector;
+      });
+      tasks.add(task);
+      if (i == slices.length - 1) {
+        task.run();
+      } else {
+        try {
+          collectorExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+          task.run();
+        }
+      }
+    }
+
+    // wait for all slices even if one failed, the searcher must not be released while others are still running
+    Throwable failure = null;
+    for (FutureTask<C> task : tasks) {
+      try {
+        task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ThreadInterruptedException(e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        } else {
+          failure.addSuppressed(e.getCause());
+        }
+      }
+    }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new SolrException(ErrorCode.SERVER_ERROR, failure);
+    }
+    return manager.reduce(collectors);
+  }
+
+  /**
+   * Returns true if the weight of <code>query</code>, once rewritten, can be used by several threads at once.  Lucene's
+   * queries allow it, except for the function queries whose weight shares the context of their value sources, which
+   * some of them like <code>scale()</code> fill lazily.  Solr queries like {@link JoinQuery} compute their results
+   * lazily too, and may use the {@link SolrRequestInfo} of the request, so only the ones known to be stateless are
+   * allowed: the filters of {@link DocSet}s, and wrappers like {@link WrappedQuery} which visit the query they wrap.
+   */
+  static boolean isConcurrentSafe(Query query) {
+    // the query itself too, in case it doesn't visit anything
+    final boolean[] safe = {isConcurrentSafeType(query)};
+    query.visit(new QueryVisitor() {
+      @Override
+      public QueryVisitor getSubVisitor(Occur occur, Query parent) {
+        safe[0] &= isConcurrentSafeType(parent);
+        return this;
+      }
+
+      @Override
+      public void consumeTerms(Query query, Term... terms) {
+        safe[0] &= isConcurrentSafeType(query);
+      }
+
+      @Override
+      public void visitLeaf(Query query) {
+        safe[0] &= isConcurrentSafeType(query);
+      }
+    });
+    return safe[0];
+  }
+
+  private static boolean isConcurrentSafeType(Query query) {
+    if (query instanceof WrappedQuery || query instanceof FilterQuery) {
+      return true;
+    } else if (query instanceof Filter) {
+      return !(query instanceof SolrFilter);
+    } else if (query instanceof SolrConstantScoreQuery) {
+      return !(((SolrConstantScoreQuery) query).getFilter() instanceof SolrFilter);
+    }
+    final String className = query.getClass().getName();
+    return className.startsWith("org.apache.lucene.") && !className.startsWith("org.apache.lucene.queries.function.");
+  }
+
   public SolrIndexSearcher(SolrCore core, String path, IndexSchema schema, SolrIndexConfig config, String name,
       boolean enableCache, DirectoryFactory directoryFactory) throws IOException {
     // We don't need to reserve the directory because we get it from the factory
@@ -278,6 +453,9 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     this.closeReader = closeReader;
     setSimilarity(schema.getSimilarity());
 
+    this.collectorExecutor = core.getCoreContainer() == null ? null : core.getCoreContainer().getCollectorExecutor();
+    this.concurrentSlices = collectorExecutor == null ? null : slices(getLeafContexts());
+
     final SolrConfig solrConfig = core.getSolrConfig();
     this.queryResultWindowSize = solrConfig.queryResultWindowSize;
     this.queryResultMaxDocsCached = solrConfig.queryResultMaxDocsCached;
@@ -291,6 +469,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       fieldValueCache = solrConfig.fieldValueCacheConfig == null ? null
           : solrConfig.fieldValueCacheConfig.newInstance();
       if (fieldValueCache != null) clist.add(fieldValueCache);
+      facetCache = solrConfig.facetCacheConfig == null ? null : solrConfig.facetCacheConfig.newInstance();
+      if (facetCache != null) clist.add(facetCache);
       filterCache = solrConfig.filterCacheConfig == null ? null : solrConfig.filterCacheConfig.newInstance();
       if (filterCache != null) clist.add(filterCache);
       queryResultCache = solrConfig.queryResultCacheConfig == null ? null
@@ -313,10 +493,16 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       }
 
       cacheList = clist.toArray(new SolrCache[clist.size()]);
+      for (SolrCache cache : cacheList) {
+        if (cache instanceof OffHeapFilterCache) {
+          ((OffHeapFilterCache) cache).setMaxDoc(maxDoc());
+        }
+      }
     } else {
       this.filterCache = null;
       this.queryResultCache = null;
       this.fieldValueCache = null;
+      this.facetCache = null;
       this.cacheMap = NO_GENERIC_CACHES;
       this.cacheList = NO_CACHES;
     }
@@ -552,6 +738,24 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       });
     }
 
+    if (solrConfig.facetCacheConfig != null && solrConfig.facetCacheConfig.getRegenerator() == null) {
+      solrConfig.facetCacheConfig.setRegenerator(new CacheRegenerator() {
+        @Override
+        @SuppressWarnings({"unchecked"})
+        public <K,V> boolean regenerateItem(SolrIndexSearcher newSearcher,
+                                      SolrCache<K,V> newCache,
+                                      SolrCache<K,V> oldCache,
+            K oldKey, V oldVal) throws IOException {
+          // only the per-segment counts of segments that are still in the index are carried over
+          FacetCache.Entry entry = ((FacetCache.Entry) oldVal).forSearcher(newSearcher);
+          if (entry != null) {
+            newCache.put(oldKey, (V) entry);
+          }
+          return true;
+        }
+      });
+    }
+
     if (solrConfig.filterCacheConfig != null && solrConfig.filterCacheConfig.getRegenerator() == null) {
       solrConfig.filterCacheConfig.setRegenerator(new CacheRegenerator() {
         @Override
@@ -665,6 +869,11 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     return fieldValueCache;
   }
 
+  /** expert: internal API, subject to change */
+  public SolrCache<FacetCache.Key,FacetCache.Entry> getFacetCache() {
+    return facetCache;
+  }
+
   /** Returns a weighted sort according to this searcher */
   public Sort weightSort(Sort sort) throws IOException {
     return (sort != null) ? sort.rewrite(this) : null;
@@ -809,10 +1018,21 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     if (filterCache != null) {
       answer = filterCache.get(q);
       if (answer != null) return answer;
+      answer = getDocSetForFilterCache(q);
+      filterCache.put(q, answer);
+      return answer;
     }
-    answer = getDocSetNC(q, null);
-    if (filterCache != null) filterCache.put(q, answer);
-    return answer;
+    return getDocSetNC(q, null);
+  }
+
+  // computes a positive query that missed the filterCache, reusing per-segment results if enabled
+  private DocSet getDocSetForFilterCache(Query q) throws IOException {
+    SegmentFilterCache segmentFilterCache = core.getSegmentFilterCache();
+    if (segmentFilterCache != null) {
+      DocSet answer = segmentFilterCache.getDocSet(this, q);
+      if (answer != null) return answer;
+    }
+    return getDocSetNC(q, null);
   }
 
   private static Query matchAllDocsQuery = new MatchAllDocsQuery();
@@ -884,6 +1104,12 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       }
     }
 
+    Query query = pf.filter != null ? pf.filter : matchAllDocsQuery;
+
+    if (pf.postFilter == null && isMultiThreadedRequest() && canSearchConcurrently()) {
+      return DocSetUtil.getDocSet(searchConcurrently(query, DocSetCollector.newManager(maxDoc())), this);
+    }
+
     DocSetCollector setCollector = new DocSetCollector(maxDoc());
     Collector collector = setCollector;
     if (pf.postFilter != null) {
@@ -891,8 +1117,6 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       collector = pf.postFilter;
     }
 
-    Query query = pf.filter != null ? pf.filter : matchAllDocsQuery;
-
     search(query, collector);
 
     if (collector instanceof DelegatingCollector) {
@@ -1185,7 +1409,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     // note: can't use computeIfAbsent because can be recursive
     DocSet absAnswer = filterCache.get(absQ);
     if (absAnswer == null) {
-      absAnswer = getDocSetNC(absQ, null);
+      absAnswer = getDocSetForFilterCache(absQ);
       filterCache.put(absQ, absAnswer);
     }
 
@@ -1499,6 +1723,95 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     }
   }
 
+  /**
+   * Like {@link #buildTopDocsCollector}, for concurrent searches.  The collectors of all slices share the number of
+   * hits counted so far, to stop counting exactly at the same threshold as a single collector.  Rank queries are not
+   * supported.
+   */
+  private CollectorManager<? extends TopDocsCollector<?>, ? extends TopDocs> buildTopDocsCollectorManager(int len,
+      QueryCommand cmd) throws IOException {
+    int minNumFound = cmd.getMinExactCount();
+    if (null == cmd.getSort()) {
+      assert null == cmd.getCursorMark() : "have cursor but no sort";
+      return TopScoreDocCollector.createSharedManager(len, null, minNumFound);
+    } else {
+      // we have a sort
+      final Sort weightedSort = weightSort(cmd.getSort());
+      final CursorMark cursor = cmd.getCursorMark();
+
+      final FieldDoc searchAfter = (null != cursor ? cursor.getSearchAfterFieldDoc() : null);
+      return TopFieldCollector.createSharedManager(weightedSort, len, searchAfter, minNumFound);
+    }
+  }
+
+  /**
+   * Collects each slice of a concurrent search with a {@link TopDocsCollector}, and optionally a
+   * {@link MaxScoreCollector} and a {@link DocSetCollector}, and merges the top docs of all slices.  The merged
+   * max score and DocSet are available once the search is done.
+   */
+  private static class TopDocsSliceCollectorManager implements CollectorManager<Collector, TopDocs> {
+    private final CollectorManager<? extends TopDocsCollector<?>, ? extends TopDocs> topDocsManager;
+    private final boolean needMaxScore;
+    private final boolean needDocSet;
+    private final int maxDoc;
+    private final List<TopDocsCollector<?>> topDocsCollectors = new ArrayList<>();
+    private final List<MaxScoreCollector> maxScoreCollectors = new ArrayList<>();
+    private final List<DocSetCollector> setCollectors = new ArrayList<>();
+    private ScoreMode scoreMode;
+    private float maxScore = Float.NaN;
+    private DocSet docSet;
+
+    TopDocsSliceCollectorManager(CollectorManager<? extends TopDocsCollector<?>, ? extends TopDocs> topDocsManager,
+                                 boolean needMaxScore, boolean needDocSet, int maxDoc) {
+      this.topDocsManager = topDocsManager;
+      this.needMaxScore = needMaxScore;
+      this.needDocSet = needDocSet;
+      this.maxDoc = maxDoc;
+    }
+
+    @Override
+    public Collector newCollector() throws IOException {
+      final List<Collector> collectors = new ArrayList<>(3);
+      final TopDocsCollector<?> topDocsCollector = topDocsManager.newCollector();
+      topDocsCollectors.add(topDocsCollector);
+      collectors.add(topDocsCollector);
+      if (needDocSet) {
+        final DocSetCollector setCollector = new DocSetCollector(maxDoc);
+        setCollectors.add(setCollector);
+        collectors.add(setCollector);
+      }
+      if (needMaxScore) {
+        final MaxScoreCollector maxScoreCollector = new MaxScoreCollector();
+        maxScoreCollectors.add(maxScoreCollector);
+        collectors.add(maxScoreCollector);
+      }
+      final Collector collector = MultiCollector.wrap(collectors);
+      scoreMode = collector.scoreMode();
+      return collector;
+    }
+
+    @Override
+    public TopDocs reduce(Collection<Collector> collectors) throws IOException {
+      for (MaxScoreCollector maxScoreCollector : maxScoreCollectors) {
+        final float sliceMaxScore = maxScoreCollector.getMaxScore();
+        // NaN if the slice had no hits
+        if (Float.isNaN(maxScore) || sliceMaxScore > maxScore) {
+          maxScore = sliceMaxScore;
+        }
+      }
+      if (needDocSet) {
+        docSet = DocSetCollector.merge(setCollectors, maxDoc);
+      }
+      return reduceTopDocs(topDocsManager, topDocsCollectors);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C extends Collector, T> T reduceTopDocs(CollectorManager<C, T> manager,
+                                                            List<? extends Collector> collectors) throws IOException {
+      return manager.reduce((Collection<C>) collectors);
+    }
+  }
+
   private void getDocListNC(QueryResult qr, QueryCommand cmd) throws IOException {
     int len = cmd.getSupersetMaxDoc();
     int last = len;
@@ -1569,17 +1882,30 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       qr.setNextCursorMark(cmd.getCursorMark());
       hitsRelation = Relation.EQUAL_TO;
     } else {
-      final TopDocsCollector<?> topCollector = buildTopDocsCollector(len, cmd);
-      MaxScoreCollector maxScoreCollector = null;
-      Collector collector = topCollector;
-      if ((cmd.getFlags() & GET_SCORES) != 0) {
-        maxScoreCollector = new MaxScoreCollector();
-        collector = MultiCollector.wrap(topCollector, maxScoreCollector);
-      }
-      ScoreMode scoreModeUsed = buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter).scoreMode();
+      final TopDocs topDocs;
+      final ScoreMode scoreModeUsed;
+      final float topScore;
+      if (useConcurrentSearch(cmd, pf)) {
+        final TopDocsSliceCollectorManager manager = new TopDocsSliceCollectorManager(
+            buildTopDocsCollectorManager(len, cmd), (cmd.getFlags() & GET_SCORES) != 0, false, maxDoc());
+        topDocs = searchConcurrently(query, manager);
+        scoreModeUsed = manager.scoreMode;
+        totalHits = (int) topDocs.totalHits.value;
+        topScore = manager.maxScore;
+      } else {
+        final TopDocsCollector<?> topCollector = buildTopDocsCollector(len, cmd);
+        MaxScoreCollector maxScoreCollector = null;
+        Collector collector = topCollector;
+        if ((cmd.getFlags() & GET_SCORES) != 0) {
+          maxScoreCollector = new MaxScoreCollector();
+          collector = MultiCollector.wrap(topCollector, maxScoreCollector);
+        }
+        scoreModeUsed = buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter).scoreMode();
 
-      totalHits = topCollector.getTotalHits();
-      TopDocs topDocs = topCollector.topDocs(0, len);
+        totalHits = topCollector.getTotalHits();
+        topDocs = topCollector.topDocs(0, len);
+        topScore = maxScoreCollector == null ? Float.NaN : maxScoreCollector.getMaxScore();
+      }
       if (scoreModeUsed == ScoreMode.COMPLETE || scoreModeUsed == ScoreMode.COMPLETE_NO_SCORES) {
         hitsRelation = TotalHits.Relation.EQUAL_TO;
       } else {
@@ -1590,7 +1916,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       }
       populateNextCursorMarkFromTopDocs(qr, cmd, topDocs);
 
-      maxScore = totalHits > 0 ? (maxScoreCollector == null ? Float.NaN : maxScoreCollector.getMaxScore()) : 0.0f;
+      maxScore = totalHits > 0 ? topScore : 0.0f;
       nDocsReturned = topDocs.scoreDocs.length;
       ids = new int[nDocsReturned];
       scores = (cmd.getFlags() & GET_SCORES) != 0 ? new float[nDocsReturned] : null;
@@ -1631,39 +1957,42 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     if (lastDocRequested <= 0) {
       final float[] topscore = new float[] {Float.NEGATIVE_INFINITY};
 
-      Collector collector;
-      final DocSetCollector setCollector = new DocSetCollector(maxDoc);
-
-      if (!needScores) {
-        collector = setCollector;
+      if (!needScores && useConcurrentSearch(cmd, pf)) {
+        set = DocSetUtil.getDocSet(searchConcurrently(query, DocSetCollector.newManager(maxDoc)), this);
       } else {
-        final Collector topScoreCollector = new SimpleCollector() {
+        Collector collector;
+        final DocSetCollector setCollector = new DocSetCollector(maxDoc);
 
-          Scorable scorer;
+        if (!needScores) {
+          collector = setCollector;
+        } else {
+          final Collector topScoreCollector = new SimpleCollector() {
 
-          @Override
-          public void setScorer(Scorable scorer) throws IOException {
-            this.scorer = scorer;
-          }
+            Scorable scorer;
 
-          @Override
-          public void collect(int doc) throws IOException {
-            float score = scorer.score();
-            if (score > topscore[0]) topscore[0] = score;
-          }
+            @Override
+            public void setScorer(Scorable scorer) throws IOException {
+              this.scorer = scorer;
+            }
 
-          @Override
-          public ScoreMode scoreMode() {
-            return ScoreMode.TOP_SCORES;
-          }
-        };
+            @Override
+            public void collect(int doc) throws IOException {
+              float score = scorer.score();
+              if (score > topscore[0]) topscore[0] = score;
+            }
 
-        collector = MultiCollector.wrap(setCollector, topScoreCollector);
-      }
+            @Override
+            public ScoreMode scoreMode() {
+              return ScoreMode.TOP_SCORES;
+            }
+          };
 
-      buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
+          collector = MultiCollector.wrap(setCollector, topScoreCollector);
+        }
 
-      set = DocSetUtil.getDocSet(setCollector, this);
+        buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
+        set = DocSetUtil.getDocSet(setCollector, this);
+      }
 
       nDocsReturned = 0;
       ids = new int[nDocsReturned];
@@ -1673,31 +2002,43 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       // no docs on this page, so cursor doesn't change
       qr.setNextCursorMark(cmd.getCursorMark());
     } else {
-      final TopDocsCollector<? extends ScoreDoc> topCollector = buildTopDocsCollector(len, cmd);
-      DocSetCollector setCollector = new DocSetCollector(maxDoc);
-      MaxScoreCollector maxScoreCollector = null;
-      List<Collector> collectors = new ArrayList<>(Arrays.asList(topCollector, setCollector));
-
-      if ((cmd.getFlags() & GET_SCORES) != 0) {
-        maxScoreCollector = new MaxScoreCollector();
-        collectors.add(maxScoreCollector);
-      }
+      final TopDocs topDocs;
+      final float topScore;
+      if (useConcurrentSearch(cmd, pf)) {
+        final TopDocsSliceCollectorManager manager = new TopDocsSliceCollectorManager(
+            buildTopDocsCollectorManager(len, cmd), (cmd.getFlags() & GET_SCORES) != 0, true, maxDoc);
+        topDocs = searchConcurrently(query, manager);
+        set = DocSetUtil.getDocSet(manager.docSet, this);
+        totalHits = (int) topDocs.totalHits.value;
+        topScore = manager.maxScore;
+      } else {
+        final TopDocsCollector<? extends ScoreDoc> topCollector = buildTopDocsCollector(len, cmd);
+        DocSetCollector setCollector = new DocSetCollector(maxDoc);
+        MaxScoreCollector maxScoreCollector = null;
+        List<Collector> collectors = new ArrayList<>(Arrays.asList(topCollector, setCollector));
+
+        if ((cmd.getFlags() & GET_SCORES) != 0) {
+          maxScoreCollector = new MaxScoreCollector();
+          collectors.add(maxScoreCollector);
+        }
 
-      Collector collector = MultiCollector.wrap(collectors);
+        Collector collector = MultiCollector.wrap(collectors);
 
-      buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
+        buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
 
-      set = DocSetUtil.getDocSet(setCollector, this);
+        set = DocSetUtil.getDocSet(setCollector, this);
 
-      totalHits = topCollector.getTotalHits();
+        totalHits = topCollector.getTotalHits();
+        topDocs = topCollector.topDocs(0, len);
+        topScore = maxScoreCollector == null ? Float.NaN : maxScoreCollector.getMaxScore();
+      }
       assert (totalHits == set.size()) || qr.isPartialResults();
 
-      TopDocs topDocs = topCollector.topDocs(0, len);
       if (cmd.getSort() != null && cmd.getQuery() instanceof RankQuery == false && (cmd.getFlags() & GET_SCORES) != 0) {
         TopFieldCollector.populateScores(topDocs.scoreDocs, this, query);
       }
       populateNextCursorMarkFromTopDocs(qr, cmd, topDocs);
-      maxScore = totalHits > 0 ? (maxScoreCollector == null ? Float.NaN : maxScoreCollector.getMaxScore()) : 0.0f;
+      maxScore = totalHits > 0 ? topScore : 0.0f;
       nDocsReturned = topDocs.scoreDocs.length;
 
       ids = new int[nDocsReturned];
@@ -1991,7 +2332,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     }
 
     // bit of a hack to tell if a set is sorted - do it better in the future.
-    boolean inOrder = set instanceof BitDocSet || set instanceof SortedIntDocSet;
+    boolean inOrder = set instanceof BitDocSet || set instanceof SortedIntDocSet || set instanceof RoaringDocSet
+        || set instanceof OffHeapDocSet;
 
     TopDocsCollector<? extends ScoreDoc> topCollector = buildTopDocsCollector(nDocs, cmd);
 
@@ -2120,40 +2462,75 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     // Make sure this is first! filters can help queryResults execute!
     long warmingStartTime = System.nanoTime();
     // warm the caches in order...
-    ModifiableSolrParams params = new ModifiableSolrParams();
-    params.add("warming", "true");
     for (int i = 0; i < cacheList.length; i++) {
       if (log.isDebugEnabled()) {
         log.debug("autowarming [{}] from [{}]\n\t{}", this, old, old.cacheList[i]);
       }
 
-      final SolrQueryRequest req = new LocalSolrQueryRequest(core, params) {
-        @Override
-        public SolrIndexSearcher getSearcher() {
-          return SolrIndexSearcher.this;
-        }
+      final int idx = i;
+      runWarming(() -> cacheList[idx].warm(this, old.cacheList[idx]));
 
-        @Override
-        public void close() {}
-      };
+      if (log.isDebugEnabled()) {
+        log.debug("autowarming result for [{}]\n\t{}", this, cacheList[i]);
+      }
+    }
+    warmupTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
+  }
 
-      final SolrQueryResponse rsp = new SolrQueryResponse();
-      SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
-      try {
-        cacheList[i].warm(this, old.cacheList[i]);
-      } finally {
-        try {
-          req.close();
-        } finally {
-          SolrRequestInfo.clearRequestInfo();
+  /**
+   * Prepare to warm this searcher based on an old one while it is already in use. The entries to warm are captured
+   * from the caches of the old searcher, and the returned task regenerates them in the background, cache by cache,
+   * until <code>cancelled</code> returns true.
+   *
+   * @see SolrCache#prepareWarm
+   */
+  @SuppressWarnings({"unchecked"})
+  public Runnable prepareWarm(SolrIndexSearcher old, BooleanSupplier cancelled) {
+    final List<Runnable> tasks = new ArrayList<>(cacheList.length);
+    for (int i = 0; i < cacheList.length; i++) {
+      Runnable task = cacheList[i].prepareWarm(this, old.cacheList[i], cancelled);
+      if (task != null) {
+        tasks.add(task);
+      }
+    }
+    return () -> {
+      long warmingStartTime = System.nanoTime();
+      // filters are still first, later caches regenerate pending filters on demand
+      for (Runnable task : tasks) {
+        if (cancelled.getAsBoolean()) {
+          break;
         }
+        runWarming(task);
       }
+      warmupTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
+    };
+  }
 
-      if (log.isDebugEnabled()) {
-        log.debug("autowarming result for [{}]\n\t{}", this, cacheList[i]);
+  /** Runs a warming task with a request for this searcher. */
+  private void runWarming(Runnable task) {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("warming", "true");
+    final SolrQueryRequest req = new LocalSolrQueryRequest(core, params) {
+      @Override
+      public SolrIndexSearcher getSearcher() {
+        return SolrIndexSearcher.this;
+      }
+
+      @Override
+      public void close() {}
+    };
+
+    final SolrQueryResponse rsp = new SolrQueryResponse();
+    SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
+    try {
+      task.run();
+    } finally {
+      try {
+        req.close();
+      } finally {
+        SolrRequestInfo.clearRequestInfo();
       }
     }
-    warmupTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
   }
 
   /**
@@ -660,6 +660,9 @@ public class SortedIntDocSet extends DocSet {
 
   @Override
   public DocSet union(DocSet other) {
+    if (other instanceof RoaringDocSet) {
+      return other.union(this);
+    }
     // TODO could be more efficient if both are SortedIntDocSet
     FixedBitSet otherBits = other.getFixedBitSet();
     FixedBitSet newbits = FixedBitSet.ensureCapacity(getFixedBitSetClone(), otherBits.length());
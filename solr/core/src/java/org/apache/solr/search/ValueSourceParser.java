@@ -1068,7 +1068,9 @@ public abstract class ValueSourceParser implements NamedListInitializedPlugin {
           throw new SyntaxError("expected percentile(valsource,percent1[,percent2]*)  EXAMPLE:percentile(myfield,50)");
         }
 
-        return new PercentileAgg(vs, percentiles);
+        PercentileAgg agg = new PercentileAgg(vs, percentiles);
+        agg.setOpts(fp);
+        return agg;
       }
     });
     
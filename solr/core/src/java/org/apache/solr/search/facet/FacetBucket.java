@@ -19,6 +19,7 @@ package org.apache.solr.search.facet;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.solr.common.util.SimpleOrderedMap;
@@ -61,7 +62,7 @@ public class FacetBucket {
 
     if (merger != null) {
       if (subs == null) {
-        subs = new HashMap<>();
+        subs = new LinkedHashMap<>(); // keeps the order of the shard responses
       }
       subs.put(key, merger);
     }
@@ -0,0 +1,620 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.carrotsearch.hppc.BitMixer;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.queries.function.valuesource.FieldCacheSource;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.DocSetBuilder;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.function.FieldNameValueSource;
+
+/**
+ * Caches the results of JSON facet requests in the searcher's optional <code>facetCache</code>, keyed on the
+ * facet request, the query and filters of the base domain, and the request parameters the facets may refer to.
+ * <p>
+ * Facet requests that only count the documents of each segment on their own (terms, range and query facets
+ * without domain changes, with aggregations on fields that can be merged exactly) are counted segment by
+ * segment, as if each segment was a shard, and the segment counts are combined with the {@link FacetMerger}s
+ * of distributed search.  The segment counts are carried over to the cache of the next searcher by autowarming,
+ * so that after a commit only the new segments, and the segments whose documents in the base domain changed,
+ * need to be counted again.
+ * </p>
+ */
+public final class FacetCache {
+
+  /**
+   * The request parameters that don't change the facets.  NOW only changes facets that mention NOW, which
+   * aren't cached, and a result is only cached if it wasn't cut short by timeAllowed.
+   */
+  private static final Set<String> IGNORED_PARAMS = Set.of(CommonParams.START, CommonParams.ROWS, CommonParams.FL,
+      CommonParams.WT, "indent", CommonParams.HEADER_ECHO_PARAMS, CommonParams.OMIT_HEADER, CommonParams.REQUEST_ID,
+      CommonParams.REQUEST_PURPOSE, CommonParams.NOW, CommonParams.TIME_ALLOWED, "_");
+
+  /** The most buckets the segment counts of a request may have, past which only its result is cached */
+  static final int MAX_SEGMENT_BUCKETS = 10000;
+
+  private FacetCache() {}
+
+  /**
+   * Returns the result of the facet request, from the cache or by processing it and caching the result.
+   */
+  static Object process(SolrCache<Key,Entry> cache, ResponseBuilder rb, Map<String,Object> facetCommands,
+                        FacetRequest freq, FacetContext fcontext) throws IOException {
+    final Key key = Key.create(rb, facetCommands);
+    if (key == null) {
+      return freq.process(fcontext);
+    }
+    final Entry entry = cache.get(key);
+    if (entry != null && entry.result != null) {
+      return entry.result;
+    }
+
+    // an entry without a result was carried over from a previous searcher with its segment counts
+    Object result = null;
+    Map<IndexReader.CacheKey,SegmentCounts> segments = null;
+    final List<Query> queries = new ArrayList<>();
+    // the queries are collected again for an entry carried over, since they must be checked on the new segments
+    if (isSegmentable(freq, queries)
+        && estimateSegmentBuckets(freq, fcontext.searcher.getTopReaderContext().leaves()) <= MAX_SEGMENT_BUCKETS) {
+      segments = countSegments(entry == null ? Collections.emptyMap() : entry.segments, facetCommands, queries, fcontext);
+      if (segments != null) {
+        result = merge(freq, segments, fcontext.searcher);
+      }
+    }
+    if (result == null) {
+      segments = null;
+      result = freq.process(fcontext);
+    }
+
+    final NamedList<Object> header = rb.rsp.getResponseHeader();
+    if (result != null && !isStreamed(result) && (header == null || !Boolean.TRUE.equals(header.get(SolrQueryResponse.RESPONSE_HEADER_PARTIAL_RESULTS_KEY)))) {
+      cache.put(key, new Entry(result, segments));
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if the counts of the request in each segment only depend on the documents of the segment, and
+   * can be merged into exactly the counts over all segments.  Collects the queries of the query facets, which
+   * have to be checked for each segment.
+   */
+  static boolean isSegmentable(FacetRequest freq, List<Query> queries) {
+    if (freq.domain != null) {
+      return false; // a domain change may count the documents of other segments
+    }
+    if (freq instanceof FacetField) {
+      final FacetField field = (FacetField) freq;
+      if (field.numBuckets || field.prelim_sort != null) {
+        return false; // numBuckets is merged with an estimate
+      }
+    } else if (freq instanceof FacetQuery) {
+      if (((FacetQuery) freq).q != null) {
+        queries.add(((FacetQuery) freq).q);
+      }
+    } else if (!(freq instanceof FacetRange)) {
+      return false;
+    }
+    for (AggValueSource agg : freq.getFacetStats().values()) {
+      if (!isSegmentable(agg)) {
+        return false;
+      }
+    }
+    for (FacetRequest sub : freq.getSubFacets().values()) {
+      if (!isSegmentable(sub, queries)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSegmentable(AggValueSource agg) {
+    if (agg instanceof CountAgg) {
+      return true;
+    }
+    if (agg instanceof SumAgg || agg instanceof SumsqAgg || agg instanceof AvgAgg || agg instanceof MinMaxAgg
+        || agg instanceof VarianceAgg || agg instanceof StddevAgg || agg instanceof CountValsAgg || agg instanceof MissingAgg) {
+      // the values of functions may depend on the whole index, like ord()
+      final ValueSource arg = ((SimpleAggValueSource) agg).getArg();
+      return arg instanceof FieldNameValueSource || arg instanceof FieldCacheSource;
+    }
+    return false; // unique(), hll() and percentile() are merged with estimates, relatedness() counts the whole index
+  }
+
+  /**
+   * Returns the number of buckets of the terms facets of the request if each of them counted every term of its
+   * field in every segment, or -1 if a field doesn't tell its number of terms.  The segment counts hold all the
+   * buckets of the segments, so this tells before counting them when there would be too many.
+   */
+  static long estimateSegmentBuckets(FacetRequest freq, List<LeafReaderContext> leaves) throws IOException {
+    long numBuckets = 0;
+    for (LeafReaderContext leaf : leaves) {
+      final long segmentBuckets = estimateBuckets(freq, leaf.reader());
+      if (segmentBuckets < 0) {
+        return -1;
+      }
+      // capped past the maximum, so that it can't overflow
+      numBuckets = Math.min(numBuckets + segmentBuckets, MAX_SEGMENT_BUCKETS + 1);
+    }
+    return numBuckets;
+  }
+
+  private static long estimateBuckets(FacetRequest freq, LeafReader reader) throws IOException {
+    long subBuckets = 0;
+    for (FacetRequest sub : freq.getSubFacets().values()) {
+      final long buckets = estimateBuckets(sub, reader);
+      if (buckets < 0) {
+        return -1;
+      }
+      subBuckets = Math.min(subBuckets + buckets, MAX_SEGMENT_BUCKETS + 1);
+    }
+    if (freq instanceof FacetField) {
+      final long numTerms = numTerms(reader, ((FacetField) freq).field);
+      if (numTerms < 0) {
+        return -1;
+      }
+      return Math.min(numTerms * (1 + subBuckets), MAX_SEGMENT_BUCKETS + 1);
+    }
+    return subBuckets;
+  }
+
+  /** The number of terms of the field in the segment, or -1 if the segment doesn't tell. */
+  private static long numTerms(LeafReader reader, String field) throws IOException {
+    final FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(field);
+    if (fieldInfo == null) {
+      return 0;
+    }
+    // the terms first, since the docValues of an indexed field may be uninverted
+    if (fieldInfo.getIndexOptions() != IndexOptions.NONE) {
+      final Terms terms = reader.terms(field);
+      return terms == null ? 0 : terms.size();
+    }
+    switch (fieldInfo.getDocValuesType()) {
+      case SORTED:
+        return reader.getSortedDocValues(field).getValueCount();
+      case SORTED_SET:
+        return reader.getSortedSetDocValues(field).getValueCount();
+      default:
+        return -1; // a numeric field with points
+    }
+  }
+
+  /**
+   * Counts the request in each segment, reusing the previous counts of segments whose documents in the base
+   * domain and whose docValues are the same.  Returns null if a query facet can't be counted per segment, or if the counts would
+   * hold too many buckets.
+   */
+  private static Map<IndexReader.CacheKey,SegmentCounts> countSegments(Map<IndexReader.CacheKey,SegmentCounts> previous,
+                                                                        Map<String,Object> facetCommands, List<Query> queries,
+                                                                        FacetContext fcontext) throws IOException {
+    final SolrIndexSearcher searcher = fcontext.searcher;
+    final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    final Map<IndexReader.CacheKey,SegmentCounts> segments = new HashMap<>(leaves.size() * 2);
+    FacetRequest segmentRequest = null;
+    List<Weight> weights = null;
+    long numBuckets = 0;
+    for (LeafReaderContext leaf : leaves) {
+      final IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+      if (cacheHelper == null) {
+        return null;
+      }
+
+      int numDocs = 0;
+      long docsHash = 0;
+      final DocIdSetIterator docs = fcontext.base.iterator(leaf);
+      if (docs != null) {
+        for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+          numDocs++;
+          docsHash += BitMixer.mix64(doc);
+        }
+      }
+      // in-place updates change the docValues of a segment, but not its core cache key
+      final long docValuesGen = docValuesGen(leaf.reader());
+      final SegmentCounts counts = previous.get(cacheHelper.getKey());
+      if (counts != null && counts.numDocs == numDocs && counts.docsHash == docsHash
+          && counts.docValuesGen == docValuesGen) {
+        segments.put(cacheHelper.getKey(), counts);
+        numBuckets += counts.numBuckets;
+        continue;
+      }
+
+      if (weights == null) {
+        weights = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+          weights.add(searcher.createWeight(searcher.rewrite(query), ScoreMode.COMPLETE_NO_SCORES, 1f));
+        }
+        // all the buckets of every terms facet, for the merger to find the top buckets over all segments
+        segmentRequest = FacetRequest.parse(fcontext.req, facetCommands);
+        removeLimits(segmentRequest);
+      }
+      for (Weight weight : weights) {
+        if (!weight.isCacheable(leaf)) {
+          return null; // the query may match depending on other segments, like a join
+        }
+      }
+
+      final DocSetBuilder builder = new DocSetBuilder(searcher.maxDoc(), numDocs);
+      if (numDocs > 0) {
+        builder.add(fcontext.base.iterator(leaf), leaf.docBase);
+      }
+      final FacetContext segmentContext = new FacetContext();
+      segmentContext.base = builder.buildUniqueInOrder(null);
+      segmentContext.req = fcontext.req;
+      segmentContext.searcher = searcher;
+      segmentContext.qcontext = fcontext.qcontext;
+      segmentContext.cache = fcontext.cache;
+      segmentContext.flags = fcontext.flags | FacetContext.IS_SHARD;
+      final Object result = segmentRequest.process(segmentContext);
+      if (result == null) {
+        return null;
+      }
+
+      final int segmentBuckets = countBuckets(result);
+      numBuckets += segmentBuckets;
+      if (numBuckets > MAX_SEGMENT_BUCKETS) {
+        return null;
+      }
+      segments.put(cacheHelper.getKey(), new SegmentCounts(numDocs, docsHash, docValuesGen, result, segmentBuckets));
+    }
+    return segments;
+  }
+
+  /** The latest generation of the docValues updates of the segment, or -1 if it has none. */
+  private static long docValuesGen(LeafReader reader) {
+    long gen = -1;
+    for (FieldInfo fieldInfo : reader.getFieldInfos()) {
+      gen = Math.max(gen, fieldInfo.getDocValuesGen());
+    }
+    return gen;
+  }
+
+  private static void removeLimits(FacetRequest freq) {
+    if (freq instanceof FacetField) {
+      ((FacetField) freq).limit = -1;
+      ((FacetField) freq).offset = 0;
+      // the segment counts are merged, so their buckets can't be streamed
+      if (((FacetField) freq).method == FacetField.FacetMethod.ENUM || ((FacetField) freq).method == FacetField.FacetMethod.STREAM) {
+        ((FacetField) freq).method = FacetField.FacetMethod.SMART;
+      }
+    }
+    for (FacetRequest sub : freq.getSubFacets().values()) {
+      removeLimits(sub);
+    }
+  }
+
+  private static Object merge(FacetRequest freq, Map<IndexReader.CacheKey,SegmentCounts> segments, SolrIndexSearcher searcher) {
+    final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    final FacetMerger.Context mcontext = new FacetMerger.Context(leaves.size());
+    FacetMerger merger = null;
+    for (LeafReaderContext leaf : leaves) {
+      final Object counts = segments.get(leaf.reader().getCoreCacheHelper().getKey()).counts;
+      if (merger == null) {
+        merger = freq.createFacetMerger(counts);
+      }
+      mcontext.root = counts;
+      mcontext.newShard(Integer.toString(leaf.ord));
+      merger.merge(counts, mcontext);
+    }
+    if (merger == null) {
+      return null;
+    }
+    final Object result = merger.getMergedResult();
+    reorder(freq, result);
+    return result;
+  }
+
+  /**
+   * Lists the stats and the sub-facets of each bucket of a merged result in the order the request computes them.
+   * The merged buckets list them in the order they were first seen in the segments, and a segment without
+   * values for a stat, or without documents in a bucket, doesn't return it.
+   */
+  private static void reorder(FacetRequest freq, Object result) {
+    if (!(result instanceof NamedList)) {
+      return;
+    }
+    final NamedList<?> list = (NamedList<?>) result;
+    if (freq instanceof FacetField || freq instanceof FacetRange) {
+      if (list.get("buckets") instanceof List) {
+        for (Object bucket : (List<?>) list.get("buckets")) {
+          reorderBucket(freq, bucket);
+        }
+      }
+      for (String special : new String[] {"missing", "allBuckets", "before", "after", "between"}) {
+        reorderBucket(freq, list.get(special));
+      }
+    } else {
+      reorderBucket(freq, list);
+    }
+  }
+
+  @SuppressWarnings({"unchecked"})
+  private static void reorderBucket(FacetRequest freq, Object bucket) {
+    if (!(bucket instanceof NamedList)) {
+      return;
+    }
+    final NamedList<Object> list = (NamedList<Object>) bucket;
+    final NamedList<Object> ordered = new NamedList<>(list.size());
+    // val and count first, as they are
+    for (int i = 0; i < list.size(); i++) {
+      final String name = list.getName(i);
+      if (!freq.getFacetStats().containsKey(name) && !freq.getSubFacets().containsKey(name)) {
+        ordered.add(name, list.getVal(i));
+      }
+    }
+    for (String stat : freq.getFacetStats().keySet()) {
+      final int idx = list.indexOf(stat, 0);
+      if (idx >= 0) {
+        ordered.add(stat, list.getVal(idx));
+      }
+    }
+    for (Map.Entry<String,FacetRequest> sub : freq.getSubFacets().entrySet()) {
+      final int idx = list.indexOf(sub.getKey(), 0);
+      if (idx >= 0) {
+        reorder(sub.getValue(), list.getVal(idx));
+        ordered.add(sub.getKey(), list.getVal(idx));
+      }
+    }
+    list.clear();
+    list.addAll(ordered);
+  }
+
+  /** Returns true if the result holds buckets that are only computed when the response is written. */
+  private static boolean isStreamed(Object result) {
+    if (result instanceof Iterator) {
+      return true;
+    }
+    if (result instanceof NamedList) {
+      final NamedList<?> list = (NamedList<?>) result;
+      for (int i = 0; i < list.size(); i++) {
+        if (isStreamed(list.getVal(i))) {
+          return true;
+        }
+      }
+    } else if (result instanceof Collection) {
+      for (Object bucket : (Collection<?>) result) {
+        if (isStreamed(bucket)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static int countBuckets(Object result) {
+    int numBuckets = 0;
+    if (result instanceof NamedList) {
+      final NamedList<?> list = (NamedList<?>) result;
+      for (int i = 0; i < list.size(); i++) {
+        numBuckets += countBuckets(list.getVal(i));
+      }
+    } else if (result instanceof Collection) {
+      for (Object bucket : (Collection<?>) result) {
+        numBuckets += 1 + countBuckets(bucket);
+      }
+    }
+    return numBuckets;
+  }
+
+  private static long sizeOfResult(Object result) {
+    if (result instanceof NamedList) {
+      final NamedList<?> list = (NamedList<?>) result;
+      long size = RamUsageEstimator.shallowSizeOf(list)
+          + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+              + 2L * list.size() * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+      for (int i = 0; i < list.size(); i++) {
+        // the names are mostly shared constants, like "count" and "buckets"
+        size += sizeOfResult(list.getVal(i));
+      }
+      return size;
+    } else if (result instanceof Collection) {
+      final Collection<?> collection = (Collection<?>) result;
+      long size = RamUsageEstimator.shallowSizeOf(collection)
+          + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+              + (long) collection.size() * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+      for (Object value : collection) {
+        size += sizeOfResult(value);
+      }
+      return size;
+    }
+    return RamUsageEstimator.sizeOfObject(result);
+  }
+
+  /**
+   * The key of a facet request.  Facets may refer to any request parameter, so all of them are part of the key
+   * except the few that only change the rest of the response.
+   */
+  public static final class Key implements Accountable {
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Key.class);
+
+    final Map<String,Object> facet;
+    final Query query;
+    final List<Query> filters;
+    final Map<String,List<String>> params;
+    final int hash;
+
+    private Key(Map<String,Object> facet, Query query, List<Query> filters, Map<String,List<String>> params) {
+      this.facet = facet;
+      this.query = query;
+      this.filters = filters;
+      this.params = params;
+      this.hash = Objects.hash(facet, query, filters, params);
+    }
+
+    /** Returns the key of the request, or null if it can't be cached. */
+    static Key create(ResponseBuilder rb, Map<String,Object> facetCommands) {
+      final Map<String,List<String>> params = new TreeMap<>();
+      final SolrParams solrParams = rb.req.getParams();
+      for (Iterator<String> it = solrParams.getParameterNamesIterator(); it.hasNext(); ) {
+        final String name = it.next();
+        if (!IGNORED_PARAMS.contains(name)) {
+          params.put(name, Arrays.asList(solrParams.getParams(name)));
+        }
+      }
+      if (containsNow(facetCommands.toString())) {
+        return null; // the facets change with the time
+      }
+      for (Map.Entry<String,List<String>> param : params.entrySet()) {
+        // NOW in the query and the filters is resolved in their keys
+        if (!param.getKey().equals(CommonParams.Q) && !param.getKey().equals(CommonParams.FQ)
+            && containsNow(param.getValue().toString())) {
+          return null;
+        }
+      }
+      final List<Query> filters = rb.getFilters() == null ? null : new ArrayList<>(rb.getFilters());
+      return new Key(facetCommands, rb.getQuery(), filters, params);
+    }
+
+    private static boolean containsNow(String s) {
+      return s.contains("NOW");
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      final Key other = (Key) o;
+      return hash == other.hash
+          && facet.equals(other.facet)
+          && Objects.equals(query, other.query)
+          && Objects.equals(filters, other.filters)
+          && params.equals(other.params);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      long size = BASE_RAM_BYTES_USED
+          + RamUsageEstimator.sizeOfObject(facet)
+          + RamUsageEstimator.sizeOfObject(params)
+          + RamUsageEstimator.sizeOfObject(query, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED);
+      if (filters != null) {
+        for (Query filter : filters) {
+          size += RamUsageEstimator.sizeOfObject(filter, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED);
+        }
+      }
+      return size;
+    }
+  }
+
+  /**
+   * The result of a facet request for a searcher, and the counts of each segment of the searcher if the request
+   * can be counted per segment.
+   */
+  public static final class Entry implements Accountable {
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Entry.class);
+
+    final Object result; // null once carried over to another searcher
+    final Map<IndexReader.CacheKey,SegmentCounts> segments; // null if the request can't be counted per segment
+
+    Entry(Object result, Map<IndexReader.CacheKey,SegmentCounts> segments) {
+      this.result = result;
+      this.segments = segments;
+    }
+
+    /**
+     * Returns the entry to cache for a new searcher, with the counts of the segments that are still in its
+     * index, or null if there are none.
+     */
+    public Entry forSearcher(SolrIndexSearcher searcher) {
+      if (segments == null) {
+        return null;
+      }
+      final Set<IndexReader.CacheKey> keys = new HashSet<>();
+      for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+        final IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+        if (cacheHelper != null) {
+          keys.add(cacheHelper.getKey());
+        }
+      }
+      final Map<IndexReader.CacheKey,SegmentCounts> kept = new HashMap<>(segments);
+      kept.keySet().retainAll(keys);
+      return kept.isEmpty() ? null : new Entry(null, kept);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      long size = BASE_RAM_BYTES_USED + sizeOfResult(result);
+      if (segments != null) {
+        size += RamUsageEstimator.shallowSizeOf(segments);
+        for (SegmentCounts counts : segments.values()) {
+          size += counts.ramBytesUsed();
+        }
+      }
+      return size;
+    }
+  }
+
+  static final class SegmentCounts implements Accountable {
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(SegmentCounts.class);
+
+    // the documents of the base domain in the segment the counts are for
+    final int numDocs;
+    final long docsHash;
+    final long docValuesGen;
+    final Object counts;
+    final int numBuckets;
+
+    SegmentCounts(int numDocs, long docsHash, long docValuesGen, Object counts, int numBuckets) {
+      this.numDocs = numDocs;
+      this.docsHash = docsHash;
+      this.docValuesGen = docValuesGen;
+      this.counts = counts;
+      this.numBuckets = numBuckets;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + sizeOfResult(counts);
+    }
+  }
+}
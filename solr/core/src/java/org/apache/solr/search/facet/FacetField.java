@@ -23,6 +23,7 @@ import org.apache.solr.common.SolrException;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.NumberType;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
 
 public class FacetField extends FacetRequestSorted {
   public static final int DEFAULT_FACET_LIMIT = 10;
@@ -37,6 +38,9 @@ public class FacetField extends FacetRequestSorted {
   // experimental - force perSeg collection when using dv method, currently for testing purposes only.
   Boolean perSeg;
 
+  // count the segments concurrently on the searcher's executor when using dv method, counting the base domain only
+  boolean parallel;
+
   {
     // defaults for FacetRequestSorted
     mincount = 1;
@@ -100,10 +104,12 @@ public class FacetField extends FacetRequestSorted {
     }
 
     // TODO auto-pick ENUM/STREAM SOLR-9351 when index asc and DocSet cardinality is *not* much smaller than term cardinality
+    //   (for now only with a prefix, where streaming stops at the end of the terms with the prefix)
     if (method == FacetMethod.ENUM) {// at the moment these two are the same
       method = FacetMethod.STREAM;
     }
-    if (method == FacetMethod.STREAM && sf.indexed() && !ft.isPointField() &&
+    if ((method == FacetMethod.STREAM || (method == FacetMethod.SMART && isPrefixTypeahead(fcontext, sf))) &&
+        sf.indexed() && !ft.isPointField() &&
         // streaming doesn't support allBuckets, numBuckets or missing
         // so, don't use stream processor if anyone of them is enabled
         !(allBuckets || numBuckets || missing) &&
@@ -149,6 +155,18 @@ public class FacetField extends FacetRequestSorted {
     return new FacetFieldProcessorByArrayUIF(fcontext, this, sf);
   }
 
+  /**
+   * Whether streaming the terms that start with the prefix, which stops as soon as <code>limit</code> buckets are
+   * found when sorting by index order, is likely cheaper than counting the values of every document of the domain.
+   * Both the indexed terms and the docValues must be the values of the field.
+   */
+  private boolean isPrefixTypeahead(FacetContext fcontext, SchemaField sf) {
+    return prefix != null && prefix.length() > 0 && limit >= 0 &&
+        (!sf.hasDocValues() || sf.getType() instanceof StrField) &&
+        // with a small domain, most terms have no documents in it and counting its documents is cheap anyway
+        fcontext.base.size() > (fcontext.searcher.maxDoc() >> 4);
+  }
+
   @Override
   public FacetMerger createFacetMerger(Object prototype) {
     return new FacetFieldMerger(this);
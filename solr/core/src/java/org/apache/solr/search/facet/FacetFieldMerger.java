@@ -18,9 +18,12 @@
 package org.apache.solr.search.facet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +42,12 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
   // List<FacetBucket> sortedBuckets;
   int numReturnedBuckets; // the number of buckets in the bucket lists returned from all of the shards
 
+  // for pruning the buckets that can't be in the top buckets, see pruneBuckets()
+  BitSet shardsMerged;  // the shards we got a bucket list from in the first phase
+  long[] shardLastCounts;  // the count of the last bucket of each shard's list, or -1 if the list was empty
+  boolean firstPhaseDone;  // set once we start refining, after which no shard is merged for the first time
+  boolean bucketsPruned;
+
 
   public FacetFieldMerger(FacetField freq) {
     super(freq);
@@ -79,6 +88,24 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
     List<SimpleOrderedMap<?>> bucketList = (List<SimpleOrderedMap<?>>) facetResult.get("buckets");
     numReturnedPerShard[mcontext.shardNum] = bucketList.size();
     numReturnedBuckets += bucketList.size();
+    if (!firstPhaseDone) {
+      if (shardsMerged == null) {
+        shardsMerged = new BitSet(mcontext.numShards);
+        shardLastCounts = new long[mcontext.numShards];
+      }
+      shardsMerged.set(mcontext.shardNum);
+      shardLastCounts[mcontext.shardNum] = bucketList.isEmpty() ? -1
+          : ((Number) bucketList.get(bucketList.size() - 1).get("count")).longValue();
+    } else if (bucketsPruned) {
+      // the buckets were pruned, only merge the refinements of the buckets we kept
+      List<SimpleOrderedMap<?>> keptList = new ArrayList<>(bucketList.size());
+      for (SimpleOrderedMap<?> bucketRes : bucketList) {
+        if (buckets.containsKey(bucketRes.get("val"))) {
+          keptList.add(bucketRes);
+        }
+      }
+      bucketList = keptList;
+    }
     mergeBucketList(bucketList , mcontext);
 
     if (freq.numBuckets) {
@@ -104,6 +131,12 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
       result.add("numBuckets", ((Number)numBuckets.getMergedResult()).longValue());
     }
 
+    boolean refine = freq.refine != null && freq.refine != FacetRequest.RefineMethod.NONE;
+    if (!firstPhaseDone && !refine) {
+      // with refinement, pruning a bucket here could let it replace a top bucket left out as incomplete
+      pruneBuckets();
+    }
+
     sortBuckets(freq.sort);
 
     long first = freq.offset;
@@ -121,8 +154,6 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
 
     // TODO: change effective offsets + limits at shards...
 
-    boolean refine = freq.refine != null && freq.refine != FacetRequest.RefineMethod.NONE;
-
     int off = (int)freq.offset;
     int lim = freq.limit >= 0 ? (int)freq.limit : Integer.MAX_VALUE;
     for (FacetBucket bucket : sortedBuckets) {
@@ -146,18 +177,90 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
     }
 
 
-    result.add("buckets", resultBuckets);
-    if (missingBucket != null) {
-      result.add("missing", missingBucket.getMergedBucket());
-    }
+    // same order as a non-distributed response
     if (allBuckets != null) {
       result.add("allBuckets", allBuckets.getMergedBucket());
     }
+    if (missingBucket != null) {
+      result.add("missing", missingBucket.getMergedBucket());
+    }
+    result.add("buckets", resultBuckets);
 
     return result;
   }
 
 
+  @Override
+  public Map<String, Object> getRefinement(Context mcontext) {
+    if (!firstPhaseDone) {
+      pruneBuckets();
+    }
+    return super.getRefinement(mcontext);
+  }
+
+  /**
+   * Once the bucket lists of all shards are merged, drops the buckets that can't be in the top
+   * <code>offset+limit</code> buckets by count, so that they are neither refined nor kept until the merged result.
+   * <p>
+   * This is the threshold test of Fagin's algorithm: each shard returns its buckets by descending count, so the
+   * count of a bucket in a shard that has more buckets but didn't return it is at most the count of the last
+   * bucket it returned, and the count of a bucket is at most its merged count plus these bounds.  A bucket whose
+   * bound is under the merged count of the <code>offset+limit</code>th bucket can't make the top buckets, whatever
+   * refinement returns.
+   * </p>
+   */
+  private void pruneBuckets() {
+    firstPhaseDone = true;
+    if (!canPruneBuckets()) {
+      return;
+    }
+    final int numShards = mcontext.numShards;
+    final int numTop = (int) (freq.offset + freq.limit);
+
+    final long[] counts = new long[buckets.size()];
+    int i = 0;
+    for (FacetBucket bucket : buckets.values()) {
+      counts[i++] = bucket.count;
+    }
+    Arrays.sort(counts);
+    final long threshold = counts[counts.length - numTop];
+
+    int numPruned = 0;
+    for (Iterator<FacetBucket> it = buckets.values().iterator(); it.hasNext(); ) {
+      FacetBucket bucket = it.next();
+      long maxCount = bucket.count;
+      for (int shard = 0; shard < numShards && maxCount < threshold; shard++) {
+        if (shardHasMoreBuckets != null && shardHasMoreBuckets.get(shard) && !mcontext.getShardFlag(bucket.bucketNumber, shard)) {
+          maxCount += shardLastCounts[shard];
+        }
+      }
+      if (maxCount < threshold) {
+        it.remove();
+        numPruned++;
+      }
+    }
+    if (numPruned > 0) {
+      bucketsPruned = true;
+      sortedBuckets = null;
+    }
+  }
+
+  private boolean canPruneBuckets() {
+    if (shardsMerged == null || mcontext == null || mcontext.numShards <= 1
+        || shardsMerged.cardinality() < mcontext.numShards  // we don't know what a missing shard may return
+        || freq.limit <= 0 || freq.offset + freq.limit >= buckets.size()
+        || freq.prelim_sort != null || !"count".equals(freq.sort.sortVariable)
+        || freq.sort.sortDirection != FacetRequest.SortDirection.desc) {
+      return false;
+    }
+    for (int shard = 0; shard < mcontext.numShards; shard++) {
+      if (shardHasMoreBuckets != null && shardHasMoreBuckets.get(shard) && shardLastCounts[shard] < 0) {
+        return false;  // no bound on the buckets of this shard
+      }
+    }
+    return true;
+  }
+
   @Override
   public void finish(Context mcontext) {
     // TODO: check refine of subs?
@@ -345,6 +345,9 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
     Slot bottom = null;
     Slot scratchSlot = new Slot();
     boolean shardHasMoreBuckets = false;  // This shard has more buckets than were returned
+    // when the slots are in ascending index order, no slot after a full queue can get into it
+    final boolean stopWhenFull = sortAcc instanceof SlotAcc.SortSlotAcc && sortMul > 0 && !freq.numBuckets
+        && fcontext.getDebugInfo() == null;
     for (int slotNum = 0; slotNum < numSlots; slotNum++) {
 
       // screen out buckets not matching mincount
@@ -361,6 +364,9 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
 
       if (bottom != null) {
         shardHasMoreBuckets = true;
+        if (stopWhenFull) {
+          break;
+        }
         scratchSlot.slot = slotNum; // scratchSlot is only used to hold this slotNum for the following line
         if (orderPredicate.test(bottom, scratchSlot)) {
           bottom.slot = slotNum;
@@ -17,7 +17,9 @@
 package org.apache.solr.search.facet;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.lucene.index.DocValues;
@@ -26,7 +28,13 @@ import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.OrdinalMap;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorable;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.LongValues;
 import org.apache.lucene.util.UnicodeUtil;
@@ -125,6 +133,13 @@ class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
 
     if (freq.perSeg != null) accumSeg = canDoPerSeg && freq.perSeg;  // internal - override perSeg heuristic
 
+    // counting the segments concurrently only works for the base domain: sweeping counts other domains as well
+    if (freq.parallel && canDoPerSeg && others.isEmpty() && otherAccs == null
+        && fcontext.searcher.canSearchConcurrently()) {
+      collectCountsConcurrently(base.countAcc);
+      return;
+    }
+
     final int maxSize = others.size() + 1; // others + base
     final List<LeafReaderContext> leaves = fcontext.searcher.getIndexReader().leaves();
     final DocIdSetIterator[] subIterators = new DocIdSetIterator[maxSize];
@@ -199,6 +214,110 @@ class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
     Arrays.fill(reuse, null);  // better GC
   }
 
+  /**
+   * Counts the values of each segment into a segment-ord count array, with the segments of each slice of the
+   * index searched on the searcher's executor, and adds the segment counts to the global counts at the end.
+   */
+  private void collectCountsConcurrently(CountSlotAcc countAcc) throws IOException {
+    List<SegmentCounts> segmentCounts = fcontext.searcher.searchConcurrently(fcontext.base.getTopFilter(),
+        new CollectorManager<SegmentCountCollector, List<SegmentCounts>>() {
+          @Override
+          public SegmentCountCollector newCollector() {
+            return new SegmentCountCollector();
+          }
+
+          @Override
+          public List<SegmentCounts> reduce(Collection<SegmentCountCollector> collectors) {
+            List<SegmentCounts> all = new ArrayList<>();
+            for (SegmentCountCollector collector : collectors) {
+              all.addAll(collector.segmentCounts);
+            }
+            return all;
+          }
+        });
+
+    for (SegmentCounts seg : segmentCounts) {
+      LongValues toGlobal = ordinalMap == null ? null : ordinalMap.getGlobalOrds(seg.leafOrd);
+      int[] counts = seg.counts;
+      for (int segOrd = 0; segOrd < counts.length; segOrd++) {
+        int count = counts[segOrd];
+        if (count != 0) {
+          countAcc.incrementCount(toGlobal == null ? segOrd : (int) toGlobal.get(segOrd), count);
+        }
+      }
+    }
+  }
+
+  private static class SegmentCounts {
+    final int leafOrd;
+    final int[] counts;
+
+    SegmentCounts(int leafOrd, int[] counts) {
+      this.leafOrd = leafOrd;
+      this.counts = counts;
+    }
+  }
+
+  /** Counts the values of the collected docs of each segment by segment ord. */
+  private class SegmentCountCollector implements Collector {
+    final List<SegmentCounts> segmentCounts = new ArrayList<>();
+
+    @Override
+    public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+      final SortedSetDocValues multiDv;
+      final SortedDocValues singleDv;
+      if (multiValuedField) {
+        multiDv = context.reader().getSortedSetDocValues(sf.getName());
+        singleDv = multiDv == null || !unwrap_singleValued_multiDv ? null : DocValues.unwrapSingleton(multiDv);
+        if (multiDv == null || multiDv.getValueCount() < 1) {
+          throw new CollectionTerminatedException();
+        }
+      } else {
+        multiDv = null;
+        singleDv = context.reader().getSortedDocValues(sf.getName());
+        if (singleDv == null || singleDv.getValueCount() < 1) {
+          throw new CollectionTerminatedException();
+        }
+      }
+      final int[] counts = new int[singleDv != null ? singleDv.getValueCount() : (int) multiDv.getValueCount()];
+      segmentCounts.add(new SegmentCounts(context.ord, counts));
+
+      if (singleDv != null) {
+        return new LeafCollector() {
+          @Override
+          public void setScorer(Scorable scorer) {
+          }
+
+          @Override
+          public void collect(int doc) throws IOException {
+            if (singleDv.advanceExact(doc)) {
+              counts[singleDv.ordValue()]++;
+            }
+          }
+        };
+      }
+      return new LeafCollector() {
+        @Override
+        public void setScorer(Scorable scorer) {
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+          if (multiDv.advanceExact(doc)) {
+            for (long segOrd = multiDv.nextOrd(); segOrd != SortedSetDocValues.NO_MORE_ORDS; segOrd = multiDv.nextOrd()) {
+              counts[(int) segOrd]++;
+            }
+          }
+        }
+      };
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+      return ScoreMode.COMPLETE_NO_SCORES;
+    }
+  }
+
   @Override
   protected BytesRef lookupOrd(int ord) throws IOException {
     return si.lookupOrd(ord);
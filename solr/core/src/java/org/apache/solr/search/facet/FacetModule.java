@@ -38,6 +38,7 @@ import org.apache.solr.handler.component.ShardRequest;
 import org.apache.solr.handler.component.ShardResponse;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.search.QueryContext;
+import org.apache.solr.search.SolrCache;
 import org.noggit.CharArr;
 import org.noggit.JSONWriter;
 
@@ -148,7 +149,13 @@ public class FacetModule extends SearchComponent {
       rb.req.getContext().put("FacetDebugInfo", fdebug);
     }
 
-    Object results = facetState.facetRequest.process(fcontext);
+    SolrCache<FacetCache.Key, FacetCache.Entry> facetCache = fcontext.searcher.getFacetCache();
+    Object results;
+    if (facetCache != null && cache && fcontext.facetInfo == null && !rb.isDebug()) {
+      results = FacetCache.process(facetCache, rb, facetState.facetCommands, facetState.facetRequest, fcontext);
+    } else {
+      results = facetState.facetRequest.process(fcontext);
+    }
     // ExitableDirectory timeout causes absent "facets"
     rb.rsp.add("facets", results);
   }
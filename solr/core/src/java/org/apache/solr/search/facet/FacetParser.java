@@ -550,6 +550,7 @@ abstract class FacetParser<T extends FacetRequest> {
         facet.refine = FacetRequest.RefineMethod.fromObj(m.get("refine"));
 
         facet.perSeg = getBooleanOrNull(m, "perSeg");
+        facet.parallel = getBoolean(m, "parallel", facet.parallel);
 
         // facet.sort may depend on a facet stat...
         // should we be parsing / validating this here, or in the execution environment?
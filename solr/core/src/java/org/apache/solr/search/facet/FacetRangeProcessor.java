@@ -119,7 +119,7 @@ class FacetRangeProcessor extends FacetProcessor<FacetRange> {
   }
 
   @SuppressWarnings({"rawtypes"})
-  private static class Range {
+  static class Range {
     Object label;
 
     Comparable low;
@@ -474,12 +474,22 @@ class FacetRangeProcessor extends FacetProcessor<FacetRange> {
 
     createAccs(fcontext.base.size(), slotCount);
 
-    for (int idx = 0; idx<rangeList.size(); idx++) {
-      rangeStats(rangeList.get(idx), idx, hasSubFacets);
-    }
+    // when only counting, count all of the ranges in a single pass over the values of the field
+    final NumericRangeCounter counter = hasSubFacets || accs.length > 0 ? null
+        : NumericRangeCounter.create(sf, rangeList, otherList);
+    if (counter != null) {
+      counter.count(fcontext.searcher, fcontext.base);
+      for (int slot = 0; slot < slotCount; slot++) {
+        countAcc.incrementCount(slot, counter.getCount(slot));
+      }
+    } else {
+      for (int idx = 0; idx<rangeList.size(); idx++) {
+        rangeStats(rangeList.get(idx), idx, hasSubFacets);
+      }
 
-    for (int idx = 0; idx<otherList.size(); idx++) {
-      rangeStats(otherList.get(idx), rangeList.size() + idx, hasSubFacets);
+      for (int idx = 0; idx<otherList.size(); idx++) {
+        rangeStats(otherList.get(idx), rangeList.size() + idx, hasSubFacets);
+      }
     }
 
 
@@ -22,10 +22,12 @@ import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.util.Accountable;
 import org.apache.solr.common.util.Hash;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.util.hll.HLL;
+import org.apache.solr.util.hll.HLLArray;
 import org.apache.solr.util.hll.HLLType;
 
 public class HLLAgg extends StrAggValueSource {
@@ -47,6 +49,11 @@ public class HLLAgg extends StrAggValueSource {
       return new HLL(log2m, regwidth, -1 /* auto explict threshold */,
           false /* no sparse representation */, HLLType.EMPTY);
     }
+
+    /** {@link #getHLL()} for each of <code>size</code> slots, in shared arrays. */
+    public HLLArray getHLLArray(int size) {
+      return new HLLArray(log2m, regwidth, size);
+    }
   }
 
   @Override
@@ -118,35 +125,29 @@ public class HLLAgg extends StrAggValueSource {
   // TODO: hybrid model for non-distrib numbers?
   // todo - better efficiency for sorting?
 
-  abstract class BaseNumericAcc extends DocValuesAcc {
-    HLL[] sets;
+  abstract class BaseNumericAcc extends DocValuesAcc implements Accountable {
+    HLLArray sets;
 
     public BaseNumericAcc(FacetContext fcontext, String field, int numSlots) throws IOException {
       super(fcontext, fcontext.qcontext.searcher().getSchema().getField(field));
-      sets = new HLL[numSlots];
+      sets = factory.getHLLArray(numSlots);
     }
 
     @Override
     public void reset() {
-      sets = new HLL[sets.length];
+      sets.clear();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      sets = resizer.resize(sets, null);
+      sets.resize(resizer.getNewSize(), resizer::getNewSlot);
     }
 
     @Override
-    protected void collectValues(int doc, int slot) throws IOException {
-      HLL hll = sets[slot];
-      if (hll == null) {
-        hll = sets[slot] = factory.getHLL();
-      }
-      collectValues(doc, hll);
+    public long ramBytesUsed() {
+      return sets.ramBytesUsed();
     }
 
-    protected abstract void collectValues(int doc, HLL hll) throws IOException;
-
     @Override
     public Object getValue(int slot) throws IOException {
       if (fcontext.isShard()) {
@@ -156,15 +157,13 @@ public class HLLAgg extends StrAggValueSource {
     }
 
     private long getCardinality(int slot) {
-      HLL set = sets[slot];
-      return set == null ? 0 : set.cardinality();
+      return sets.cardinality(slot);
     }
 
     public Object getShardValue(int slot) throws IOException {
-      HLL hll = sets[slot];
-      if (hll == null) return NO_VALUES;
+      if (sets.isEmpty(slot)) return NO_VALUES;
       SimpleOrderedMap<Object> map = new SimpleOrderedMap<>();
-      map.add("hll", hll.toBytes());
+      map.add("hll", sets.toHLL(slot).toBytes());
       // optionally use explicit values
       return map;
     }
@@ -195,10 +194,10 @@ public class HLLAgg extends StrAggValueSource {
     }
 
     @Override
-    protected void collectValues(int doc, HLL hll) throws IOException {
+    protected void collectValues(int doc, int slot) throws IOException {
       long val = values.longValue();
       long hash = Hash.fmix64(val);
-      hll.addRaw(hash);
+      sets.addRaw(slot, hash);
     }
   }
 
@@ -221,12 +220,12 @@ public class HLLAgg extends StrAggValueSource {
     }
 
     @Override
-    protected void collectValues(int doc, HLL hll) throws IOException {
+    protected void collectValues(int doc, int slot) throws IOException {
       for (int i = 0, count = values.docValueCount(); i < count; i++) {
         // duplicates may be produced for a single doc, but won't matter here.
         long val = values.nextValue();
         long hash = Hash.fmix64(val);
-        hll.addRaw(hash);
+        sets.addRaw(slot, hash);
       }
     }
   }
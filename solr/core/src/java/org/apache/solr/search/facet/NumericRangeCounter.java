@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.NumberType;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Counts the documents of a range facet over a single valued numeric point field in one pass over the values of the
+ * field, instead of intersecting the base with a range query per bucket.
+ * <p>
+ * Each range is turned into inclusive bounds in the sortable <code>long</code> space of the values of the field, so
+ * that the bucket of a value is found with a division when the ranges are evenly spaced, as the ranges of a numeric
+ * or fixed date gap are, or with a binary search otherwise.  The values are read from doc values by blocks of
+ * documents, or when the base is every document, from the points of the field, counting whole cells of the points
+ * tree that fall in a single bucket without decoding their values.
+ * </p>
+ */
+final class NumericRangeCounter {
+  static final int BLOCK_SIZE = 1024;
+
+  private final String field;
+  private final NumberType numberType;
+  private final boolean indexed;
+
+  // the inclusive bounds of the ranges, both non decreasing
+  private final long[] lows;
+  private final long[] highs;
+  // the spacing of the lows, or 0 if they are not evenly spaced
+  private final long width;
+  // the inclusive bounds of the other ranges, (before, after, between) which may overlap the ranges
+  private final long[] otherLows;
+  private final long[] otherHighs;
+
+  private final long[] counts;
+
+  private NumericRangeCounter(SchemaField sf, long[] lows, long[] highs, long[] otherLows, long[] otherHighs) {
+    this.field = sf.getName();
+    this.numberType = sf.getType().getNumberType();
+    this.indexed = sf.indexed();
+    this.lows = lows;
+    this.highs = highs;
+    this.otherLows = otherLows;
+    this.otherHighs = otherHighs;
+    this.width = evenWidth(lows);
+    this.counts = new long[lows.length + otherLows.length];
+  }
+
+  /**
+   * Returns a counter for the ranges followed by the other ranges, or null if the field or ranges are not supported,
+   * in which case the ranges should be counted with range queries.
+   */
+  static NumericRangeCounter create(SchemaField sf, List<FacetRangeProcessor.Range> ranges,
+                                    List<FacetRangeProcessor.Range> others) {
+    final FieldType ft = sf.getType();
+    if (!ft.isPointField() || sf.multiValued() || !sf.hasDocValues() || ft.getNumberType() == null || ranges.isEmpty()) {
+      return null;
+    }
+    try {
+      return create(sf, ft.getNumberType(), ranges, others);
+    } catch (ArithmeticException e) {
+      return null;  // an exclusive bound at the end of the long values, matching nothing
+    }
+  }
+
+  private static NumericRangeCounter create(SchemaField sf, NumberType numberType, List<FacetRangeProcessor.Range> ranges,
+                                            List<FacetRangeProcessor.Range> others) {
+    final long[] lows = new long[ranges.size()];
+    final long[] highs = new long[ranges.size()];
+    for (int i = 0; i < lows.length; i++) {
+      FacetRangeProcessor.Range range = ranges.get(i);
+      lows[i] = lowBound(numberType, range.low, range.includeLower);
+      highs[i] = highBound(numberType, range.high, range.includeUpper);
+      if (i > 0 && (lows[i] < lows[i - 1] || highs[i] < highs[i - 1])) {
+        return null;  // unsorted ranges, such as overlapping explicit ranges
+      }
+    }
+    final long[] otherLows = new long[others.size()];
+    final long[] otherHighs = new long[others.size()];
+    for (int i = 0; i < otherLows.length; i++) {
+      FacetRangeProcessor.Range range = others.get(i);
+      otherLows[i] = lowBound(numberType, range.low, range.includeLower);
+      otherHighs[i] = highBound(numberType, range.high, range.includeUpper);
+    }
+    return new NumericRangeCounter(sf, lows, highs, otherLows, otherHighs);
+  }
+
+  /** Returns the count of the range of the slot, the ranges followed by the other ranges. */
+  long getCount(int slot) {
+    return counts[slot];
+  }
+
+  void count(SolrIndexSearcher searcher, DocSet docs) throws IOException {
+    if (indexed && docs.size() == searcher.numDocs()) {
+      // every live document: a single valued field has a point per document with a value
+      countPoints(searcher);
+    } else {
+      countDocValues(searcher, docs);
+    }
+  }
+
+  private void countDocValues(SolrIndexSearcher searcher, DocSet docs) throws IOException {
+    final int[] docBuffer = new int[BLOCK_SIZE];
+    final long[] valueBuffer = new long[BLOCK_SIZE];
+    for (LeafReaderContext ctx : searcher.getIndexReader().leaves()) {
+      final DocIdSetIterator disi = docs.iterator(ctx);
+      if (disi == null) {
+        continue;
+      }
+      final NumericDocValues values = ctx.reader().getNumericDocValues(field);
+      if (values == null) {
+        continue;
+      }
+      int numDocs = 0;
+      for (int doc = disi.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = disi.nextDoc()) {
+        docBuffer[numDocs++] = doc;
+        if (numDocs == BLOCK_SIZE) {
+          countBlock(values, docBuffer, valueBuffer, numDocs);
+          numDocs = 0;
+        }
+      }
+      countBlock(values, docBuffer, valueBuffer, numDocs);
+    }
+  }
+
+  private void countBlock(NumericDocValues values, int[] docs, long[] buffer, int numDocs) throws IOException {
+    int numValues = 0;
+    for (int i = 0; i < numDocs; i++) {
+      if (values.advanceExact(docs[i])) {
+        buffer[numValues++] = values.longValue();
+      }
+    }
+    switch (numberType) {
+      case FLOAT:
+        for (int i = 0; i < numValues; i++) {
+          buffer[i] = NumericUtils.sortableFloatBits((int) buffer[i]);
+        }
+        break;
+      case DOUBLE:
+        for (int i = 0; i < numValues; i++) {
+          buffer[i] = NumericUtils.sortableDoubleBits(buffer[i]);
+        }
+        break;
+      default:
+        // ints, longs and dates are their own sortable bits
+    }
+    for (int i = 0; i < numValues; i++) {
+      countValue(buffer[i]);
+    }
+  }
+
+  private void countValue(long value) {
+    for (int i = index(value); i >= 0 && highs[i] >= value; i--) {
+      counts[i]++;
+    }
+    for (int i = 0; i < otherLows.length; i++) {
+      if (value >= otherLows[i] && value <= otherHighs[i]) {
+        counts[lows.length + i]++;
+      }
+    }
+  }
+
+  /** Returns the last range with a low bound lower or equal to the value, or -1 if none. */
+  private int index(long value) {
+    if (value < lows[0]) {
+      return -1;
+    }
+    if (width > 0) {
+      // the difference can't be negative, but may be over Long.MAX_VALUE
+      long index = Long.divideUnsigned(value - lows[0], width);
+      return index < 0 || index >= lows.length ? lows.length - 1 : (int) index;
+    }
+    int lo = 0, hi = lows.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (lows[mid] <= value) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  private void countPoints(SolrIndexSearcher searcher) throws IOException {
+    for (LeafReaderContext ctx : searcher.getIndexReader().leaves()) {
+      final PointValues points = ctx.reader().getPointValues(field);
+      if (points != null) {
+        points.intersect(new CountingVisitor(ctx.reader().getLiveDocs()));
+      }
+    }
+  }
+
+  private long decode(byte[] packedValue) {
+    switch (numberType) {
+      case INTEGER:
+      case FLOAT:
+        return NumericUtils.sortableBytesToInt(packedValue, 0);
+      default:
+        return NumericUtils.sortableBytesToLong(packedValue, 0);
+    }
+  }
+
+  private class CountingVisitor implements PointValues.IntersectVisitor {
+    private final Bits liveDocs;
+    // the ranges of the cell being visited when they are the same for all of its values
+    private final int[] cellSlots = new int[counts.length];
+    private int numCellSlots;
+
+    CountingVisitor(Bits liveDocs) {
+      this.liveDocs = liveDocs;
+    }
+
+    @Override
+    public void visit(int docID) {
+      if (liveDocs == null || liveDocs.get(docID)) {
+        for (int i = 0; i < numCellSlots; i++) {
+          counts[cellSlots[i]]++;
+        }
+      }
+    }
+
+    @Override
+    public void visit(int docID, byte[] packedValue) {
+      if (liveDocs == null || liveDocs.get(docID)) {
+        countValue(decode(packedValue));
+      }
+    }
+
+    @Override
+    public PointValues.Relation compare(byte[] minPackedValue, byte[] maxPackedValue) {
+      final long min = decode(minPackedValue);
+      final long max = decode(maxPackedValue);
+      final int index = index(min);
+      if (index != index(max)) {
+        return PointValues.Relation.CELL_CROSSES_QUERY;  // a range starts within the cell
+      }
+      for (int i = index; i >= 0 && highs[i] >= min; i--) {
+        if (highs[i] < max) {
+          return PointValues.Relation.CELL_CROSSES_QUERY;  // a range ends within the cell
+        }
+      }
+      for (int i = 0; i < otherLows.length; i++) {
+        if ((min < otherLows[i]) != (max < otherLows[i]) || (min > otherHighs[i]) != (max > otherHighs[i])) {
+          return PointValues.Relation.CELL_CROSSES_QUERY;
+        }
+      }
+
+      // all the values of the cell are in the ranges of its min value
+      numCellSlots = 0;
+      for (int i = index; i >= 0 && highs[i] >= min; i--) {
+        cellSlots[numCellSlots++] = i;
+      }
+      for (int i = 0; i < otherLows.length; i++) {
+        if (min >= otherLows[i] && min <= otherHighs[i]) {
+          cellSlots[numCellSlots++] = lows.length + i;
+        }
+      }
+      return numCellSlots == 0 ? PointValues.Relation.CELL_OUTSIDE_QUERY : PointValues.Relation.CELL_INSIDE_QUERY;
+    }
+  }
+
+  private static long evenWidth(long[] lows) {
+    if (lows.length < 2) {
+      return 0;
+    }
+    final long width = lows[1] - lows[0];
+    if (width <= 0) {
+      return 0;
+    }
+    for (int i = 2; i < lows.length; i++) {
+      if (lows[i] - lows[i - 1] != width) {
+        return 0;
+      }
+    }
+    return width;
+  }
+
+  @SuppressWarnings({"rawtypes"})
+  private static long lowBound(NumberType numberType, Comparable low, boolean inclusive) {
+    if (low == null) {
+      // like the range queries of the point fields, an open range doesn't match NaN
+      switch (numberType) {
+        case FLOAT: return NumericUtils.floatToSortableInt(Float.NEGATIVE_INFINITY);
+        case DOUBLE: return NumericUtils.doubleToSortableLong(Double.NEGATIVE_INFINITY);
+        default: return Long.MIN_VALUE;
+      }
+    }
+    final long bound = toSortableLong(numberType, low);
+    return inclusive ? bound : Math.addExact(bound, 1);
+  }
+
+  @SuppressWarnings({"rawtypes"})
+  private static long highBound(NumberType numberType, Comparable high, boolean inclusive) {
+    if (high == null) {
+      switch (numberType) {
+        case FLOAT: return NumericUtils.floatToSortableInt(Float.POSITIVE_INFINITY);
+        case DOUBLE: return NumericUtils.doubleToSortableLong(Double.POSITIVE_INFINITY);
+        default: return Long.MAX_VALUE;
+      }
+    }
+    final long bound = toSortableLong(numberType, high);
+    return inclusive ? bound : Math.subtractExact(bound, 1);
+  }
+
+  @SuppressWarnings({"rawtypes"})
+  private static long toSortableLong(NumberType numberType, Comparable value) {
+    switch (numberType) {
+      case FLOAT:
+        return NumericUtils.floatToSortableInt(((Number) value).floatValue());
+      case DOUBLE:
+        return NumericUtils.doubleToSortableLong(((Number) value).doubleValue());
+      case DATE:
+        return ((Date) value).getTime();
+      default:
+        return ((Number) value).longValue();
+    }
+  }
+}
@@ -34,20 +34,43 @@ import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.NumericUtils;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.QParser;
 import org.apache.solr.search.SyntaxError;
 import org.apache.solr.search.ValueSourceParser;
 import org.apache.solr.search.function.FieldNameValueSource;
 
 public class PercentileAgg extends SimpleAggValueSource {
+  /** The local param selecting how the values are summarized, {@link #TDIGEST} or {@link #SKETCH} */
+  public static final String METHOD = "method";
+  /** Summarizes the values of each slot with a t-digest, the default */
+  public static final String TDIGEST = "tdigest";
+  /** Summarizes the values of each slot with a compact {@link QuantileSketch}, within 1% of the exact values */
+  public static final String SKETCH = "sketch";
+
   List<Double> percentiles;
+  boolean useSketch;
 
   public PercentileAgg(ValueSource vs, List<Double> percentiles) {
     super("percentile", vs);
     this.percentiles = percentiles;
   }
 
+  public void setOpts(QParser parser) {
+    SolrParams opts = parser.getLocalParams();
+    String method = opts == null ? null : opts.get(METHOD);
+    if (method == null || TDIGEST.equals(method)) {
+      useSketch = false;
+    } else if (SKETCH.equals(method)) {
+      useSketch = true;
+    } else {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+          name() + " " + METHOD + " must be " + TDIGEST + " or " + SKETCH + ", got " + method);
+    }
+  }
+
   @Override
   public SlotAcc createSlotAcc(FacetContext fcontext, long numDocs, int numSlots) throws IOException {
     ValueSource vs = getArg();
@@ -79,19 +102,19 @@ public class PercentileAgg extends SimpleAggValueSource {
 
   @Override
   public FacetMerger createFacetMerger(Object prototype) {
-    return new Merger();
+    return useSketch ? new SketchMerger() : new Merger();
   }
 
   @Override
   public boolean equals(Object o) {
     if (!(o instanceof PercentileAgg)) return false;
     PercentileAgg other = (PercentileAgg)o;
-    return this.arg.equals(other.arg) && this.percentiles.equals(other.percentiles);
+    return this.arg.equals(other.arg) && this.percentiles.equals(other.percentiles) && this.useSketch == other.useSketch;
   }
 
   @Override
   public int hashCode() {
-    return super.hashCode() * 31 + percentiles.hashCode();
+    return (super.hashCode() * 31 + percentiles.hashCode()) * 31 + Boolean.hashCode(useSketch);
   }
 
   public static class Parser extends ValueSourceParser {
@@ -111,7 +134,9 @@ public class PercentileAgg extends SimpleAggValueSource {
         throw new SyntaxError("expected percentile(valsource,percent1[,percent2]*)  EXAMPLE:percentile(myfield,50)");
       }
 
-      return new PercentileAgg(vs, percentiles);
+      PercentileAgg agg = new PercentileAgg(vs, percentiles);
+      agg.setOpts(fp);
+      return agg;
     }
   }
 
@@ -132,30 +157,49 @@ public class PercentileAgg extends SimpleAggValueSource {
     return lst;
   }
 
-  class Acc extends SlotAcc.FuncSlotAcc {
-    protected AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    protected double[] sortvals;
+  protected Object getValueFromSketch(QuantileSketch sketch) {
+    if (sketch == null) {
+      return null;
+    }
 
-    public Acc(ValueSource values, FacetContext fcontext, int numSlots) {
-      super(values, fcontext, numSlots);
-      digests = new AVLTreeDigest[numSlots];
+    if (percentiles.size() == 1) {
+      return sketch.quantile( percentiles.get(0) * 0.01 );
     }
 
-    public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext) throws IOException {
-      if (!values.exists(doc)) return;
-      double val = values.doubleVal(doc);
+    List<Double> lst = new ArrayList<>(percentiles.size());
+    for (Double percentile : percentiles) {
+      lst.add( sketch.quantile( percentile * 0.01 ) );
+    }
+    return lst;
+  }
 
-      AVLTreeDigest digest = digests[slotNum];
-      if (digest == null) {
-        digests[slotNum] = digest = new AVLTreeDigest(100);   // TODO: make compression configurable
-      }
+  Digests newDigests(int numSlots) {
+    return useSketch ? new Sketches(numSlots) : new TDigests(numSlots);
+  }
 
-      digest.add(val);
-    }
+  /**
+   * The summaries of the values of the slots of an accumulator, with the sorting, value and shard value logic
+   * that is the same for all the accumulators.
+   */
+  abstract class Digests {
+    protected double[] sortvals;
 
-    @Override
-    public int compare(int slotA, int slotB) {
+    abstract void add(int slot, double val);
+
+    abstract boolean exists(int slot);
+
+    abstract double quantile(int slot, double q);
+
+    /** Returns the serialized summary of the values of a slot that has values, for merging shard responses */
+    abstract byte[] toBytes(int slot);
+
+    abstract int numSlots();
+
+    abstract void clear();
+
+    abstract void resize(SlotAcc.Resizer resizer);
+
+    int compare(int slotA, int slotB) {
       if (sortvals == null) {
         fillSortVals();
       }
@@ -163,34 +207,71 @@ public class PercentileAgg extends SimpleAggValueSource {
     }
 
     private void fillSortVals() {
-      sortvals = new double[ digests.length ];
+      sortvals = new double[ numSlots() ];
       double sortp = percentiles.get(0) * 0.01;
-      for (int i=0; i<digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
-        if (digest == null) {
+      for (int i=0; i<sortvals.length; i++) {
+        if (!exists(i)) {
           sortvals[i] = Double.NEGATIVE_INFINITY;
         } else {
-          sortvals[i] = digest.quantile(sortp);
+          sortvals[i] = quantile(i, sortp);
         }
       }
     }
 
-    @Override
-    public Object getValue(int slotNum) throws IOException {
-      if (fcontext.isShard()) {
-        return getShardValue(slotNum);
+    Object getValue(int slotNum, boolean isShard) {
+      if (!exists(slotNum)) {
+        return null;  // no values for this slot
       }
-      if (sortvals != null && percentiles.size()==1) {
-        // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
+      if (isShard) {
+        return toBytes(slotNum);
       }
-      return getValueFromDigest( digests[slotNum] );
+      if (percentiles.size() == 1) {
+        // we may have already calculated everything we need
+        return sortvals != null ? sortvals[slotNum] : quantile(slotNum, percentiles.get(0) * 0.01);
+      }
+      List<Double> lst = new ArrayList<>(percentiles.size());
+      for (Double percentile : percentiles) {
+        lst.add( quantile(slotNum, percentile * 0.01) );
+      }
+      return lst;
+    }
+
+    void reset() {
+      clear();
+      sortvals = null;
     }
+  }
 
-    public Object getShardValue(int slot) throws IOException {
+  class TDigests extends Digests {
+    AVLTreeDigest[] digests;
+    ByteBuffer buf;
+
+    TDigests(int numSlots) {
+      digests = new AVLTreeDigest[numSlots];
+    }
+
+    @Override
+    void add(int slot, double val) {
       AVLTreeDigest digest = digests[slot];
-      if (digest == null) return null;  // no values for this slot
+      if (digest == null) {
+        digests[slot] = digest = new AVLTreeDigest(100);   // TODO: make compression configurable
+      }
+      digest.add(val);
+    }
 
+    @Override
+    boolean exists(int slot) {
+      return digests[slot] != null;
+    }
+
+    @Override
+    double quantile(int slot, double q) {
+      return digests[slot].quantile(q);
+    }
+
+    @Override
+    byte[] toBytes(int slot) {
+      AVLTreeDigest digest = digests[slot];
       digest.compress();
       int sz = digest.byteSize();
       if (buf == null || buf.capacity() < sz) {
@@ -199,90 +280,132 @@ public class PercentileAgg extends SimpleAggValueSource {
         buf.clear();
       }
       digest.asSmallBytes(buf);
-      byte[] arr = Arrays.copyOf(buf.array(), buf.position());
-      return arr;
+      return Arrays.copyOf(buf.array(), buf.position());
     }
 
     @Override
-    public void reset() {
+    int numSlots() {
+      return digests.length;
+    }
+
+    @Override
+    void clear() {
       digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
     }
 
     @Override
-    public void resize(Resizer resizer) {
+    void resize(SlotAcc.Resizer resizer) {
       digests = resizer.resize(digests, null);
     }
   }
 
-  abstract class BasePercentileDVAcc extends DocValuesAcc {
-    AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    double[] sortvals;
+  class Sketches extends Digests {
+    QuantileSketch[] sketches;
 
-    public BasePercentileDVAcc(FacetContext fcontext, SchemaField sf, int numSlots) throws IOException {
-      super(fcontext, sf);
-      digests = new AVLTreeDigest[numSlots];
+    Sketches(int numSlots) {
+      sketches = new QuantileSketch[numSlots];
     }
 
     @Override
-    public int compare(int slotA, int slotB) {
-      if (sortvals == null) {
-        fillSortVals();
+    void add(int slot, double val) {
+      QuantileSketch sketch = sketches[slot];
+      if (sketch == null) {
+        sketches[slot] = sketch = new QuantileSketch();
       }
-      return Double.compare(sortvals[slotA], sortvals[slotB]);
+      sketch.add(val);
     }
 
-    private void fillSortVals() {
-      sortvals = new double[ digests.length ];
-      double sortp = percentiles.get(0) * 0.01;
-      for (int i=0; i<digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
-        if (digest == null) {
-          sortvals[i] = Double.NEGATIVE_INFINITY;
-        } else {
-          sortvals[i] = digest.quantile(sortp);
-        }
-      }
+    @Override
+    boolean exists(int slot) {
+      return sketches[slot] != null;
+    }
+
+    @Override
+    double quantile(int slot, double q) {
+      return sketches[slot].quantile(q);
+    }
+
+    @Override
+    byte[] toBytes(int slot) {
+      return sketches[slot].toBytes();
+    }
+
+    @Override
+    int numSlots() {
+      return sketches.length;
+    }
+
+    @Override
+    void clear() {
+      sketches = new QuantileSketch[sketches.length];
+    }
+
+    @Override
+    void resize(SlotAcc.Resizer resizer) {
+      sketches = resizer.resize(sketches, null);
+    }
+  }
+
+  class Acc extends SlotAcc.FuncSlotAcc {
+    protected Digests digests;
+
+    public Acc(ValueSource values, FacetContext fcontext, int numSlots) {
+      super(values, fcontext, numSlots);
+      digests = newDigests(numSlots);
+    }
+
+    public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext) throws IOException {
+      if (!values.exists(doc)) return;
+      digests.add(slotNum, values.doubleVal(doc));
+    }
+
+    @Override
+    public int compare(int slotA, int slotB) {
+      return digests.compare(slotA, slotB);
     }
 
     @Override
     public Object getValue(int slotNum) throws IOException {
-      if (fcontext.isShard()) {
-        return getShardValue(slotNum);
-      }
-      if (sortvals != null && percentiles.size()==1) {
-        // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
-      }
-      return getValueFromDigest( digests[slotNum] );
+      return digests.getValue(slotNum, fcontext.isShard());
     }
 
-    public Object getShardValue(int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) return null;  // no values for this slot
+    @Override
+    public void reset() {
+      digests.reset();
+    }
 
-      digest.compress();
-      int sz = digest.byteSize();
-      if (buf == null || buf.capacity() < sz) {
-        buf = ByteBuffer.allocate(sz+(sz>>1));  // oversize by 50%
-      } else {
-        buf.clear();
-      }
-      digest.asSmallBytes(buf);
-      byte[] arr = Arrays.copyOf(buf.array(), buf.position());
-      return arr;
+    @Override
+    public void resize(Resizer resizer) {
+      digests.resize(resizer);
+    }
+  }
+
+  abstract class BasePercentileDVAcc extends DocValuesAcc {
+    protected Digests digests;
+
+    public BasePercentileDVAcc(FacetContext fcontext, SchemaField sf, int numSlots) throws IOException {
+      super(fcontext, sf);
+      digests = newDigests(numSlots);
+    }
+
+    @Override
+    public int compare(int slotA, int slotB) {
+      return digests.compare(slotA, slotB);
+    }
+
+    @Override
+    public Object getValue(int slotNum) throws IOException {
+      return digests.getValue(slotNum, fcontext.isShard());
     }
 
     @Override
     public void reset() {
-      digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
+      digests.reset();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      digests = resizer.resize(digests, null);
+      digests.resize(resizer);
     }
   }
 
@@ -295,13 +418,9 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     protected void collectValues(int doc, int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) {
-        digests[slot] = digest = new AVLTreeDigest(100);
-      }
       for (int i = 0, count = values.docValueCount(); i < count; i++) {
         double val = getDouble(values.nextValue());
-        digest.add(val);
+        digests.add(slot, val);
       }
     }
 
@@ -345,16 +464,12 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     protected void collectValues(int doc, int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) {
-        digests[slot] = digest = new AVLTreeDigest(100);
-      }
       long ord;
       while ((ord = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
         BytesRef term = values.lookupOrd(ord);
         Object obj = sf.getType().toObject(sf, term);
         double val = obj instanceof Date ? ((Date)obj).getTime(): ((Number)obj).doubleValue();
-        digest.add(val);
+        digests.add(slot, val);
       }
     }
 
@@ -371,14 +486,12 @@ public class PercentileAgg extends SimpleAggValueSource {
   }
 
   class PercentileUnInvertedFieldAcc extends UnInvertedFieldAcc {
-    protected AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    protected double[] sortvals;
+    protected Digests digests;
     private int currentSlot;
 
     public PercentileUnInvertedFieldAcc(FacetContext fcontext, SchemaField sf, int numSlots) throws IOException {
       super(fcontext, sf, numSlots);
-      digests = new AVLTreeDigest[numSlots];
+      digests = newDigests(numSlots);
     }
 
     @Override
@@ -390,75 +503,31 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     public int compare(int slotA, int slotB) {
-      if (sortvals == null) {
-        fillSortVals();
-      }
-      return Double.compare(sortvals[slotA], sortvals[slotB]);
-    }
-
-    private void fillSortVals() {
-      sortvals = new double[ digests.length ];
-      double sortp = percentiles.get(0) * 0.01;
-      for (int i=0; i<digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
-        if (digest == null) {
-          sortvals[i] = Double.NEGATIVE_INFINITY;
-        } else {
-          sortvals[i] = digest.quantile(sortp);
-        }
-      }
+      return digests.compare(slotA, slotB);
     }
 
     @Override
     public Object getValue(int slotNum) throws IOException {
-      if (fcontext.isShard()) {
-        return getShardValue(slotNum);
-      }
-      if (sortvals != null && percentiles.size()==1) {
-        // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
-      }
-      return getValueFromDigest( digests[slotNum] );
-    }
-
-    public Object getShardValue(int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) return null;
-
-      digest.compress();
-      int sz = digest.byteSize();
-      if (buf == null || buf.capacity() < sz) {
-        buf = ByteBuffer.allocate(sz+(sz>>1));  // oversize by 50%
-      } else {
-        buf.clear();
-      }
-      digest.asSmallBytes(buf);
-      byte[] arr = Arrays.copyOf(buf.array(), buf.position());
-      return arr;
+      return digests.getValue(slotNum, fcontext.isShard());
     }
 
     @Override
     public void reset() {
-      digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
+      digests.reset();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      digests = resizer.resize(digests, null);
+      digests.resize(resizer);
     }
 
     @Override
     public void call(int ord) {
-      AVLTreeDigest digest = digests[currentSlot];
-      if (digest == null) {
-        digests[currentSlot] = digest = new AVLTreeDigest(100);
-      }
       try {
         BytesRef term = docToTerm.lookupOrd(ord);
         Object obj = sf.getType().toObject(sf, term);
         double val = obj instanceof Date ? ((Date) obj).getTime() : ((Number) obj).doubleValue();
-        digest.add(val);
+        digests.add(currentSlot, val);
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
@@ -499,4 +568,40 @@ public class PercentileAgg extends SimpleAggValueSource {
       return sortVal;
     }
   }
+
+  /** Merges the sketches of the shards, see {@link QuantileSketch#merge} */
+  class SketchMerger extends FacetModule.FacetDoubleMerger {
+    protected QuantileSketch sketch;
+    protected double sortVal = Double.NaN;
+
+    @Override
+    public void merge(Object facetResult, Context mcontext) {
+      byte[] arr = (byte[])facetResult;
+      if (arr == null) return; // an explicit null can mean no values in the field
+      QuantileSketch subSketch = QuantileSketch.fromBytes(arr);
+      if (sketch == null) {
+        sketch = subSketch;
+      } else {
+        sketch.merge(subSketch);
+      }
+      sortVal = Double.NaN;
+    }
+
+    @Override
+    public Object getMergedResult() {
+      if (percentiles.size() == 1 && sketch != null) return getDouble();
+      return getValueFromSketch(sketch);
+    }
+
+    @Override
+    protected double getDouble() {
+      if (sketch == null) {
+        return Double.NEGATIVE_INFINITY;  // sort like the other percentile merger
+      }
+      if (Double.isNaN(sortVal)) {
+        sortVal = sketch.quantile( percentiles.get(0) * 0.01 );
+      }
+      return sortVal;
+    }
+  }
 }
@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.BitUtil;
+
+/**
+ * A mergeable quantile sketch with a relative accuracy guarantee, after DDSketch: a value is counted in a bucket
+ * whose bounds grow by a constant factor, so any quantile is returned within {@link #RELATIVE_ACCURACY} of the
+ * exact value.  The buckets of positive and of negative values are each a single <code>long[]</code>, and merging
+ * two sketches adds their bucket counts.
+ * <p>
+ * The number of buckets of each sign is bounded by {@link #MAX_BUCKETS}: when values span a wider range the
+ * buckets of the values closest to zero are collapsed, which only affects the accuracy of the lowest quantiles
+ * of positive values (and highest of negative values).
+ * </p>
+ */
+final class QuantileSketch {
+  static final double RELATIVE_ACCURACY = 0.01;
+  static final int MAX_BUCKETS = 2048;
+
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+  // the magnitude below which values are counted as zero, with an index well within an int
+  private static final double MIN_INDEXABLE_VALUE = 1e-300;
+  private static final int INITIAL_BUCKETS = 8;
+
+  private Buckets positive;
+  private Buckets negative;
+  private long zeroCount;
+  private long count;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  public void add(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    if (value >= MIN_INDEXABLE_VALUE) {
+      if (positive == null) positive = new Buckets();
+      positive.add(index(value), 1);
+    } else if (value <= -MIN_INDEXABLE_VALUE) {
+      if (negative == null) negative = new Buckets();
+      negative.add(index(-value), 1);
+    } else {
+      zeroCount++;
+    }
+    count++;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /** Adds the values counted by <code>other</code> to this sketch. */
+  public void merge(QuantileSketch other) {
+    if (other.count == 0) {
+      return;
+    }
+    if (other.positive != null) {
+      if (positive == null) positive = new Buckets();
+      positive.addAll(other.positive);
+    }
+    if (other.negative != null) {
+      if (negative == null) negative = new Buckets();
+      negative.addAll(other.negative);
+    }
+    zeroCount += other.zeroCount;
+    count += other.count;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the value at quantile <code>q</code>, between 0 and 1, or NaN if no value was added.
+   */
+  public double quantile(double q) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    if (q <= 0) {
+      return min;
+    } else if (q >= 1) {
+      return max;
+    }
+
+    final double rank = q * (count - 1);
+    long seen = 0;
+    double value = max;
+    found:
+    {
+      if (negative != null) {
+        // from the most negative value up
+        for (int i = negative.maxIndex; i >= negative.minIndex; i--) {
+          seen += negative.counts[i - negative.offset];
+          if (seen > rank) {
+            value = -value(i);
+            break found;
+          }
+        }
+      }
+      seen += zeroCount;
+      if (seen > rank) {
+        value = 0;
+        break found;
+      }
+      if (positive != null) {
+        for (int i = positive.minIndex; i <= positive.maxIndex; i++) {
+          seen += positive.counts[i - positive.offset];
+          if (seen > rank) {
+            value = value(i);
+            break found;
+          }
+        }
+      }
+    }
+    // the exact bounds are tighter than the bucket bounds
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static int index(double magnitude) {
+    return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+  }
+
+  /** The value within the relative accuracy of all values of bucket <code>index</code>. */
+  private static double value(int index) {
+    return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+  }
+
+  public byte[] toBytes() {
+    ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+    try {
+      out.writeLong(Double.doubleToLongBits(min));
+      out.writeLong(Double.doubleToLongBits(max));
+      out.writeVLong(zeroCount);
+      writeBuckets(positive, out);
+      writeBuckets(negative, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);  // can't happen when writing to memory
+    }
+    return out.toArrayCopy();
+  }
+
+  public static QuantileSketch fromBytes(byte[] bytes) {
+    QuantileSketch sketch = new QuantileSketch();
+    ByteArrayDataInput in = new ByteArrayDataInput(bytes);
+    sketch.min = Double.longBitsToDouble(in.readLong());
+    sketch.max = Double.longBitsToDouble(in.readLong());
+    sketch.zeroCount = in.readVLong();
+    sketch.positive = readBuckets(in);
+    sketch.negative = readBuckets(in);
+    sketch.count = sketch.zeroCount
+        + (sketch.positive == null ? 0 : sketch.positive.total())
+        + (sketch.negative == null ? 0 : sketch.negative.total());
+    return sketch;
+  }
+
+  private static void writeBuckets(Buckets buckets, DataOutput out) throws IOException {
+    if (buckets == null || buckets.counts == null) {
+      out.writeVInt(0);
+      return;
+    }
+    out.writeVInt(buckets.maxIndex - buckets.minIndex + 1);
+    out.writeZInt(buckets.minIndex);
+    for (int i = buckets.minIndex; i <= buckets.maxIndex; i++) {
+      out.writeVLong(buckets.counts[i - buckets.offset]);
+    }
+  }
+
+  private static Buckets readBuckets(ByteArrayDataInput in) {
+    int numBuckets = in.readVInt();
+    if (numBuckets == 0) {
+      return null;
+    }
+    if (numBuckets > MAX_BUCKETS) {
+      throw new IllegalArgumentException("Too many buckets in quantile sketch: " + numBuckets);
+    }
+    Buckets buckets = new Buckets();
+    buckets.offset = buckets.minIndex = BitUtil.zigZagDecode(in.readVInt());
+    buckets.maxIndex = buckets.minIndex + numBuckets - 1;
+    buckets.counts = new long[numBuckets];
+    for (int i = 0; i < numBuckets; i++) {
+      buckets.counts[i] = in.readVLong();
+    }
+    return buckets;
+  }
+
+  /** The counts of the buckets of the values of one sign, by the index of the bucket of their magnitude. */
+  private static final class Buckets {
+    long[] counts;  // counts[i] is the count of bucket offset + i
+    int offset;
+    // the range of the buckets that may have a count, within the counts array
+    int minIndex;
+    int maxIndex;
+
+    void add(int index, long n) {
+      if (counts == null) {
+        counts = new long[INITIAL_BUCKETS];
+        offset = minIndex = maxIndex = index;
+      } else if (index < offset || index >= offset + counts.length) {
+        index = extend(index);
+      } else {
+        minIndex = Math.min(minIndex, index);
+        maxIndex = Math.max(maxIndex, index);
+      }
+      counts[index - offset] += n;
+    }
+
+    void addAll(Buckets other) {
+      if (other.counts == null) {
+        return;
+      }
+      // from the highest bucket down, so that collapsing happens at most once
+      for (int i = other.maxIndex; i >= other.minIndex; i--) {
+        long n = other.counts[i - other.offset];
+        if (n != 0) {
+          add(i, n);
+        }
+      }
+    }
+
+    long total() {
+      long total = 0;
+      for (long n : counts) {
+        total += n;
+      }
+      return total;
+    }
+
+    /**
+     * Grows the counts to include <code>index</code>, collapsing the lowest buckets if the range would be over
+     * {@link #MAX_BUCKETS}, and returns the index of the bucket to count the value in.
+     */
+    private int extend(int index) {
+      final int hi = Math.max(maxIndex, index);
+      final int lo = Math.max(Math.min(minIndex, index), hi - MAX_BUCKETS + 1);
+      final int span = hi - lo + 1;
+      final int newLength = Math.min(MAX_BUCKETS, Math.max(span, counts.length * 2));
+      // leave the room on the side the buckets are growing to
+      final int newOffset = index < offset ? hi - newLength + 1 : lo;
+
+      final long[] newCounts = new long[newLength];
+      for (int i = minIndex; i <= maxIndex; i++) {
+        newCounts[Math.max(i, lo) - newOffset] += counts[i - offset];
+      }
+      counts = newCounts;
+      offset = newOffset;
+      index = Math.max(index, lo);
+      minIndex = Math.min(Math.max(minIndex, lo), index);
+      maxIndex = hi;
+      return index;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.Arrays;
+
+import com.carrotsearch.hppc.IntArrayList;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.util.LongSetPool;
+
+/**
+ * The sets of term ordinals collected by each slot of a {@link UniqueSlotAcc}.  A set starts out sparse, in a
+ * {@link LongSetPool} shared by all slots, and is promoted to a bitset over all ordinals once the bitset is the
+ * smaller of the two.  The bitsets of all slots are regions of shared pages, so there is no object per slot either
+ * way.
+ */
+final class SlotOrdSets implements Accountable {
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(SlotOrdSets.class);
+  private static final int PAGE_WORDS = 1 << 16;
+
+  private final LongSetPool sparse;
+
+  private int numWords = -1; // the words of a bitset, once the number of ordinals is known
+  private int maxSparseSize;
+  private int regionsPerPage;
+  private long[][] pages = new long[0][];
+  private int numRegions;
+  private final IntArrayList freeRegions = new IntArrayList();
+  // per slot: the region of its bitset or -1 if it is sparse, and the cardinality of the bitset
+  private int[] regions;
+  private int[] denseSizes;
+
+  SlotOrdSets(int numSlots) {
+    sparse = new LongSetPool(numSlots);
+    regions = new int[numSlots];
+    Arrays.fill(regions, -1);
+    denseSizes = new int[numSlots];
+  }
+
+  /** Sets the number of ordinals, which must be called before adding any, and can't change afterwards. */
+  void setNumOrds(int numOrds) {
+    final int words = Math.max(1, (numOrds + 63) >>> 6);
+    if (numWords == words) {
+      return;
+    }
+    assert numRegions == 0 : "the number of ordinals changed after ordinals were added";
+    numWords = words;
+    // a sparse table takes 4/3 of a long per ordinal, up to a power of two
+    maxSparseSize = Math.min(LongSetPool.MAX_SET_SIZE, words / 2);
+    regionsPerPage = Math.max(1, PAGE_WORDS / words);
+  }
+
+  void add(int slot, int ord) {
+    final int region = regions[slot];
+    if (region >= 0) {
+      final long[] page = pages[region / regionsPerPage];
+      final int word = (region % regionsPerPage) * numWords + (ord >>> 6);
+      final long mask = 1L << ord;
+      if ((page[word] & mask) == 0) {
+        page[word] |= mask;
+        denseSizes[slot]++;
+      }
+    } else if (sparse.add(slot, ord) && sparse.size(slot) > maxSparseSize) {
+      promote(slot);
+    }
+  }
+
+  int size(int slot) {
+    return regions[slot] >= 0 ? denseSizes[slot] : sparse.size(slot);
+  }
+
+  int numSlots() {
+    return regions.length;
+  }
+
+  /** Returns the <code>max</code> smallest ordinals of a slot, in order. */
+  int[] smallestOrds(int slot, int max) {
+    final int region = regions[slot];
+    if (region < 0) {
+      final long[] values = sparse.values(slot);
+      Arrays.sort(values);
+      final int[] ords = new int[Math.min(max, values.length)];
+      for (int i = 0; i < ords.length; i++) {
+        ords[i] = (int) values[i];
+      }
+      return ords;
+    }
+    final int[] ords = new int[Math.min(max, denseSizes[slot])];
+    final long[] page = pages[region / regionsPerPage];
+    final int base = (region % regionsPerPage) * numWords;
+    int n = 0;
+    for (int i = 0; n < ords.length; i++) {
+      long word = page[base + i];
+      while (word != 0 && n < ords.length) {
+        ords[n++] = (i << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+      }
+    }
+    return ords;
+  }
+
+  /** Empties all the sets, keeping their storage for the ordinals added next. */
+  void reset() {
+    sparse.clear();
+    Arrays.fill(regions, -1);
+    numRegions = 0;
+    freeRegions.clear();
+  }
+
+  void resize(SlotAcc.Resizer resizer) {
+    final int newSize = resizer.getNewSize();
+    sparse.resize(newSize, resizer::getNewSlot);
+    final int[] newRegions = new int[newSize];
+    Arrays.fill(newRegions, -1);
+    final int[] newDenseSizes = new int[newSize];
+    for (int slot = 0; slot < regions.length; slot++) {
+      if (regions[slot] < 0) continue;
+      final int target = resizer.getNewSlot(slot);
+      if (target < 0) {
+        freeRegions.add(regions[slot]);
+      } else {
+        newRegions[target] = regions[slot];
+        newDenseSizes[target] = denseSizes[slot];
+      }
+    }
+    regions = newRegions;
+    denseSizes = newDenseSizes;
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    long bytes = BASE_RAM_BYTES_USED
+        + sparse.ramBytesUsed()
+        + RamUsageEstimator.sizeOf(regions)
+        + RamUsageEstimator.sizeOf(denseSizes)
+        + RamUsageEstimator.sizeOf(freeRegions.buffer)
+        + RamUsageEstimator.shallowSizeOf(pages);
+    for (long[] page : pages) {
+      if (page != null) {
+        bytes += RamUsageEstimator.sizeOf(page);
+      }
+    }
+    return bytes;
+  }
+
+  private void promote(int slot) {
+    final int region;
+    if (!freeRegions.isEmpty()) {
+      region = freeRegions.remove(freeRegions.size() - 1);
+    } else {
+      region = numRegions++;
+      final int page = region / regionsPerPage;
+      if (page >= pages.length) {
+        pages = ArrayUtil.grow(pages, page + 1);
+      }
+      if (pages[page] == null) {
+        pages[page] = new long[regionsPerPage * numWords];
+      }
+    }
+    final long[] page = pages[region / regionsPerPage];
+    final int base = (region % regionsPerPage) * numWords;
+    Arrays.fill(page, base, base + numWords, 0L);
+    for (long ord : sparse.values(slot)) {
+      page[base + (int) (ord >>> 6)] |= 1L << ord;
+    }
+    denseSizes[slot] = sparse.size(slot);
+    sparse.clear(slot);
+    regions[slot] = region;
+  }
+}
@@ -23,8 +23,10 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
@@ -114,12 +116,11 @@ public class UnInvertedField extends DocTermOrds {
   private SolrIndexSearcher.DocsEnumState deState;
   private final SolrIndexSearcher searcher;
 
-  private static final UnInvertedField uifPlaceholder = new UnInvertedField();
-
-  private UnInvertedField() { // Dummy for synchronization.
-    super("fake", 0, 0); // cheapest initialization I can find.
-    searcher = null;
-  }
+  /**
+   * The builds in progress, by field value cache and field, so that the fields of a searcher are uninverted
+   * concurrently, and the requests for a field being uninverted share its build.
+   */
+  private static final Map<PendingKey, CompletableFuture<UnInvertedField>> pendingBuilds = new ConcurrentHashMap<>();
 
   /**
    * Called for each term in the field being uninverted.
@@ -334,10 +335,12 @@ public class UnInvertedField extends DocTermOrds {
 
     final int[] index = this.index;
 
-    boolean doNegative = baseSize > maxDoc >> 1 && termInstances > 0 && docs instanceof BitDocSet && baseCountAccStruct != null;
+    boolean doNegative = baseSize > maxDoc >> 1 && termInstances > 0 && baseCountAccStruct != null;
 
     if (doNegative) {
-      FixedBitSet bs = ((BitDocSet) docs).getBits().clone();
+      // any set this dense (a BitDocSet, a RoaringDocSet...) is converted once, then complemented
+      FixedBitSet bs = new FixedBitSet(maxDoc);
+      docs.addAllTo(bs);
       bs.flip(0, maxDoc);
       // TODO: when iterator across negative elements is available, use that
       // instead of creating a new bitset and inverting.
@@ -605,75 +608,42 @@ public class UnInvertedField extends DocTermOrds {
     if (cache == null) {
       return new UnInvertedField(field, searcher);
     }
-    AtomicReference<Throwable> throwableRef = new AtomicReference<>();
-    UnInvertedField uif = cache.computeIfAbsent(field, f -> {
-      UnInvertedField newUif;
+    UnInvertedField uif = cache.get(field);
+    if (uif != null) {
+      return uif;
+    }
+
+    // The field is not uninverted in the cache lock (as computeIfAbsent would), which would hold up the requests
+    // on the other fields of the cache, but by the first request on it, while the others wait for its build.
+    final PendingKey key = new PendingKey(cache, field);
+    final CompletableFuture<UnInvertedField> build = new CompletableFuture<>();
+    final CompletableFuture<UnInvertedField> pending = pendingBuilds.putIfAbsent(key, build);
+    if (pending != null) {
       try {
-        newUif = new UnInvertedField(field, searcher);
-      } catch (Throwable t) {
-        throwableRef.set(t);
-        newUif = null;
+        return pending.get();
+      } catch (ExecutionException e) {
+        rethrowAsSolrException(field, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        rethrowAsSolrException(field, e);
       }
-      return newUif;
-    });
-    if (throwableRef.get() != null) {
-      rethrowAsSolrException(field, throwableRef.get());
     }
-    return uif;
 
-    // (ab) if my understanding is correct this whole block tried to mimic the
-    // semantics of computeIfAbsent
-
-//    Boolean doWait = false;
-//    synchronized (cache) {
-//      final Object val = cache.get(field);
-//      if (val == null || (val instanceof Throwable)) {
-//        /**
-//         * We use this place holder object to pull the UninvertedField construction out of the sync
-//         * so that if many fields are accessed in a short time, the UninvertedField can be
-//         * built for these fields in parallel rather than sequentially.
-//         */
-//        cache.put(field, uifPlaceholder);
-//      } else {
-//        if (val != uifPlaceholder) {
-//          return (UnInvertedField) val;
-//        }
-//        doWait = true; // Someone else has put the place holder in, wait for that to complete.
-//      }
-//    }
-//    while (doWait) {
-//      try {
-//        synchronized (cache) {
-//          final Object val = cache.get(field);
-//          if (val != uifPlaceholder) { // OK, another thread put this in the cache we should be good.
-//            if (val instanceof Throwable) {
-//              rethrowAsSolrException(field, (Throwable) val);
-//            } else {
-//              return (UnInvertedField) val;
-//            }
-//          }
-//          cache.wait();
-//        }
-//      } catch (InterruptedException e) {
-//        rethrowAsSolrException(field, e);
-//      }
-//    }
-//
-//    UnInvertedField uif = null;
-//    try {
-//      uif = new UnInvertedField(field, searcher);
-//    }catch(Throwable e) {
-//      synchronized (cache) {
-//        cache.put(field, e); // signaling the failure
-//        cache.notifyAll();
-//      }
-//      rethrowAsSolrException(field, e);
-//    }
-//    synchronized (cache) {
-//      cache.put(field, uif); // Note, this cleverly replaces the placeholder.
-//      cache.notifyAll();
-//    }
-//    return uif;
+    try {
+      // the build of another request may have completed since the lookup above
+      uif = cache.get(field);
+      if (uif == null) {
+        uif = new UnInvertedField(field, searcher);
+        cache.put(field, uif);
+      }
+      build.complete(uif);
+    } catch (Throwable t) {
+      build.completeExceptionally(t);
+      rethrowAsSolrException(field, t);
+    } finally {
+      pendingBuilds.remove(key, build);
+    }
+    return uif;
   }
 
   protected static void rethrowAsSolrException(String field, Throwable e) {
@@ -687,11 +657,30 @@ public class UnInvertedField extends DocTermOrds {
     if (cache == null) {
       return null;
     }
-    Object uif = cache.get(field);  // cache is already synchronized, so no extra sync needed
-    // placeholder is an implementation detail, keep it hidden and return null if that is what we got
-    return uif==uifPlaceholder || !(uif instanceof UnInvertedField)? null : (UnInvertedField) uif;
-    // TODO: SolrCache is not used safely in other places, but this might be simpligfied to:
-    //  return uif==uifPlaceholder ? null : uif;
+    return cache.get(field);  // cache is already synchronized, so no extra sync needed
+  }
+
+  /** The key of a build in progress, the identity of the field value cache of the searcher and the field. */
+  private static final class PendingKey {
+    private final SolrCache<String, UnInvertedField> cache;
+    private final String field;
+
+    PendingKey(SolrCache<String, UnInvertedField> cache, String field) {
+      this.cache = cache;
+      this.field = field;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof PendingKey)) return false;
+      PendingKey other = (PendingKey) obj;
+      return cache == other.cache && field.equals(other.field);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(cache) + field.hashCode();
+    }
   }
 
 }
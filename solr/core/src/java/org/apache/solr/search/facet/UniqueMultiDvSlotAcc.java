@@ -25,7 +25,6 @@ import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.OrdinalMap;
 import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.LongValues;
 import org.apache.solr.schema.SchemaField;
 
@@ -44,6 +43,7 @@ class UniqueMultiDvSlotAcc extends UniqueSlotAcc {
   public void resetIterators() throws IOException {
     topLevel = FieldUtil.getSortedSetDocValues(fcontext.qcontext, field, null);
     nTerms = (int) topLevel.getValueCount();
+    ords.setNumOrds(nTerms);
     if (topLevel instanceof MultiDocValues.MultiSortedSetDocValues) {
       ordMap = ((MultiDocValues.MultiSortedSetDocValues) topLevel).mapping;
       subDvs = ((MultiDocValues.MultiSortedSetDocValues) topLevel).values;
@@ -77,15 +77,9 @@ class UniqueMultiDvSlotAcc extends UniqueSlotAcc {
       int segOrd = (int) subDv.nextOrd();
       assert segOrd >= 0;
       
-      FixedBitSet bits = arr[slotNum];
-      if (bits == null) {
-        bits = new FixedBitSet(nTerms);
-        arr[slotNum] = bits;
-      }
-
       do {
         int ord = toGlobal == null ? segOrd : (int) toGlobal.get(segOrd);
-        bits.set(ord);
+        ords.add(slotNum, ord);
         segOrd = (int) subDv.nextOrd();
       } while (segOrd >= 0);
     }
@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.util.function.IntFunction;
 
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.FixedBitSet;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.SolrIndexSearcher;
 
@@ -36,6 +35,7 @@ class UniqueMultivaluedSlotAcc extends UniqueSlotAcc implements UnInvertedField.
     docToTerm = uif.new DocToTerm();
     fcontext.qcontext.addCloseHook(this);  // TODO: find way to close accumulators instead of using close hook?
     nTerms = uif.numTerms();
+    ords.setNumOrds(nTerms);
   }
 
   @Override
@@ -43,20 +43,16 @@ class UniqueMultivaluedSlotAcc extends UniqueSlotAcc implements UnInvertedField.
     return docToTerm.lookupOrd(ord);
   }
 
-  private FixedBitSet bits;  // bits for the current slot, only set for the callback
+  private int slot;  // the current slot, only set for the callback
 
   @Override
   public void call(int termNum) {
-    bits.set(termNum);
+    ords.add(slot, termNum);
   }
 
   @Override
   public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext) throws IOException {
-    bits = arr[slotNum];
-    if (bits == null) {
-      bits = new FixedBitSet(nTerms);
-      arr[slotNum] = bits;
-    }
+    slot = slotNum;
     docToTerm.getBigTerms(doc + currentDocBase, this);  // this will call back to our Callback.call(int termNum)
     docToTerm.getSmallTerms(doc + currentDocBase, this);
   }
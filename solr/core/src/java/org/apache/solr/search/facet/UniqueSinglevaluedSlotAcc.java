@@ -25,7 +25,6 @@ import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.OrdinalMap;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.LongValues;
 import org.apache.solr.schema.SchemaField;
 
@@ -45,6 +44,7 @@ class UniqueSinglevaluedSlotAcc extends UniqueSlotAcc {
     super.resetIterators();
     topLevel = FieldUtil.getSortedDocValues(fcontext.qcontext, field, null);
     nTerms = topLevel.getValueCount();
+    ords.setNumOrds(nTerms);
     if (topLevel instanceof MultiDocValues.MultiSortedDocValues) {
       ordMap = ((MultiDocValues.MultiSortedDocValues)topLevel).mapping;
       subDvs = ((MultiDocValues.MultiSortedDocValues)topLevel).values;
@@ -84,11 +84,6 @@ class UniqueSinglevaluedSlotAcc extends UniqueSlotAcc {
   }
 
   protected void collectOrdToSlot(int slotNum, int ord) {
-    FixedBitSet bits = arr[slotNum];
-    if (bits == null) {
-      bits = new FixedBitSet(nTerms);
-      arr[slotNum] = bits;
-    }
-    bits.set(ord);
+    ords.add(slotNum, ord);
   }
 }
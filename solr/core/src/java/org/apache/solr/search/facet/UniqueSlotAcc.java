@@ -20,35 +20,37 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.solr.common.util.Hash;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.util.hll.HLL;
 
-abstract class UniqueSlotAcc extends SlotAcc {
+abstract class UniqueSlotAcc extends SlotAcc implements Accountable {
   HLLAgg.HLLFactory factory;
   SchemaField field;
-  FixedBitSet[] arr;
+  SlotOrdSets ords;  // the ords collected by each slot, subclasses must set the number of ords before collecting
   int[] counts;  // populated with the cardinality once
   int nTerms;
 
   public UniqueSlotAcc(FacetContext fcontext, SchemaField field, int numSlots, HLLAgg.HLLFactory factory) throws IOException {
     super(fcontext);
     this.factory = factory;
-    arr = new FixedBitSet[numSlots];
+    ords = new SlotOrdSets(numSlots);
     this.field = field;
   }
 
   @Override
   public void reset() throws IOException {
     counts = null;
-    for (FixedBitSet bits : arr) {
-      if (bits == null) continue;
-      bits.clear(0, bits.length());
-    }
+    ords.reset();
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return ords.ramBytesUsed() + RamUsageEstimator.sizeOf(counts);
   }
 
   @Override
@@ -68,22 +70,17 @@ abstract class UniqueSlotAcc extends SlotAcc {
     if (counts != null) {  // will only be pre-populated if this was used for sorting.
       res = counts[slot];
     } else {
-      FixedBitSet bs = arr[slot];
-      res = bs == null ? 0 : bs.cardinality();
+      res = ords.size(slot);
     }
     return res;
   }
 
   private Object getShardHLL(int slot) throws IOException {
-    FixedBitSet ords = arr[slot];
-    if (ords == null) return HLLAgg.NO_VALUES;
+    if (ords.size(slot) == 0) return HLLAgg.NO_VALUES;
 
     HLL hll = factory.getHLL();
-    long maxOrd = ords.length();
     Hash.LongPair hashResult = new Hash.LongPair();
-    for(int ord=-1; ++ord < maxOrd;) {
-      ord = ords.nextSetBit(ord);
-      if (ord == DocIdSetIterator.NO_MORE_DOCS) break;
+    for (int ord : ords.smallestOrds(slot, Integer.MAX_VALUE)) {
       BytesRef val = lookupOrd(ord);
       // way to avoid recomputing hash across slots?  Prob not worth space
       Hash.murmurhash3_x64_128(val.bytes, val.offset, val.length, 0, hashResult);
@@ -99,12 +96,11 @@ abstract class UniqueSlotAcc extends SlotAcc {
 
   private Object getShardValue(int slot) throws IOException {
     if (factory != null) return getShardHLL(slot);
-    FixedBitSet ords = arr[slot];
     int unique;
     if (counts != null) {
       unique = counts[slot];
     } else {
-      unique = ords==null ? 0 : ords.cardinality();
+      unique = ords.size(slot);
     }
 
     SimpleOrderedMap<Object> map = new SimpleOrderedMap<>();
@@ -118,16 +114,10 @@ abstract class UniqueSlotAcc extends SlotAcc {
 
       List<Object> lst = new ArrayList<>( Math.min(unique, maxExplicit) );
 
-      int maxOrd = ords.length();
-      if (maxOrd > 0) {
-        for (int ord=0; lst.size() < maxExplicit;) {
-          ord = ords.nextSetBit(ord);
-          if (ord == DocIdSetIterator.NO_MORE_DOCS) break;
-          BytesRef val = lookupOrd(ord);
-          Object o = field.getType().toObject(field, val);
-          lst.add(o);
-          if (++ord >= maxOrd) break;
-        }
+      for (int ord : ords.smallestOrds(slot, maxExplicit)) {
+        BytesRef val = lookupOrd(ord);
+        Object o = field.getType().toObject(field, val);
+        lst.add(o);
       }
 
       map.add("vals", lst);
@@ -140,10 +130,9 @@ abstract class UniqueSlotAcc extends SlotAcc {
 
   // we only calculate all the counts when sorting by count
   public void calcCounts() {
-    counts = new int[arr.length];
-    for (int i=0; i<arr.length; i++) {
-      FixedBitSet bs = arr[i];
-      counts[i] = bs == null ? 0 : bs.cardinality();
+    counts = new int[ords.numSlots()];
+    for (int i=0; i<counts.length; i++) {
+      counts[i] = ords.size(i);
     }
   }
 
@@ -157,7 +146,7 @@ abstract class UniqueSlotAcc extends SlotAcc {
 
   @Override
   public void resize(Resizer resizer) {
-    arr = resizer.resize(arr, null);
+    ords.resize(resizer);
     if (counts != null) {
       counts = resizer.resize(counts, 0);
     }
@@ -276,7 +276,8 @@ public class GraphQuery extends Query {
 
     @Override
     public boolean isCacheable(LeafReaderContext ctx) {
-      return true;
+      // the matches are computed over the whole index
+      return false;
     }
     
   }
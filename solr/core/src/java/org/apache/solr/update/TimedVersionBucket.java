@@ -40,11 +40,17 @@ public class TimedVersionBucket extends VersionBucket {
    */
   @Override
   public <T,R> R runWithLock(int lockTimeoutMs, CheckedFunction<T,R> function) throws IOException {
-    if (tryLock(lockTimeoutMs)) {
-      return function.apply();
-    } else {
-      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
-          "Unable to get version bucket lock in " + lockTimeoutMs + " ms");
+    boolean contended = beginLock();
+    try {
+      if (tryLock(lockTimeoutMs)) {
+        lockAcquired(contended);
+        return function.apply();
+      } else {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
+            "Unable to get version bucket lock in " + lockTimeoutMs + " ms");
+      }
+    } finally {
+      endLock();
     }
   }
 
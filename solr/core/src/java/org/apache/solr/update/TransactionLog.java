@@ -36,7 +36,13 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NoLockFactory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.util.DataInputInputStream;
@@ -82,6 +88,33 @@ public class TransactionLog implements Closeable {
 
   protected volatile boolean deleteOnClose = true;  // we can delete old tlogs since they are currently only used for real-time-get (and in the future, recovery)
 
+  // Group commit: concurrent fsyncs are coalesced so that one thread syncs the records of all the requests
+  // that finished writing, while the others wait for it.  All accesses are synchronized on syncLock.
+  private final Object syncLock = new Object();
+  private boolean syncing;
+  private long syncedPos;
+  private int unsyncedRequests;
+  protected volatile long groupCommitWindowMs;
+  protected volatile FsyncListener fsyncListener;
+
+  // The log file mapped into memory once the log is read-only, see closeOutput().  Readers decode from the
+  // mapping instead of reading through the channel, except for anything past its end.  A log that is written
+  // again, like a log replayed at startup that gets a commit, drops its mapping, see endRecord().
+  private volatile IndexInput mappedInput;
+  // the dropped mappings, which readers may still use until the log is closed; guarded by "this"
+  private final List<IndexInput> droppedInputs = new ArrayList<>(0);
+
+  // the most recently looked up entries, by position
+  static final int LOOKUP_CACHE_SIZE = 64;
+  // larger entries are not worth keeping in memory since decoding is cheap compared to their size
+  static final int MAX_CACHED_ENTRY_BYTES = 16 * 1024;
+  private final Map<Long, List<?>> lookupCache = new LinkedHashMap<>(LOOKUP_CACHE_SIZE, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, List<?>> eldest) {
+      return size() > LOOKUP_CACHE_SIZE;
+    }
+  };
+
   AtomicInteger refcount = new AtomicInteger(1);
   Map<String, Integer> globalStringMap = new HashMap<>();
   List<String> globalStringList = new ArrayList<>();
@@ -322,6 +355,11 @@ public class TransactionLog implements Closeable {
   protected void endRecord(long startRecordPosition) throws IOException {
     fos.writeInt((int) (fos.size() - startRecordPosition));
     numRecords++;
+    if (mappedInput != null) {
+      // the log isn't read-only anymore, so lookups must flush the buffer again
+      droppedInputs.add(mappedInput);
+      mappedInput = null;
+    }
   }
 
   protected void checkWriteHeader(LogCodec codec, SolrInputDocument optional) throws IOException {
@@ -510,28 +548,63 @@ public class TransactionLog implements Closeable {
     // update the version map.  This is OK since the node won't be ACTIVE when this happens.
     if (pos < 0) return null;
 
+    List<?> cached;
+    synchronized (lookupCache) {
+      cached = lookupCache.get(pos);
+    }
+    if (cached != null) {
+      // callers may modify the entry, so they each get their own copy
+      return copyEntry(cached);
+    }
+
     try {
-      // make sure any unflushed buffer has been flushed
-      synchronized (this) {
-        // TODO: optimize this by keeping track of what we have flushed up to
-        fos.flushBuffer();
-        /***
-         System.out.println("###flushBuffer to " + fos.size() + " raf.length()=" + raf.length() + " pos="+pos);
-         if (fos.size() != raf.length() || pos >= fos.size() ) {
-         throw new RuntimeException("ERROR" + "###flushBuffer to " + fos.size() + " raf.length()=" + raf.length() + " pos="+pos);
-         }
-         ***/
+      if (mappedInput == null) {
+        // make sure any unflushed buffer has been flushed
+        synchronized (this) {
+          // TODO: optimize this by keeping track of what we have flushed up to
+          fos.flushBuffer();
+          /***
+           System.out.println("###flushBuffer to " + fos.size() + " raf.length()=" + raf.length() + " pos="+pos);
+           if (fos.size() != raf.length() || pos >= fos.size() ) {
+           throw new RuntimeException("ERROR" + "###flushBuffer to " + fos.size() + " raf.length()=" + raf.length() + " pos="+pos);
+           }
+           ***/
+        }
       }
 
-      ChannelFastInputStream fis = new ChannelFastInputStream(channel, pos);
+      ChannelFastInputStream fis = newInputStream(pos);
+      Object o;
       try (LogCodec codec = new LogCodec(resolver)) {
-        return codec.readVal(fis);
+        o = codec.readVal(fis);
       }
+      if (o instanceof List && fis.position() - pos <= MAX_CACHED_ENTRY_BYTES) {
+        List<?> entry = (List<?>) o;
+        synchronized (lookupCache) {
+          lookupCache.put(pos, entry);
+        }
+        return copyEntry(entry);
+      }
+      return o;
     } catch (IOException e) {
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
     }
   }
 
+  private static List<?> copyEntry(List<?> entry) {
+    List<Object> copy = new ArrayList<>(entry);
+    Object last = copy.get(copy.size() - 1);
+    if (last instanceof SolrInputDocument) {
+      copy.set(copy.size() - 1, ((SolrInputDocument) last).deepCopy());
+    }
+    return copy;
+  }
+
+  /** Returns a stream reading the log from <code>pos</code>, from its mapping when it is mapped. */
+  protected ChannelFastInputStream newInputStream(long pos) {
+    IndexInput mapped = mappedInput;
+    return mapped == null ? new ChannelFastInputStream(channel, pos) : new MappedFastInputStream(channel, mapped, pos);
+  }
+
   public void incref() {
     int result = refcount.incrementAndGet();
     if (result <= 1) {
@@ -558,25 +631,134 @@ public class TransactionLog implements Closeable {
 
   /** Move to a read-only state, closing and releasing resources while keeping the log available for reads */
   public void closeOutput() {
+    synchronized (this) {
+      if (mappedInput != null || fos == null) return;
+      try {
+        fos.flushBuffer();
+        // only used to open the input, which stays usable after the directory is closed
+        try (Directory dir = new MMapDirectory(tlogFile.getParentFile().toPath(), NoLockFactory.INSTANCE)) {
+          mappedInput = dir.openInput(tlogFile.getName(), IOContext.READ);
+        }
+        if (debug) {
+          log.debug("Mapped {} bytes of {}", mappedInput.length(), tlogFile);
+        }
+      } catch (IOException e) {
+        // not fatal, the log is read through its channel instead
+        log.warn("Could not map tlog {}", tlogFile, e);
+      }
+    }
+  }
+
+  /**
+   * Notified after each fsync of the log.
+   */
+  public interface FsyncListener {
+    /**
+     * @param batchSize the number of {@link #finish} calls that waited for the fsync
+     * @param nanos     the time the fsync took
+     */
+    void onFsync(int batchSize, long nanos);
+  }
 
+  /**
+   * Configures the group commit of fsyncs.
+   *
+   * @param groupCommitWindowMs how long the thread that syncs the log waits for more records to sync together,
+   *                            which delays each {@link UpdateLog.SyncLevel#FSYNC} request by up to that long
+   * @param fsyncListener       notified after each fsync, may be null
+   */
+  public void setGroupCommit(long groupCommitWindowMs, FsyncListener fsyncListener) {
+    this.groupCommitWindowMs = groupCommitWindowMs;
+    this.fsyncListener = fsyncListener;
   }
 
   public void finish(UpdateLog.SyncLevel syncLevel) {
     if (syncLevel == UpdateLog.SyncLevel.NONE) return;
     try {
+      if (syncLevel == UpdateLog.SyncLevel.FSYNC) {
+        sync();
+        return;
+      }
       synchronized (this) {
         fos.flushBuffer();
       }
+    } catch (IOException e) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+    }
+  }
 
-      if (syncLevel == UpdateLog.SyncLevel.FSYNC) {
-        // Since fsync is outside of synchronized block, we can end up with a partial
-        // last record on power failure (which is OK, and does not represent an error...
-        // we just need to be aware of it when reading).
-        raf.getFD().sync();
+  /**
+   * Flushes and fsyncs everything written so far.  If another thread is already syncing, this waits for it
+   * and then either returns, if its fsync covered our records, or syncs the records written since then, along
+   * with those of every other thread that was waiting.
+   */
+  private void sync() throws IOException {
+    long pos;
+    synchronized (this) {
+      pos = fos.size();
+    }
+    boolean interrupted = false;
+    try {
+      synchronized (syncLock) {
+        unsyncedRequests++;
+        while (syncing) {
+          try {
+            syncLock.wait();
+          } catch (InterruptedException e) {
+            // the update is already in the log, so keep waiting until it's synced
+            interrupted = true;
+          }
+        }
+        if (syncedPos >= pos) {
+          return;
+        }
+        syncing = true;
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
       }
+    }
 
-    } catch (IOException e) {
-      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+    long synced = -1;
+    try {
+      long windowMs = groupCommitWindowMs;
+      if (windowMs > 0) {
+        try {
+          Thread.sleep(windowMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      int batchSize;
+      synchronized (syncLock) {
+        // every request counted here wrote its records before we read the position below
+        batchSize = unsyncedRequests;
+        unsyncedRequests = 0;
+      }
+      synchronized (this) {
+        fos.flushBuffer();
+        synced = fos.size();
+      }
+
+      // Since fsync is outside of synchronized block, we can end up with a partial
+      // last record on power failure (which is OK, and does not represent an error...
+      // we just need to be aware of it when reading).
+      long start = System.nanoTime();
+      raf.getFD().sync();
+      FsyncListener listener = fsyncListener;
+      if (listener != null) {
+        listener.onFsync(batchSize, System.nanoTime() - start);
+      }
+    } finally {
+      synchronized (syncLock) {
+        syncing = false;
+        if (synced > syncedPos) {
+          syncedPos = synced;
+        }
+        syncLock.notifyAll();
+      }
     }
   }
 
@@ -589,6 +771,10 @@ public class TransactionLog implements Closeable {
       synchronized (this) {
         fos.flush();
         fos.close();
+        if (mappedInput != null) {
+          mappedInput.close();
+        }
+        IOUtils.close(droppedInputs);
       }
 
       if (deleteOnClose) {
@@ -656,7 +842,7 @@ public class TransactionLog implements Closeable {
 
     public LogReader(long startingPos) {
       incref();
-      fis = new ChannelFastInputStream(channel, startingPos);
+      fis = newInputStream(startingPos);
     }
 
     // for classes that extend
@@ -815,7 +1001,7 @@ public class TransactionLog implements Closeable {
         assert sz == channel.size();
       }
 
-      fis = new ChannelFastInputStream(channel, 0);
+      fis = newInputStream(0);
       if (sz >= 4) {
         // readHeader(fis);  // should not be needed
         prevPos = sz - 4;
@@ -933,6 +1119,30 @@ public class TransactionLog implements Closeable {
       return "readFromStream=" + readFromStream + " pos=" + pos + " end=" + end + " bufferPos=" + getBufferPos() + " position=" + position();
     }
   }
-}
 
+  /**
+   * Reads the log from its mapping, which avoids a system call for each buffer refill, and
+   * falls back to the channel past the end of the mapping.
+   */
+  static class MappedFastInputStream extends ChannelFastInputStream {
+    private final IndexInput in;
 
+    public MappedFastInputStream(FileChannel ch, IndexInput mapped, long chPosition) {
+      super(ch, chPosition);
+      // clones are cheap and allow concurrent readers, they are released with the original
+      this.in = mapped.clone();
+    }
+
+    @Override
+    public int readWrappedStream(byte[] target, int offset, int len) throws IOException {
+      long remaining = in.length() - readFromStream;
+      if (remaining <= 0) {
+        return super.readWrappedStream(target, offset, len);
+      }
+      int n = (int) Math.min(len, remaining);
+      in.seek(readFromStream);
+      in.readBytes(target, offset, n);
+      return n;
+    }
+  }
+}
@@ -40,15 +40,17 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrDocumentBase;
@@ -59,10 +61,11 @@ import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.ExecutorUtil;
 import org.apache.solr.common.util.IOUtils;
-import org.apache.solr.common.util.TimeSource;
+import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.PluginInfo;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.MetricsMap;
 import org.apache.solr.metrics.SolrMetricProducer;
 import org.apache.solr.metrics.SolrMetricsContext;
 import org.apache.solr.request.LocalSolrQueryRequest;
@@ -79,7 +82,6 @@ import org.apache.solr.util.OrderedExecutor;
 import org.apache.solr.util.RTimer;
 import org.apache.solr.util.RefCounted;
 import org.apache.solr.util.TestInjection;
-import org.apache.solr.util.TimeOut;
 import org.apache.solr.util.plugin.PluginInfoInitialized;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -205,6 +207,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected final int numDeletesByQueryToKeep = 100;
   protected int numRecordsToKeep;
   protected int maxNumLogsToKeep;
+  // the number of most contended version buckets reported in the versionBuckets metric
+  private static final int NUM_HOTTEST_VERSION_BUCKETS = 10;
   protected int numVersionBuckets; // This should only be used to initialize VersionInfo... the actual number of buckets may be rounded up to a power of two.
   protected Long maxVersionFromIndex = null;
   protected boolean existOldBufferLog = false;
@@ -242,6 +246,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected VersionInfo versionInfo;
 
   protected SyncLevel defaultSyncLevel = SyncLevel.FLUSH;
+  protected long groupCommitWindowMs;
 
   volatile UpdateHandler uhandler;    // a core reload can change this reference!
   protected volatile boolean cancelApplyBufferUpdate;
@@ -251,7 +256,11 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected Gauge<Integer> bufferedOpsGauge;
   protected Meter applyingBufferedOpsMeter;
   protected Meter replayOpsMeter;
+  // updates read from the log but not applied yet during replay
+  protected final AtomicInteger replayPendingOps = new AtomicInteger();
   protected Meter copyOverOldUpdatesMeter;
+  protected Histogram fsyncBatchSizeHistogram;
+  protected Timer fsyncTimer;
   protected SolrMetricsContext solrMetricsContext;
 
   public static class LogPtr {
@@ -345,9 +354,13 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     if (numVersionBuckets <= 0)
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
           "Number of version buckets must be greater than 0!");
+    groupCommitWindowMs = objToInt(info.initArgs.get("groupCommitWindowMs"), 0);
+    if (groupCommitWindowMs < 0)
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
+          "groupCommitWindowMs must not be negative!");
 
-    log.info("Initializing UpdateLog: dataDir={} defaultSyncLevel={} numRecordsToKeep={} maxNumLogsToKeep={} numVersionBuckets={}",
-        dataDir, defaultSyncLevel, numRecordsToKeep, maxNumLogsToKeep, numVersionBuckets);
+    log.info("Initializing UpdateLog: dataDir={} defaultSyncLevel={} numRecordsToKeep={} maxNumLogsToKeep={} numVersionBuckets={} groupCommitWindowMs={}",
+        dataDir, defaultSyncLevel, numRecordsToKeep, maxNumLogsToKeep, numVersionBuckets, groupCommitWindowMs);
   }
 
   /* Note, when this is called, uhandler is not completely constructed.
@@ -459,8 +472,24 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     solrMetricsContext.gauge(() -> getTotalLogsSize(), true, "bytes", scope, "replay", "remaining");
     applyingBufferedOpsMeter = solrMetricsContext.meter("ops", scope, "applyingBuffered");
     replayOpsMeter = solrMetricsContext.meter("ops", scope, "replay");
+    solrMetricsContext.gauge(() -> replayPendingOps.get(), true, "ops", scope, "replay", "pending");
     copyOverOldUpdatesMeter = solrMetricsContext.meter("ops", scope, "copyOverOldUpdates");
+    fsyncBatchSizeHistogram = solrMetricsContext.histogram("batchSize", scope, "fsync");
+    fsyncTimer = solrMetricsContext.timer("times", scope, "fsync");
     solrMetricsContext.gauge(() -> state.getValue(), true, "state", scope);
+    solrMetricsContext.gauge(new MetricsMap(map -> {
+      VersionInfo vinfo = versionInfo;
+      if (vinfo != null) {
+        for (Map.Entry<String, Object> e : vinfo.getBucketLockStats(NUM_HOTTEST_VERSION_BUCKETS).entrySet()) {
+          map.put(e.getKey(), e.getValue());
+        }
+      }
+    }), true, "versionBuckets", scope);
+  }
+
+  /** Returns the number of updates read from the log but not applied yet by the current replay. */
+  public int getReplayPendingOps() {
+    return replayPendingOps.get();
   }
 
   @Override
@@ -848,6 +877,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
         // if we made it through the commit, write a commit command to the log
         // TODO: check that this works to cap a tlog we were using to buffer so we don't replay on startup.
         prevTlog.writeCommit(cmd);
+        // nothing is written to the log anymore, so it can be mapped for faster lookups and replays
+        prevTlog.closeOutput();
 
         addOldLog(prevTlog, true);
         // the old log list will decref when no longer needed
@@ -1137,6 +1168,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
         continue;
       }
 
+      // logs from before the restart are only read from now on
+      ll.closeOutput();
       recoverLogs.add(ll);
     }
 
@@ -1329,6 +1362,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     String newLogName = String.format(Locale.ROOT, LOG_FILENAME_PATTERN, BUFFER_TLOG_NAME, System.nanoTime());
     bufferTlog = newTransactionLog(new File(tlogDir, newLogName), globalStrings, false);
     bufferTlog.isBuffer = true;
+    bufferTlog.setGroupCommit(groupCommitWindowMs, this::onFsync);
   }
 
   // Cleanup old buffer tlogs
@@ -1346,6 +1380,18 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     if (tlog == null) {
       String newLogName = String.format(Locale.ROOT, LOG_FILENAME_PATTERN, TLOG_NAME, id);
       tlog = newTransactionLog(new File(tlogDir, newLogName), globalStrings, false);
+      tlog.setGroupCommit(groupCommitWindowMs, this::onFsync);
+    }
+  }
+
+  private void onFsync(int batchSize, long nanos) {
+    Histogram batchSizes = fsyncBatchSizeHistogram;
+    if (batchSizes != null) {
+      batchSizes.update(batchSize);
+    }
+    Timer timer = fsyncTimer;
+    if (timer != null) {
+      timer.update(nanos, TimeUnit.NANOSECONDS);
     }
   }
 
@@ -1821,9 +1867,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
 
         UpdateRequestProcessorChain processorChain = req.getCore().getUpdateProcessingChain(null);
         UpdateRequestProcessor proc = processorChain.createProcessor(req, rsp);
-        OrderedExecutor executor = inSortedOrder ? null : req.getCore().getCoreContainer().getReplayUpdatesExecutor();
-        AtomicInteger pendingTasks = new AtomicInteger(0);
         AtomicReference<SolrException> exceptionOnExecuteUpdate = new AtomicReference<>();
+        ReplayLanes lanes = inSortedOrder ? null : new ReplayLanes(req.getCore().getCoreContainer(), proc, exceptionOnExecuteUpdate);
 
         long commitVersion = 0;
         int operationAndFlags = 0;
@@ -1856,9 +1901,11 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
               if (!finishing) {
                 // about to block all the updates including the tasks in the executor
                 // therefore we must wait for them to be finished
-                waitForAllUpdatesGetExecuted(pendingTasks);
+                if (lanes != null) {
+                  lanes.waitForAll();
+                }
                 // from this point, remain updates will be executed in a single thread
-                executor = null;
+                lanes = null;
                 // block to prevent new adds, but don't immediately unlock since
                 // we could be starved from ever completing recovery.  Only unlock
                 // after we've finished this recovery.
@@ -1901,7 +1948,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
                 AddUpdateCommand cmd = convertTlogEntryToAddUpdateCommand(req, entry, oper, version);
                 cmd.setFlags(UpdateCommand.REPLAY | UpdateCommand.IGNORE_AUTOCOMMIT);
                 if (debug) log.debug("{} {}", oper == ADD ? "add" : "update", cmd);
-                execute(cmd, executor, pendingTasks, proc, exceptionOnExecuteUpdate);
+                execute(cmd, lanes, proc);
                 break;
               }
               case UpdateLog.DELETE: {
@@ -1912,7 +1959,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
                 cmd.setVersion(version);
                 cmd.setFlags(UpdateCommand.REPLAY | UpdateCommand.IGNORE_AUTOCOMMIT);
                 if (debug) log.debug("delete {}", cmd);
-                execute(cmd, executor, pendingTasks, proc, exceptionOnExecuteUpdate);
+                execute(cmd, lanes, proc);
                 break;
               }
 
@@ -1924,9 +1971,12 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
                 cmd.setVersion(version);
                 cmd.setFlags(UpdateCommand.REPLAY | UpdateCommand.IGNORE_AUTOCOMMIT);
                 if (debug) log.debug("deleteByQuery {}", cmd);
-                waitForAllUpdatesGetExecuted(pendingTasks);
+                // a DBQ applies to the updates before it, in any lane
+                if (lanes != null) {
+                  lanes.waitForAll();
+                }
                 // DBQ will be executed in the same thread
-                execute(cmd, null, pendingTasks, proc, exceptionOnExecuteUpdate);
+                execute(cmd, null, proc);
                 break;
               }
               case UpdateLog.COMMIT: {
@@ -1961,7 +2011,9 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
           assert TestInjection.injectUpdateLogReplayRandomPause();
         }
 
-        waitForAllUpdatesGetExecuted(pendingTasks);
+        if (lanes != null) {
+          lanes.waitForAll();
+        }
         if (exceptionOnExecuteUpdate.get() != null) throw exceptionOnExecuteUpdate.get();
 
         CommitUpdateCommand cmd = new CommitUpdateCommand(req, false);
@@ -1998,22 +2050,6 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       }
     }
 
-    private void waitForAllUpdatesGetExecuted(AtomicInteger pendingTasks) {
-      TimeOut timeOut = new TimeOut(Integer.MAX_VALUE, TimeUnit.MILLISECONDS, TimeSource.CURRENT_TIME);
-      try {
-        timeOut.waitFor("Timeout waiting for replay updates finish", () -> {
-          //TODO handle the case when there are no progress after a long time
-          return pendingTasks.get() == 0;
-        });
-      } catch (TimeoutException e) {
-        throw new SolrException(ErrorCode.SERVER_ERROR, e);
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-        throw new SolrException(ErrorCode.SERVER_ERROR, e);
-      }
-
-    }
-
     private Integer getBucketHash(UpdateCommand cmd) {
       if (cmd instanceof AddUpdateCommand) {
         BytesRef idBytes = ((AddUpdateCommand)cmd).getIndexedId();
@@ -2030,60 +2066,129 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       return null;
     }
 
-    private void execute(UpdateCommand cmd, OrderedExecutor executor,
-                         AtomicInteger pendingTasks, UpdateRequestProcessor proc,
-                         AtomicReference<SolrException> exceptionHolder) {
+    private void execute(UpdateCommand cmd, ReplayLanes lanes, UpdateRequestProcessor proc) {
       assert cmd instanceof AddUpdateCommand || cmd instanceof DeleteUpdateCommand;
 
-      if (executor != null) {
-        // by using the same hash as DUP, independent updates can avoid waiting for same bucket
-        executor.execute(getBucketHash(cmd), () -> {
-          try {
-            // fail fast
-            if (exceptionHolder.get() != null) return;
-            if (cmd instanceof AddUpdateCommand) {
-              proc.processAdd((AddUpdateCommand) cmd);
-            } else {
-              proc.processDelete((DeleteUpdateCommand) cmd);
-            }
-          } catch (IOException e) {
-            recoveryInfo.errors++;
-            loglog.warn("REPLAY_ERR: IOException reading log", e);
-            // could be caused by an incomplete flush if recovering from log
-          } catch (SolrException e) {
-            if (e.code() == ErrorCode.SERVICE_UNAVAILABLE.code) {
-              exceptionHolder.compareAndSet(null, e);
-              return;
-            }
-            recoveryInfo.errors++;
-            loglog.warn("REPLAY_ERR: IOException reading log", e);
-          } finally {
-            pendingTasks.decrementAndGet();
-          }
-        });
-        pendingTasks.incrementAndGet();
+      Integer hash = lanes == null ? null : getBucketHash(cmd);
+      if (hash != null) {
+        lanes.add(hash, cmd);
       } else {
+        apply(cmd, proc);
+      }
+    }
+
+    private void apply(UpdateCommand cmd, UpdateRequestProcessor proc) {
+      try {
+        if (cmd instanceof AddUpdateCommand) {
+          proc.processAdd((AddUpdateCommand) cmd);
+        } else {
+          proc.processDelete((DeleteUpdateCommand) cmd);
+        }
+      } catch (IOException e) {
+        recoveryInfo.errors++;
+        loglog.warn("REPLAY_ERR: IOException replaying log", e);
+        // could be caused by an incomplete flush if recovering from log
+      } catch (SolrException e) {
+        if (e.code() == ErrorCode.SERVICE_UNAVAILABLE.code) {
+          throw e;
+        }
+        recoveryInfo.errors++;
+        loglog.warn("REPLAY_ERR: IOException replaying log", e);
+      }
+    }
+
+    /**
+     * Applies updates concurrently in lanes, one per replay thread.  Each update goes to the lane of the hash of
+     * its id, and a lane applies its updates in batches, one batch at a time and in the order they were read, so
+     * all the updates of an id are applied in log order.
+     */
+    private class ReplayLanes {
+      private static final int BATCH_SIZE = 100;
+
+      private final OrderedExecutor executor;
+      private final UpdateRequestProcessor proc;
+      private final AtomicReference<SolrException> exceptionHolder;
+      private final List<List<UpdateCommand>> batches;
+      // the lock ids of the lanes in the executor, which is shared by all the cores
+      private final int firstLockId = System.identityHashCode(this);
+      private int pendingBatches;  // guarded by this
+
+      ReplayLanes(CoreContainer cc, UpdateRequestProcessor proc, AtomicReference<SolrException> exceptionHolder) {
+        this.executor = cc.getReplayUpdatesExecutor();
+        this.proc = proc;
+        this.exceptionHolder = exceptionHolder;
+        int lanes = Math.max(1, cc.getConfig().getReplayUpdatesThreads());
+        this.batches = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+          batches.add(new ArrayList<>(BATCH_SIZE));
+        }
+      }
+
+      void add(int hash, UpdateCommand cmd) {
+        int lane = Math.floorMod(hash, batches.size());
+        List<UpdateCommand> batch = batches.get(lane);
+        batch.add(cmd);
+        replayPendingOps.incrementAndGet();
+        if (batch.size() >= BATCH_SIZE) {
+          submit(lane);
+        }
+      }
+
+      private void submit(int lane) {
+        List<UpdateCommand> batch = batches.set(lane, new ArrayList<>(BATCH_SIZE));
+        synchronized (this) {
+          pendingBatches++;
+        }
         try {
-          if (cmd instanceof AddUpdateCommand) {
-            proc.processAdd((AddUpdateCommand) cmd);
-          } else {
-            proc.processDelete((DeleteUpdateCommand) cmd);
+          // blocks until the previous batch of the lane is applied
+          executor.execute(firstLockId + lane, () -> {
+            try {
+              for (UpdateCommand cmd : batch) {
+                // fail fast
+                if (exceptionHolder.get() != null) break;
+                try {
+                  apply(cmd, proc);
+                } catch (SolrException e) {
+                  exceptionHolder.compareAndSet(null, e);
+                }
+              }
+            } finally {
+              replayPendingOps.addAndGet(-batch.size());
+              batchDone();
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          replayPendingOps.addAndGet(-batch.size());
+          batchDone();
+          throw new SolrException(ErrorCode.SERVICE_UNAVAILABLE, "Replay executor is shut down", e);
+        }
+      }
+
+      private synchronized void batchDone() {
+        if (--pendingBatches == 0) {
+          notifyAll();
+        }
+      }
+
+      /** Applies the updates added so far, and waits until they are applied. */
+      void waitForAll() {
+        for (int lane = 0; lane < batches.size(); lane++) {
+          if (!batches.get(lane).isEmpty()) {
+            submit(lane);
           }
-        } catch (IOException e) {
-          recoveryInfo.errors++;
-          loglog.warn("REPLAY_ERR: IOException replaying log", e);
-          // could be caused by an incomplete flush if recovering from log
-        } catch (SolrException e) {
-          if (e.code() == ErrorCode.SERVICE_UNAVAILABLE.code) {
-            throw e;
+        }
+        synchronized (this) {
+          try {
+            while (pendingBatches > 0) {
+              wait();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SolrException(ErrorCode.SERVER_ERROR, e);
           }
-          recoveryInfo.errors++;
-          loglog.warn("REPLAY_ERR: IOException replaying log", e);
         }
       }
     }
-
-
   }
 
   /**
@@ -18,6 +18,8 @@ package org.apache.solr.update;
 
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 // TODO: make inner?
 // TODO: store the highest possible in the index on a commit (but how to not block adds?)
@@ -29,13 +31,76 @@ import java.util.concurrent.TimeUnit;
  * It uses less memory but ignores the <code>lockTimeoutMs</code>.
  */
 public class VersionBucket {
-  public long highest;
+  private static final AtomicLongFieldUpdater<VersionBucket> HIGHEST =
+      AtomicLongFieldUpdater.newUpdater(VersionBucket.class, "highest");
+  private static final AtomicIntegerFieldUpdater<VersionBucket> LOCKERS =
+      AtomicIntegerFieldUpdater.newUpdater(VersionBucket.class, "lockers");
+
+  /**
+   * The highest version seen in this bucket, or 0 if unknown.  It may be read without holding the lock,
+   * and is only ever raised, with compare-and-set, so concurrent updates never lose a higher version.
+   */
+  public volatile long highest;
+
+  // the number of threads holding or waiting for the lock
+  private volatile int lockers;
+  // only written while holding the lock
+  private long lockCount;
+  private long contendedLockCount;
 
   public void updateHighest(long val) {
-    if (highest != 0) {
-      highest = Math.max(highest, Math.abs(val));
+    long abs = Math.abs(val);
+    long current;
+    while ((current = highest) != 0 && current < abs) {
+      if (HIGHEST.compareAndSet(this, current, abs)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Raises the highest version of this bucket to <code>val</code> if it is lower, even if it is unknown.
+   */
+  public void seedHighest(long val) {
+    long current;
+    while ((current = highest) < val) {
+      if (HIGHEST.compareAndSet(this, current, val)) {
+        return;
+      }
+    }
+  }
+
+  /** The number of times the lock of this bucket was acquired. */
+  public long getLockCount() {
+    return lockCount;
+  }
+
+  /** The number of times the lock of this bucket was acquired while another thread held or waited for it. */
+  public long getContendedLockCount() {
+    return contendedLockCount;
+  }
+
+  /**
+   * Registers the current thread as a holder or waiter of the lock, which must be followed by
+   * {@link #lockAcquired(boolean)} once the lock is held and by {@link #endLock()} in any case.
+   *
+   * @return whether other threads held or waited for the lock
+   */
+  protected final boolean beginLock() {
+    return LOCKERS.getAndIncrement(this) > 0;
+  }
+
+  /** Counts an acquisition of the lock; must be called while holding it. */
+  protected final void lockAcquired(boolean contended) {
+    lockCount++;
+    if (contended) {
+      contendedLockCount++;
     }
   }
+
+  protected final void endLock() {
+    LOCKERS.decrementAndGet(this);
+  }
   
   @FunctionalInterface
   public interface CheckedFunction<T, R> {
@@ -46,8 +111,14 @@ public class VersionBucket {
    * This will run the function with the intrinsic object monitor.
    */
   public <T, R> R runWithLock(int lockTimeoutMs, CheckedFunction<T, R> function) throws IOException {
-    synchronized (this) {
-      return function.apply();
+    boolean contended = beginLock();
+    try {
+      synchronized (this) {
+        lockAcquired(contended);
+        return function.apply();
+      }
+    } finally {
+      endLock();
     }
   }
 
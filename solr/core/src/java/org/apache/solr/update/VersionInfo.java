@@ -18,7 +18,13 @@ package org.apache.solr.update;
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -161,32 +167,22 @@ public class VersionInfo {
   // that times are somewhat synchronized in the cluster).
   // Good if we want to relax some constraints to scale down to where only one node may be
   // up at a time.  Possibly harder to detect missing messages (because versions are not contiguous).
-  private long vclock;
-  private final Object clockSync = new Object();
+  // The clock is advanced with compare-and-set rather than under a lock since every add and delete on the
+  // leader asks for a new version.
+  private final AtomicLong vclock = new AtomicLong();
 
   @SuppressForbidden(reason = "need currentTimeMillis just for getting realistic version stamps, does not assume monotonicity")
   public long getNewClock() {
-    synchronized (clockSync) {
-      long time = System.currentTimeMillis();
-      long result = time << 20;
-      if (result <= vclock) {
-        result = vclock + 1;
-      }
-      vclock = result;
-      return vclock;
-    }
+    long time = System.currentTimeMillis();
+    return vclock.accumulateAndGet(time << 20, (prev, result) -> result <= prev ? prev + 1 : result);
   }
 
   public long getOldClock() {
-    synchronized (clockSync) {
-      return vclock;
-    }
+    return vclock.get();
   }
 
   public void updateClock(long clock) {
-    synchronized (clockSync) {
-      vclock = Math.max(vclock, clock);
-    }
+    vclock.accumulateAndGet(clock, Math::max);
   }
 
 
@@ -272,12 +268,49 @@ public class VersionInfo {
 
   public void seedBucketsWithHighestVersion(long highestVersion) {
     for (int i=0; i<buckets.length; i++) {
-      // should not happen, but in case other threads are calling updateHighest on the version bucket
-      synchronized (buckets[i]) {
-        if (buckets[i].highest < highestVersion)
-          buckets[i].highest = highestVersion;
+      // safe even if other threads are calling updateHighest on the version bucket
+      buckets[i].seedHighest(highestVersion);
+    }
+  }
+
+  /**
+   * Returns the lock statistics of the version buckets: the total number of lock acquisitions
+   * (<code>locks</code>), how many of them had to wait for or share the lock with another thread
+   * (<code>contendedLocks</code>), and the <code>contendedLocks</code> of the
+   * <code>maxBuckets</code> most contended buckets by bucket index (<code>hottestBuckets</code>).
+   * The counts are read without locking, so they are approximate while updates are running.
+   */
+  public Map<String, Object> getBucketLockStats(int maxBuckets) {
+    long locks = 0;
+    long contendedLocks = 0;
+    // (bucket index, contended locks) pairs, smallest count first
+    PriorityQueue<long[]> hottest = new PriorityQueue<>(Math.max(1, maxBuckets), Comparator.comparingLong(e -> e[1]));
+    for (int i = 0; i < buckets.length; i++) {
+      VersionBucket bucket = buckets[i];
+      locks += bucket.getLockCount();
+      long contended = bucket.getContendedLockCount();
+      contendedLocks += contended;
+      if (contended > 0 && maxBuckets > 0) {
+        if (hottest.size() < maxBuckets) {
+          hottest.add(new long[] {i, contended});
+        } else if (hottest.peek()[1] < contended) {
+          hottest.poll();
+          hottest.add(new long[] {i, contended});
+        }
       }
     }
+    List<long[]> sorted = new ArrayList<>(hottest);
+    sorted.sort(Comparator.comparingLong((long[] e) -> e[1]).reversed());
+    Map<String, Long> hottestBuckets = new LinkedHashMap<>();
+    for (long[] e : sorted) {
+      hottestBuckets.put(Long.toString(e[0]), e[1]);
+    }
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("buckets", buckets.length);
+    stats.put("locks", locks);
+    stats.put("contendedLocks", contendedLocks);
+    stats.put("hottestBuckets", hottestBuckets);
+    return stats;
   }
 
   private long getMaxVersionFromIndexedTerms(IndexSearcher searcher) throws IOException {
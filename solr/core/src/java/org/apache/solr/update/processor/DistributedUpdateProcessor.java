@@ -545,7 +545,13 @@ public class DistributedUpdateProcessor extends UpdateRequestProcessor {
 
     vinfo.lockForUpdate();
     try {
-      lastFoundVersion = bucket.runWithLock(vinfo.getVersionBucketLockTimeoutMs(), () -> doWaitForDependentUpdates(cmd, versionOnUpdate, isReplayOrPeersync, bucket, waitTimeout));
+      // usually the dependent update has already been applied, and we don't need the bucket lock to know that:
+      // the version is checked again with the lock held when this update is added
+      Long lookedUpVersion = vinfo.lookupVersion(cmd.getIndexedId());
+      lastFoundVersion = lookedUpVersion == null ? 0L : lookedUpVersion;
+      if (Math.abs(lastFoundVersion) < cmd.prevVersion) {
+        lastFoundVersion = bucket.runWithLock(vinfo.getVersionBucketLockTimeoutMs(), () -> doWaitForDependentUpdates(cmd, versionOnUpdate, isReplayOrPeersync, bucket, waitTimeout));
+      }
     } finally {
       vinfo.unlockForUpdate();
     }
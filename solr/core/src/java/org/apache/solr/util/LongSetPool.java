@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.util;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import com.carrotsearch.hppc.BitMixer;
+import com.carrotsearch.hppc.IntArrayList;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A fixed number of small sets of longs, each an open addressing hash table in shared pages of longs rather than
+ * an object of its own.  A set grows by moving to a table twice as large, and the tables left by grown or cleared
+ * sets are reused by the next sets that need a table of the same capacity.
+ * <p>
+ * This is meant for the per-slot sets of facet accumulators, which may have millions of slots that mostly hold
+ * a handful of values.  A set can hold up to {@link #MAX_SET_SIZE} values.
+ * </p>
+ */
+public final class LongSetPool implements Accountable {
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(LongSetPool.class);
+
+  private static final int PAGE_SHIFT = 16;
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+  private static final int MIN_CAPACITY_LOG = 2;
+
+  /** The maximum number of values of a set, which fill three quarters of a page */
+  public static final int MAX_SET_SIZE = PAGE_SIZE / 4 * 3;
+
+  private long[][] pages = new long[0][];
+  private int allocated; // the offset of the end of the allocated tables
+  private final IntArrayList[] freeTables = new IntArrayList[PAGE_SHIFT + 1]; // by the log2 of their capacity
+
+  // per set: the offset of its table in the pages or -1, its size and the log2 of the capacity of its table
+  private int[] offsets;
+  private int[] sizes;
+  private byte[] capacityLogs;
+  // 0 marks the empty entries of the tables, so whether a set holds 0 is kept on the side
+  private boolean[] hasZero;
+
+  public LongSetPool(int numSets) {
+    offsets = new int[numSets];
+    Arrays.fill(offsets, -1);
+    sizes = new int[numSets];
+    capacityLogs = new byte[numSets];
+    hasZero = new boolean[numSets];
+  }
+
+  /** Adds <code>value</code> to a set, and returns true if it wasn't already in the set. */
+  public boolean add(int set, long value) {
+    if (value == 0) {
+      if (hasZero[set]) {
+        return false;
+      }
+      hasZero[set] = true;
+      sizes[set]++;
+      return true;
+    }
+    if (offsets[set] < 0) {
+      capacityLogs[set] = MIN_CAPACITY_LOG;
+      offsets[set] = allocate(MIN_CAPACITY_LOG);
+    }
+    final int offset = offsets[set];
+    final long[] page = pages[offset >>> PAGE_SHIFT];
+    final int base = offset & PAGE_MASK;
+    final int mask = (1 << capacityLogs[set]) - 1;
+    int i = hash(value) & mask;
+    for (long v; (v = page[base + i]) != 0; i = (i + 1) & mask) {
+      if (v == value) {
+        return false;
+      }
+    }
+
+    final int tableSize = sizes[set] - (hasZero[set] ? 1 : 0);
+    if ((tableSize + 1) * 4L > (mask + 1) * 3L) {
+      grow(set);
+      insert(set, value);
+    } else {
+      page[base + i] = value;
+    }
+    sizes[set]++;
+    return true;
+  }
+
+  public boolean contains(int set, long value) {
+    if (value == 0) {
+      return hasZero[set];
+    }
+    final int offset = offsets[set];
+    if (offset < 0) {
+      return false;
+    }
+    final long[] page = pages[offset >>> PAGE_SHIFT];
+    final int base = offset & PAGE_MASK;
+    final int mask = (1 << capacityLogs[set]) - 1;
+    for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+      final long v = page[base + i];
+      if (v == value) {
+        return true;
+      } else if (v == 0) {
+        return false;
+      }
+    }
+  }
+
+  public int size(int set) {
+    return sizes[set];
+  }
+
+  public int numSets() {
+    return sizes.length;
+  }
+
+  /** Returns the values of a set, in no particular order. */
+  public long[] values(int set) {
+    final long[] values = new long[sizes[set]];
+    int n = 0;
+    if (hasZero[set]) {
+      values[n++] = 0;
+    }
+    final int offset = offsets[set];
+    if (offset >= 0) {
+      final long[] page = pages[offset >>> PAGE_SHIFT];
+      final int base = offset & PAGE_MASK;
+      for (int i = base, end = base + (1 << capacityLogs[set]); i < end; i++) {
+        if (page[i] != 0) {
+          values[n++] = page[i];
+        }
+      }
+    }
+    assert n == values.length;
+    return values;
+  }
+
+  /** Empties a set, and frees its table for other sets. */
+  public void clear(int set) {
+    if (offsets[set] >= 0) {
+      release(offsets[set], capacityLogs[set]);
+      offsets[set] = -1;
+    }
+    sizes[set] = 0;
+    hasZero[set] = false;
+  }
+
+  /** Empties all sets, keeping the pages for the sets added next. */
+  public void clear() {
+    for (long[] page : pages) {
+      if (page != null) {
+        Arrays.fill(page, 0L);
+      }
+    }
+    allocated = 0;
+    Arrays.fill(freeTables, null);
+    Arrays.fill(offsets, -1);
+    Arrays.fill(sizes, 0);
+    Arrays.fill(hasZero, false);
+  }
+
+  /**
+   * Changes the number of sets to <code>numSets</code>, moving each set to the index returned by
+   * <code>newSet</code> or dropping it if that is negative.  The values of the sets are not copied.
+   */
+  public void resize(int numSets, IntUnaryOperator newSet) {
+    final int[] newOffsets = new int[numSets];
+    Arrays.fill(newOffsets, -1);
+    final int[] newSizes = new int[numSets];
+    final byte[] newCapacityLogs = new byte[numSets];
+    final boolean[] newHasZero = new boolean[numSets];
+    for (int set = 0; set < sizes.length; set++) {
+      final int target = newSet.applyAsInt(set);
+      if (target < 0) {
+        clear(set);
+        continue;
+      }
+      newOffsets[target] = offsets[set];
+      newSizes[target] = sizes[set];
+      newCapacityLogs[target] = capacityLogs[set];
+      newHasZero[target] = hasZero[set];
+    }
+    offsets = newOffsets;
+    sizes = newSizes;
+    capacityLogs = newCapacityLogs;
+    hasZero = newHasZero;
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    long bytes = BASE_RAM_BYTES_USED
+        + RamUsageEstimator.sizeOf(offsets)
+        + RamUsageEstimator.sizeOf(sizes)
+        + RamUsageEstimator.sizeOf(capacityLogs)
+        + RamUsageEstimator.sizeOf(hasZero)
+        + RamUsageEstimator.shallowSizeOf(pages)
+        + RamUsageEstimator.shallowSizeOf(freeTables);
+    for (long[] page : pages) {
+      if (page != null) {
+        bytes += RamUsageEstimator.sizeOf(page);
+      }
+    }
+    for (IntArrayList free : freeTables) {
+      if (free != null) {
+        bytes += RamUsageEstimator.sizeOf(free.buffer);
+      }
+    }
+    return bytes;
+  }
+
+  private static int hash(long value) {
+    return (int) BitMixer.mix64(value);
+  }
+
+  /** Inserts a value that isn't in the set, which must have room for it. */
+  private void insert(int set, long value) {
+    final int offset = offsets[set];
+    final long[] page = pages[offset >>> PAGE_SHIFT];
+    final int base = offset & PAGE_MASK;
+    final int mask = (1 << capacityLogs[set]) - 1;
+    int i = hash(value) & mask;
+    while (page[base + i] != 0) {
+      i = (i + 1) & mask;
+    }
+    page[base + i] = value;
+  }
+
+  private void grow(int set) {
+    final int oldOffset = offsets[set];
+    final int oldCapacityLog = capacityLogs[set];
+    if (oldCapacityLog == PAGE_SHIFT) {
+      throw new IllegalStateException("A set can't hold more than " + MAX_SET_SIZE + " values");
+    }
+    capacityLogs[set] = (byte) (oldCapacityLog + 1);
+    offsets[set] = allocate(oldCapacityLog + 1);
+
+    final long[] oldPage = pages[oldOffset >>> PAGE_SHIFT];
+    final int oldBase = oldOffset & PAGE_MASK;
+    for (int i = oldBase, end = oldBase + (1 << oldCapacityLog); i < end; i++) {
+      if (oldPage[i] != 0) {
+        insert(set, oldPage[i]);
+      }
+    }
+    release(oldOffset, oldCapacityLog);
+  }
+
+  /** Returns the offset of an empty table with a capacity of 2^capacityLog. */
+  private int allocate(int capacityLog) {
+    final IntArrayList free = freeTables[capacityLog];
+    if (free != null && !free.isEmpty()) {
+      return free.remove(free.size() - 1);
+    }
+    final int capacity = 1 << capacityLog;
+    // aligned on their power of two capacity, tables never cross a page
+    final long offset = (allocated + capacity - 1L) & -capacity;
+    if (offset + capacity > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Too many values in the sets");
+    }
+    final int page = (int) (offset >>> PAGE_SHIFT);
+    if (page >= pages.length) {
+      pages = ArrayUtil.grow(pages, page + 1);
+    }
+    if (pages[page] == null) {
+      pages[page] = new long[PAGE_SIZE];
+    }
+    allocated = (int) offset + capacity;
+    return (int) offset;
+  }
+
+  private void release(int offset, int capacityLog) {
+    final int base = offset & PAGE_MASK;
+    Arrays.fill(pages[offset >>> PAGE_SHIFT], base, base + (1 << capacityLog), 0L);
+    IntArrayList free = freeTables[capacityLog];
+    if (free == null) {
+      free = freeTables[capacityLog] = new IntArrayList();
+    }
+    free.add(offset);
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.util.hll;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import com.carrotsearch.hppc.IntArrayList;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.util.LongSetPool;
+
+/**
+ * A fixed number of {@link HLL}s with the same parameters, kept in pooled arrays rather than one object each.
+ * Like an HLL with an automatic explicit threshold and no sparse representation, each starts out as the
+ * {@link HLLType#EXPLICIT} set of its values, in a shared {@link LongSetPool}, and is promoted to
+ * {@link HLLType#FULL} registers past the threshold.  The registers of all full HLLs are one byte each, in
+ * shared pages.
+ * <p>
+ * {@link #cardinality(int)} and {@link #toHLL(int)} return exactly what an {@link HLL} that was given the same
+ * values would.
+ * </p>
+ */
+public final class HLLArray implements Accountable {
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(HLLArray.class);
+    private static final int PAGE_BYTES = 1 << 20;
+
+    private final int log2m;
+    private final int regwidth;
+    private final int m;
+    private final int mBitsMask;
+    private final long pwMaxMask;
+    private final double alphaMSquared;
+    private final double smallEstimatorCutoff;
+    private final double largeEstimatorCutoff;
+    private final int explicitThreshold;
+
+    private final LongSetPool explicitStorage;
+
+    // the registers of the FULL HLLs, by region of m bytes
+    private final int regionsPerPage;
+    private byte[][] registerPages = new byte[0][];
+    private int numRegions;
+    private final IntArrayList freeRegions = new IntArrayList();
+    // the region of each HLL, or -1 if it isn't FULL
+    private int[] regions;
+
+    /**
+     * @param log2m log-base-2 of the number of registers of each HLL
+     * @param regwidth number of bits used per register
+     * @param size the number of HLLs
+     */
+    public HLLArray(final int log2m, final int regwidth, final int size) {
+        if((log2m < HLL.MINIMUM_LOG2M_PARAM) || (log2m > HLL.MAXIMUM_LOG2M_PARAM)) {
+            throw new IllegalArgumentException("'log2m' must be at least " + HLL.MINIMUM_LOG2M_PARAM + " and at most " + HLL.MAXIMUM_LOG2M_PARAM + " (was: " + log2m + ")");
+        }
+        if((regwidth < HLL.MINIMUM_REGWIDTH_PARAM) || (regwidth > HLL.MAXIMUM_REGWIDTH_PARAM)) {
+            throw new IllegalArgumentException("'regwidth' must be at least " + HLL.MINIMUM_REGWIDTH_PARAM + " and at most " + HLL.MAXIMUM_REGWIDTH_PARAM + " (was: " + regwidth + ")");
+        }
+        this.log2m = log2m;
+        this.regwidth = regwidth;
+        this.m = (1 << log2m);
+        this.mBitsMask = m - 1;
+        this.pwMaxMask = HLLUtil.pwMaxMask(regwidth);
+        this.alphaMSquared = HLLUtil.alphaMSquared(m);
+        this.smallEstimatorCutoff = HLLUtil.smallEstimatorCutoff(m);
+        this.largeEstimatorCutoff = HLLUtil.largeEstimatorCutoff(log2m, regwidth);
+
+        // NOTE:  same as the automatic threshold of HLL, within what a pooled set can hold
+        final long fullRepresentationSize = (this.regwidth * (long)this.m + 7/*round up to next whole byte*/)/Byte.SIZE;
+        final int numLongs = (int)(fullRepresentationSize / 8/*integer division to round down*/);
+        this.explicitThreshold = Math.min(Math.min(numLongs, HLL.MAXIMUM_EXPLICIT_THRESHOLD), LongSetPool.MAX_SET_SIZE);
+
+        this.explicitStorage = new LongSetPool(size);
+        this.regionsPerPage = Math.max(1, PAGE_BYTES / m);
+        this.regions = new int[size];
+        Arrays.fill(regions, -1);
+    }
+
+    public int size() {
+        return regions.length;
+    }
+
+    /**
+     * Adds <code>rawValue</code> to the HLL at <code>index</code>.
+     *
+     * @see HLL#addRaw(long)
+     */
+    public void addRaw(final int index, final long rawValue) {
+        int region = regions[index];
+        if (region < 0) {
+            if ((explicitStorage.size(index) < explicitThreshold) || explicitStorage.contains(index, rawValue)) {
+                explicitStorage.add(index, rawValue);
+                return;
+            }
+            // promotion
+            region = regions[index] = allocateRegion();
+            for (final long value : explicitStorage.values(index)) {
+                addRawProbabilistic(region, value);
+            }
+            explicitStorage.clear(index);
+        }
+        addRawProbabilistic(region, rawValue);
+    }
+
+    public boolean isEmpty(final int index) {
+        return regions[index] < 0 && explicitStorage.size(index) == 0;
+    }
+
+    /**
+     * @return the cardinality of the HLL at <code>index</code>.
+     * @see HLL#cardinality()
+     */
+    public long cardinality(final int index) {
+        final int region = regions[index];
+        if (region < 0) {
+            return explicitStorage.size(index);
+        }
+        final byte[] page = registerPages[region / regionsPerPage];
+        final int base = (region % regionsPerPage) * m;
+
+        // NOTE:  same computation as HLL#fullProbabilisticAlgorithmCardinality()
+        double sum = 0;
+        int numberOfZeroes = 0/*"V" in the paper*/;
+        for(int j=0; j<m; j++) {
+            final long register = page[base + j];
+
+            sum += 1.0 / (1L << register);
+            if(register == 0L) numberOfZeroes++;
+        }
+
+        final double estimator = alphaMSquared / sum;
+        final double cardinality;
+        if((numberOfZeroes != 0) && (estimator < smallEstimatorCutoff)) {
+            cardinality = HLLUtil.smallEstimator(m, numberOfZeroes);
+        } else if(estimator <= largeEstimatorCutoff) {
+            cardinality = estimator;
+        } else {
+            cardinality = HLLUtil.largeEstimator(log2m, regwidth, estimator);
+        }
+        return (long)Math.ceil(cardinality);
+    }
+
+    /**
+     * @return a new {@link HLL} with the values of the HLL at <code>index</code>, as created by
+     *         <code>new HLL(log2m, regwidth, -1, false, HLLType.EMPTY)</code>.
+     */
+    public HLL toHLL(final int index) {
+        final int region = regions[index];
+        if (region < 0) {
+            final HLL hll = new HLL(log2m, regwidth, -1, false, HLLType.EMPTY);
+            for (final long value : explicitStorage.values(index)) {
+                hll.addRaw(value);
+            }
+            return hll;
+        }
+        final HLL hll = new HLL(log2m, regwidth, -1, false, HLLType.FULL);
+        final byte[] page = registerPages[region / regionsPerPage];
+        final int base = (region % regionsPerPage) * m;
+        for(int j=0; j<m; j++) {
+            if (page[base + j] != 0) {
+                hll.probabilisticStorage.setRegister(j, page[base + j]);
+            }
+        }
+        return hll;
+    }
+
+    /** Empties all the HLLs, keeping their storage for the values added next. */
+    public void clear() {
+        explicitStorage.clear();
+        Arrays.fill(regions, -1);
+        numRegions = 0;
+        freeRegions.clear();
+    }
+
+    /**
+     * Changes the number of HLLs to <code>size</code>, moving each HLL to the index returned by
+     * <code>newIndex</code> or dropping it if that is negative.  The values of the HLLs are not copied.
+     */
+    public void resize(final int size, final IntUnaryOperator newIndex) {
+        explicitStorage.resize(size, newIndex);
+        final int[] newRegions = new int[size];
+        Arrays.fill(newRegions, -1);
+        for (int index = 0; index < regions.length; index++) {
+            if (regions[index] < 0) continue;
+            final int target = newIndex.applyAsInt(index);
+            if (target < 0) {
+                freeRegions.add(regions[index]);
+            } else {
+                newRegions[target] = regions[index];
+            }
+        }
+        regions = newRegions;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long bytes = BASE_RAM_BYTES_USED
+            + explicitStorage.ramBytesUsed()
+            + RamUsageEstimator.sizeOf(regions)
+            + RamUsageEstimator.sizeOf(freeRegions.buffer)
+            + RamUsageEstimator.shallowSizeOf(registerPages);
+        for (final byte[] page : registerPages) {
+            if (page != null) {
+                bytes += RamUsageEstimator.sizeOf(page);
+            }
+        }
+        return bytes;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sets the register of <code>rawValue</code> in <code>region</code>.
+     *
+     * @see HLL#addRaw(long)
+     */
+    private void addRawProbabilistic(final int region, final long rawValue) {
+        final long substreamValue = (rawValue >>> log2m);
+        if(substreamValue == 0L) {
+            // see HLL#addRawProbabilistic()
+            return;
+        }
+        final byte p_w = (byte)(1 + BitUtil.leastSignificantBit(substreamValue | pwMaxMask));
+        final int j = (int)(rawValue & mBitsMask);
+
+        final byte[] page = registerPages[region / regionsPerPage];
+        final int position = (region % regionsPerPage) * m + j;
+        if (page[position] < p_w) {
+            page[position] = p_w;
+        }
+    }
+
+    /** @return a region of registers that are all zero */
+    private int allocateRegion() {
+        final int region;
+        if (!freeRegions.isEmpty()) {
+            region = freeRegions.remove(freeRegions.size() - 1);
+        } else {
+            region = numRegions++;
+            final int page = region / regionsPerPage;
+            if (page >= registerPages.length) {
+                registerPages = ArrayUtil.grow(registerPages, page + 1);
+            }
+            if (registerPages[page] == null) {
+                registerPages[page] = new byte[regionsPerPage * m];
+            }
+        }
+        final int base = (region % regionsPerPage) * m;
+        Arrays.fill(registerPages[region / regionsPerPage], base, base + m, (byte)0);
+        return region;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.core;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.apache.solr.index.SlowCompositeReaderWrapper;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestOrdinalMapWarmer extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    // the fields only have ordinal maps while the segments of the test stay separate
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterTests() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testWarmsConfiguredAndUsedFields() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_sd", "c" + i, "tags_sds", "t" + i, "tags_sds", "u" + i));
+      assertU(commit());
+    }
+    // builds the map of tags_sds on the current searcher
+    assertJQ(req("q", "*:*", "rows", "0", "json.facet", "{f:{type:terms, field:tags_sds, method:dv}}"),
+        "/facets/f/buckets/[0]/count==1");
+
+    OrdinalMapWarmer warmer = new OrdinalMapWarmer(h.getCore());
+    warmer.init(new NamedList<>(Collections.singletonMap("fields", "cat_sd,missing_sd")));
+
+    RefCounted<SolrIndexSearcher> current = h.getCore().getSearcher();
+    try {
+      assertU(adoc("id", "3", "cat_sd", "c3", "tags_sds", "t3"));
+      assertU(commit());
+      RefCounted<SolrIndexSearcher> newSearcher = h.getCore().getSearcher();
+      try {
+        assertNotSame(current.get(), newSearcher.get());
+        assertEquals(Collections.emptySet(), cachedFields(newSearcher.get()));
+
+        warmer.newSearcher(newSearcher.get(), current.get());
+        assertEquals(Set.of("cat_sd", "tags_sds"), cachedFields(newSearcher.get()));
+      } finally {
+        newSearcher.decref();
+      }
+    } finally {
+      current.decref();
+    }
+  }
+
+  private static Set<String> cachedFields(SolrIndexSearcher searcher) {
+    return ((SlowCompositeReaderWrapper) searcher.getSlowAtomicReader()).getCachedOrdinalMapFields();
+  }
+}
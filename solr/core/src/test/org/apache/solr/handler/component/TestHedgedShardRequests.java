@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.client.solrj.impl.Http2SolrClient;
+import org.apache.solr.client.solrj.impl.LBHttp2SolrClient;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.AsyncListener;
+import org.apache.solr.client.solrj.util.Cancellable;
+import org.apache.solr.cloud.MiniSolrCloudCluster;
+import org.apache.solr.cloud.SolrCloudTestCase;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestHedgedShardRequests extends SolrCloudTestCase {
+
+  private static final String COLLECTION = "hedged";
+  private static final int NUM_DOCS = 50;
+
+  @BeforeClass
+  public static void setupCluster() throws Exception {
+    // hedge (almost) every request once the replicas' latencies are known
+    String solrXml = MiniSolrCloudCluster.DEFAULT_CLOUD_SOLR_XML.replace("<str name=\"urlScheme\">",
+        "<bool name=\"hedgeRequests\">true</bool>\n" +
+        "    <float name=\"hedgePercentile\">1</float>\n" +
+        "    <int name=\"hedgeMinDelayMs\">0</int>\n" +
+        "    <float name=\"hedgeBudget\">1</float>\n" +
+        "    <str name=\"urlScheme\">")
+        .replace("${metricsEnabled:false}", "true"); // the hedges are counted by metrics
+    configureCluster(3)
+        .addConfig("conf", configset("cloud-minimal"))
+        .withSolrXml(solrXml)
+        .configure();
+    CollectionAdminRequest.createCollection(COLLECTION, "conf", 2, 2)
+        .process(cluster.getSolrClient());
+    cluster.waitForActiveCollection(COLLECTION, 2, 4);
+
+    UpdateRequest req = new UpdateRequest();
+    for (int i = 0; i < NUM_DOCS; i++) {
+      SolrInputDocument doc = new SolrInputDocument();
+      doc.addField("id", Integer.toString(i));
+      req.add(doc);
+    }
+    req.commit(cluster.getSolrClient(), COLLECTION);
+  }
+
+  @Test
+  public void testHedgedResponsesMatch() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      SolrQuery query = new SolrQuery("*:*");
+      query.setRows(5);
+      query.setStart(i % 10);
+      query.setSort("id", SolrQuery.ORDER.asc);
+      QueryResponse rsp = cluster.getSolrClient().query(COLLECTION, query);
+      assertEquals(NUM_DOCS, rsp.getResults().getNumFound());
+      assertEquals(5, rsp.getResults().size());
+      List<String> ids = new ArrayList<>();
+      rsp.getResults().forEach(doc -> ids.add((String) doc.getFieldValue("id")));
+      List<String> expected = new ArrayList<>();
+      for (int j = i % 10; expected.size() < 5; j++) {
+        expected.add(idAt(j));
+      }
+      assertEquals(expected, ids);
+    }
+    long before = totalHedges(true);
+    assertTrue("no hedged requests were sent", before > 0);
+
+    // nothing is hedged when the request opts out
+    for (int i = 0; i < 20; i++) {
+      SolrQuery query = new SolrQuery("*:*");
+      query.set(ShardParams.SHARDS_HEDGE, false);
+      assertEquals(NUM_DOCS, cluster.getSolrClient().query(COLLECTION, query).getResults().getNumFound());
+    }
+    assertEquals(before, totalHedges(true));
+    assertTrue(totalHedges(false) <= before);
+  }
+
+  @Test
+  public void testLatencyRouting() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      SolrQuery query = new SolrQuery("*:*");
+      query.set(ShardParams.SHARDS_PREFERENCE, ShardParams.SHARDS_PREFERENCE_REPLICA_BASE + ":" + ShardParams.REPLICA_LATENCY);
+      assertEquals(NUM_DOCS, cluster.getSolrClient().query(COLLECTION, query).getResults().getNumFound());
+    }
+    // the replicas' latencies are reported
+    int replicas = 0;
+    for (JettySolrRunner jetty : cluster.getJettySolrRunners()) {
+      HttpShardHandlerFactory factory = (HttpShardHandlerFactory) jetty.getCoreContainer().getShardHandlerFactory();
+      for (Map.Entry<String, Metric> e : factory.getSolrMetricsContext().getMetricRegistry().getMetrics().entrySet()) {
+        if (e.getKey().endsWith("latency.replicas")) {
+          replicas += ((Map<?, ?>) ((Gauge<?>) e.getValue()).getValue()).size();
+        }
+      }
+    }
+    assertTrue("no replica latencies were reported", replicas > 0);
+  }
+
+  @Test
+  public void testLatencyPercentiles() {
+    ReplicaLatencyTracker tracker = new ReplicaLatencyTracker();
+    for (int i = 1; i < ReplicaLatencyTracker.MIN_SAMPLES; i++) {
+      tracker.record("a", TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(-1, tracker.percentile("a", 50));
+    assertEquals(-1, tracker.percentile("b", 50));
+    tracker.record("a", TimeUnit.MILLISECONDS.toNanos(ReplicaLatencyTracker.MIN_SAMPLES));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(16), tracker.percentile("a", 50));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(31), tracker.percentile("a", 95));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1), tracker.percentile("a", 0));
+
+    // only the most recent latencies count
+    for (int i = 0; i < ReplicaLatencyTracker.SAMPLES; i++) {
+      tracker.record("a", TimeUnit.MILLISECONDS.toNanos(100));
+    }
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), tracker.percentile("a", 0));
+  }
+
+  @Test
+  public void testHedgeBudget() {
+    HttpShardHandlerFactory factory = new HttpShardHandlerFactory();
+    factory.hedgeBudget = 0.5f;
+    factory.hedgeMinDelayMs = 10;
+    for (int i = 0; i < ReplicaLatencyTracker.MIN_SAMPLES; i++) {
+      factory.latencyTracker.record("a", TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    // the minimum delay applies to fast replicas
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(10), factory.hedgeDelayNanos("a"));
+    assertFalse(factory.tryHedge());
+    assertEquals(-1, factory.hedgeDelayNanos("b"));
+    assertTrue(factory.tryHedge());
+    assertFalse(factory.tryHedge());
+    assertEquals(1, factory.hedgesIssued.getCount());
+
+    // no more than a few hedges can be saved up
+    for (int i = 0; i < 1000; i++) {
+      factory.hedgeDelayNanos("a");
+    }
+    int hedges = 0;
+    while (factory.tryHedge()) {
+      hedges++;
+    }
+    assertTrue(hedges < 100);
+  }
+
+  @Test
+  public void testLosingRequestsRecordLatency() throws Exception {
+    final String slow = "http://slow:8983/solr/c";
+    final String fast = "http://fast:8983/solr/c";
+    HttpShardHandlerFactory factory = new HttpShardHandlerFactory();
+    factory.hedgeBudget = 1f;
+    factory.hedgePercentile = 50f;
+    factory.hedgeMinDelayMs = 50;
+    for (int i = 0; i < ReplicaLatencyTracker.MIN_SAMPLES; i++) {
+      factory.latencyTracker.record(slow, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    double ewmaBefore = factory.latencyTracker.ewma(slow);
+    long maxBefore = factory.latencyTracker.percentile(slow, 100);
+
+    try (Http2SolrClient client = new Http2SolrClient.Builder().build()) {
+      // the slow replica never answers, the fast one answers the hedge right away
+      factory.loadbalancer = new LBHttp2SolrClient(client) {
+        @Override
+        public Cancellable asyncReq(Req req, AsyncListener<Rsp> asyncListener) {
+          if (req.getServers().get(0).equals(fast)) {
+            asyncListener.onSuccess(new Rsp() {{
+              server = fast;
+              rsp = new NamedList<>();
+            }});
+          }
+          return () -> {};
+        }
+      };
+      HttpShardHandler handler = new HttpShardHandler(factory);
+      ShardRequest sreq = new ShardRequest();
+      sreq.actualShards = new String[] {slow + "|" + fast};
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.set(ShardParams.IS_SHARD, true);
+      params.set(ShardParams.SHARDS_HEDGE, true);
+      handler.submit(sreq, sreq.actualShards[0], params);
+      ShardResponse rsp = handler.takeCompletedOrError();
+      assertNull(rsp.getException());
+      assertEquals(fast, rsp.getShardAddress());
+    }
+
+    // the slow replica lost after at least the hedge delay, which counts as one of its latencies
+    assertEquals(0, factory.latencyTracker.inFlight(slow));
+    assertTrue(factory.latencyTracker.ewma(slow) > ewmaBefore);
+    assertTrue(factory.latencyTracker.percentile(slow, 100) >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(factory.latencyTracker.percentile(slow, 100) > maxBefore);
+  }
+
+  private static String idAt(int position) {
+    // ids are sorted as strings
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < NUM_DOCS; i++) {
+      ids.add(Integer.toString(i));
+    }
+    ids.sort(null);
+    return ids.get(position);
+  }
+
+  private static long totalHedges(boolean issued) {
+    long total = 0;
+    for (JettySolrRunner jetty : cluster.getJettySolrRunners()) {
+      HttpShardHandlerFactory factory = (HttpShardHandlerFactory) jetty.getCoreContainer().getShardHandlerFactory();
+      total += (issued ? factory.hedgesIssued : factory.hedgesWon).getCount();
+    }
+    return total;
+  }
+}
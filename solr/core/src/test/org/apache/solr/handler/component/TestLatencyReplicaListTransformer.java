@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.client.solrj.routing.ReplicaListTransformer;
+import org.apache.solr.common.cloud.Replica;
+import org.apache.solr.common.cloud.ZkStateReader;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.PluginInfo;
+import org.apache.solr.request.LocalSolrQueryRequest;
+
+public class TestLatencyReplicaListTransformer extends SolrTestCase {
+
+  private static final String A = "http://a:8983/solr/c1_s1_r1";
+  private static final String B = "http://b:8983/solr/c1_s1_r2";
+  private static final String C = "http://c:8983/solr/c1_s1_r3";
+
+  public void testMovingAverage() {
+    ReplicaLatencyTracker tracker = new ReplicaLatencyTracker();
+    assertEquals(-1, tracker.ewma(A), 0);
+    tracker.record(A, 100);
+    assertEquals(100, tracker.ewma(A), 0);
+    tracker.record(A + "/", 200); // the same replica
+    assertEquals(100 + ReplicaLatencyTracker.EWMA_ALPHA * 100, tracker.ewma(A), 0.001);
+    for (int i = 0; i < 100; i++) {
+      tracker.record(A, 1000);
+    }
+    assertEquals(1000, tracker.ewma(A), 1);
+
+    assertEquals(0, tracker.inFlight(B));
+    tracker.started(B);
+    tracker.started(B);
+    tracker.finished(B);
+    assertEquals(1, tracker.inFlight(B));
+    assertEquals(-1, tracker.ewma(B), 0);
+
+    Map<String, Object> metrics = new HashMap<>();
+    tracker.toMap(metrics);
+    assertEquals(0.001, (Double) ((Map<?, ?>) metrics.get(A)).get("ewmaMs"), 0.000001);
+    assertEquals(0, ((Map<?, ?>) metrics.get(A)).get("inFlight"));
+    assertEquals(Map.of("ewmaMs", -1.0, "inFlight", 1), metrics.get(B));
+  }
+
+  public void testPrefersFastAndIdleReplicas() {
+    ReplicaLatencyTracker tracker = new ReplicaLatencyTracker();
+    ReplicaListTransformer rlt = new LatencyReplicaListTransformer(tracker, random());
+    tracker.record(A, TimeUnit.MILLISECONDS.toNanos(10));
+    tracker.record(B, TimeUnit.MILLISECONDS.toNanos(50));
+    tracker.record(C, TimeUnit.MILLISECONDS.toNanos(30));
+    assertEquals(Arrays.asList(A, C, B), transform(rlt, B, A, C));
+
+    // a fast replica busy with requests gets fewer of them: 10 * (1 + 1)^3 = 80
+    tracker.started(A);
+    assertEquals(Arrays.asList(C, B, A), transform(rlt, A, B, C));
+    tracker.finished(A);
+    assertEquals(Arrays.asList(A, C, B), transform(rlt, C, B, A));
+
+    // works on Replicas too
+    List<Replica> replicas = new ArrayList<>(List.of(replica("r1", "a"), replica("r2", "b"), replica("r3", "c")));
+    rlt.transform(replicas);
+    assertEquals("r1", replicas.get(0).getName());
+    assertEquals("r3", replicas.get(1).getName());
+    assertEquals("r2", replicas.get(2).getName());
+  }
+
+  public void testUnknownReplicas() {
+    ReplicaLatencyTracker tracker = new ReplicaLatencyTracker();
+    ReplicaListTransformer rlt = new LatencyReplicaListTransformer(tracker, random());
+    // nothing known: all orders are possible
+    boolean[] firsts = new boolean[3];
+    for (int i = 0; i < 100; i++) {
+      firsts[List.of(A, B, C).indexOf(transform(rlt, A, B, C).get(0))] = true;
+    }
+    assertTrue(firsts[0] && firsts[1] && firsts[2]);
+
+    // a replica that hasn't answered yet counts as the fastest one
+    tracker.record(A, TimeUnit.MILLISECONDS.toNanos(10));
+    tracker.record(B, TimeUnit.MILLISECONDS.toNanos(50));
+    for (int i = 0; i < 20; i++) {
+      assertEquals(B, transform(rlt, A, B, C).get(2));
+    }
+    // ...unless it's busy already: 10 * (1 + 1)^3 = 80
+    tracker.started(C);
+    assertEquals(Arrays.asList(A, B, C), transform(rlt, C, B, A));
+  }
+
+  public void testRouting() {
+    HttpShardHandlerFactory factory = new HttpShardHandlerFactory();
+    NamedList<Object> routing = new NamedList<>();
+    routing.add(ShardParams.REPLICA_LATENCY, new NamedList<>(Map.of("default", true)));
+    NamedList<Object> args = new NamedList<>();
+    args.add("replicaRouting", routing);
+    try {
+      factory.init(new PluginInfo("shardHandlerFactory", Map.of(), args, null));
+      factory.latencyTracker.record(A, 100);
+      factory.latencyTracker.record(B, 300);
+      factory.latencyTracker.record(C, 200);
+      // the default without shards.preference
+      ReplicaListTransformer rlt = factory.getReplicaListTransformer(
+          new LocalSolrQueryRequest(null, new ModifiableSolrParams()));
+      assertEquals(Arrays.asList(A, C, B), transform(rlt, B, C, A));
+    } finally {
+      factory.close();
+    }
+  }
+
+  private static List<String> transform(ReplicaListTransformer rlt, String... urls) {
+    List<String> choices = new ArrayList<>(Arrays.asList(urls));
+    rlt.transform(choices);
+    return choices;
+  }
+
+  private static Replica replica(String name, String host) {
+    return new Replica(name, Map.of(
+        ZkStateReader.NODE_NAME_PROP, host + ":8983_solr",
+        ZkStateReader.BASE_URL_PROP, "http://" + host + ":8983/solr",
+        ZkStateReader.CORE_NAME_PROP, "c1_s1_" + name,
+        ZkStateReader.REPLICA_TYPE, "NRT"), "c1", "s1");
+  }
+}
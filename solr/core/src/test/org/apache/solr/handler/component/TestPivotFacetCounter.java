@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.Utils;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.facet.SegmentedIndexTestCase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the pivots counted by {@link PivotFacetCounter} on docValues fields match the pivots computed
+ * level by level on the same values in fields without docValues.
+ */
+public class TestPivotFacetCounter extends SegmentedIndexTestCase {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    initSegmentedIndex(atLeast(300), 100, () -> {
+      List<String> fields = new ArrayList<>();
+      if (random().nextInt(8) > 0) {
+        String a = "a" + random().nextInt(12);
+        fields.add("a_s"); fields.add(a);
+        fields.add("a_sd"); fields.add(a);
+      }
+      for (int j = random().nextInt(4); j > 0; j--) {
+        String b = "b" + random().nextInt(20);
+        fields.add("b_ss"); fields.add(b);
+        fields.add("b_sds"); fields.add(b);
+      }
+      if (random().nextInt(5) > 0) {
+        String c = "c" + random().nextInt(6);
+        fields.add("c_s"); fields.add(c);
+        fields.add("c_sd"); fields.add(c);
+      }
+      return fields;
+    });
+  }
+
+  @Test
+  public void testPivotsMatchPerValueCounts() throws Exception {
+    final String[] sorts = {"count", "index", null};
+    for (int iter = 0; iter < atLeast(50); iter++) {
+      List<String> params = new ArrayList<>();
+      params.add("q"); params.add(random().nextBoolean() ? "*:*" : "parity_s:even");
+      params.add("rows"); params.add("0");
+      params.add("wt"); params.add("json");
+      params.add("facet"); params.add("true");
+      for (String field : new String[] {"a_s", "b_ss", "c_s"}) {
+        if (random().nextBoolean()) {
+          addParam(params, field, "facet.limit", Integer.toString(random().nextInt(8) - 1));
+        }
+        if (random().nextBoolean()) {
+          addParam(params, field, "facet.offset", Integer.toString(random().nextInt(3)));
+        }
+        if (random().nextBoolean()) {
+          addParam(params, field, "facet.missing", Boolean.toString(random().nextBoolean()));
+        }
+        if (random().nextBoolean()) {
+          addParam(params, field, "facet.pivot.mincount", Integer.toString(1 + random().nextInt(4)));
+        }
+        final String sort = sorts[random().nextInt(sorts.length)];
+        if (sort != null) {
+          addParam(params, field, "facet.sort", sort);
+        }
+      }
+      final String pivot = random().nextInt(3) == 0 ? "b_ss,a_s" : "a_s,b_ss,c_s";
+
+      final String queried = query(params, pivot);
+      final String counted = query(params, pivot.replace("_s", "_sd"))
+          .replace("a_sd", "a_s").replace("b_sds", "b_ss").replace("c_sd", "c_s");
+      assertEquals(params + " pivot=" + pivot, queried, counted);
+    }
+  }
+
+  @Test
+  public void testTooManyCombinations() throws Exception {
+    final List<String> fields = List.of("a_sd", "b_sds", "c_sd");
+    final SolrParams params = params("facet.limit", "1");
+    h.getCore().withSearcher(searcher -> {
+      final DocSet docs = searcher.getLiveDocSet();
+      // about 300 docs have many more than 12 combinations of values, whatever the limit
+      assertNull(PivotFacetCounter.create(searcher, fields, params, params, 12).getPivots(docs));
+      final List<NamedList<Object>> pivots = PivotFacetCounter.create(searcher, fields, params, params).getPivots(docs);
+      assertNotNull(pivots);
+      assertEquals(1, pivots.size());
+      return null;
+    });
+  }
+
+  /** Adds a param of the pivot field, and of its docValues copy, or a param of all fields. */
+  private static void addParam(List<String> params, String field, String param, String value) {
+    if (random().nextInt(3) == 0) {
+      params.add(param); params.add(value);
+    } else {
+      params.add("f." + field + "." + param); params.add(value);
+      params.add("f." + field.replace("_s", "_sd") + "." + param); params.add(value);
+    }
+  }
+
+  private static String query(List<String> params, String pivot) throws Exception {
+    List<String> all = new ArrayList<>(params);
+    all.add("facet.pivot"); all.add(pivot);
+    Map<?, ?> response = (Map<?, ?>) Utils.fromJSONString(h.query(req(all.toArray(new String[0]))));
+    return Utils.toJSONString(((Map<?, ?>) response.get("facet_counts")).get("facet_pivot"));
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.lucene.search.SortField;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.common.util.NamedList;
+
+public class TestShardTopDocsMerger extends SolrTestCase {
+
+  public void testMatchesHitQueue() {
+    for (int iter = 0; iter < 100; iter++) {
+      final boolean reverse = random().nextBoolean();
+      final SortField[] sortFields = random().nextBoolean()
+          ? new SortField[] {SortField.FIELD_SCORE}
+          : new SortField[] {new SortField("f", SortField.Type.INT, reverse), SortField.FIELD_SCORE};
+      final int n = 1 + random().nextInt(50);
+
+      ShardTopDocsMerger merger = new ShardTopDocsMerger(sortFields, null);
+      ShardFieldSortedHitQueue queue = new ShardFieldSortedHitQueue(sortFields, n, null);
+      int nextId = 0;
+      for (int s = random().nextInt(8); s >= 0; s--) {
+        String shard = "shard" + s;
+        int numDocs = random().nextInt(30);
+        // a shard returns its docs sorted (few distinct values, so there are ties within and across shards)
+        List<float[]> docs = new ArrayList<>();
+        for (int i = 0; i < numDocs; i++) {
+          docs.add(new float[] {random().nextInt(5), random().nextInt(4)});
+        }
+        Comparator<float[]> byF = Comparator.comparingDouble(d -> d[0]);
+        Comparator<float[]> byScore = Comparator.<float[]>comparingDouble(d -> d[1]).reversed();
+        docs.sort(sortFields.length == 1 ? byScore : (reverse ? byF.reversed() : byF).thenComparing(byScore));
+        if (random().nextInt(5) == 0) {
+          // unless a rank query reordered its top docs
+          Collections.shuffle(docs.subList(0, random().nextInt(numDocs + 1)), random());
+        }
+
+        Object[] ids = new Object[numDocs];
+        float[] scores = new float[numDocs];
+        List<Object> fValues = new ArrayList<>();
+        NamedList<List<Object>> sortFieldValues = new NamedList<>();
+        if (sortFields.length > 1) {
+          sortFieldValues.add("f", fValues);
+        }
+        for (int i = 0; i < numDocs; i++) {
+          scores[i] = docs.get(i)[1];
+          fValues.add((int) docs.get(i)[0]);
+          if (random().nextInt(10) == 0) {
+            continue; // a duplicate of a doc of another shard
+          }
+          ids[i] = nextId++;
+          ShardDoc shardDoc = new ShardDoc();
+          shardDoc.id = ids[i];
+          shardDoc.shard = shard;
+          shardDoc.orderInShard = i;
+          shardDoc.score = scores[i];
+          shardDoc.sortFieldValues = sortFieldValues;
+          queue.insertWithOverflow(shardDoc);
+        }
+        merger.add(shard, ids, scores, sortFieldValues);
+      }
+
+      List<Object> expected = new ArrayList<>();
+      while (queue.size() > 0) {
+        expected.add(queue.pop().id);
+      }
+      Collections.reverse(expected);
+      List<Object> actual = new ArrayList<>();
+      for (ShardDoc shardDoc : merger.top(n)) {
+        actual.add(shardDoc.id);
+      }
+      assertEquals(Arrays.toString(sortFields), expected, actual);
+    }
+  }
+}
@@ -25,17 +25,22 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.MultiDocValues.MultiSortedDocValues;
 import org.apache.lucene.index.MultiDocValues.MultiSortedSetDocValues;
 import org.apache.lucene.index.MultiTerms;
 import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.OrdinalMap;
 import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.TestUtil;
 import org.apache.solr.SolrTestCase;
 
@@ -124,6 +129,59 @@ public class TestSlowCompositeReaderWrapper extends SolrTestCase {
     dir.close();
   }
 
+  public void testOrdMapsAreSharedAcrossReaders() throws Exception {
+    final int sizeBefore = OrdinalMapCache.size();
+    Directory dir = newDirectory();
+    IndexWriter w = new IndexWriter(dir, newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE));
+    for (int i = 0; i < 6; i++) {
+      Document doc = new Document();
+      doc.add(new StringField("id", Integer.toString(i), Field.Store.NO));
+      doc.add(new SortedDocValuesField("sorted", new BytesRef("v" + i % 3)));
+      doc.add(new SortedSetDocValuesField("sorted_set", new BytesRef("a" + i % 3)));
+      doc.add(new SortedSetDocValuesField("sorted_set", new BytesRef("b" + i % 3)));
+      w.addDocument(doc);
+      if (i % 2 == 1) {
+        w.flush();
+      }
+    }
+
+    DirectoryReader reader1 = DirectoryReader.open(w);
+    assertEquals(3, reader1.leaves().size());
+    LeafReader slow1 = SlowCompositeReaderWrapper.wrap(reader1);
+    OrdinalMap sortedMap = ((MultiSortedDocValues) slow1.getSortedDocValues("sorted")).mapping;
+    OrdinalMap sortedSetMap = ((MultiSortedSetDocValues) slow1.getSortedSetDocValues("sorted_set")).mapping;
+    assertEquals(sizeBefore + 2, OrdinalMapCache.size());
+    assertTrue(OrdinalMapCache.ramBytesUsed() > 0);
+
+    // only deletes: the segments are the same
+    w.deleteDocuments(new Term("id", "1"));
+    DirectoryReader reader2 = DirectoryReader.openIfChanged(reader1, w);
+    assertNotNull(reader2);
+    LeafReader slow2 = SlowCompositeReaderWrapper.wrap(reader2);
+    assertSame(sortedMap, ((MultiSortedDocValues) slow2.getSortedDocValues("sorted")).mapping);
+    assertSame(sortedSetMap, ((MultiSortedSetDocValues) slow2.getSortedSetDocValues("sorted_set")).mapping);
+
+    // a new segment needs new maps, which replace the maps over the old segments
+    Document doc = new Document();
+    doc.add(new SortedDocValuesField("sorted", new BytesRef("v0")));
+    doc.add(new SortedSetDocValuesField("sorted_set", new BytesRef("c")));
+    w.addDocument(doc);
+    DirectoryReader reader3 = DirectoryReader.openIfChanged(reader2, w);
+    LeafReader slow3 = SlowCompositeReaderWrapper.wrap(reader3);
+    MultiSortedDocValues sorted3 = (MultiSortedDocValues) slow3.getSortedDocValues("sorted");
+    assertNotSame(sortedMap, sorted3.mapping);
+    assertEquals(3, sorted3.getValueCount());
+    MultiSortedSetDocValues sortedSet3 = (MultiSortedSetDocValues) slow3.getSortedSetDocValues("sorted_set");
+    assertNotSame(sortedSetMap, sortedSet3.mapping);
+    assertEquals(7, sortedSet3.getValueCount());
+    assertEquals(sizeBefore + 2, OrdinalMapCache.size());
+
+    IOUtils.close(reader1, reader2, reader3, w);
+    // the maps are dropped with their segments
+    assertEquals(sizeBefore, OrdinalMapCache.size());
+    dir.close();
+  }
+
   public void testTermsAreCached() throws IOException {
     Directory dir = newDirectory();
     RandomIndexWriter w = new RandomIndexWriter(random(), dir, newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE));
@@ -69,12 +69,13 @@ public class TestUnInvertedFieldException extends SolrTestCaseJ4 {
   void createIndex(int nTerms) {
     assertU(delQ("*:*"));
     for (int i=0; i<nTerms; i++) {
-      assertU(adoc("id", Integer.toString(i), proto.field(), t(i) ));
+      assertU(adoc("id", Integer.toString(i), proto.field(), t(i), other.field(), t(i % 7) ));
     }
     assertU(commit()); 
   }
 
   Term proto = new Term("field_s","");
+  Term other = new Term("other_s","");
 
   @Test
   public void testConcurrentInit() throws Exception {
@@ -125,5 +126,37 @@ public class TestUnInvertedFieldException extends SolrTestCaseJ4 {
       req.close();
     }
   }
-}
 
+  @Test
+  public void testConcurrentInitOfFields() throws Exception {
+    final SolrQueryRequest req = req("*:*");
+    final SolrIndexSearcher searcher = req.getSearcher();
+
+    List<Callable<UnInvertedField>> initCallables = new ArrayList<>();
+    for (int i=0;i< TestUtil.nextInt(random(), 10, 30);i++) {
+      final String field = (i % 2 == 0 ? proto : other).field();
+      initCallables.add(()-> UnInvertedField.getUnInvertedField(field, searcher));
+    }
+
+    final ThreadPoolExecutor pool  = new MDCAwareThreadPoolExecutor(4,
+        TestUtil.nextInt(random(), 4, 8), 10, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(getClass().getSimpleName()));
+
+    try {
+      List<Future<UnInvertedField>> futures = initCallables.stream().map((c) -> pool.submit(c))
+          .collect(Collectors.toList());
+      for (int i=0; i<futures.size(); i++) {
+        final String field = (i % 2 == 0 ? proto : other).field();
+        final UnInvertedField uif = futures.get(i).get();
+        // every request on a field shares the one build that was cached
+        assertSame(uif, UnInvertedField.checkUnInvertedField(field, searcher));
+        assertEquals(i % 2 == 0 ? numTerms : Math.min(numTerms, 7), uif.numTerms());
+      }
+      assertNotSame(UnInvertedField.checkUnInvertedField(proto.field(), searcher),
+          UnInvertedField.checkUnInvertedField(other.field(), searcher));
+    } finally {
+      pool.shutdownNow();
+      req.close();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.lucene.util.TestUtil;
+import org.apache.solr.SolrTestCase;
+
+public class TestFastUtf8Writer extends SolrTestCase {
+
+  public void testMatchesStringEncoding() throws IOException {
+    for (int iter = 0; iter < 20; iter++) {
+      StringBuilder expected = new StringBuilder();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      FastUtf8Writer writer = new FastUtf8Writer(out);
+      for (int i = atLeast(50); i > 0; i--) {
+        // some strings are longer than the char buffer, so they are written around it
+        String s = random().nextInt(20) == 0
+            ? TestUtil.randomUnicodeString(random(), 3 * ResponseBufferPool.CHARS_SIZE)
+            : TestUtil.randomUnicodeString(random(), 300);
+        expected.append(s);
+        switch (random().nextInt(3)) {
+          case 0:
+            writer.write(s);
+            break;
+          case 1:
+            writer.write(s.toCharArray(), 0, s.length());
+            break;
+          default:
+            for (int j = 0; j < s.length(); j++) {
+              writer.write(s.charAt(j));
+            }
+        }
+        if (random().nextInt(10) == 0) {
+          writer.flush();
+        }
+      }
+      writer.close();
+      assertArrayEquals(expected.toString().getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+  }
+
+  public void testSurrogates() throws IOException {
+    String pair = new String(Character.toChars(0x1F600));
+    String replacement = "\uFFFD";
+
+    assertEquals(pair + "a" + replacement + "b" + replacement, write(pair, "a\uD83D", "b\uDE00"));
+    // a pair split over two flushes of the char buffer
+    String split = "x".repeat(ResponseBufferPool.CHARS_SIZE - 1) + pair + "y";
+    assertEquals(split, write(split));
+    // an unpaired high surrogate at the very end
+    assertEquals("z" + replacement, write("z\uD83D"));
+  }
+
+  public void testReleaseAfterClose() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FastUtf8Writer writer = new FastUtf8Writer(out);
+    writer.write("abc");
+    writer.close();
+    // the buffers were already given back by close()
+    writer.release();
+    assertEquals("abc", out.toString(StandardCharsets.UTF_8));
+  }
+
+  private static String write(String... strings) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (FastUtf8Writer writer = new FastUtf8Writer(out)) {
+      for (String s : strings) {
+        writer.write(s);
+      }
+    }
+    return out.toString(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.util.TimeSource;
+import org.apache.solr.util.RefCounted;
+import org.apache.solr.util.TimeOut;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestAsyncAutowarm extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    System.setProperty("solr.asyncAutowarm", "true");
+    System.setProperty("enable.update.log", "false");
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterTests() {
+    System.clearProperty("solr.asyncAutowarm");
+  }
+
+  @Test
+  public void testWarmsAfterRegistering() throws Exception {
+    assertTrue(h.getCore().getSolrConfig().asyncAutowarm);
+    clearIndex();
+    for (int i = 0; i < 100; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", (i % 3 == 0) ? "a" : "b"));
+    }
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", "cat_s:a"), "/response/numFound==34");
+    assertJQ(req("q", "*:*", "fq", "cat_s:b"), "/response/numFound==66");
+
+    assertU(adoc("id", "100", "cat_s", "a"));
+    assertU(commit());
+    // lookups of pending entries are answered whether or not warming got to them
+    assertJQ(req("q", "*:*", "fq", "cat_s:a"), "/response/numFound==35");
+    assertJQ(req("q", "*:*", "fq", "cat_s:b"), "/response/numFound==66");
+
+    // both filters end up in the cache of the new searcher
+    TimeOut timeOut = new TimeOut(30, TimeUnit.SECONDS, TimeSource.NANO_TIME);
+    timeOut.waitFor("warming did not complete", () -> {
+      Map<String, Object> stats = getFilterCacheStats();
+      return ((Number) stats.get("warmupPending")).intValue() == 0 && ((Number) stats.get("size")).intValue() == 2;
+    });
+  }
+
+  private Map<String, Object> getFilterCacheStats() {
+    RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+    try {
+      SolrCache<Query, DocSet> filterCache = searcher.get().getFilterCache();
+      return ((CaffeineCache<Query, DocSet>) filterCache).getMetricsMap().getValue();
+    } finally {
+      searcher.decref();
+    }
+  }
+}
@@ -24,7 +24,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.github.benmanes.caffeine.cache.RemovalCause;
@@ -97,6 +100,76 @@ public class TestCaffeineCache extends SolrTestCase {
     assertEquals(102L, nl.get("cumulative_inserts"));
   }
 
+  @Test
+  public void testPrepareWarm() throws Exception {
+    Map<Integer, AtomicInteger> regenerated = new ConcurrentHashMap<>();
+    CacheRegenerator regenerator = new CacheRegenerator() {
+      @Override
+      public <K, V> boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache<K, V> newCache,
+                                           SolrCache<K, V> oldCache, K oldKey, V oldVal) {
+        regenerated.computeIfAbsent((Integer) oldKey, k -> new AtomicInteger()).incrementAndGet();
+        // regenerators look up the key they are regenerating
+        assertNull(newCache.get(oldKey));
+        newCache.put(oldKey, oldVal);
+        return true;
+      }
+    };
+    Map<String, String> params = new HashMap<>();
+    params.put("size", "100");
+    params.put("autowarmCount", "10");
+
+    CaffeineCache<Integer, String> oldCache = new CaffeineCache<>();
+    oldCache.init(params, null, regenerator);
+    for (int i = 0; i < 10; i++) {
+      oldCache.put(i, Integer.toString(i));
+    }
+
+    CaffeineCache<Integer, String> cache = new CaffeineCache<>();
+    cache.initializeMetrics(new SolrMetricsContext(metricManager, registry, "foo"), scope);
+    cache.init(params, null, regenerator);
+    AtomicBoolean cancelled = new AtomicBoolean();
+    Runnable warmTask = cache.prepareWarm(null, oldCache, cancelled::get);
+    assertNotNull(warmTask);
+    cache.setState(SolrCache.State.LIVE);
+    assertEquals(0, cache.size());
+    assertEquals(10, cache.getMetricsMap().getValue().get("warmupPending"));
+
+    // a pending key is regenerated once on lookup, even by concurrent lookups
+    Integer pendingKey = 5;
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> assertEquals(Integer.toString(pendingKey), cache.get(pendingKey)));
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1, regenerated.get(pendingKey).get());
+    assertEquals(1, cache.size());
+    assertNull(cache.get(-1));
+
+    warmTask.run();
+    assertEquals(10, cache.size());
+    assertEquals(10, regenerated.size());
+    for (AtomicInteger count : regenerated.values()) {
+      assertEquals(1, count.get());
+    }
+    assertEquals(0, cache.getMetricsMap().getValue().get("warmupPending"));
+
+    // cancelled warming stops right away
+    CaffeineCache<Integer, String> cancelledCache = new CaffeineCache<>();
+    cancelledCache.init(params, null, regenerator);
+    warmTask = cancelledCache.prepareWarm(null, oldCache, cancelled::get);
+    cancelled.set(true);
+    warmTask.run();
+    assertEquals(0, cancelledCache.size());
+    assertNull(cancelledCache.get(pendingKey));
+
+    oldCache.close();
+    cache.close();
+    cancelledCache.close();
+  }
+
   @Test
   public void testTimeDecay() {
     Cache<Integer, String> cacheDecay = Caffeine.newBuilder()
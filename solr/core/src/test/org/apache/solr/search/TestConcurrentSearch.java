@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.Utils;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares the results of searches with {@link CommonParams#MULTI_THREADED} to sequential searches.
+ */
+public class TestConcurrentSearch extends SolrTestCaseJ4 {
+
+  private static final int NUM_SEGMENTS = 12;
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    // the default slices group up to 5 small segments, never merge them to get several slices
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    System.setProperty("enable.update.log", "false");
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    int id = 0;
+    for (int segment = 0; segment < NUM_SEGMENTS; segment++) {
+      int numDocs = 1 + random().nextInt(40);
+      for (int i = 0; i < numDocs; i++, id++) {
+        StringBuilder text = new StringBuilder();
+        for (int j = random().nextInt(10); j >= 0; j--) {
+          text.append(" w").append(random().nextInt(20));
+        }
+        String cat = "c" + random().nextInt(5);
+        assertU(adoc("id", Integer.toString(id), "cat_s", cat, "cat_sd", cat,
+            "tags_sds", "t" + random().nextInt(30), "tags_sds", "t" + random().nextInt(30),
+            "val_i", Integer.toString(random().nextInt(100)), "text_t", text.toString()));
+      }
+      assertU(commit());
+    }
+  }
+
+  @AfterClass
+  public static void afterTests() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testSearchesConcurrently() throws Exception {
+    RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+    try {
+      assertEquals(NUM_SEGMENTS, searcher.get().getTopReaderContext().leaves().size());
+      assertTrue(searcher.get().canSearchConcurrently());
+    } finally {
+      searcher.decref();
+    }
+
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) h.getCoreContainer().getCollectorExecutor();
+    long tasksBefore = executor.getTaskCount();
+    search(false, "q", "text_t:w1", "rows", "10");
+    assertEquals(tasksBefore, executor.getTaskCount());
+    search(true, "q", "text_t:w1", "rows", "10");
+    assertTrue(executor.getTaskCount() > tasksBefore);
+  }
+
+  @Test
+  public void testTopDocs() throws Exception {
+    assertSameResults("q", "text_t:(w1 w2 w3)", "fl", "id,score", "rows", "15");
+    assertSameResults("q", "text_t:w4 text_t:w5", "fl", "id,score", "rows", "1000");
+    assertSameResults("q", "*:*", "sort", "val_i desc,id asc", "fl", "id,val_i,score", "rows", "20");
+    assertSameResults("q", "text_t:w6", "sort", "cat_s asc,score desc,id asc", "fl", "id,score", "rows", "10");
+    assertSameResults("q", "text_t:(w1 w7)", "fl", "id,score", "rows", "5", "minExactCount", "3");
+    assertSameResults("q", "text_t:doesnotexist", "fl", "id,score", "rows", "10");
+  }
+
+  @Test
+  public void testDocSets() throws Exception {
+    assertSameResults("q", "text_t:w1", "rows", "0", "facet", "true", "facet.field", "cat_s");
+    assertSameResults("q", "text_t:(w2 w3)", "rows", "5", "fl", "id,score", "facet", "true", "facet.field", "cat_s");
+    assertSameResults("q", "id:(1 5 42)", "rows", "0", "facet", "true", "facet.field", "cat_s");
+    assertSameResults("q", "*:*", "fq", "{!cache=false}val_i:[10 TO 60]", "rows", "3", "fl", "id");
+    assertSameResults("q", "text_t:w8", "fq", "val_i:[0 TO " + random().nextInt(100) + "]", "rows", "0",
+        "facet", "true", "facet.field", "cat_s");
+  }
+
+  @Test
+  public void testStatefulQueries() throws Exception {
+    // their weights can't be shared by the slices, they are searched sequentially
+    assertFalse(isConcurrentSafe("{!join from=cat_s to=cat_s}val_i:[0 TO 50]"));
+    assertFalse(isConcurrentSafe("{!func}scale(val_i,0,1)"));
+    assertFalse(isConcurrentSafe("text_t:w1 _val_:\"scale(val_i,0,1)\""));
+    assertFalse(isConcurrentSafe("{!frange l=0 u=0.5}scale(val_i,0,1)"));
+    assertTrue(isConcurrentSafe("{!cache=false}text_t:(w1 w2) -val_i:[0 TO 50]"));
+    for (int i = 0; i < 5; i++) {
+      assertSameResults("q", "{!join from=cat_s to=cat_s v='val_i:[0 TO " + random().nextInt(100) + "]'}",
+          "sort", "id asc", "fl", "id", "rows", "20", "debug", "true");
+      assertSameResults("q", "{!func v='scale(val_i,0,1)'}", "sort", "score desc,id asc", "fl", "id,score", "rows", "20");
+      assertSameResults("q", "text_t:w1 _val_:\"scale(val_i,0,1)\"", "fl", "id,score", "rows", "20");
+    }
+  }
+
+  @Test
+  public void testParallelTermsFacets() throws Exception {
+    for (String field : new String[] {"cat_sd", "tags_sds", "cat_s"}) {
+      for (String q : new String[] {"*:*", "text_t:(w1 w2)", "text_t:doesnotexist"}) {
+        String facet = "{f:{type:terms, field:" + field + ", method:dv, limit:-1, missing:true, numBuckets:true";
+        Map<String, Object> sequential = search(false, "q", q, "rows", "0", "json.facet", facet + "}}");
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) h.getCoreContainer().getCollectorExecutor();
+        long tasksBefore = executor.getTaskCount();
+        Map<String, Object> parallel = search(false, "q", q, "rows", "0", "json.facet", facet + ", parallel:true}}");
+        assertEquals(sequential.get("facets"), parallel.get("facets"));
+        if (!q.contains("doesnotexist")) {
+          assertTrue("segments not counted concurrently for " + field, executor.getTaskCount() > tasksBefore);
+        }
+      }
+    }
+    // nested facets are computed for each bucket afterwards
+    String nested = "{f:{type:terms, field:tags_sds, method:dv, limit:5, facet:{c:{type:terms, field:cat_s}}";
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) h.getCoreContainer().getCollectorExecutor();
+    long tasksBefore = executor.getTaskCount();
+    assertEquals(search(false, "q", "*:*", "rows", "0", "json.facet", nested + "}}").get("facets"),
+        search(false, "q", "*:*", "rows", "0", "json.facet", nested + ", parallel:true}}").get("facets"));
+    assertTrue(executor.getTaskCount() > tasksBefore);
+    // sorting by a stat needs the doc ids, which falls back to sequential counting
+    String facet = "{f:{type:terms, field:tags_sds, method:dv, sort:'s desc', facet:{s:'sum(val_i)'}";
+    assertEquals(search(false, "q", "*:*", "rows", "0", "json.facet", facet + "}}").get("facets"),
+        search(false, "q", "*:*", "rows", "0", "json.facet", facet + ", parallel:true}}").get("facets"));
+  }
+
+  @Test
+  public void testCursorMark() throws Exception {
+    String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    for (int page = 0; page < 5; page++) {
+      Map<String, Object> sequential = search(false, "q", "*:*", "sort", "val_i asc,id asc", "fl", "id", "rows", "7",
+          CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+      Map<String, Object> concurrent = search(true, "q", "*:*", "sort", "val_i asc,id asc", "fl", "id", "rows", "7",
+          CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+      assertEquals(sequential.get("response"), concurrent.get("response"));
+      assertEquals(sequential.get(CursorMarkParams.CURSOR_MARK_NEXT), concurrent.get(CursorMarkParams.CURSOR_MARK_NEXT));
+      cursorMark = (String) sequential.get(CursorMarkParams.CURSOR_MARK_NEXT);
+    }
+  }
+
+  private void assertSameResults(String... params) throws Exception {
+    // concurrent first, so that it computes the filters which are not in the filterCache yet
+    Map<String, Object> concurrent = search(true, params);
+    Map<String, Object> sequential = search(false, params);
+    String minExactCount = params(params).get(CommonParams.MIN_EXACT_COUNT);
+    if (minExactCount == null) {
+      assertEquals(sequential.get("response"), concurrent.get("response"));
+    } else {
+      // an inexact numFound depends on the order the docs are collected in
+      Map<String, Object> sequentialResponse = getResponse(sequential);
+      Map<String, Object> concurrentResponse = getResponse(concurrent);
+      assertEquals(sequentialResponse.get("docs"), concurrentResponse.get("docs"));
+      assertEquals(sequentialResponse.get("numFoundExact"), concurrentResponse.get("numFoundExact"));
+      for (Map<String, Object> response : List.of(sequentialResponse, concurrentResponse)) {
+        assertTrue(((Number) response.get("numFound")).longValue() >= Long.parseLong(minExactCount));
+      }
+    }
+    assertEquals(sequential.get("facet_counts"), concurrent.get("facet_counts"));
+  }
+
+  private static boolean isConcurrentSafe(String q) throws Exception {
+    SolrQueryRequest req = req();
+    try {
+      Query query = QParser.getParser(q, req).getQuery();
+      return SolrIndexSearcher.isConcurrentSafe(req.getSearcher().rewrite(query));
+    } finally {
+      req.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getResponse(Map<String, Object> rsp) {
+    return (Map<String, Object>) rsp.get("response");
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> search(boolean multiThreaded, String... params) throws Exception {
+    ModifiableSolrParams p = params(params);
+    p.set(CommonParams.MULTI_THREADED, multiThreaded);
+    // don't let the queryResultCache answer the second search
+    p.set(CommonParams.Q, "{!cache=false}" + p.get(CommonParams.Q));
+    return (Map<String, Object>) Utils.fromJSONString(JQ(req(p)));
+  }
+}
@@ -106,6 +106,14 @@ public class TestDocSet extends SolrTestCase {
     return new BitDocSet(bs);
   }
 
+  public DocSet getRoaringDocSet(FixedBitSet bs) {
+    return RoaringDocSet.fromBits(bs);
+  }
+
+  public DocSet getOffHeapDocSet(FixedBitSet bs) {
+    return OffHeapDocSet.copyOf(rand.nextBoolean() ? getBitDocSet(bs) : getIntDocSet(bs), bs.length());
+  }
+
   public DocSlice getDocSlice(FixedBitSet bs) {
     int len = bs.cardinality();
     int[] arr = new int[len+5];
@@ -124,7 +132,7 @@ public class TestDocSet extends SolrTestCase {
 
 
   public DocSet getDocSet(FixedBitSet bs) {
-    switch(rand.nextInt(9)) {
+    switch(rand.nextInt(13)) {
       case 0: case 1: case 2: case 3: return getBitDocSet(bs);
 
       case 4: return getIntDocSet(bs);
@@ -132,6 +140,10 @@ public class TestDocSet extends SolrTestCase {
       case 6: return getIntDocSet(bs);
       case 7: return getIntDocSet(bs);
       case 8: return getIntDocSet(bs);
+
+      case 9: case 10: return getRoaringDocSet(bs);
+
+      case 11: case 12: return getOffHeapDocSet(bs);
     }
     return null;
   }
@@ -208,6 +220,136 @@ public class TestDocSet extends SolrTestCase {
     // doMany(130, 1000000);
   }
 
+  /** A set spanning several {@link RoaringDocSet} blocks, each of them empty, sparse, dense, made of runs or full */
+  public FixedBitSet getRandomBlockSet(int maxDoc) {
+    FixedBitSet bs = new FixedBitSet(maxDoc);
+    for (int start = 0; start < maxDoc; start += RoaringDocSet.BLOCK_SIZE) {
+      int end = Math.min(maxDoc, start + RoaringDocSet.BLOCK_SIZE);
+      switch (rand.nextInt(5)) {
+        case 0:
+          break;
+        case 1:
+          for (int i = rand.nextInt(5000); i > 0; i--) {
+            bs.set(start + rand.nextInt(end - start));
+          }
+          break;
+        case 2:
+          for (int doc = start; doc < end; doc++) {
+            if (rand.nextInt(4) != 0) bs.set(doc);
+          }
+          break;
+        case 3:
+          for (int i = rand.nextInt(50); i > 0; i--) {
+            int from = start + rand.nextInt(end - start);
+            bs.set(from, Math.min(end, from + rand.nextInt(2000) + 1));
+          }
+          break;
+        case 4:
+          bs.set(start, end);
+          break;
+      }
+    }
+    return bs;
+  }
+
+  public void checkEqualAll(FixedBitSet bs, DocSet set) {
+    assertEquals(bs.cardinality(), set.size());
+    iter(new BitDocSet(bs), set);
+    for (int i = 0; i < 100; i++) {
+      int doc = rand.nextInt(bs.length());
+      assertEquals(bs.get(doc), set.exists(doc));
+    }
+  }
+
+  public void testRoaringDocSets() throws IOException {
+    for (int iter = 0; iter < 20; iter++) {
+      int maxDoc = rand.nextInt(5 * RoaringDocSet.BLOCK_SIZE) + 1;
+      FixedBitSet bs1 = getRandomBlockSet(maxDoc);
+      FixedBitSet bs2 = rand.nextBoolean() ? getRandomBlockSet(maxDoc) : getRandomSet(maxDoc, rand.nextInt((maxDoc >> 6) + 1));
+
+      DocSet a = getRoaringDocSet(bs1);
+      checkEqualAll(bs1, a);
+      FixedBitSet fixed = new FixedBitSet(maxDoc);
+      a.addAllTo(fixed);
+      assertTrue(fixed.equals(bs1));
+
+      DocIdSetIterator expected = new BitSetIterator(bs1, 0);
+      DocIdSetIterator actual = a.iterator(dummyIndexReader(maxDoc).getContext());
+      assertEquals(a.size() == 0, actual == null);
+      for (int doc = actual == null ? DocIdSetIterator.NO_MORE_DOCS : -1; doc != DocIdSetIterator.NO_MORE_DOCS; ) {
+        if (rand.nextBoolean()) {
+          doc = expected.nextDoc();
+          assertEquals(doc, actual.nextDoc());
+        } else {
+          int target = doc + 1 + rand.nextInt(RoaringDocSet.BLOCK_SIZE);
+          doc = target >= maxDoc ? DocIdSetIterator.NO_MORE_DOCS : expected.advance(target);
+          assertEquals(doc, target >= maxDoc ? DocIdSetIterator.NO_MORE_DOCS : actual.advance(target));
+        }
+      }
+
+      FixedBitSet a_and = bs1.clone(); a_and.and(bs2);
+      FixedBitSet a_or = bs1.clone(); a_or.or(bs2);
+      FixedBitSet a_andn = bs1.clone(); a_andn.andNot(bs2);
+      FixedBitSet b_andn = bs2.clone(); b_andn.andNot(bs1);
+
+      for (DocSet b : new DocSet[] {getBitDocSet(bs2), getIntDocSet(bs2), getRoaringDocSet(bs2), getOffHeapDocSet(bs2)}) {
+        checkEqualAll(a_and, a.intersection(b));
+        checkEqualAll(a_and, b.intersection(a));
+        checkEqualAll(a_or, a.union(b));
+        checkEqualAll(a_or, b.union(a));
+        checkEqualAll(a_andn, a.andNot(b));
+        checkEqualAll(b_andn, b.andNot(a));
+
+        assertEquals(a_and.cardinality(), a.intersectionSize(b));
+        assertEquals(a_and.cardinality(), b.intersectionSize(a));
+        assertEquals(a_and.cardinality() > 0, a.intersects(b));
+        assertEquals(a_and.cardinality() > 0, b.intersects(a));
+        assertEquals(a_or.cardinality(), a.unionSize(b));
+        assertEquals(a_or.cardinality(), b.unionSize(a));
+        assertEquals(a_andn.cardinality(), a.andNotSize(b));
+        assertEquals(b_andn.cardinality(), b.andNotSize(a));
+      }
+    }
+  }
+
+  public void testOffHeapDocSetMaxDoc() {
+    int maxDoc = 1000;
+    FixedBitSet low = new FixedBitSet(maxDoc);
+    low.set(0, 100);
+    FixedBitSet all = new FixedBitSet(maxDoc);
+    all.set(0, maxDoc);
+    // the stored docs end long before maxDoc, but derived sets cover all docs
+    for (DocSet a : new DocSet[] {OffHeapDocSet.copyOf(getIntDocSet(low), maxDoc), OffHeapDocSet.copyOf(getBitDocSet(low), maxDoc)}) {
+      assertEquals(maxDoc, a.getBits().length());
+      for (DocSet b : new DocSet[] {getBitDocSet(all), getIntDocSet(all)}) {
+        for (DocSet result : new DocSet[] {a.intersection(b), a.andNot(b), a.clone()}) {
+          assertFalse(result.exists(maxDoc - 1));
+          if (result instanceof BitDocSet) {
+            assertEquals(maxDoc, ((BitDocSet) result).getBits().length());
+          }
+        }
+        assertTrue(a.union(b).exists(maxDoc - 1));
+      }
+    }
+    expectThrows(IllegalArgumentException.class, () -> OffHeapDocSet.copyOf(getBitDocSet(low), 10));
+  }
+
+  public void testCompress() {
+    int maxDoc = 10 * RoaringDocSet.BLOCK_SIZE;
+    FixedBitSet runs = new FixedBitSet(maxDoc);
+    runs.set(1000, maxDoc / 2);
+    DocSet compressed = DocSetUtil.compress(new BitDocSet(runs));
+    assertTrue(compressed instanceof RoaringDocSet);
+    assertTrue(compressed.ramBytesUsed() < new BitDocSet(runs).ramBytesUsed() / 10);
+    checkEqualAll(runs, compressed);
+
+    FixedBitSet sparse = getRandomSet(maxDoc, maxDoc >> 6);
+    assertTrue(DocSetUtil.compress(new BitDocSet(sparse)) instanceof RoaringDocSet);
+
+    FixedBitSet dense = getRandomSet(maxDoc, maxDoc);
+    assertTrue(DocSetUtil.compress(new BitDocSet(dense)) instanceof BitDocSet);
+  }
+
   public DocSet getRandomDocSet(int n, int maxDoc) {
     FixedBitSet obs = new FixedBitSet(maxDoc);
     int[] a = new int[n];
@@ -533,8 +675,8 @@ public class TestDocSet extends SolrTestCase {
   }
 
   /**
-   * Tests equivalence among {@link DocIdSetIterator} instances retrieved from {@link BitDocSet} and {@link SortedIntDocSet}
-   * implementations, via {@link DocSet#getTopFilter()}/{@link Filter#getDocIdSet(LeafReaderContext, Bits)} and directly
+   * Tests equivalence among {@link DocIdSetIterator} instances retrieved from {@link BitDocSet}, {@link SortedIntDocSet},
+   * {@link RoaringDocSet} and {@link OffHeapDocSet} implementations, via {@link DocSet#getTopFilter()}/{@link Filter#getDocIdSet(LeafReaderContext, Bits)} and directly
    * via {@link DocSet#iterator(LeafReaderContext)}.
    * Also tests corresponding random-access {@link Bits} instances retrieved via {@link DocSet#getTopFilter()}/
    * {@link Filter#getDocIdSet(LeafReaderContext, Bits)}/{@link DocIdSet#bits()}.
@@ -544,9 +686,13 @@ public class TestDocSet extends SolrTestCase {
     FixedBitSet bs = getRandomSet(reader.maxDoc(), rand.nextInt(reader.maxDoc()+1));
     DocSet a = new BitDocSet(bs);
     DocSet b = getIntDocSet(bs);
+    DocSet c = getRoaringDocSet(bs);
+    DocSet d = getOffHeapDocSet(bs);
 
     Filter fa = a.getTopFilter();
     Filter fb = b.getTopFilter();
+    Filter fc = c.getTopFilter();
+    Filter fd = d.getTopFilter();
 
     /* top level filters are no longer supported
     // test top-level
@@ -557,15 +703,25 @@ public class TestDocSet extends SolrTestCase {
 
     DocIdSet da;
     DocIdSet db;
+    DocIdSet dc;
+    DocIdSet dd;
     List<LeafReaderContext> leaves = topLevelContext.leaves();
 
     // first test in-sequence sub readers
     for (LeafReaderContext readerContext : leaves) {
       da = fa.getDocIdSet(readerContext, null);
       db = fb.getDocIdSet(readerContext, null);
+      dc = fc.getDocIdSet(readerContext, null);
+      dd = fd.getDocIdSet(readerContext, null);
 
       // there are various ways that disis can be retrieved for each leafReader; they should all be equivalent.
-      doTestIteratorEqual(da.bits(), disiSupplier(da), disiSupplier(db), () -> a.iterator(readerContext), () -> b.iterator(readerContext));
+      doTestIteratorEqual(da.bits(), disiSupplier(da), disiSupplier(db), disiSupplier(dc), disiSupplier(dd),
+          () -> a.iterator(readerContext), () -> b.iterator(readerContext), () -> c.iterator(readerContext),
+          () -> d.iterator(readerContext));
+      doTestIteratorEqual(dc.bits(), disiSupplier(da), disiSupplier(dc));
+      if (dd.bits() != null) {
+        doTestIteratorEqual(dd.bits(), disiSupplier(da), disiSupplier(dd));
+      }
 
       // set b is SortedIntDocSet, so derivatives should not support random-access via Bits
       assertNull(db.bits());
@@ -577,7 +733,11 @@ public class TestDocSet extends SolrTestCase {
       LeafReaderContext readerContext = leaves.get(rand.nextInt(nReaders));
       da = fa.getDocIdSet(readerContext, null);
       db = fb.getDocIdSet(readerContext, null);
-      doTestIteratorEqual(da.bits(), disiSupplier(da), disiSupplier(db), () -> a.iterator(readerContext), () -> b.iterator(readerContext));
+      dc = fc.getDocIdSet(readerContext, null);
+      dd = fd.getDocIdSet(readerContext, null);
+      doTestIteratorEqual(da.bits(), disiSupplier(da), disiSupplier(db), disiSupplier(dc), disiSupplier(dd),
+          () -> a.iterator(readerContext), () -> b.iterator(readerContext), () -> c.iterator(readerContext),
+          () -> d.iterator(readerContext));
       assertNull(db.bits());
     }
   }
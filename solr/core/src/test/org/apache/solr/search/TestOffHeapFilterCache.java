@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.TestUtil;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test for {@link OffHeapFilterCache}.
+ */
+public class TestOffHeapFilterCache extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    System.setProperty("filterCache.class", "solr.OffHeapFilterCache");
+    System.setProperty("enable.update.log", "false");
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterTests() {
+    System.clearProperty("filterCache.class");
+  }
+
+  private static DocSet denseSet(int maxDoc) {
+    FixedBitSet bits = new FixedBitSet(maxDoc);
+    for (int i = 0; i < maxDoc; i += 2) {
+      bits.set(i);
+    }
+    return new BitDocSet(bits);
+  }
+
+  @Test
+  public void testMaxOffHeapBytes() throws Exception {
+    SolrMetricManager metricManager = new SolrMetricManager();
+    String registry = TestUtil.randomSimpleString(random(), 2, 10);
+    String scope = TestUtil.randomSimpleString(random(), 2, 10);
+
+    OffHeapFilterCache cache = new OffHeapFilterCache();
+    cache.initializeMetrics(new SolrMetricsContext(metricManager, registry, "foo"), scope);
+    Map<String, String> params = new HashMap<>();
+    params.put(OffHeapFilterCache.MAX_OFF_HEAP_MB_PARAM, "1");
+    cache.init(params, null, new NoOpRegenerator());
+    cache.setState(SolrCache.State.LIVE);
+    // each entry is a 128KB bitmap
+    int maxDoc = 1 << 20;
+    cache.setMaxDoc(maxDoc);
+    DocSet expected = denseSet(maxDoc);
+    for (int i = 0; i < 20; i++) {
+      cache.put(new TermQuery(new Term("f", Integer.toString(i))), expected);
+    }
+    assertTrue(cache.size() < 20);
+    assertTrue(cache.offHeapBytesUsed() <= 1024 * 1024);
+    assertTrue(cache.ramBytesUsed() < cache.offHeapBytesUsed());
+
+    Map<String, Object> metrics = cache.getMetricsMap().getValue();
+    assertEquals(20L, metrics.get("inserts"));
+    assertEquals(cache.offHeapBytesUsed(), metrics.get(OffHeapFilterCache.OFF_HEAP_BYTES_USED_PARAM));
+    // evicted sets hold on to their memory until they are reclaimed
+    assertTrue((Long) metrics.get(OffHeapFilterCache.OFF_HEAP_BYTES_PENDING_RELEASE_PARAM) > 0);
+    assertEquals(1, metrics.get(OffHeapFilterCache.MAX_OFF_HEAP_MB_PARAM));
+    assertTrue((Long) metrics.get("evictions") > 0);
+
+    int found = 0;
+    for (int i = 0; i < 20; i++) {
+      DocSet cached = cache.get(new TermQuery(new Term("f", Integer.toString(i))));
+      if (cached != null) {
+        assertTrue(cached instanceof OffHeapDocSet);
+        assertTrue(DocSetUtil.equals(expected, cached));
+        found++;
+      }
+    }
+    assertEquals(cache.size(), found);
+
+    cache.setMaxOffHeapMB(2);
+    assertEquals(2, cache.getMaxOffHeapMB());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0L, cache.offHeapBytesUsed());
+    for (int i = 0; i < 100 && cache.offHeapBytesPendingRelease() > 0; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertEquals(0L, cache.offHeapBytesPendingRelease());
+    cache.close();
+  }
+
+  @Test
+  public void testFilterQueries() throws Exception {
+    clearIndex();
+    for (int i = 0; i < 100; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", (i % 3 == 0) ? "a" : "b", "val_i", Integer.toString(i)));
+    }
+    assertU(commit());
+
+    SolrQueryRequest req = req();
+    try {
+      SolrCache<Query, DocSet> filterCache = req.getSearcher().getFilterCache();
+      assertTrue(filterCache instanceof OffHeapFilterCache);
+    } finally {
+      req.close();
+    }
+
+    for (int i = 0; i < 2; i++) {
+      assertJQ(req("q", "*:*", "fq", "cat_s:a"), "/response/numFound==34");
+      assertJQ(req("q", "*:*", "fq", "cat_s:a", "fq", "val_i:[0 TO 50]"), "/response/numFound==17");
+      assertJQ(req("q", "*:*", "fq", "-cat_s:a"), "/response/numFound==66");
+      assertJQ(req("q", "cat_s:b", "fq", "{!cache=false}val_i:[10 TO 19]", "fq", "val_i:[0 TO 50]"),
+          "/response/numFound==7");
+    }
+
+    // autowarmed entries are copied into the new cache
+    assertU(adoc("id", "100", "cat_s", "a", "val_i", "100"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", "cat_s:a"), "/response/numFound==35");
+  }
+}
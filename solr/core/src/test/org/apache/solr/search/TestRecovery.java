@@ -373,6 +373,43 @@ public class TestRecovery extends SolrTestCaseJ4 {
 
   }
 
+  @Test
+  public void testLogReplayInLanes() throws Exception {
+    try {
+      TestInjection.skipIndexWriterCommitOnClose = true;
+      final Semaphore logReplayFinish = new Semaphore(0);
+      UpdateLog.testing_logReplayFinishHook = () -> logReplayFinish.release();
+
+      clearIndex();
+      assertU(commit());
+
+      // enough updates for several batches in each lane, with updates of the same ids in each round
+      int numDocs = 500;
+      for (int round = 0; round < 3; round++) {
+        for (int i = 0; i < numDocs; i++) {
+          if (round < 2 || i % 2 == 0) {
+            updateJ(jsonAdd(sdoc("id", "L" + i, "val_i", Integer.toString(round))), params());
+          }
+        }
+        if (round == 1) {
+          // must be applied after every update of the previous rounds, and before every update of the next one
+          updateJ(jsonDelQ("val_i:1"), params());
+        }
+      }
+      assertJQ(req("q", "*:*"), "/response/numFound==0");
+
+      h.close();
+      createCore();
+      assertTrue(logReplayFinish.tryAcquire(timeout, TimeUnit.SECONDS));
+
+      assertJQ(req("q", "*:*"), "/response/numFound==" + (numDocs / 2));
+      assertJQ(req("q", "val_i:2"), "/response/numFound==" + (numDocs / 2));
+      assertEquals(0, h.getCore().getUpdateHandler().getUpdateLog().getReplayPendingOps());
+    } finally {
+      UpdateLog.testing_logReplayFinishHook = null;
+    }
+  }
+
   @Test
   public void testLogReplayWithReorderedDBQ() throws Exception {
     testLogReplayWithReorderedDBQWrapper(() -> {
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Map;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestSegmentFilterCache extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    System.setProperty("filterCache.perSegment", "true");
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterTests() {
+    System.clearProperty("filterCache.perSegment");
+  }
+
+  @Test
+  public void testSegmentsSurviveCommits() throws Exception {
+    clearIndex();
+    SegmentFilterCache cache = h.getCore().getSegmentFilterCache();
+    assertNotNull(cache);
+
+    for (int i = 0; i < 100; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", (i % 3 == 0) ? "a" : "b", "val_i", Integer.toString(i)));
+    }
+    assertU(commit());
+    // after autowarming, which may have computed the filters of other tests
+    cache.clear();
+    long insertsBefore = getCacheStat("inserts");
+    assertJQ(req("q", "*:*", "fq", "cat_s:a", "fq", "val_i:[0 TO 50]"), "/response/numFound==17");
+    long segmentsBefore = getNumSegments();
+    assertEquals(2 * segmentsBefore, cache.size());
+    assertEquals(cache.size(), getCacheStat("inserts") - insertsBefore);
+
+    // a new segment only computes the filters for that segment, whether during autowarming or on request
+    long hitsBefore = getCacheStat("hits");
+    for (int i = 100; i < 110; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", "a", "val_i", Integer.toString(i)));
+    }
+    assertU(delI("0"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", "cat_s:a"), "/response/numFound==43");
+    assertJQ(req("q", "*:*", "fq", "val_i:[0 TO 50]"), "/response/numFound==50");
+    assertEquals(2 * segmentsBefore, getCacheStat("hits") - hitsBefore);
+
+    // the assembled sets must match the regular computation
+    SolrQueryRequest req = req();
+    try {
+      SolrIndexSearcher searcher = req.getSearcher();
+      for (String qstr : new String[] {"cat_s:a", "cat_s:b", "val_i:[0 TO 50]", "val_i:[40 TO 105]"}) {
+        Query q = QParser.getParser(qstr, req).getQuery();
+        DocSet expected = DocSetUtil.createDocSet(searcher, q, null);
+        DocSet actual = cache.getDocSet(searcher, q);
+        assertNotNull(actual);
+        assertTrue(qstr, DocSetUtil.equals(expected, actual));
+      }
+    } finally {
+      req.close();
+    }
+  }
+
+  @Test
+  public void testNotCacheablePerSegment() throws Exception {
+    clearIndex();
+    for (int i = 0; i < 10; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", Integer.toString(i + 1)));
+    }
+    assertU(commit());
+
+    SegmentFilterCache cache = h.getCore().getSegmentFilterCache();
+    long lookupsBefore = getCacheStat("lookups");
+    long insertsBefore = getCacheStat("inserts");
+    SolrQueryRequest req = req();
+    try {
+      SolrIndexSearcher searcher = req.getSearcher();
+      // depends on the top-level reader
+      Query q = QParser.getParser("{!graph from=cat_s to=id}id:1", req).getQuery();
+      assertNull(cache.getDocSet(searcher, q));
+      // not even looked up
+      assertEquals(lookupsBefore, getCacheStat("lookups"));
+      assertEquals(insertsBefore, getCacheStat("inserts"));
+    } finally {
+      req.close();
+    }
+  }
+
+  @Test
+  public void testInPlaceUpdates() throws Exception {
+    clearIndex();
+    for (int i = 0; i < 10; i++) {
+      assertU(adoc("id", Integer.toString(i), "val_idN", Integer.toString(i)));
+    }
+    assertU(commit());
+    // a range on a field with docValues only
+    assertJQ(req("q", "*:*", "fq", "val_idN:[5 TO *]"), "/response/numFound==5");
+
+    // the segments keep their core cache keys, but not their docValues
+    assertU(adoc(sdoc("id", "0", "val_idN", map("set", 100))));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "fq", "val_idN:[5 TO *]"), "/response/numFound==6");
+
+    SolrQueryRequest req = req();
+    try {
+      Query q = QParser.getParser("val_idN:[5 TO *]", req).getQuery();
+      assertNull(h.getCore().getSegmentFilterCache().getDocSet(req.getSearcher(), q));
+    } finally {
+      req.close();
+    }
+  }
+
+  private long getNumSegments() {
+    RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+    try {
+      return searcher.get().getTopReaderContext().leaves().size();
+    } finally {
+      searcher.decref();
+    }
+  }
+
+  private long getCacheStat(String key) {
+    MetricsMap metrics = (MetricsMap) ((SolrMetricManager.GaugeWrapper) h.getCore().getCoreMetricManager().getRegistry()
+        .getMetrics().get("CACHE.core.segmentFilterCache")).getGauge();
+    Map<String, Object> value = metrics.getValue();
+    return ((Number) value.get(key)).longValue();
+  }
+}
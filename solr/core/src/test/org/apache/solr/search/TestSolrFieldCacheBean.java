@@ -82,6 +82,8 @@ public class TestSolrFieldCacheBean extends SolrTestCaseJ4 {
     assertTrue(((Number)metrics.get("entries_count")).longValue() > 0);
     assertNotNull(metrics.get("total_size"));
     assertNotNull(metrics.get("entry#0"));
+    assertNotNull(metrics.get("ordinalMaps_count"));
+    assertNotNull(metrics.get("ordinalMaps_ramBytesUsed"));
   }
 
   private void assertEntryListNotIncluded(boolean checkJmx) {
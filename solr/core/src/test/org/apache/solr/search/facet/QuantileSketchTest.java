@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.solr.SolrTestCase;
+
+public class QuantileSketchTest extends SolrTestCase {
+
+  private static final double[] QUANTILES = {0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999};
+
+  public void testRelativeAccuracy() {
+    Random r = random();
+    int n = atLeast(5000);
+    double[] values = new double[n];
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < n; i++) {
+      switch (r.nextInt(5)) {
+        case 0:
+          values[i] = 0;
+          break;
+        case 1:
+          values[i] = -Math.exp(r.nextGaussian() * 3);
+          break;
+        default:
+          values[i] = Math.exp(r.nextGaussian() * 5);
+      }
+      sketch.add(values[i]);
+    }
+    assertEquals(n, sketch.getCount());
+    assertAccurate(values, sketch);
+  }
+
+  public void testMergeAndBytes() {
+    Random r = random();
+    int n = atLeast(1000);
+    double[] values = new double[n];
+    QuantileSketch all = new QuantileSketch();
+    QuantileSketch[] parts = new QuantileSketch[3];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = new QuantileSketch();
+    }
+    for (int i = 0; i < n; i++) {
+      values[i] = (r.nextDouble() - 0.2) * 1000;
+      all.add(values[i]);
+      parts[r.nextInt(parts.length)].add(values[i]);
+    }
+
+    QuantileSketch merged = new QuantileSketch();
+    for (QuantileSketch part : parts) {
+      merged.merge(QuantileSketch.fromBytes(part.toBytes()));
+    }
+    assertEquals(n, merged.getCount());
+    for (double q : QUANTILES) {
+      assertEquals(all.quantile(q), merged.quantile(q), 0.0);
+    }
+    assertEquals(all.quantile(0), merged.quantile(0), 0.0);
+    assertEquals(all.quantile(1), merged.quantile(1), 0.0);
+    assertAccurate(values, merged);
+  }
+
+  public void testEmptyAndSingleValue() {
+    QuantileSketch sketch = new QuantileSketch();
+    assertTrue(Double.isNaN(sketch.quantile(0.5)));
+    sketch = QuantileSketch.fromBytes(sketch.toBytes());
+    assertEquals(0, sketch.getCount());
+
+    sketch.add(42.5);
+    for (double q : QUANTILES) {
+      assertEquals(42.5, sketch.quantile(q), 0.0);
+    }
+  }
+
+  public void testWideRangeIsBounded() {
+    QuantileSketch sketch = new QuantileSketch();
+    int n = 10000;
+    double[] values = new double[n];
+    for (int i = 0; i < n; i++) {
+      // from 1e-200 to 1e200, which needs many more buckets than the maximum
+      values[i] = Math.pow(10, -200 + 400.0 * i / n);
+      sketch.add(values[i]);
+    }
+    // each bucket is at most a 10 byte vlong
+    assertTrue(sketch.toBytes().length < QuantileSketch.MAX_BUCKETS * 10 + 64);
+    // the collapsed buckets are the lowest ones, the quantiles in the top 17 orders of magnitude are still accurate
+    for (double q : new double[] {0.97, 0.99, 0.999}) {
+      double exact = values[(int) Math.floor(q * (n - 1))];
+      assertEquals(exact, sketch.quantile(q), exact * QuantileSketch.RELATIVE_ACCURACY);
+    }
+    assertEquals(values[0], sketch.quantile(0), 0.0);
+    assertEquals(values[n - 1], sketch.quantile(1), 0.0);
+  }
+
+  private static void assertAccurate(double[] values, QuantileSketch sketch) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    for (double q : QUANTILES) {
+      double exact = sorted[(int) Math.floor(q * (sorted.length - 1))];
+      double delta = Math.abs(exact) * QuantileSketch.RELATIVE_ACCURACY + 1e-12;
+      assertEquals("quantile " + q, exact, sketch.quantile(q), delta);
+    }
+    assertEquals(sorted[0], sketch.quantile(0), 0.0);
+    assertEquals(sorted[sorted.length - 1], sketch.quantile(1), 0.0);
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+
+/**
+ * Base class for the tests which compare two ways of counting the same documents, over an index of random
+ * documents in several segments which are never merged, some of them deleted.
+ */
+public abstract class SegmentedIndexTestCase extends SolrTestCaseJ4 {
+
+  /**
+   * Creates the core and adds <code>numDocs</code> documents with the fields and values of <code>randomFields</code>,
+   * committing after one document in <code>commitOneIn</code> on average, then deletes the documents whose id
+   * starts with 1.  Each document also has its id, and a <code>parity_s</code> field which is even or odd.
+   */
+  protected static void initSegmentedIndex(int numDocs, int commitOneIn, Supplier<List<String>> randomFields)
+      throws Exception {
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < numDocs; i++) {
+      List<String> fields = new ArrayList<>();
+      fields.add("id"); fields.add(Integer.toString(i));
+      fields.add("parity_s"); fields.add(i % 2 == 0 ? "even" : "odd");
+      fields.addAll(randomFields.get());
+      assertU(adoc(fields.toArray(new String[0])));
+      if (random().nextInt(commitOneIn) == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+    // deleted documents must not be counted
+    assertU(delQ("id:1*"));
+    assertU(commit());
+  }
+
+  @AfterClass
+  public static void afterSegmentedIndexTests() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.util.Utils;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestFacetCache extends SolrTestCaseJ4 {
+
+  private static int nextId;
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    System.setProperty("facetCache.enabled", "true");
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterTests() {
+    System.clearProperty("facetCache.enabled");
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testCachedFacetsMatch() throws Exception {
+    clearIndex();
+    assertU(commit());
+    final String[] facets = {
+        "{cats:{type:terms, field:cat_s, limit:3, facet:{x:'sum(num_i)', y:'avg(num_i)'}}}",
+        "{cats:{type:terms, field:cat_s, sort:'x desc', limit:2, offset:1, facet:{x:'max(num_i)'}}, n:'min(num_i)'}",
+        "{tags:{type:terms, field:tag_ss, mincount:2, missing:true, allBuckets:true, facet:{cats:{type:terms, field:cat_s, limit:2}}}}",
+        "{nums:{type:range, field:num_i, start:0, end:100, gap:25, other:all, facet:{c:'countvals(tag_ss)'}}}",
+        "{q1:{type:query, q:'tag_ss:t1', facet:{s:'sumsq(num_i)', v:'variance(num_i)', m:'missing(num_i)'}}}",
+        // not counted per segment
+        "{cats:{type:terms, field:cat_s, numBuckets:true, facet:{u:'unique(tag_ss)'}}}",
+        "{cats:{type:terms, field:cat_s, domain:{excludeTags:cat}}}",
+    };
+
+    for (int round = 0; round < 5; round++) {
+      for (int i = atLeast(20); i > 0; i--) {
+        addDoc();
+        if (random().nextInt(10) == 0) {
+          assertU(commit());
+        }
+      }
+      if (round > 0) {
+        for (int i = random().nextInt(5); i > 0; i--) {
+          assertU(delI(Integer.toString(random().nextInt(nextId))));
+        }
+      }
+      assertU(commit());
+
+      for (String facet : facets) {
+        for (String fq : new String[] {"*:*", "{!tag=cat}cat_s:c1", "num_i:[20 TO 80]"}) {
+          String expected = facets(facet, fq, "false");
+          // the first request misses (but may reuse the counts of segments of a previous searcher), the second hits
+          assertEquals(facet + " fq=" + fq, expected, facets(facet, fq, "true"));
+          assertEquals(facet + " fq=" + fq, expected, facets(facet, fq, "true"));
+        }
+      }
+      // the entries carried over from the previous searcher are found by the first requests
+      Map<String, Object> stats = getCacheStats();
+      assertEquals(3L * facets.length + (round > 0 ? 3L * (facets.length - 2) : 0),
+          ((Number) stats.get("hits")).longValue());
+      assertEquals(3L * facets.length, ((Number) stats.get("size")).longValue());
+    }
+
+    // the segment counts of the requests that are counted per segment are carried over by autowarming
+    addDoc();
+    assertU(commit());
+    Map<String, Object> stats = getCacheStats();
+    assertEquals(3L * (facets.length - 2), ((Number) stats.get("size")).longValue());
+    assertEquals(0L, ((Number) stats.get("hits")).longValue());
+  }
+
+  @Test
+  public void testInPlaceUpdates() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "cat_s", "c1", "val_idN", "5"));
+    assertU(adoc("id", "2", "cat_s", "c1", "val_idN", "7"));
+    assertU(commit());
+    final String facet = "{s:'sum(val_idN)', cats:{type:terms, field:cat_s, facet:{m:'max(val_idN)'}}}";
+    assertEquals(facets(facet, "*:*", "false"), facets(facet, "*:*", "true"));
+
+    // the segment keeps its core cache key and documents, but not its docValues
+    assertU(adoc(sdoc("id", "1", "val_idN", map("set", 100))));
+    assertU(commit());
+    final String expected = facets(facet, "*:*", "false");
+    assertTrue(expected, expected.contains("107"));
+    assertEquals(expected, facets(facet, "*:*", "true"));
+  }
+
+  @Test
+  public void testSegmentable() throws Exception {
+    assertSegmentable(true, "{x:{type:terms, field:cat_s, facet:{y:'sum(num_i)', z:{type:range, field:num_i, start:0, end:10, gap:5}}}}");
+    assertSegmentable(true, "{x:{type:query, q:'cat_s:c1', facet:{y:'avg(num_i)', z:'min(cat_s)'}}}");
+    assertSegmentable(false, "{x:{type:terms, field:cat_s, numBuckets:true}}");
+    assertSegmentable(false, "{x:{type:terms, field:cat_s, domain:{filter:'cat_s:c1'}}}");
+    assertSegmentable(false, "{x:'unique(cat_s)'}");
+    assertSegmentable(false, "{x:'percentile(num_i,50)'}");
+    assertSegmentable(false, "{x:'sum(ord(cat_s))'}");
+    assertSegmentable(false, "{x:{type:terms, field:cat_s, facet:{r:'relatedness($fore,$back)'}}}");
+  }
+
+  @Test
+  public void testEstimateSegmentBuckets() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "cat_s", "c0", "tag_ss", "t0"));
+    assertU(adoc("id", "2", "cat_s", "c1", "tag_ss", "t1"));
+    assertU(commit());
+    assertU(adoc("id", "3", "cat_s", "c2", "tag_ss", "t0"));
+    assertU(commit());
+    // c0 and c1 in the first segment, c2 in the second one
+    assertEstimate(3, "{x:{type:terms, field:cat_s, limit:1}}");
+    assertEstimate(2 * (1 + 2) + 1 * (1 + 1), "{x:{type:terms, field:cat_s, facet:{y:{type:terms, field:tag_ss}}}}");
+    assertEstimate(3, "{x:{type:query, q:'*:*', facet:{y:{type:terms, field:tag_ss}}}, z:'sum(num_i)'}");
+    assertEstimate(0, "{x:{type:terms, field:none_s}}");
+  }
+
+  private static void assertEstimate(long numBuckets, String facet) throws Exception {
+    SolrQueryRequest req = req();
+    try {
+      @SuppressWarnings({"unchecked"})
+      FacetRequest freq = FacetRequest.parse(req, (Map<String, Object>) Utils.fromJSONString(facet));
+      assertEquals(facet, numBuckets,
+          FacetCache.estimateSegmentBuckets(freq, req.getSearcher().getTopReaderContext().leaves()));
+    } finally {
+      req.close();
+    }
+  }
+
+  private static void assertSegmentable(boolean segmentable, String facet) throws Exception {
+    SolrQueryRequest req = req("fore", "cat_s:c1", "back", "*:*");
+    try {
+      @SuppressWarnings({"unchecked"})
+      FacetRequest freq = FacetRequest.parse(req, (Map<String, Object>) Utils.fromJSONString(facet));
+      List<Query> queries = new ArrayList<>();
+      assertEquals(facet, segmentable, FacetCache.isSegmentable(freq, queries));
+    } finally {
+      req.close();
+    }
+  }
+
+  private static void addDoc() {
+    List<String> fields = new ArrayList<>();
+    fields.add("id"); fields.add(Integer.toString(nextId++));
+    fields.add("cat_s"); fields.add("c" + random().nextInt(6));
+    if (random().nextInt(5) > 0) {
+      fields.add("num_i"); fields.add(Integer.toString(random().nextInt(100)));
+    }
+    for (int i = random().nextInt(3); i > 0; i--) {
+      fields.add("tag_ss"); fields.add("t" + random().nextInt(4));
+    }
+    assertU(adoc(fields.toArray(new String[0])));
+  }
+
+  private static String facets(String facet, String fq, String cache) throws Exception {
+    Map<?, ?> response = (Map<?, ?>) Utils.fromJSONString(h.query(req("q", "*:*", "fq", fq, "rows", "0", "wt", "json",
+        "cache", cache, "json.facet", facet)));
+    return Utils.toJSONString(response.get("facets"));
+  }
+
+  private static Map<String, Object> getCacheStats() {
+    MetricsMap metrics = (MetricsMap) ((SolrMetricManager.GaugeWrapper<?>) h.getCore().getCoreMetricManager().getRegistry()
+        .getMetrics().get("CACHE.searcher.facetCache")).getGauge();
+    return metrics.getValue();
+  }
+}
@@ -392,14 +392,23 @@ public class TestJsonFacetRefinement extends SolrTestCaseHS {
     }
 
     // with 1<mincount, even sort="count desc" should trigger hueristic overrefinement
-    // limit=1 + 10% + 4 =~ 5 total, but x2 is fully populated so only the other 4 "highest" should be refined
+    // limit=1 + 10% + 4 =~ 5 total, so the 4 "highest" buckets missing from shard0 should be refined
+    doTestRefine("{x : {type:terms, field:X, limit:1, mincount:5, sort:'count desc', refine:true } }",
+                 //
+                 "{x: {buckets:[{val:x1, count:29}, {val:x9, count:16}, {val:x0, count:14}, {val:x5, count:14}], more:true } }",
+                 "{x: {buckets:[{val:x2, count:20}, {val:x3, count:18}, {val:x7, count:17}, {val:x8, count:16}], more:true } }",
+                 //
+                 "=={x:{_l:[x2,x3,x7,x8]}}",
+                 "=={x:{_l:[x1]}}");
+    // ... but when x2 is fully populated, no other bucket can reach its count of 35 (x1 has at most 29+4)
+    // so none of them is refined
     doTestRefine("{x : {type:terms, field:X, limit:1, mincount:5, sort:'count desc', refine:true } }",
                  //
                  "{x: {buckets:[{val:x1, count:29}, {val:x2, count:15}, {val:x9, count:5}, {val:x0, count:3}], more:true } }",
                  "{x: {buckets:[{val:x2, count:20}, {val:x3, count:12}, {val:x7, count:7}, {val:x8, count:4}], more:true } }",
                  //
-                 "=={x:{_l:[x3,x7]}}",
-                 "=={x:{_l:[x1,x9]}}");
+                 null,
+                 null);
     
     // explicit overrefine
     // limit=1 + overrefine=2 == 3 total, but x2 is fully populated, so only x1 & x3 need refined
@@ -463,6 +472,35 @@ public class TestJsonFacetRefinement extends SolrTestCaseHS {
     
   }
 
+  @Test
+  public void testMergePrunesBucketsThatCantBeTopBuckets() throws Exception {
+    // x1=21 is the top bucket, and x3 (9 + at most 9 from shard0 + at most 3 from shard2) may still reach it,
+    // but not x2 (9 + 8 + 3) nor x4 (3 + 9 + 8), so they are not refined even though they are overrefined
+    doTestRefine("{x : {type:terms, field:X, limit:1, overrefine:2, refine:true} }",
+                 "{x: {buckets:[{val:x1, count:10}, {val:x2, count:9}], more:true } }",
+                 "{x: {buckets:[{val:x3, count:9}, {val:x1, count:8}], more:true } }",
+                 "{x: {buckets:[{val:x1, count:3}, {val:x4, count:3}], more:true } }",
+                 "=={x:{_l:[x3]}}",
+                 null,
+                 "=={x:{_l:[x3]}}");
+    // no bucket can reach x1=20, so nothing is refined
+    doTestRefine("{x : {type:terms, field:X, limit:1, overrefine:2, refine:true} }",
+                 "{x: {buckets:[{val:x1, count:10}, {val:x2, count:5}], more:true } }",
+                 "{x: {buckets:[{val:x1, count:8}, {val:x3, count:6}], more:true } }",
+                 "{x: {buckets:[{val:x4, count:3}, {val:x1, count:2}], more:true } }",
+                 null,
+                 null,
+                 null);
+    // buckets are only pruned when sorting by descending count, all of the overrefined buckets are refined
+    doTestRefine("{x : {type:terms, field:X, limit:1, overrefine:2, sort:'count asc', refine:true} }",
+                 "{x: {buckets:[{val:x2, count:5}, {val:x1, count:10}], more:true } }",
+                 "{x: {buckets:[{val:x3, count:6}, {val:x1, count:8}], more:true } }",
+                 "{x: {buckets:[{val:x4, count:3}, {val:x1, count:2}], more:true } }",
+                 "=={x:{_l:[x4,x3]}}",
+                 "=={x:{_l:[x4,x2]}}",
+                 "=={x:{_l:[x2,x3]}}");
+  }
+
   /** 
    * When <code>prelim_sort</code> is used, all 'top bucket' choices for refinement should still be based on
    * it, not the <code>sort</code> param, so this test is just some sanity checks that the presence of the 
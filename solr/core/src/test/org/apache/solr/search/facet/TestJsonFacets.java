@@ -1065,6 +1065,49 @@ public class TestJsonFacets extends SolrTestCaseHS {
     );
   }
 
+  @Test
+  public void testPrefixTypeahead() throws Exception {
+    Client client = Client.localClient();
+    client.deleteByQuery("*:*", null);
+    for (int i = 0; i < 20; i++) {
+      client.add(sdoc("id", Integer.toString(i), "cat_s", "ab" + (i % 5), "where_s", "x", "num_i", Integer.toString(i), "tag_ss", "ab" + (i % 5), "tag_ss", "ac" + (i % 3), "tag_ss", "b"), null);
+      if (i % 7 == 0) {
+        client.commit();
+      }
+    }
+    client.commit();
+
+    client.testJQ(params("q", "*:*", "rows", "0"
+            , "json.facet", "{ t1:{terms:{field:tag_ss, prefix:a, sort:'index asc', limit:3}}" +
+            ", t2:{terms:{field:tag_ss, prefix:ac, sort:'index asc', limit:2, offset:1}}" +
+            ", t3:{terms:{field:tag_ss, prefix:a, sort:'index asc', limit:2, mincount:5}}" +
+            ", t4:{terms:{field:tag_ss, prefix:ab, sort:'index asc', limit:10, facet:{w:{terms:where_s}}}}" +
+            ", t5:{terms:{field:cat_s, prefix:ab, sort:'index asc', limit:2, facet:{x:'max(num_i)'}}}" +
+            " }"
+        )
+        , "facets=={count:20 " +
+            ", t1:{buckets:[{val:ab0, count:4},{val:ab1, count:4},{val:ab2, count:4}]}" +
+            ", t2:{buckets:[{val:ac1, count:7},{val:ac2, count:6}]}" +
+            ", t3:{buckets:[{val:ac0, count:7},{val:ac1, count:7}]}" +
+            ", t4:{buckets:[{val:ab0, count:4, w:{buckets:[{val:x, count:4}]}},{val:ab1, count:4, w:{buckets:[{val:x, count:4}]}}" +
+            "  ,{val:ab2, count:4, w:{buckets:[{val:x, count:4}]}},{val:ab3, count:4, w:{buckets:[{val:x, count:4}]}}" +
+            "  ,{val:ab4, count:4, w:{buckets:[{val:x, count:4}]}}]}" +
+            ", t5:{buckets:[{val:ab0, count:4, x:15},{val:ab1, count:4, x:16}]}" +
+            " }"
+    );
+
+    // the smart method streams the terms with the prefix, unless the domain is small
+    assertJQ(req("q", "*:*", "rows", "0", "debug", "true"
+            , "json.facet", "{t:{terms:{field:tag_ss, method:smart, prefix:a, sort:'index asc', limit:2}}}")
+        , "debug/facet-trace/sub-facet/[0]/processor=='" + FacetFieldProcessorByEnumTermsStream.class.getSimpleName() + "'"
+    );
+    assertJQ(req("q", "id:3", "rows", "0", "debug", "true"
+            , "json.facet", "{t:{terms:{field:tag_ss, method:smart, prefix:a, sort:'index asc', limit:2}}}")
+        , "facets=={count:1, t:{buckets:[{val:ab3, count:1},{val:ac0, count:1}]}}"
+        , "debug/facet-trace/sub-facet/[0]/processor=='" + FacetFieldProcessorByArrayUIF.class.getSimpleName() + "'"
+    );
+  }
+
   Map<String,String[]> suffixMap = new HashMap<>();
   {
     suffixMap.put("_s", new String[]{"_s","_ss","_sd","_sds"} );
@@ -1574,6 +1617,16 @@ public class TestJsonFacets extends SolrTestCaseHS {
             ", f2:{  'buckets':[{ val:'B', count:3, n1:[-5.0,-9.0,11.0]}, { val:'A', count:2, n1:[3.0,2.0,4.0] }]} }"
     );
 
+    // test percentiles with a sketch, whose min and max are exact
+    client.testJQ(params(p, "q", "*:*"
+            , "json.facet", "{f1:{terms:{${terms} field:${cat_s}, sort:'n1 desc', facet:{n1:{type:func, func:'percentile(${num_d},0,100)', method:sketch}}  }}" +
+                " , f2:{terms:{${terms} field:${cat_s}, sort:'n1 asc', facet:{n1:{type:func, func:'percentile(${num_d},100)', method:sketch}}  }} }"
+        )
+        , "facets=={ 'count':6, " +
+            "  f1:{  'buckets':[{ val:'A', count:2, n1:[2.0,4.0] }, { val:'B', count:3, n1:[-9.0,11.0] }]}" +
+            ", f2:{  'buckets':[{ val:'A', count:2, n1:4.0}, { val:'B', count:3, n1:11.0 }]} }"
+    );
+
     // test sorting by count/index order
     client.testJQ(params(p, "q", "*:*"
             , "json.facet", "{f1:{terms:{${terms} field:'${cat_s}', sort:'count desc' }  }" +
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.solr.common.util.Utils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the range facets counted by {@link NumericRangeCounter} match the range facets counted with range
+ * queries, which are used when there is a stat to collect.
+ */
+public class TestNumericRangeCounter extends SegmentedIndexTestCase {
+
+  private static final String[] INCLUDES = {"lower", "upper", "edge", "outer", "all"};
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    // enough documents for the points trees to have cells within a single range
+    initSegmentedIndex(atLeast(2000), 1000, () -> {
+      List<String> fields = new ArrayList<>();
+      if (random().nextInt(10) > 0) {
+        int val = random().nextInt(200) - 50;
+        fields.add("val_ip"); fields.add(Integer.toString(val));
+        fields.add("val_lp"); fields.add(Long.toString(val * 1000L));
+        fields.add("val_fp"); fields.add(Float.toString(val / 4f));
+        fields.add("val_dp"); fields.add(Double.toString(val / 3.0));
+        fields.add("val_dt"); fields.add(String.format(Locale.ROOT, "2021-01-%02dT%02d:00:00Z", 1 + (val + 50) % 28, Math.floorMod(val, 24)));
+      }
+      return fields;
+    });
+  }
+
+  @Test
+  public void testCountsMatchRangeQueries() throws Exception {
+    for (int iter = 0; iter < atLeast(30); iter++) {
+      final String range;
+      switch (random().nextInt(5)) {
+        case 0:
+          range = "field:val_ip, start:" + (random().nextInt(40) - 60) + ", end:" + random().nextInt(200) + ", gap:" + (random().nextBoolean() ? 1 + random().nextInt(20) : 50 + random().nextInt(100));
+          break;
+        case 1:
+          range = "field:val_lp, start:-20000, end:" + (1 + random().nextInt(160000)) + ", gap:" + (1 + random().nextInt(5000));
+          break;
+        case 2:
+          range = "field:val_fp, start:-10.5, end:" + random().nextInt(50) + ", gap:" + (0.25f * (1 + random().nextInt(10)));
+          break;
+        case 3:
+          range = "field:val_dp, start:-20, end:" + random().nextInt(70) + ", gap:" + (0.5 * (1 + random().nextInt(10)));
+          break;
+        default:
+          range = "field:val_dt, start:'2021-01-01T00:00:00Z', end:'2021-01-29T00:00:00Z', gap:'" +
+              (random().nextBoolean() ? "+" + (1 + random().nextInt(48)) + "HOURS" : "+1DAY") + "'";
+      }
+      final String include = INCLUDES[random().nextInt(INCLUDES.length)];
+      final String options = range + ", hardend:" + random().nextBoolean() + ", include:" + include + ", other:all";
+      final String q = random().nextBoolean() ? "*:*" : "parity_s:even";
+
+      final String counted = facets(q, "{type:range, " + options + "}");
+      final String queried = facets(q, "{type:range, " + options + ", facet:{x:'unique(parity_s)'}}");
+      assertEquals(options + " q=" + q, countsOf(queried), countsOf(counted));
+    }
+  }
+
+  private static String facets(String q, String facet) throws Exception {
+    return h.query(req("q", q, "rows", "0", "wt", "json", "json.facet", "{r:" + facet + "}"));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> countsOf(String response) {
+    Map<String, Object> r = (Map<String, Object>) ((Map<String, Object>) ((Map<String, Object>)
+        Utils.fromJSONString(response)).get("facets")).get("r");
+    List<Object> counts = new ArrayList<>();
+    for (Map<String, Object> bucket : (List<Map<String, Object>>) r.get("buckets")) {
+      counts.add(bucket.get("val") + "=" + bucket.get("count"));
+    }
+    for (String other : new String[] {"before", "after", "between"}) {
+      counts.add(other + "=" + ((Map<String, Object>) r.get(other)).get("count"));
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.common.util.Utils;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.BitDocSet;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.RoaringDocSet;
+import org.apache.solr.search.SortedIntDocSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that {@link UnInvertedField} counts the terms of a base domain holding most documents the same whatever
+ * the type of its {@link DocSet}, since it then counts the documents that are not in the domain instead.
+ */
+public class TestUnInvertedFieldDocSets extends SegmentedIndexTestCase {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    initSegmentedIndex(atLeast(500), 100, () -> {
+      List<String> fields = new ArrayList<>();
+      for (int j = random().nextInt(4); j > 0; j--) {
+        fields.add("cat_ss"); fields.add("c" + random().nextInt(30));
+      }
+      return fields;
+    });
+  }
+
+  @Test
+  public void testDenseDomains() throws Exception {
+    SolrQueryRequest req = req();
+    try {
+      final int maxDoc = req.getSearcher().maxDoc();
+      // most live documents, in runs like the sets that are compressed
+      final FixedBitSet bits = req.getSearcher().getLiveDocSet().getBits().clone();
+      for (int i = random().nextInt(20); i > 0; i--) {
+        final int start = random().nextInt(maxDoc);
+        bits.clear(start, Math.min(maxDoc, start + random().nextInt(maxDoc / 50)));
+      }
+      assertTrue(bits.cardinality() > maxDoc / 2);
+      final int[] docs = new int[bits.cardinality()];
+      final DocIterator iter = new BitDocSet(bits.clone()).iterator();
+      for (int i = 0; iter.hasNext(); i++) {
+        docs[i] = iter.nextDoc();
+      }
+
+      final String expected = count(req, "enum", new BitDocSet(bits.clone()));
+      assertEquals(expected, count(req, "uif", new BitDocSet(bits.clone())));
+      assertEquals(expected, count(req, "uif", RoaringDocSet.fromBits(bits)));
+      assertEquals(expected, count(req, "uif", new SortedIntDocSet(docs)));
+    } finally {
+      req.close();
+    }
+  }
+
+  private static String count(SolrQueryRequest req, String method, DocSet domain) throws Exception {
+    @SuppressWarnings({"unchecked"})
+    FacetRequest freq = FacetRequest.parse(req, (Map<String, Object>) Utils.fromJSONString(
+        "{x:{type:terms, field:cat_ss, limit:-1, missing:true, method:" + method + "}}"));
+    return Utils.toJSONString(freq.process(req, domain));
+  }
+}
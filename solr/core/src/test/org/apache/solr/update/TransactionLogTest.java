@@ -24,6 +24,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.solr.SolrTestCase;
 import org.apache.solr.common.SolrInputDocument;
@@ -72,4 +75,157 @@ public class TransactionLogTest extends SolrTestCase {
       assertEquals(uuid, (UUID) doc.getFieldValue("uuid"));
     }
   }
+
+  @Test
+  public void testGroupCommit() throws Exception {
+    String tlogFileName = String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME,
+        Long.MAX_VALUE);
+    Path path = createTempDir();
+    File logFile = new File(path.toFile(), tlogFileName);
+    int numThreads = 8;
+    CountDownLatch written = new CountDownLatch(numThreads);
+    AtomicInteger fsyncs = new AtomicInteger();
+    AtomicInteger batchSizes = new AtomicInteger();
+    try (TransactionLog tlog = new TransactionLog(logFile, new ArrayList<>())) {
+      tlog.deleteOnClose = false;
+      tlog.setGroupCommit(0, (batchSize, nanos) -> {
+        batchSizes.addAndGet(batchSize);
+        if (fsyncs.incrementAndGet() == 1) {
+          // hold the first fsync until every thread has written its record, which is then synced by a single fsync
+          try {
+            assertTrue(written.await(30, TimeUnit.SECONDS));
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+
+      List<Thread> threads = new ArrayList<>();
+      for (int i = 0; i < numThreads; i++) {
+        String id = Integer.toString(i);
+        Thread thread = new Thread(() -> {
+          AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+          updateCommand.solrDoc = new SolrInputDocument();
+          updateCommand.solrDoc.addField("id", id);
+          tlog.write(updateCommand);
+          written.countDown();
+          tlog.finish(UpdateLog.SyncLevel.FSYNC);
+        });
+        threads.add(thread);
+        thread.start();
+        if (i == 0) {
+          // let the first thread start the first fsync
+          while (fsyncs.get() == 0 && thread.isAlive()) {
+            Thread.sleep(1);
+          }
+        }
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(2, fsyncs.get());
+      assertTrue(batchSizes.get() <= numThreads);
+    }
+
+    try (TransactionLog tlog = new TransactionLog(logFile, new ArrayList<>(), true)) {
+      LogReader reader = tlog.getReader(0);
+      int numRecords = 0;
+      while (reader.next() != null) {
+        numRecords++;
+      }
+      assertEquals(numThreads, numRecords);
+    }
+  }
+
+  @Test
+  public void testMappedReadsAndLookupCache() throws Exception {
+    String tlogFileName = String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME,
+        Long.MAX_VALUE);
+    Path path = createTempDir();
+    File logFile = new File(path.toFile(), tlogFileName);
+    int numDocs = 100;
+    try (TransactionLog tlog = new TransactionLog(logFile, new ArrayList<>())) {
+      List<Long> positions = new ArrayList<>();
+      for (int i = 0; i < numDocs; i++) {
+        AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+        updateCommand.solrDoc = new SolrInputDocument();
+        updateCommand.solrDoc.addField("id", Integer.toString(i));
+        // make some records larger than the read buffer
+        updateCommand.solrDoc.addField("body_s", "x".repeat(i % 10 == 0 ? 20000 : 10));
+        updateCommand.setVersion(i + 1);
+        positions.add(tlog.write(updateCommand));
+      }
+
+      // a looked up entry can be modified without changing what the next lookup returns
+      SolrInputDocument doc = (SolrInputDocument) ((List<?>) tlog.lookup(positions.get(1))).get(2);
+      assertEquals("1", doc.getFieldValue("id"));
+      doc.setField("id", "changed");
+      assertEquals("1", ((SolrInputDocument) ((List<?>) tlog.lookup(positions.get(1))).get(2)).getFieldValue("id"));
+
+      for (boolean mapped : new boolean[] {false, true}) {
+        if (mapped) {
+          tlog.closeOutput();
+        }
+        for (int i = numDocs - 1; i >= 0; i--) {
+          List<?> entry = (List<?>) tlog.lookup(positions.get(i));
+          assertEquals((long) (i + 1), entry.get(UpdateLog.VERSION_IDX));
+          assertEquals(Integer.toString(i), ((SolrInputDocument) entry.get(2)).getFieldValue("id"));
+        }
+
+        LogReader reader = tlog.getReader(0);
+        try {
+          for (int i = 0; i < numDocs; i++) {
+            List<?> entry = (List<?>) reader.next();
+            assertEquals((long) (i + 1), entry.get(UpdateLog.VERSION_IDX));
+            assertEquals(Integer.toString(i), ((SolrInputDocument) entry.get(2)).getFieldValue("id"));
+          }
+          assertNull(reader.next());
+        } finally {
+          reader.close();
+        }
+
+        TransactionLog.ReverseReader reverseReader = tlog.getReverseReader();
+        try {
+          for (int i = numDocs - 1; i >= 0; i--) {
+            List<?> entry = (List<?>) reverseReader.next();
+            assertEquals((long) (i + 1), entry.get(UpdateLog.VERSION_IDX));
+            assertEquals((long) positions.get(i), reverseReader.position());
+          }
+          assertNull(reverseReader.next());
+        } finally {
+          reverseReader.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testWritesAfterMapping() throws Exception {
+    String tlogFileName = String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME,
+        Long.MAX_VALUE);
+    Path path = createTempDir();
+    File logFile = new File(path.toFile(), tlogFileName);
+    try (TransactionLog tlog = new TransactionLog(logFile, new ArrayList<>())) {
+      long first = tlog.write(newAdd(1));
+      tlog.closeOutput();
+      // like a replayed log, which gets a commit after it was mapped
+      long second = tlog.write(newAdd(2));
+      assertEquals(2L, ((List<?>) tlog.lookup(second)).get(UpdateLog.VERSION_IDX));
+      assertEquals(1L, ((List<?>) tlog.lookup(first)).get(UpdateLog.VERSION_IDX));
+
+      tlog.closeOutput();
+      tlog.writeCommit(new CommitUpdateCommand(null, false));
+      long third = tlog.write(newAdd(3));
+      assertEquals(3L, ((List<?>) tlog.lookup(third)).get(UpdateLog.VERSION_IDX));
+      assertEquals(2L, ((List<?>) tlog.lookup(second)).get(UpdateLog.VERSION_IDX));
+    }
+  }
+
+  private static AddUpdateCommand newAdd(long version) {
+    AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+    updateCommand.solrDoc = new SolrInputDocument();
+    updateCommand.solrDoc.addField("id", Long.toString(version));
+    updateCommand.setVersion(version);
+    return updateCommand;
+  }
 }
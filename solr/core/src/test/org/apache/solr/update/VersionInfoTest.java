@@ -16,6 +16,13 @@
  */
 package org.apache.solr.update;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.util.Hash;
@@ -169,4 +176,145 @@ public class VersionInfoTest extends SolrTestCaseJ4 {
     bucket = vInfo.bucket(bucketHash);
     assertEquals(bucket.highest, version.longValue());
   }
+
+  @Test
+  public void testConcurrentClock() throws Exception {
+    initCore("solrconfig-tlog.xml", "schema-version-dv.xml");
+    try {
+      VersionInfo vInfo = h.getCore().getUpdateHandler().getUpdateLog().getVersionInfo();
+      long start = vInfo.getOldClock();
+      int numThreads = 4;
+      int numVersions = 10000;
+      List<long[]> versions = new ArrayList<>();
+      List<Thread> threads = new ArrayList<>();
+      CountDownLatch latch = new CountDownLatch(1);
+      for (int t = 0; t < numThreads; t++) {
+        long[] threadVersions = new long[numVersions];
+        versions.add(threadVersions);
+        threads.add(new Thread(() -> {
+          try {
+            latch.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          for (int i = 0; i < numVersions; i++) {
+            threadVersions[i] = vInfo.getNewClock();
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      latch.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      Set<Long> unique = new HashSet<>();
+      long max = 0;
+      for (long[] threadVersions : versions) {
+        for (int i = 0; i < numVersions; i++) {
+          assertTrue(threadVersions[i] > start);
+          if (i > 0) {
+            assertTrue("versions of a thread must increase", threadVersions[i] > threadVersions[i - 1]);
+          }
+          assertTrue("duplicate version " + threadVersions[i], unique.add(threadVersions[i]));
+          max = Math.max(max, threadVersions[i]);
+        }
+      }
+      assertEquals(max, vInfo.getOldClock());
+
+      vInfo.updateClock(max - 10);
+      assertEquals(max, vInfo.getOldClock());
+      vInfo.updateClock(max + (1L << 40));
+      assertEquals(max + (1L << 40), vInfo.getOldClock());
+      assertEquals(max + (1L << 40) + 1, vInfo.getNewClock());
+    } finally {
+      deleteCore();
+    }
+  }
+
+  @Test
+  public void testBucketHighestAndLockStats() throws Exception {
+    VersionBucket bucket = random().nextBoolean() ? new VersionBucket() : new TimedVersionBucket();
+    // an unknown highest version stays unknown
+    bucket.updateHighest(5);
+    assertEquals(0, bucket.highest);
+    bucket.seedHighest(10);
+    assertEquals(10, bucket.highest);
+    bucket.updateHighest(-20);
+    assertEquals(20, bucket.highest);
+    bucket.updateHighest(15);
+    bucket.seedHighest(12);
+    assertEquals(20, bucket.highest);
+
+    int lockTimeoutMs = 10000;
+    bucket.runWithLock(lockTimeoutMs, () -> {
+      bucket.unlock();
+      return null;
+    });
+    assertEquals(1, bucket.getLockCount());
+    assertEquals(0, bucket.getContendedLockCount());
+
+    // a second thread waits for the lock that this thread holds
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread holder = new Thread(() -> {
+      try {
+        bucket.runWithLock(lockTimeoutMs, () -> {
+          try {
+            locked.countDown();
+            release.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          } finally {
+            bucket.unlock();
+          }
+          return null;
+        });
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    holder.start();
+    locked.await();
+    Thread waiter = new Thread(() -> {
+      try {
+        bucket.runWithLock(lockTimeoutMs, () -> {
+          bucket.unlock();
+          return null;
+        });
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    waiter.start();
+    // give the waiter the time to block on the lock
+    while (waiter.getState() != Thread.State.BLOCKED && waiter.getState() != Thread.State.WAITING
+        && waiter.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    holder.join();
+    waiter.join();
+    assertEquals(3, bucket.getLockCount());
+    assertEquals(1, bucket.getContendedLockCount());
+  }
+
+  @Test
+  public void testBucketLockStats() throws Exception {
+    initCore("solrconfig-tlog.xml", "schema-version-dv.xml");
+    try {
+      clearIndex();
+      for (int i = 0; i < 20; i++) {
+        assertU(adoc("id", Integer.toString(i)));
+      }
+      assertU(commit());
+      VersionInfo vInfo = h.getCore().getUpdateHandler().getUpdateLog().getVersionInfo();
+      Map<String, Object> stats = vInfo.getBucketLockStats(5);
+      assertTrue((Long) stats.get("locks") >= 20L);
+      assertTrue((Long) stats.get("contendedLocks") <= (Long) stats.get("locks"));
+      assertTrue(((Map<?, ?>) stats.get("hottestBuckets")).size() <= 5);
+    } finally {
+      deleteCore();
+    }
+  }
 }
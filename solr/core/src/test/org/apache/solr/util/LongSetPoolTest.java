@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.solr.SolrTestCase;
+
+public class LongSetPoolTest extends SolrTestCase {
+
+  public void testSameAsHashSets() {
+    final int numSets = 1 + random().nextInt(200);
+    final LongSetPool pool = new LongSetPool(numSets);
+    List<Set<Long>> expected = new ArrayList<>();
+    for (int i = 0; i < numSets; i++) {
+      expected.add(new HashSet<>());
+    }
+
+    for (int iter = 0; iter < 5; iter++) {
+      for (int n = atLeast(5000); n > 0; n--) {
+        final int set = random().nextInt(numSets);
+        // small values to get duplicates, and 0
+        final long value = random().nextBoolean() ? random().nextInt(100) : random().nextLong();
+        assertEquals(expected.get(set).add(value), pool.add(set, value));
+      }
+      // one large set
+      final int large = random().nextInt(numSets);
+      for (int n = random().nextInt(LongSetPool.MAX_SET_SIZE - expected.get(large).size()); n > 0; n--) {
+        long value = random().nextLong();
+        assertEquals(expected.get(large).add(value), pool.add(large, value));
+      }
+      assertSame(expected, pool);
+
+      // clear some sets, and move the others around
+      final int newSize = numSets + random().nextInt(10);
+      final int[] newSet = new int[numSets];
+      final List<Set<Long>> moved = new ArrayList<>();
+      for (int i = 0; i < newSize; i++) {
+        moved.add(new HashSet<>());
+      }
+      for (int set = 0; set < numSets; set++) {
+        if (random().nextInt(4) == 0) {
+          newSet[set] = -1;
+        } else {
+          newSet[set] = newSize - 1 - set;
+          moved.set(newSet[set], expected.get(set));
+        }
+      }
+      pool.resize(newSize, set -> newSet[set]);
+      pool.resize(numSets, set -> set < numSets ? set : -1);
+      expected = new ArrayList<>(moved.subList(0, numSets));
+      for (int set = 0; set < numSets; set++) {
+        if (random().nextInt(10) == 0) {
+          pool.clear(set);
+          expected.set(set, new HashSet<>());
+        }
+      }
+      assertSame(expected, pool);
+    }
+
+    pool.clear();
+    for (int set = 0; set < numSets; set++) {
+      assertEquals(0, pool.size(set));
+      assertEquals(0, pool.values(set).length);
+    }
+  }
+
+  public void testReusesTables() {
+    final LongSetPool pool = new LongSetPool(2);
+    for (long value = 1; value <= 1000; value++) {
+      pool.add(0, value);
+    }
+    final long bytes = pool.ramBytesUsed();
+    pool.clear(0);
+    for (long value = 1; value <= 1000; value++) {
+      pool.add(1, value);
+    }
+    // set 1 went through the same capacities as set 0, and got its tables rather than another page
+    assertTrue(pool.ramBytesUsed() - bytes < 1024);
+  }
+
+  private static void assertSame(List<Set<Long>> expected, LongSetPool pool) {
+    assertEquals(expected.size(), pool.numSets());
+    for (int set = 0; set < expected.size(); set++) {
+      assertEquals(expected.get(set).size(), pool.size(set));
+      Set<Long> values = new HashSet<>();
+      for (long value : pool.values(set)) {
+        values.add(value);
+      }
+      assertEquals(expected.get(set), values);
+      for (long value : expected.get(set)) {
+        assertTrue(pool.contains(set, value));
+      }
+    }
+  }
+}
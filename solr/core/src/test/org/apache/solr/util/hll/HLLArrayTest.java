@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.util.hll;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.solr.SolrTestCase;
+import org.junit.Test;
+
+/**
+ * Tests {@link HLLArray} against an {@link HLL} per index.
+ */
+public class HLLArrayTest extends SolrTestCase {
+
+    @Test
+    public void testSameAsHLLs() {
+        final Random random = random();
+        final int log2m = 8 + random.nextInt(6);
+        final int regwidth = 4 + random.nextInt(3);
+        final int size = 1 + random.nextInt(50);
+        final HLLArray array = new HLLArray(log2m, regwidth, size);
+        final HLL[] hlls = new HLL[size];
+        for (int i = 0; i < size; i++) {
+            hlls[i] = new HLL(log2m, regwidth, -1, false, HLLType.EMPTY);
+        }
+
+        for (int iter = 0; iter < 3; iter++) {
+            for (int i = 0; i < size; i++) {
+                // some explicit, some full, some empty
+                final int numValues = random.nextInt(4) == 0 ? 0 : random.nextInt(1 << (1 + random.nextInt(12)));
+                for (int j = 0; j < numValues; j++) {
+                    // with duplicates
+                    final long value = random.nextInt(8) == 0 ? j : random.nextLong();
+                    array.addRaw(i, value);
+                    hlls[i].addRaw(value);
+                }
+            }
+            assertSame(hlls, array);
+
+            // keep every other index, in reverse order
+            final int newSize = (size + 1) / 2;
+            final HLL[] kept = new HLL[newSize];
+            for (int i = 0; i < size; i += 2) {
+                kept[newSize - 1 - i / 2] = hlls[i];
+            }
+            array.resize(newSize, i -> i % 2 == 0 ? newSize - 1 - i / 2 : -1);
+            assertSame(kept, array);
+
+            array.resize(size, i -> i);
+            for (int i = 0; i < size; i++) {
+                hlls[i] = i < newSize ? kept[i] : new HLL(log2m, regwidth, -1, false, HLLType.EMPTY);
+            }
+            assertSame(hlls, array);
+        }
+
+        array.clear();
+        for (int i = 0; i < size; i++) {
+            assertTrue(array.isEmpty(i));
+            assertEquals(0, array.cardinality(i));
+        }
+    }
+
+    @Test
+    public void testRamBytesUsed() {
+        final int size = 20000;
+        final HLLArray array = new HLLArray(13, 6, size);
+        final long empty = array.ramBytesUsed();
+        for (int i = 0; i < size; i++) {
+            array.addRaw(i, random().nextLong());
+        }
+        final long explicit = array.ramBytesUsed();
+        assertTrue(explicit > empty);
+        // a few pages of small tables, rather than an HLL per index
+        assertTrue(explicit < empty + size * 100L);
+
+        for (int i = 0; i < 2000; i++) {
+            array.addRaw(0, random().nextLong());
+        }
+        // full registers are a byte each
+        assertTrue(array.ramBytesUsed() >= explicit + (1 << 13));
+    }
+
+    private static void assertSame(final HLL[] expected, final HLLArray array) {
+        assertEquals(expected.length, array.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getType() == HLLType.EMPTY, array.isEmpty(i));
+            assertEquals(expected[i].cardinality(), array.cardinality(i));
+            final HLL hll = array.toHLL(i);
+            assertEquals(expected[i].getType(), hll.getType());
+            assertTrue(Arrays.equals(expected[i].toBytes(), hll.toBytes()));
+        }
+    }
+}
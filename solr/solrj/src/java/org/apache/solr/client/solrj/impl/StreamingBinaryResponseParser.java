@@ -18,7 +18,10 @@ package org.apache.solr.client.solrj.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.solr.client.solrj.FastStreamingDocsCallback;
 import org.apache.solr.client.solrj.StreamingResponseCallback;
@@ -27,12 +30,13 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.util.DataEntry;
 import org.apache.solr.common.util.DataEntry.EntryListener;
-import org.apache.solr.common.util.DataInputInputStream;
 import org.apache.solr.common.util.FastJavaBinDecoder;
 import org.apache.solr.common.util.FastJavaBinDecoder.EntryImpl;
 import org.apache.solr.common.util.FastJavaBinDecoder.Tag;
 import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.JavaBinReader;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
 
 /**
  * A BinaryResponseParser that sends callback events rather then build
@@ -122,55 +126,67 @@ public class StreamingBinaryResponseParser extends BinaryResponseParser {
 
   @SuppressWarnings({"unchecked"})
   private NamedList<Object> streamDocs(InputStream body) {
-    try (JavaBinCodec codec = new JavaBinCodec() {
-
-      private int nestedLevel;
+    try (JavaBinReader reader = new JavaBinReader(body)) {
+      return (NamedList<Object>) readStreaming(reader, reader.next());
+    } catch (IOException e) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "parsing error", e);
+    }
+  }
 
-      @Override
-      public SolrDocument readSolrDocument(DataInputInputStream dis) throws IOException {
-        nestedLevel++;
-        SolrDocument doc = super.readSolrDocument(dis);
-        nestedLevel--;
-        if (nestedLevel == 0) {
-          // parent document
-          callback.streamSolrDocument(doc);
+  /**
+   * Reads the current value like {@link JavaBinCodec} would, except that each top level document is passed to the
+   * callback instead, as soon as it is read, and read as null.
+   */
+  private Object readStreaming(JavaBinReader reader, JavaBinReader.Event event) throws IOException {
+    if (event == JavaBinReader.Event.START_MAP) {
+      switch (reader.container()) {
+        case SOLR_DOC:
+          callback.streamSolrDocument((SolrDocument) reader.val());
           return null;
-        } else {
-          // child document
-          return doc;
+        case ORDERED_MAP:
+        case NAMED_LIST: {
+          NamedList<Object> nl = reader.container() == JavaBinReader.Container.ORDERED_MAP
+              ? new SimpleOrderedMap<>() : new NamedList<>();
+          for (JavaBinReader.Event e = reader.next(); e != JavaBinReader.Event.END_MAP; e = reader.next()) {
+            String name = (String) reader.key();
+            nl.add(name, readStreaming(reader, e));
+          }
+          return nl;
+        }
+        default: {
+          Map<Object, Object> m = new LinkedHashMap<>();
+          for (JavaBinReader.Event e = reader.next(); e != JavaBinReader.Event.END_MAP; e = reader.next()) {
+            Object key = reader.key();
+            m.put(key, readStreaming(reader, e));
+          }
+          return m;
         }
       }
-
-      @Override
-      public SolrDocumentList readSolrDocumentList(DataInputInputStream dis) throws IOException {
+    } else if (event == JavaBinReader.Event.START_ARRAY) {
+      if (reader.container() == JavaBinReader.Container.SOLR_DOC_LIST) {
         SolrDocumentList solrDocs = new SolrDocumentList();
-        List<?> list = (List<?>) readVal(dis);
-        solrDocs.setNumFound((Long) list.get(0));
-        solrDocs.setStart((Long) list.get(1));
-        solrDocs.setMaxScore((Float) list.get(2));
-
+        solrDocs.setNumFound(reader.numFound());
+        solrDocs.setStart(reader.start());
+        solrDocs.setMaxScore(reader.maxScore());
+        if (reader.numFoundExact() != null) {
+          solrDocs.setNumFoundExact(reader.numFoundExact());
+        }
         callback.streamDocListInfo(
             solrDocs.getNumFound(),
             solrDocs.getStart(),
             solrDocs.getMaxScore());
-
-        // Read the Array
-        tagByte = dis.readByte();
-        if ((tagByte >>> 5) != (ARR >>> 5)) {
-          throw new RuntimeException("doclist must have an array");
-        }
-        int sz = readSize(dis);
-        for (int i = 0; i < sz; i++) {
+        for (JavaBinReader.Event e = reader.next(); e != JavaBinReader.Event.END_ARRAY; e = reader.next()) {
           // must be a SolrDocument
-          readVal(dis);
+          readStreaming(reader, e);
         }
         return solrDocs;
       }
-    };) {
-
-      return (NamedList<Object>) codec.unmarshal(body);
-    } catch (IOException e) {
-      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "parsing error", e);
+      List<Object> l = new ArrayList<>();
+      for (JavaBinReader.Event e = reader.next(); e != JavaBinReader.Event.END_ARRAY; e = reader.next()) {
+        l.add(readStreaming(reader, e));
+      }
+      return l;
     }
+    return reader.val();
   }
 }
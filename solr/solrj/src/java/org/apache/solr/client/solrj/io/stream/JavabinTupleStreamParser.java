@@ -26,165 +26,130 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.solr.common.util.DataInputInputStream;
-import org.apache.solr.common.util.FastInputStream;
-import org.apache.solr.common.util.JavaBinCodec;
-
-public class JavabinTupleStreamParser extends JavaBinCodec implements TupleStreamParser {
-  private final InputStream is;
-  final FastInputStream fis;
-  private int arraySize = Integer.MAX_VALUE;
-  private boolean onlyJsonTypes = false;
-  int objectSize;
+import org.apache.solr.common.util.JavaBinReader;
+import org.apache.solr.common.util.JavaBinReader.Container;
+import org.apache.solr.common.util.JavaBinReader.Event;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * Reads the tuples of a javabin response one at a time with a {@link JavaBinReader}, so that only the current
+ * tuple is in memory.
+ */
+public class JavabinTupleStreamParser implements TupleStreamParser {
+  private final JavaBinReader reader;
+  private final boolean onlyJsonTypes;
+  private boolean inDocs;
 
 
   public JavabinTupleStreamParser(InputStream is, boolean onlyJsonTypes) throws IOException {
     this.onlyJsonTypes = onlyJsonTypes;
-    this.is = is;
-    this.fis = initRead(is);
-    if (!readTillDocs()) arraySize = 0;
+    this.reader = new JavaBinReader(is);
+    this.inDocs = readTillDocs(reader.next());
   }
 
 
-  private boolean readTillDocs() throws IOException {
-    if (isObjectType(fis)) {
-      if (tagByte == SOLRDOCLST) {
-        readVal(fis);// this is the metadata, throw it away
-        tagByte = fis.readByte();
-        arraySize = readSize(fis);
-        return true;
-      }
-      for (int i = objectSize; i > 0; i--) {
-        Object k = readVal(fis);
-        if (k == END_OBJ) break;
-        if ("docs".equals(k)) {
-          tagByte = fis.readByte();
-          if (tagByte == ITERATOR) return true;//docs must be an iterator or
-          if (tagByte >>> 5 == ARR >>> 5) {// an array
-            arraySize = readSize(fis);
-            return true;
-          }
-          return false;
-        } else {
-          if (readTillDocs()) return true;
+  /** Reads up to the start of the tuples, which are either a document list or the array under a "docs" key */
+  private boolean readTillDocs(Event event) throws IOException {
+    if (event == Event.START_ARRAY && reader.container() == Container.SOLR_DOC_LIST) {
+      return true;
+    }
+    if (event == Event.START_MAP && reader.container() != Container.SOLR_DOC) {
+      for (Event e = reader.next(); e != Event.END_MAP; e = reader.next()) {
+        CharSequence name = reader.name();
+        if (name != null && "docs".contentEquals(name)) {
+          // docs must be an iterator or an array
+          return e == Event.START_ARRAY
+              && (reader.container() == Container.ITERATOR || reader.container() == Container.ARRAY);
         }
+        if (readTillDocs(e)) return true;
       }
-    } else {
-      readObject(fis);
       return false;
     }
+    reader.skip();
     return false;
-
-    //here after it will be a stream of maps
   }
 
-  private boolean isObjectType(DataInputInputStream dis) throws IOException {
-    tagByte = dis.readByte();
-    if (tagByte >>> 5 == ORDERED_MAP >>> 5 ||
-        tagByte >>> 5 == NAMED_LST >>> 5) {
-      objectSize = readSize(dis);
-      return true;
-    }
-    if (tagByte == MAP) {
-      objectSize = readVInt(dis);
-      return true;
-    }
-    if (tagByte == MAP_ENTRY_ITER) {
-      objectSize = Integer.MAX_VALUE;
-      return true;
+  private Object readValue(Event event) throws IOException {
+    switch (event) {
+      case START_MAP:
+        return readMap();
+      case START_ARRAY: {
+        List<Object> l = new ArrayList<>();
+        for (Event e = reader.next(); e != Event.END_ARRAY; e = reader.next()) {
+          l.add(readValue(e));
+        }
+        return l;
+      }
+      default:
+        if (onlyJsonTypes) {
+          switch (reader.type()) {
+            case INT:
+              return reader.longVal();
+            case FLOAT:
+              return reader.doubleVal();
+            case DATE:
+              return Instant.ofEpochMilli(reader.longVal()).toString();
+            default:
+          }
+        }
+        return reader.val();
     }
-    return tagByte == SOLRDOCLST;
   }
 
-  private Map<?,?> readAsMap(DataInputInputStream dis) throws IOException {
-    int sz = readSize(dis);
-    Map<String, Object> m = new LinkedHashMap<>();
-    for (int i = 0; i < sz; i++) {
-      String name = (String) readVal(dis);
-      Object val = readVal(dis);
-      m.put(name, val);
+  private Object readMap() throws IOException {
+    Container container = reader.container();
+    if (container == Container.SOLR_DOC) {
+      return readSolrDocumentAsMap();
+    }
+    if (!onlyJsonTypes && (container == Container.ORDERED_MAP || container == Container.NAMED_LIST)) {
+      NamedList<Object> nl = container == Container.ORDERED_MAP ? new SimpleOrderedMap<>() : new NamedList<>();
+      for (Event e = reader.next(); e != Event.END_MAP; e = reader.next()) {
+        String name = (String) reader.key();
+        nl.add(name, readValue(e));
+      }
+      return nl;
+    }
+    Map<Object, Object> m = new LinkedHashMap<>();
+    for (Event e = reader.next(); e != Event.END_MAP; e = reader.next()) {
+      Object key = reader.key();
+      m.put(key, readValue(e));
     }
     return m;
   }
 
-  private Map<?,?> readSolrDocumentAsMap(DataInputInputStream dis) throws IOException {
-    tagByte = dis.readByte();
-    int size = readSize(dis);
+  private Map<String, Object> readSolrDocumentAsMap() throws IOException {
     Map<String, Object> doc = new LinkedHashMap<>();
-    for (int i = 0; i < size; i++) {
-      String fieldName;
-      Object obj = readVal(dis); // could be a field name, or a child document
-      if (obj instanceof Map) {
+    for (Event e = reader.next(); e != Event.END_MAP; e = reader.next()) {
+      if (reader.name() == null && e == Event.START_MAP && reader.container() == Container.SOLR_DOC) {
+        // a child document
         @SuppressWarnings("unchecked")
         List<Object> l = (List<Object>) doc.get("_childDocuments_");
         if (l == null) doc.put("_childDocuments_", l = new ArrayList<>());
-        l.add(obj);
+        l.add(readSolrDocumentAsMap());
         continue;
-      } else {
-        fieldName = (String) obj;
       }
-      Object fieldVal = readVal(dis);
-      doc.put(fieldName, fieldVal);
+      String fieldName = (String) reader.key();
+      doc.put(fieldName, readValue(e));
     }
     return doc;
   }
 
-  @Override
-  protected Object readObject(DataInputInputStream dis) throws IOException {
-    if (tagByte == SOLRDOC) {
-      return readSolrDocumentAsMap(dis);
-    }
-    if (onlyJsonTypes) {
-      switch (tagByte >>> 5) {
-        case SINT >>> 5:
-          int i = readSmallInt(dis);
-          return (long) i;
-        case ORDERED_MAP >>> 5:
-        case NAMED_LST >>> 5:
-          return readAsMap(dis);
-      }
-
-      switch (tagByte) {
-        case INT: {
-          int i = dis.readInt();
-          return (long) i;
-        }
-        case FLOAT: {
-          float v = dis.readFloat();
-          return (double) v;
-        }
-        case BYTE: {
-          byte b = dis.readByte();
-          return (long) b;
-        }
-        case SHORT: {
-          short s = dis.readShort();
-          return (long) s;
-        }
-
-        case DATE: {
-          return Instant.ofEpochMilli(dis.readLong()).toString();
-        }
-
-        default:
-          return super.readObject(dis);
-      }
-    } else return super.readObject(dis);
-  }
-
 
   @Override
   @SuppressWarnings({"unchecked"})
   public Map<String, Object> next() throws IOException {
-    if (arraySize == 0) return null;
-    Object o = readVal(fis);
-    arraySize--;
-    if (o == END_OBJ) return null;
-    return (Map<String, Object>) o;
+    if (!inDocs) return null;
+    Event e = reader.next();
+    if (e == Event.END_ARRAY) {
+      inDocs = false;
+      return null;
+    }
+    return (Map<String, Object>) readValue(e);
   }
 
   @Override
   public void close() throws IOException {
-    is.close();
+    reader.close();
   }
 }
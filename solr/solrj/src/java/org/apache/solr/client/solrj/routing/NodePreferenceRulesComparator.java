@@ -55,6 +55,17 @@ public class NodePreferenceRulesComparator implements Comparator<Object> {
   public NodePreferenceRulesComparator(final List<PreferenceRule> preferenceRules, final SolrParams requestParams,
       final String nodeName, final String localHostAddress, final NodesSysPropsCacher sysPropsCache,
       final ReplicaListTransformerFactory defaultRltFactory, final ReplicaListTransformerFactory stableRltFactory) {
+    this(preferenceRules, requestParams, nodeName, localHostAddress, sysPropsCache, defaultRltFactory, stableRltFactory, null);
+  }
+
+  /**
+   * @param latencyRltFactory used for <code>replica.base:latency</code>; if null (e.g. outside of a Solr node, where
+   *                          no latencies are known) replicas are shuffled instead
+   */
+  public NodePreferenceRulesComparator(final List<PreferenceRule> preferenceRules, final SolrParams requestParams,
+      final String nodeName, final String localHostAddress, final NodesSysPropsCacher sysPropsCache,
+      final ReplicaListTransformerFactory defaultRltFactory, final ReplicaListTransformerFactory stableRltFactory,
+      final ReplicaListTransformerFactory latencyRltFactory) {
     this.sysPropsCache = sysPropsCache;
     this.preferenceRules = preferenceRules;
     this.nodeName = nodeName;
@@ -78,6 +89,10 @@ public class NodePreferenceRulesComparator implements Comparator<Object> {
         case ShardParams.REPLICA_STABLE:
           this.baseReplicaListTransformer = stableRltFactory.getInstance(parts.length == 1 ? null : parts[1], requestParams, RequestReplicaListTransformerGenerator.RANDOM_RLTF);
           break;
+        case ShardParams.REPLICA_LATENCY:
+          this.baseReplicaListTransformer = (latencyRltFactory == null ? RequestReplicaListTransformerGenerator.RANDOM_RLTF : latencyRltFactory)
+              .getInstance(parts.length == 1 ? null : parts[1], requestParams, RequestReplicaListTransformerGenerator.RANDOM_RLTF);
+          break;
         default:
           throw new IllegalArgumentException("Invalid base replica order spec");
       }
@@ -41,6 +41,7 @@ public class RequestReplicaListTransformerGenerator {
       (String configSpec, SolrParams requestParams, ReplicaListTransformerFactory fallback) -> shufflingReplicaListTransformer;
   private final ReplicaListTransformerFactory stableRltFactory;
   private final ReplicaListTransformerFactory defaultRltFactory;
+  private final ReplicaListTransformerFactory latencyRltFactory;
   private final String defaultShardPreferences;
   private final String nodeName;
   private final String localHostAddress;
@@ -62,7 +63,20 @@ public class RequestReplicaListTransformerGenerator {
     this(null, null, defaultShardPreferences, nodeName, localHostAddress, sysPropsCacher);
   }
 
+  public RequestReplicaListTransformerGenerator(ReplicaListTransformerFactory defaultRltFactory, ReplicaListTransformerFactory stableRltFactory, ReplicaListTransformerFactory latencyRltFactory) {
+    this(defaultRltFactory, stableRltFactory, latencyRltFactory, null, null, null, null);
+  }
+
   public RequestReplicaListTransformerGenerator(ReplicaListTransformerFactory defaultRltFactory, ReplicaListTransformerFactory stableRltFactory, String defaultShardPreferences, String nodeName, String localHostAddress, NodesSysPropsCacher sysPropsCacher) {
+    this(defaultRltFactory, stableRltFactory, null, defaultShardPreferences, nodeName, localHostAddress, sysPropsCacher);
+  }
+
+  /**
+   * @param latencyRltFactory orders replicas for <code>replica.base:latency</code>; may be null, in which case
+   *                          replicas are shuffled
+   */
+  public RequestReplicaListTransformerGenerator(ReplicaListTransformerFactory defaultRltFactory, ReplicaListTransformerFactory stableRltFactory, ReplicaListTransformerFactory latencyRltFactory, String defaultShardPreferences, String nodeName, String localHostAddress, NodesSysPropsCacher sysPropsCacher) {
+    this.latencyRltFactory = latencyRltFactory;
     this.defaultRltFactory = Objects.requireNonNullElse(defaultRltFactory, RANDOM_RLTF);
     this.stableRltFactory = Objects.requireNonNullElseGet(stableRltFactory, AffinityReplicaListTransformerFactory::new);
     this.defaultShardPreferences = Objects.requireNonNullElse(defaultShardPreferences, "");
@@ -93,7 +107,8 @@ public class RequestReplicaListTransformerGenerator {
               localHostAddress != null ? localHostAddress : this.localHostAddress, // could still be null
               sysPropsCacher != null ? sysPropsCacher : this.sysPropsCacher, // could still be null
               defaultRltFactory,
-              stableRltFactory);
+              stableRltFactory,
+              latencyRltFactory);
       ReplicaListTransformer baseReplicaListTransformer = replicaComp.getBaseReplicaListTransformer();
       if (replicaComp.getSortRules() == null) {
         // only applying base transformation
@@ -155,6 +155,12 @@ public interface CommonParams {
   String SEGMENT_TERMINATE_EARLY = "segmentTerminateEarly";
   boolean SEGMENT_TERMINATE_EARLY_DEFAULT = false;
 
+  /**
+   * Whether or not the segments of the index may be searched concurrently by multiple threads.
+   */
+  String MULTI_THREADED = "multiThreaded";
+  boolean MULTI_THREADED_DEFAULT = false;
+
   /**
    * Timeout value in milliseconds.  If not set, or the value is &gt; 0, there is no timeout.
    */
@@ -60,6 +60,12 @@ public interface ShardParams {
   /** query purpose for shard requests */
   String SHARDS_PURPOSE = "shards.purpose";
 
+  /**
+   * Send a shard request that is slow to answer to another replica of the shard as well, and use
+   * whichever response comes first (true/false). The default is configured on the shard handler factory.
+   */
+  String SHARDS_HEDGE = "shards.hedge";
+
   /** Shards sorting rules */
   String SHARDS_PREFERENCE = "shards.preference";
 
@@ -87,6 +93,9 @@ public interface ShardParams {
   /** Value denoting stable replica sort */
   String REPLICA_STABLE = "stable";
 
+  /** Value denoting replica sort by recently observed latency and outstanding requests */
+  String REPLICA_LATENCY = "latency";
+
   /** configure dividend param for stable replica sort */
   String ROUTING_DIVIDEND = "dividend";
 
@@ -0,0 +1,550 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.common.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+import static org.apache.solr.common.util.JavaBinCodec.*;
+
+/**
+ * A pull parser for the javabin format, that reads one value or container boundary at a time, like a StAX parser.
+ * Nothing is materialized unless asked for with {@link #val()}: a caller can walk a large response, copying out
+ * the values it needs with the typed accessors, or materialize one document at a time and drop it.
+ * <p>
+ * Strings, including the names of entries, are returned as {@link ByteArrayUtf8CharSequence} views over a reused
+ * buffer, that are only valid until the next call to {@link #next()}.  Compare them with
+ * {@link String#contentEquals(CharSequence)}, and copy them with <code>toString()</code> to keep them.
+ * </p>
+ * <pre class="prettyprint">
+ * try (JavaBinReader reader = new JavaBinReader(in)) {
+ *   for (JavaBinReader.Event event = reader.next(); event != JavaBinReader.Event.EOF; event = reader.next()) {
+ *     if (event == JavaBinReader.Event.START_MAP &amp;&amp; reader.container() == JavaBinReader.Container.SOLR_DOC) {
+ *       SolrDocument doc = (SolrDocument) reader.val(); // reads up to the end of the document
+ *     }
+ *   }
+ * }
+ * </pre>
+ */
+public class JavaBinReader implements Closeable {
+
+  public enum Event {
+    /** The start of a container with named entries, see {@link #container()} */
+    START_MAP,
+    END_MAP,
+    /** The start of a container with unnamed entries, see {@link #container()} */
+    START_ARRAY,
+    END_ARRAY,
+    /** A value that isn't a container, see {@link #type()} */
+    VALUE,
+    EOF
+  }
+
+  /** The kinds of containers, by the object {@link JavaBinCodec} reads them as */
+  public enum Container {
+    NAMED_LIST(true),
+    ORDERED_MAP(true),
+    MAP(true),
+    MAP_ENTRY_ITER(true),
+    /** A document, whose entries are its fields and then its child documents, which have no name */
+    SOLR_DOC(true),
+    ARRAY(false),
+    ITERATOR(false),
+    /** The documents of a document list, whose numFound etc. are available at the start */
+    SOLR_DOC_LIST(false);
+
+    public final boolean isMap;
+
+    Container(boolean isMap) {
+      this.isMap = isMap;
+    }
+  }
+
+  private static final class Frame {
+    Container container;
+    int remaining; // -1 if the container ends with an END tag
+  }
+
+  private final JavaBinCodec codec = new JavaBinCodec();
+  private final InputStream is;
+  private final FastInputStream dis;
+
+  private Frame[] stack = new Frame[8];
+  private int depth;
+  private boolean started;
+
+  private Event event;
+  private Container container;
+  private byte tag;
+  private DataEntry.Type type;
+  private long numericVal;
+  private double doubleVal;
+  private boolean boolVal;
+  private CharSequence strVal;
+  private Object objVal;
+  private CharSequence name;
+  private Object keyObj;
+  private boolean childDoc;
+
+  private final ByteArrayUtf8CharSequence strView = new ByteArrayUtf8CharSequence(new byte[0], 0, 0);
+  private final ByteArrayUtf8CharSequence keyView = new ByteArrayUtf8CharSequence(new byte[0], 0, 0);
+  private byte[] valBytes = new byte[256];
+  private byte[] keyBytes = new byte[64];
+  private int bytesLength;
+
+  private long numFound;
+  private long start;
+  private Float maxScore;
+  private Boolean numFoundExact;
+
+  public JavaBinReader(InputStream is) throws IOException {
+    this.is = is;
+    this.dis = codec.initRead(is);
+  }
+
+  public JavaBinReader(byte[] buf) throws IOException {
+    this.is = null;
+    this.dis = codec.initRead(buf);
+  }
+
+  /**
+   * Moves to the next value or container boundary.  The entries of a container are read by calling next() until
+   * its end, or skipped with {@link #skip()}.
+   */
+  public Event next() throws IOException {
+    name = null;
+    keyObj = null;
+    childDoc = false;
+    strVal = null;
+    objVal = null;
+    container = null;
+    type = null;
+    if (depth == 0) {
+      if (started) {
+        return event = Event.EOF;
+      }
+      started = true;
+      return begin(dis.readByte());
+    }
+
+    final Frame frame = stack[depth - 1];
+    if (frame.remaining == 0) {
+      return end();
+    }
+    byte b = dis.readByte();
+    if (frame.remaining < 0) {
+      if (b == END) {
+        return end();
+      }
+    } else {
+      frame.remaining--;
+    }
+    if (frame.container.isMap) {
+      if (frame.container == Container.SOLR_DOC && b == SOLRDOC) {
+        childDoc = true;
+        return begin(b);
+      }
+      readKey(b);
+      b = dis.readByte();
+    }
+    return begin(b);
+  }
+
+  /** The current event */
+  public Event event() {
+    return event;
+  }
+
+  /** The number of containers the reader is in, so that the root container is at depth 1 */
+  public int depth() {
+    return depth;
+  }
+
+  /** The kind of container that starts or ends at the current event */
+  public Container container() {
+    return container;
+  }
+
+  /**
+   * The number of entries of the container that starts at the current event, or -1 if it isn't known in
+   * advance, or the number of bytes of the current string or byte array value.
+   */
+  public int length() {
+    if (event == Event.START_MAP || event == Event.START_ARRAY) {
+      return stack[depth - 1].remaining;
+    }
+    if (type == DataEntry.Type.STR) {
+      return strVal == null ? strView.size() : -1;
+    }
+    return type == DataEntry.Type.BYTEARR ? bytesLength : -1;
+  }
+
+  /** The type of the current value, if the current event is {@link Event#VALUE} */
+  public DataEntry.Type type() {
+    return type;
+  }
+
+  /**
+   * The name of the current entry of a map-like container, which is a reused view, or null if the entry has no
+   * name or a name that isn't a string.
+   */
+  public CharSequence name() {
+    return name;
+  }
+
+  /** The key of the current entry of a map-like container, with a string key copied as a String */
+  public Object key() {
+    if (keyObj != null) {
+      return keyObj;
+    }
+    return name == null ? null : name.toString();
+  }
+
+  public boolean boolVal() {
+    return boolVal;
+  }
+
+  public int intVal() {
+    return isFloatingPoint() ? (int) doubleVal : (int) numericVal;
+  }
+
+  /** The value of an integer, or the milliseconds since the epoch of a date */
+  public long longVal() {
+    return isFloatingPoint() ? (long) doubleVal : numericVal;
+  }
+
+  public float floatVal() {
+    return isFloatingPoint() ? (float) doubleVal : (float) numericVal;
+  }
+
+  public double doubleVal() {
+    return isFloatingPoint() ? doubleVal : (double) numericVal;
+  }
+
+  /** The current string value, which is a reused view */
+  public CharSequence strVal() {
+    if (type != DataEntry.Type.STR) {
+      throw new IllegalStateException("Not a string: " + type);
+    }
+    return strVal == null ? strView : strVal;
+  }
+
+  /** The bytes of the current byte array value, in a reused buffer, from 0 to {@link #length()} */
+  public byte[] bytesVal() {
+    if (type != DataEntry.Type.BYTEARR) {
+      throw new IllegalStateException("Not a byte array: " + type);
+    }
+    return valBytes;
+  }
+
+  /** The numFound of the document list that starts at the current event */
+  public long numFound() {
+    return numFound;
+  }
+
+  /** The start of the document list that starts at the current event */
+  public long start() {
+    return start;
+  }
+
+  /** The maxScore of the document list that starts at the current event */
+  public Float maxScore() {
+    return maxScore;
+  }
+
+  /** Whether numFound is exact for the document list that starts at the current event */
+  public Boolean numFoundExact() {
+    return numFoundExact;
+  }
+
+  /**
+   * Materializes the current value as the object {@link JavaBinCodec#readVal} would read it.  At the start of a
+   * container, reads the whole container, and the reader is at its end afterwards.
+   */
+  public Object val() throws IOException {
+    switch (event) {
+      case VALUE:
+        return value();
+      case START_MAP:
+      case START_ARRAY:
+        return readContainer();
+      default:
+        throw new IllegalStateException("No value at " + event);
+    }
+  }
+
+  /** Skips the container that starts at the current event, so that the reader is at its end. */
+  public void skip() throws IOException {
+    if (event != Event.START_MAP && event != Event.START_ARRAY) {
+      return;
+    }
+    final int containerDepth = depth;
+    do {
+      next();
+    } while (depth >= containerDepth);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (is != null) {
+      is.close();
+    }
+  }
+
+  private boolean isFloatingPoint() {
+    return type == DataEntry.Type.FLOAT || type == DataEntry.Type.DOUBLE;
+  }
+
+  private Event begin(byte b) throws IOException {
+    codec.tagByte = b;
+    tag = b;
+    switch (b >>> 5) {
+      case STR >>> 5:
+        readUtf8(strView, codec.readSize(dis), false);
+        return value(DataEntry.Type.STR);
+      case SINT >>> 5:
+        numericVal = codec.readSmallInt(dis);
+        return value(DataEntry.Type.INT);
+      case SLONG >>> 5:
+        numericVal = codec.readSmallLong(dis);
+        return value(DataEntry.Type.LONG);
+      case ARR >>> 5:
+        return start(Container.ARRAY, codec.readSize(dis));
+      case ORDERED_MAP >>> 5:
+        return start(Container.ORDERED_MAP, codec.readSize(dis));
+      case NAMED_LST >>> 5:
+        return start(Container.NAMED_LIST, codec.readSize(dis));
+      case EXTERN_STRING >>> 5:
+        strVal = codec.readExternString(dis);
+        return value(DataEntry.Type.STR);
+    }
+
+    switch (b) {
+      case NULL:
+        return value(DataEntry.Type.NULL);
+      case BOOL_TRUE:
+        boolVal = true;
+        return value(DataEntry.Type.BOOL);
+      case BOOL_FALSE:
+        boolVal = false;
+        return value(DataEntry.Type.BOOL);
+      case BYTE:
+        numericVal = dis.readByte();
+        return value(DataEntry.Type.INT);
+      case SHORT:
+        numericVal = dis.readShort();
+        return value(DataEntry.Type.INT);
+      case INT:
+        numericVal = dis.readInt();
+        return value(DataEntry.Type.INT);
+      case LONG:
+        numericVal = dis.readLong();
+        return value(DataEntry.Type.LONG);
+      case FLOAT:
+        doubleVal = dis.readFloat();
+        return value(DataEntry.Type.FLOAT);
+      case DOUBLE:
+        doubleVal = dis.readDouble();
+        return value(DataEntry.Type.DOUBLE);
+      case DATE:
+        numericVal = dis.readLong();
+        return value(DataEntry.Type.DATE);
+      case BYTEARR:
+        bytesLength = JavaBinCodec.readVInt(dis);
+        if (valBytes.length < bytesLength) {
+          valBytes = new byte[grow(bytesLength)];
+        }
+        dis.readFully(valBytes, 0, bytesLength);
+        return value(DataEntry.Type.BYTEARR);
+      case MAP:
+        return start(Container.MAP, JavaBinCodec.readVInt(dis));
+      case MAP_ENTRY_ITER:
+        return start(Container.MAP_ENTRY_ITER, -1);
+      case ITERATOR:
+        return start(Container.ITERATOR, -1);
+      case SOLRDOC:
+        codec.tagByte = dis.readByte(); // the ORDERED_MAP tag of the fields, with their number
+        return start(Container.SOLR_DOC, codec.readSize(dis));
+      case SOLRDOCLST: {
+        final List<?> info = (List<?>) codec.readVal(dis);
+        numFound = (Long) info.get(0);
+        start = (Long) info.get(1);
+        maxScore = (Float) info.get(2);
+        numFoundExact = info.size() > 3 ? (Boolean) info.get(3) : null; // older versions didn't write it
+        codec.tagByte = dis.readByte(); // the ARR tag of the documents, with their number
+        return start(Container.SOLR_DOC_LIST, codec.readSize(dis));
+      }
+      case SOLRINPUTDOC:
+      case ENUM_FIELD_VALUE:
+      case MAP_ENTRY:
+        objVal = codec.readObject(dis);
+        return value(DataEntry.Type.JAVA_OBJ);
+    }
+    throw new RuntimeException("Unknown type " + b);
+  }
+
+  private Event value(DataEntry.Type type) {
+    this.type = type;
+    return event = Event.VALUE;
+  }
+
+  private Event start(Container container, int size) {
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, depth * 2);
+    }
+    Frame frame = stack[depth];
+    if (frame == null) {
+      frame = stack[depth] = new Frame();
+    }
+    depth++;
+    frame.container = container;
+    frame.remaining = size;
+    this.container = container;
+    return event = container.isMap ? Event.START_MAP : Event.START_ARRAY;
+  }
+
+  private Event end() {
+    container = stack[--depth].container;
+    return event = container.isMap ? Event.END_MAP : Event.END_ARRAY;
+  }
+
+  private void readKey(byte b) throws IOException {
+    codec.tagByte = b;
+    if ((b >>> 5) == (EXTERN_STRING >>> 5)) {
+      name = codec.readExternString(dis);
+    } else if ((b >>> 5) == (STR >>> 5)) {
+      readUtf8(keyView, codec.readSize(dis), true);
+      name = keyView;
+    } else if (b != NULL) {
+      keyObj = codec.readObject(dis);
+    }
+  }
+
+  private void readUtf8(ByteArrayUtf8CharSequence view, int size, boolean key) throws IOException {
+    // a view straight into the buffer of a byte[] stream, which isn't refilled
+    if (dis.readDirectUtf8(view, size)) {
+      return;
+    }
+    byte[] bytes = key ? keyBytes : valBytes;
+    if (bytes.length < size) {
+      bytes = new byte[grow(size)];
+      if (key) {
+        keyBytes = bytes;
+      } else {
+        valBytes = bytes;
+      }
+    }
+    dis.readFully(bytes, 0, size);
+    view.reset(bytes, 0, size, null);
+  }
+
+  private static int grow(int size) {
+    return size + (size >>> 3);
+  }
+
+  private Object value() {
+    switch (type) {
+      case NULL:
+        return null;
+      case BOOL:
+        return boolVal;
+      case INT:
+        if (tag == BYTE) return (byte) numericVal;
+        if (tag == SHORT) return (short) numericVal;
+        return (int) numericVal;
+      case LONG:
+        return numericVal;
+      case FLOAT:
+        return (float) doubleVal;
+      case DOUBLE:
+        return doubleVal;
+      case DATE:
+        return new Date(numericVal);
+      case STR:
+        return strVal == null ? strView.toString() : strVal.toString();
+      case BYTEARR:
+        return Arrays.copyOf(valBytes, bytesLength);
+      default:
+        return objVal;
+    }
+  }
+
+  private Object readContainer() throws IOException {
+    switch (container) {
+      case NAMED_LIST:
+      case ORDERED_MAP: {
+        final NamedList<Object> nl = container == Container.ORDERED_MAP ? new SimpleOrderedMap<>() : new NamedList<>();
+        for (Event e = next(); e != Event.END_MAP; e = next()) {
+          final String key = (String) key();
+          nl.add(key, val());
+        }
+        return nl;
+      }
+      case MAP:
+      case MAP_ENTRY_ITER: {
+        final Map<Object, Object> map = new LinkedHashMap<>();
+        for (Event e = next(); e != Event.END_MAP; e = next()) {
+          final Object key = key();
+          map.put(key, val());
+        }
+        return map;
+      }
+      case SOLR_DOC: {
+        final SolrDocument doc = new SolrDocument(new LinkedHashMap<>());
+        for (Event e = next(); e != Event.END_MAP; e = next()) {
+          if (childDoc) {
+            doc.addChildDocument((SolrDocument) readContainer());
+          } else {
+            final String key = (String) key();
+            doc.setField(key, val());
+          }
+        }
+        return doc;
+      }
+      case SOLR_DOC_LIST: {
+        final SolrDocumentList docs = new SolrDocumentList();
+        docs.setNumFound(numFound);
+        docs.setStart(start);
+        docs.setMaxScore(maxScore);
+        if (numFoundExact != null) {
+          docs.setNumFoundExact(numFoundExact);
+        }
+        for (Event e = next(); e != Event.END_ARRAY; e = next()) {
+          docs.add((SolrDocument) val());
+        }
+        return docs;
+      }
+      default: {
+        final List<Object> list = new ArrayList<>();
+        for (Event e = next(); e != Event.END_ARRAY; e = next()) {
+          list.add(val());
+        }
+        return list;
+      }
+    }
+  }
+}
@@ -18,6 +18,8 @@
 package org.apache.solr.client.solrj.routing;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -130,6 +132,36 @@ public class RequestReplicaListTransformerGeneratorTest extends SolrTestCaseJ4 {
     assertEquals("node3", getHost(replicas.get(4).getNodeName()));
   }
 
+  @Test
+  public void replicaTypeAndReplicaBaseLatency() {
+    // stands in for the latency based ordering, which needs the latencies a Solr node has seen
+    ReplicaListTransformer reversing = new ReplicaListTransformer() {
+      @Override
+      public <T> void transform(List<T> choices) {
+        Collections.reverse(choices);
+      }
+    };
+    RequestReplicaListTransformerGenerator generator = new RequestReplicaListTransformerGenerator(null, null,
+        (configSpec, requestParams, fallback) -> reversing);
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    List<Replica> replicas = getBasicReplicaList();
+
+    params.add(ShardParams.SHARDS_PREFERENCE, ShardParams.SHARDS_PREFERENCE_REPLICA_TYPE + ":NRT," +
+        ShardParams.SHARDS_PREFERENCE_REPLICA_BASE + ":" + ShardParams.REPLICA_LATENCY);
+    generator.getReplicaListTransformer(params).transform(replicas);
+    // the base order only applies to the replicas the rules consider equal
+    assertEquals("node1", getHost(replicas.get(0).getNodeName()));
+    assertEquals("node3", getHost(replicas.get(1).getNodeName()));
+    assertEquals("node2", getHost(replicas.get(2).getNodeName()));
+
+    // without latencies (e.g. in a client) replicas are shuffled
+    replicas = getBasicReplicaList();
+    params.set(ShardParams.SHARDS_PREFERENCE, ShardParams.SHARDS_PREFERENCE_REPLICA_BASE + ":" + ShardParams.REPLICA_LATENCY);
+    new RequestReplicaListTransformerGenerator().getReplicaListTransformer(params).transform(replicas);
+    assertEquals(3, replicas.size());
+    assertEquals(new HashSet<>(getBasicReplicaList()), new HashSet<>(replicas));
+  }
+
   private static List<Replica> getBasicReplicaList() {
     List<Replica> replicas = new ArrayList<Replica>();
     replicas.add(
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.StreamingBinaryResponseParser;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinReader.Container;
+import org.apache.solr.common.util.JavaBinReader.Event;
+
+public class TestJavaBinReader extends SolrTestCase {
+
+  public void testEvents() throws IOException {
+    NamedList<Object> nl = new SimpleOrderedMap<>();
+    nl.add("i", 7);
+    nl.add("s", "hello");
+    nl.add("list", Arrays.asList(1L, "two", 3.0f));
+    nl.add("d", new Date(1000));
+    nl.add("b", new byte[] {1, 2, 3});
+    nl.add("s", "hello");
+
+    try (JavaBinReader reader = new JavaBinReader(marshal(nl))) {
+      assertEquals(Event.START_MAP, reader.next());
+      assertEquals(Container.ORDERED_MAP, reader.container());
+      assertEquals(6, reader.length());
+      assertEquals(1, reader.depth());
+
+      assertEquals(Event.VALUE, reader.next());
+      assertEquals("i", reader.name().toString());
+      assertEquals(DataEntry.Type.INT, reader.type());
+      assertEquals(7, reader.intVal());
+
+      assertEquals(Event.VALUE, reader.next());
+      assertTrue("s".contentEquals(reader.name()));
+      assertEquals(DataEntry.Type.STR, reader.type());
+      assertTrue(reader.strVal() instanceof ByteArrayUtf8CharSequence);
+      assertEquals("hello", reader.strVal().toString());
+
+      assertEquals(Event.START_ARRAY, reader.next());
+      assertEquals(Container.ARRAY, reader.container());
+      assertEquals(3, reader.length());
+      assertEquals(2, reader.depth());
+      assertEquals(Event.VALUE, reader.next());
+      assertEquals(DataEntry.Type.LONG, reader.type());
+      assertEquals(1L, reader.longVal());
+      assertEquals(Event.VALUE, reader.next());
+      assertEquals("two", reader.val());
+      assertEquals(Event.VALUE, reader.next());
+      assertEquals(3.0f, reader.floatVal(), 0f);
+      assertEquals(Event.END_ARRAY, reader.next());
+      assertEquals(1, reader.depth());
+
+      assertEquals(Event.VALUE, reader.next());
+      assertEquals(DataEntry.Type.DATE, reader.type());
+      assertEquals(1000L, reader.longVal());
+      assertEquals(new Date(1000), reader.val());
+
+      assertEquals(Event.VALUE, reader.next());
+      assertEquals(DataEntry.Type.BYTEARR, reader.type());
+      assertEquals(3, reader.length());
+      assertArrayEquals(new byte[] {1, 2, 3}, Arrays.copyOf(reader.bytesVal(), reader.length()));
+      assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) reader.val());
+
+      // the second "s" is an extern string
+      assertEquals(Event.VALUE, reader.next());
+      assertEquals("s", reader.key());
+      assertEquals("hello", reader.val());
+
+      assertEquals(Event.END_MAP, reader.next());
+      assertEquals(Container.ORDERED_MAP, reader.container());
+      assertEquals(0, reader.depth());
+      assertEquals(Event.EOF, reader.next());
+    }
+  }
+
+  public void testValMatchesCodec() throws IOException {
+    NamedList<Object> nl = new NamedList<>();
+    NamedList<Object> header = new SimpleOrderedMap<>();
+    header.add("status", 0);
+    header.add("QTime", 3);
+    nl.add("responseHeader", header);
+    SolrDocumentList docs = new SolrDocumentList();
+    docs.setNumFound(10);
+    docs.setStart(2);
+    docs.setMaxScore(1.5f);
+    for (int i = 0; i < 3; i++) {
+      SolrDocument doc = new SolrDocument();
+      doc.setField("id", Integer.toString(i));
+      doc.setField("tags", Arrays.asList("a" + i, "b" + i));
+      doc.setField("score", 1f / (i + 1));
+      if (i == 1) {
+        SolrDocument child = new SolrDocument();
+        child.setField("id", "1.1");
+        doc.addChildDocument(child);
+      }
+      docs.add(doc);
+    }
+    nl.add("response", docs);
+    Map<Object, Object> map = new LinkedHashMap<>();
+    map.put("x", (short) 3);
+    map.put(5, (byte) 4);
+    map.put("nested", Arrays.asList(true, null, Long.MAX_VALUE, -2.5d, "ünïcödé"));
+    nl.add("map", map);
+    nl.add("iter", Arrays.asList(1, 2, 3).iterator());
+
+    byte[] bytes = marshal(nl);
+    Object expected;
+    try (JavaBinCodec codec = new JavaBinCodec()) {
+      expected = codec.unmarshal(bytes);
+    }
+
+    // a byte[] is read with views into the buffer, a stream with views into copies
+    for (JavaBinReader reader : new JavaBinReader[] {new JavaBinReader(bytes), new JavaBinReader(new ByteArrayInputStream(bytes))}) {
+      assertEquals(Event.START_MAP, reader.next());
+      Object actual = reader.val();
+      assertEquals(Event.END_MAP, reader.event());
+      assertEquals(Event.EOF, reader.next());
+      assertEquals(expected.toString(), actual.toString());
+      @SuppressWarnings({"unchecked"})
+      SolrDocumentList actualDocs = (SolrDocumentList) ((NamedList<Object>) actual).get("response");
+      assertEquals(10, actualDocs.getNumFound());
+      assertEquals(2, actualDocs.getStart());
+      assertEquals(1.5f, actualDocs.getMaxScore(), 0f);
+      assertEquals(1, actualDocs.get(1).getChildDocumentCount());
+      reader.close();
+    }
+  }
+
+  public void testSkip() throws IOException {
+    NamedList<Object> nl = new NamedList<>();
+    nl.add("skipped", Map.of("a", Arrays.asList(1, 2, Map.of("b", "c")), "d", "e"));
+    nl.add("kept", "v");
+
+    try (JavaBinReader reader = new JavaBinReader(marshal(nl))) {
+      assertEquals(Event.START_MAP, reader.next());
+      assertEquals(Event.START_MAP, reader.next());
+      assertEquals("skipped", reader.key());
+      reader.skip();
+      assertEquals(Event.END_MAP, reader.event());
+      assertEquals(1, reader.depth());
+      assertEquals(Event.VALUE, reader.next());
+      assertEquals("kept", reader.key());
+      assertEquals("v", reader.strVal().toString());
+      assertEquals(Event.END_MAP, reader.next());
+    }
+  }
+
+  public void testStreamingResponseParser() throws IOException {
+    NamedList<Object> nl = new SimpleOrderedMap<>();
+    SolrDocumentList docs = new SolrDocumentList();
+    docs.setNumFound(100);
+    for (int i = 0; i < 5; i++) {
+      SolrDocument doc = new SolrDocument();
+      doc.setField("id", Integer.toString(i));
+      docs.add(doc);
+    }
+    nl.add("response", docs);
+    nl.add("other", "value");
+
+    List<String> streamed = new ArrayList<>();
+    long[] numFound = new long[1];
+    NamedList<Object> response = new StreamingBinaryResponseParser(new StreamingResponseCallback() {
+      @Override
+      public void streamSolrDocument(SolrDocument doc) {
+        streamed.add((String) doc.getFieldValue("id"));
+      }
+
+      @Override
+      public void streamDocListInfo(long found, long start, Float maxScore) {
+        numFound[0] = found;
+      }
+    }).processResponse(new ByteArrayInputStream(marshal(nl)), null);
+
+    assertEquals(Arrays.asList("0", "1", "2", "3", "4"), streamed);
+    assertEquals(100, numFound[0]);
+    assertEquals(100, ((SolrDocumentList) response.get("response")).getNumFound());
+    assertTrue(((SolrDocumentList) response.get("response")).isEmpty());
+    assertEquals("value", response.get("other"));
+  }
+
+  private static byte[] marshal(Object o) throws IOException {
+    BinaryRequestWriter.BAOS baos = new BinaryRequestWriter.BAOS();
+    try (JavaBinCodec codec = new JavaBinCodec()) {
+      codec.marshal(o, baos);
+    }
+    return Arrays.copyOf(baos.getbuf(), baos.size());
+  }
+}